@@ -0,0 +1,181 @@
+package systems.cauldron.service.superresolution;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Collects the outcome of a load test: HDR latency histograms of successful requests in microseconds, overall and per
+ * input size, counts of refused, failed and skipped requests, and the high-water marks of heap and direct memory of
+ * this process, which are those of the server when it runs in process.
+ */
+final class LatencyReport implements AutoCloseable {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final long SAMPLE_INTERVAL_MILLIS = 50L;
+    private static final double MICROS_PER_MILLI = 1000.0;
+    private static final double BYTES_PER_MEBIBYTE = 1024.0 * 1024.0;
+
+    private final boolean inProcess;
+    private final Histogram all = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final Map<LoadOptions.Size, Histogram> bySize = new ConcurrentHashMap<>();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final LongAccumulator heapHighWater = new LongAccumulator(Math::max, 0L);
+    private final LongAccumulator directHighWater = new LongAccumulator(Math::max, 0L);
+    private final ScheduledExecutorService sampler;
+    private volatile long started;
+    private volatile long finished;
+
+    /**
+     * @param inProcess whether the server shares this process, so that its memory is observable
+     */
+    LatencyReport(boolean inProcess) {
+        this.inProcess = inProcess;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the recording window, from which on outcomes are recorded and memory is sampled.
+     */
+    void start() {
+        started = System.nanoTime();
+        finished = started;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        BufferPoolMXBean direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .findFirst()
+                .orElse(null);
+        sampler.scheduleAtFixedRate(() -> {
+            heapHighWater.accumulate(memory.getHeapMemoryUsage().getUsed());
+            if (direct != null) {
+                directHighWater.accumulate(direct.getMemoryUsed());
+            }
+        }, 0L, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param bytes        length of the response body
+     * @param latencyNanos time from when the request was due to be sent until its response was read
+     * @param status       HTTP status of the response, or -1 if the request failed without one
+     */
+    void record(LoadOptions.Size size, long bytes, long latencyNanos, int status) {
+        long completed = System.nanoTime();
+        synchronized (this) {
+            if (completed - finished > 0) {
+                finished = completed;
+            }
+        }
+        if (status == 200) {
+            long micros = Math.max(1L, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+            all.recordValue(micros);
+            bySize.computeIfAbsent(size, ignored -> new ConcurrentHistogram(SIGNIFICANT_DIGITS)).recordValue(micros);
+            responseBytes.addAndGet(bytes);
+        } else if (status == 429) {
+            refused.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    void skip() {
+        skipped.incrementAndGet();
+    }
+
+    Duration elapsed() {
+        return Duration.ofNanos(finished - started);
+    }
+
+    double throughput() {
+        double seconds = elapsed().toNanos() / 1e9;
+        return seconds > 0.0 ? all.getTotalCount() / seconds : 0.0;
+    }
+
+    void print(PrintStream out) {
+        double seconds = elapsed().toNanos() / 1e9;
+        out.printf(Locale.ROOT, "requests     %d ok, %d refused (429), %d failed, %d skipped in %.1f s%n",
+                all.getTotalCount(), refused.get(), failed.get(), skipped.get(), seconds);
+        out.printf(Locale.ROOT, "throughput   %.2f requests/s, %.2f MiB/s of responses%n",
+                throughput(), seconds > 0.0 ? responseBytes.get() / BYTES_PER_MEBIBYTE / seconds : 0.0);
+        out.printf(Locale.ROOT, "%-12s %8s %10s %10s %10s %10s %10s%n", "latency ms", "count", "p50", "p90", "p99", "p99.9", "max");
+        bySize.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<LoadOptions.Size, Histogram> entry) -> entry.getKey().pixels()))
+                .forEach(entry -> printLatencies(out, entry.getKey().toString(), entry.getValue()));
+        printLatencies(out, "all", all);
+        if (inProcess) {
+            out.printf(Locale.ROOT, "memory       heap high-water %.1f MiB, direct high-water %.1f MiB%n",
+                    heapHighWater.get() / BYTES_PER_MEBIBYTE, directHighWater.get() / BYTES_PER_MEBIBYTE);
+        } else {
+            out.println("memory       not observable for a remote server, see its /metrics");
+        }
+    }
+
+    private static void printLatencies(PrintStream out, String label, Histogram histogram) {
+        out.printf(Locale.ROOT, "%-12s %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", label, histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50.0) / MICROS_PER_MILLI, histogram.getValueAtPercentile(90.0) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99.0) / MICROS_PER_MILLI, histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    /**
+     * Writes the percentile distribution of all successful requests in milliseconds, in the format HdrHistogram's
+     * plotter reads.
+     */
+    void writePercentiles(Path path) {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(path))) {
+            all.outputPercentileDistribution(out, MICROS_PER_MILLI);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return the ways the run missed its gates, none if it passed
+     */
+    List<String> violations(Duration maxP99, double minThroughput) {
+        List<String> violations = new ArrayList<>();
+        if (all.getTotalCount() == 0) {
+            violations.add("no request succeeded");
+            return violations;
+        }
+        long p99Micros = all.getValueAtPercentile(99.0);
+        if (maxP99 != null && p99Micros > TimeUnit.NANOSECONDS.toMicros(maxP99.toNanos())) {
+            violations.add(String.format(Locale.ROOT, "p99 latency %.1f ms exceeds %d ms", p99Micros / MICROS_PER_MILLI, maxP99.toMillis()));
+        }
+        if (throughput() < minThroughput) {
+            violations.add(String.format(Locale.ROOT, "throughput %.2f requests/s is below %.2f", throughput(), minThroughput));
+        }
+        return violations;
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+    }
+}
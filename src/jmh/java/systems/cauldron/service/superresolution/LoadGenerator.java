@@ -0,0 +1,246 @@
+package systems.cauldron.service.superresolution;
+
+import io.helidon.webserver.WebServer;
+import systems.cauldron.service.superresolution.inference.StandInModel;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives /api/v1/upscale with raw planar RGB requests and reports HDR latency percentiles per input size, throughput
+ * and memory high-water marks, for sizing capacity and for gating performance regressions. Load is either a closed
+ * loop keeping a number of requests in flight, an open loop starting requests at a Poisson rate regardless of how
+ * fast the server completes them, or the replay of a recorded trace at its original offsets. Open loop latencies are
+ * measured from when a request was due rather than when it was sent, so a stalled server is not hidden by requests
+ * that were held back.
+ * <p>
+ * Unless a target is given, the server is started in process, on the generated stand-in model unless a model file is
+ * given, and the result cache is disabled. Run with ./gradlew loadTest --args='rate=20 duration=60s', and see
+ * {@link LoadOptions} for all arguments. The exit code is 1 when the run misses its latency or throughput gate.
+ */
+public class LoadGenerator {
+
+    private static final Duration DRAIN_TIMEOUT = Duration.ofMinutes(5);
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(5);
+
+    private final LoadOptions options;
+    private final URI target;
+    private final LatencyReport report;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+    private final Map<LoadOptions.Size, byte[]> bodies = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Random random = new Random(42);
+    private long recordingStart;
+    private long recordingEnd;
+
+    private LoadGenerator(LoadOptions options, URI target, LatencyReport report) {
+        this.options = options;
+        this.target = target;
+        this.report = report;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+        Path modelDirectory = null;
+        WebServer server = null;
+        URI target = options.target();
+        int exitCode;
+        try {
+            if (target == null) {
+                modelDirectory = Files.createTempDirectory("models");
+                server = startServer(options.model(), modelDirectory);
+                target = URI.create("http://localhost:" + server.port());
+            }
+            try (LatencyReport report = new LatencyReport(options.target() == null)) {
+                new LoadGenerator(options, target, report).run();
+                report.print(System.out);
+                if (options.percentiles() != null) {
+                    report.writePercentiles(options.percentiles());
+                }
+                List<String> violations = report.violations(options.maxP99(), options.minThroughput());
+                violations.forEach(violation -> System.out.println("FAILED: " + violation));
+                exitCode = violations.isEmpty() ? 0 : 1;
+            }
+        } finally {
+            if (server != null) {
+                server.shutdown()
+                        .toCompletableFuture()
+                        .get(30, TimeUnit.SECONDS);
+            }
+            if (modelDirectory != null) {
+                Files.deleteIfExists(modelDirectory.resolve("stand-in.onnx"));
+                Files.deleteIfExists(modelDirectory);
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Starts the server as configured by application.yaml, except for the model and the result cache, and waits until
+     * it reports being ready, i.e. its model has been warmed up.
+     */
+    private static WebServer startServer(Path model, Path modelDirectory) throws IOException, InterruptedException {
+        if (model == null) {
+            model = StandInModel.write(modelDirectory.resolve("stand-in.onnx"), 4);
+        }
+        System.setProperty("app.model.directory", model.toAbsolutePath().getParent().toString());
+        System.setProperty("app.model.filename", model.getFileName().toString());
+        System.setProperty("app.model.watch", "false");
+        System.setProperty("app.cache.max-memory-bytes", "0");
+        System.setProperty("server.port", "0");
+        WebServer server = Server.start();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (!server.isRunning()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("failed to start webserver");
+            }
+            Thread.sleep(10);
+        }
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest readiness = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/health/ready")).build();
+        while (client.send(readiness, HttpResponse.BodyHandlers.discarding()).statusCode() != 200) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("webserver did not become ready");
+            }
+            Thread.sleep(100);
+        }
+        return server;
+    }
+
+    private void run() throws Exception {
+        long start = System.nanoTime();
+        recordingStart = start + options.warmup().toNanos();
+        recordingEnd = recordingStart + options.duration().toNanos();
+        // the sampler and the counters only start with the recording window
+        CompletableFuture<Void> recording = CompletableFuture.runAsync(report::start,
+                CompletableFuture.delayedExecutor(options.warmup().toNanos(), TimeUnit.NANOSECONDS));
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        if (!options.openLoop()) {
+            for (int i = 0; i < options.concurrency(); i++) {
+                pending.add(loop());
+            }
+        } else if (!options.trace().isEmpty()) {
+            for (LoadOptions.TracedRequest request : options.trace()) {
+                long due = start + (long) (request.offset().toNanos() / options.speed());
+                if (due - recordingEnd >= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(due - System.nanoTime());
+                pending.add(dispatch(request.size(), request.parameters(), request.accept(), due));
+            }
+        } else {
+            long due = start;
+            while (due - recordingEnd < 0) {
+                LockSupport.parkNanos(due - System.nanoTime());
+                pending.add(dispatch(drawSize(), Map.of(), "application/octet-stream", due));
+                due += (long) (-Math.log(1.0 - random.nextDouble()) / options.rate() * 1e9);
+            }
+        }
+        recording.join();
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new))
+                .get(DRAIN_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts a request of an open loop, unless too many are in flight already.
+     */
+    private CompletableFuture<?> dispatch(LoadOptions.Size size, Map<String, String> parameters, String accept, long due) {
+        if (inFlight.get() >= options.maxInFlight()) {
+            if (recorded(due)) {
+                report.skip();
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        return send(size, parameters, accept, due);
+    }
+
+    /**
+     * Sends requests of a closed loop one after another until the recording window ends.
+     */
+    private CompletableFuture<?> loop() {
+        long now = System.nanoTime();
+        if (now - recordingEnd >= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return send(drawSize(), Map.of(), "application/octet-stream", now)
+                .thenCompose(ignored -> loop());
+    }
+
+    private CompletableFuture<?> send(LoadOptions.Size size, Map<String, String> parameters, String accept, long due) {
+        StringBuilder query = new StringBuilder("?width=" + size.width() + "&height=" + size.height());
+        parameters.forEach((key, value) -> query.append('&').append(key).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8)));
+        HttpRequest request = HttpRequest.newBuilder(target.resolve("/api/v1/upscale" + query))
+                .header("Content-Type", "application/octet-stream")
+                .header("Accept", accept)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body(size)))
+                .build();
+        boolean recorded = recorded(due);
+        AtomicLong bytes = new AtomicLong();
+        inFlight.incrementAndGet();
+        return client.sendAsync(request, info -> HttpResponse.BodySubscribers.ofByteArrayConsumer(
+                        chunk -> chunk.ifPresent(content -> bytes.addAndGet(content.length))))
+                .handle((response, ex) -> ex == null ? response.statusCode() : -1)
+                .thenAccept(status -> {
+                    inFlight.decrementAndGet();
+                    if (recorded) {
+                        report.record(size, bytes.get(), System.nanoTime() - due, status);
+                    }
+                });
+    }
+
+    private boolean recorded(long due) {
+        return due - recordingStart >= 0 && due - recordingEnd < 0;
+    }
+
+    /**
+     * Random pixels, with a unique prefix per request so that a result cache of a remote server never answers them.
+     */
+    private byte[] body(LoadOptions.Size size) {
+        byte[] template = bodies.computeIfAbsent(size, ignored -> {
+            byte[] pixels = new byte[(int) (size.pixels() * 3)];
+            new Random(size.pixels()).nextBytes(pixels);
+            return pixels;
+        });
+        byte[] body = template.clone();
+        long id = sequence.incrementAndGet();
+        for (int i = 0; i < Math.min(Long.BYTES, body.length); i++) {
+            body[i] = (byte) (id >>> (8 * i));
+        }
+        return body;
+    }
+
+    private synchronized LoadOptions.Size drawSize() {
+        double total = options.sizes().values().stream().mapToDouble(Double::doubleValue).sum();
+        double draw = random.nextDouble() * total;
+        LoadOptions.Size last = null;
+        for (Map.Entry<LoadOptions.Size, Double> entry : options.sizes().entrySet()) {
+            last = entry.getKey();
+            draw -= entry.getValue();
+            if (draw < 0.0) {
+                break;
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,196 @@
+package systems.cauldron.service.superresolution;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Settings of a load test, parsed from key=value arguments.
+ *
+ * @param target       base URI of the server under test, or null to start one in process
+ * @param model        model file the in-process server serves, or null for the generated stand-in model
+ * @param concurrency  number of requests kept in flight by a closed loop, when neither a rate nor a trace is given
+ * @param rate         requests per second started by an open loop regardless of completions, or 0 for a closed loop
+ * @param duration     how long requests are recorded, after the warm-up
+ * @param warmup       how long requests are sent before recording starts
+ * @param sizes        input sizes mixed into generated load, with their relative weights
+ * @param trace        recorded requests to replay at their original offsets instead of generating load, or empty
+ * @param speed        factor the offsets of a replayed trace are divided by
+ * @param maxInFlight  most requests an open loop keeps in flight, beyond which it skips requests instead
+ * @param percentiles  file the full latency percentile distribution is written to, or null
+ * @param maxP99       p99 latency above which the run fails, or null
+ * @param minThroughput completed requests per second below which the run fails, or 0
+ */
+record LoadOptions(URI target, Path model, int concurrency, double rate, Duration duration, Duration warmup,
+                   Map<Size, Double> sizes, List<TracedRequest> trace, double speed, int maxInFlight, Path percentiles,
+                   Duration maxP99, double minThroughput) {
+
+    private static final String USAGE = """
+            arguments, all optional:
+              target=http://host:port      server under test, by default one started in process
+              model=path/to/model.onnx     model of the in-process server, by default a generated stand-in
+              concurrency=8                requests in flight for a closed loop
+              rate=20                      requests per second for an open loop
+              duration=60s warmup=10s      recorded time and preceding warm-up
+              sizes=256x256:8,1024x768:2   input sizes and their weights
+              trace=trace.jsonl speed=1    replay a recorded trace, speed dividing its offsets
+              max-in-flight=1024           open loop requests in flight before skipping
+              percentiles=latency.hgrm     write the full percentile distribution
+              max-p99=2s min-throughput=5  fail the run when latency or throughput regress
+            """;
+
+    static LoadOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("expected key=value but got '" + arg + "'\n" + USAGE);
+            }
+            values.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        URI target = values.containsKey("target") ? URI.create(values.remove("target")) : null;
+        Path model = values.containsKey("model") ? Paths.get(values.remove("model")) : null;
+        int concurrency = Integer.parseInt(values.getOrDefault("concurrency", "8"));
+        double rate = Double.parseDouble(values.getOrDefault("rate", "0"));
+        Duration duration = parseDuration(values.getOrDefault("duration", "60s"));
+        Duration warmup = parseDuration(values.getOrDefault("warmup", "10s"));
+        Map<Size, Double> sizes = parseSizes(values.getOrDefault("sizes", "256x256:8,512x512:3,1024x768:1"));
+        List<TracedRequest> trace = values.containsKey("trace") ? readTrace(Paths.get(values.get("trace"))) : List.of();
+        double speed = Double.parseDouble(values.getOrDefault("speed", "1"));
+        int maxInFlight = Integer.parseInt(values.getOrDefault("max-in-flight", "1024"));
+        Path percentiles = values.containsKey("percentiles") ? Paths.get(values.get("percentiles")) : null;
+        Duration maxP99 = values.containsKey("max-p99") ? parseDuration(values.get("max-p99")) : null;
+        double minThroughput = Double.parseDouble(values.getOrDefault("min-throughput", "0"));
+        values.keySet().removeAll(List.of("concurrency", "rate", "duration", "warmup", "sizes", "trace", "speed", "max-in-flight",
+                "percentiles", "max-p99", "min-throughput"));
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("unknown arguments " + values.keySet() + "\n" + USAGE);
+        }
+        if (concurrency < 1 || rate < 0.0 || speed <= 0.0 || maxInFlight < 1) {
+            throw new IllegalArgumentException("concurrency, speed and max-in-flight must be positive and rate not negative\n" + USAGE);
+        }
+        return new LoadOptions(target, model, concurrency, rate, duration, warmup, sizes, trace, speed, maxInFlight, percentiles,
+                maxP99, minThroughput);
+    }
+
+    boolean openLoop() {
+        return rate > 0.0 || !trace.isEmpty();
+    }
+
+    /**
+     * Accepts plain milliseconds or a number followed by ms, s or m.
+     */
+    static Duration parseDuration(String value) {
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        if (text.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+        }
+        if (text.endsWith("s")) {
+            return Duration.ofMillis((long) (Double.parseDouble(text.substring(0, text.length() - 1)) * 1000));
+        }
+        if (text.endsWith("m")) {
+            return Duration.ofMillis((long) (Double.parseDouble(text.substring(0, text.length() - 1)) * 60_000));
+        }
+        return Duration.ofMillis(Long.parseLong(text));
+    }
+
+    /**
+     * Parses a comma separated mix of WIDTHxHEIGHT sizes, each optionally followed by :weight.
+     */
+    static Map<Size, Double> parseSizes(String value) {
+        Map<Size, Double> sizes = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split(":");
+            double weight = parts.length > 1 ? Double.parseDouble(parts[1]) : 1.0;
+            if (!(weight > 0.0)) {
+                throw new IllegalArgumentException("size weights must be positive: " + entry);
+            }
+            sizes.merge(Size.parse(parts[0]), weight, Double::sum);
+        }
+        return sizes;
+    }
+
+    /**
+     * Reads a trace of one JSON object per line, each with "offset_ms" since the start of the trace, "width" and "height"
+     * of a raw planar RGB input, and optionally any of the query parameters "model", "quality", "crop", "layout" and
+     * "priority" and an "accept" media type. Blank lines are skipped.
+     */
+    static List<TracedRequest> readTrace(Path path) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        List<TracedRequest> trace = new ArrayList<>();
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonObject request;
+            try (JsonReader reader = Json.createReader(new StringReader(line))) {
+                request = reader.readObject();
+            }
+            if (!request.containsKey("width") || !request.containsKey("height")) {
+                throw new IllegalArgumentException("trace line " + (trace.size() + 1) + " lacks a width and height: " + line);
+            }
+            Map<String, String> parameters = new LinkedHashMap<>();
+            for (String parameter : List.of("model", "quality", "crop", "layout", "priority")) {
+                if (request.containsKey(parameter)) {
+                    parameters.put(parameter, request.getString(parameter));
+                }
+            }
+            trace.add(new TracedRequest(Duration.ofMillis(request.getInt("offset_ms", 0)),
+                    new Size(request.getInt("width"), request.getInt("height")), parameters,
+                    request.getString("accept", "application/octet-stream")));
+        }
+        return trace;
+    }
+
+    record Size(int width, int height) {
+
+        Size {
+            if (width < 1 || height < 1) {
+                throw new IllegalArgumentException("sizes must be positive");
+            }
+        }
+
+        static Size parse(String value) {
+            String[] dimensions = value.trim().toLowerCase(Locale.ROOT).split("x");
+            if (dimensions.length != 2) {
+                throw new IllegalArgumentException("expected WIDTHxHEIGHT but got '" + value + "'");
+            }
+            return new Size(Integer.parseInt(dimensions[0].trim()), Integer.parseInt(dimensions[1].trim()));
+        }
+
+        long pixels() {
+            return (long) width * height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height;
+        }
+    }
+
+    /**
+     * @param offset     time since the start of the trace the request was received
+     * @param parameters query parameters besides the width and height
+     */
+    record TracedRequest(Duration offset, Size size, Map<String, String> parameters, String accept) {
+    }
+}
@@ -0,0 +1,83 @@
+package systems.cauldron.service.superresolution;
+
+import io.helidon.webclient.WebClient;
+import io.helidon.webserver.WebServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import systems.cauldron.service.superresolution.inference.StandInModel;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full raw /api/v1/upscale round trip through an in-process server: request streaming, admission,
+ * tiling, batching, inference on the generated stand-in model and the response conversion. The result cache is
+ * disabled, since every iteration submits the same image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UpscaleBenchmark {
+
+    @Param({"64", "256"})
+    public int size;
+
+    private Path modelDirectory;
+    private WebServer webServer;
+    private WebClient webClient;
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        modelDirectory = Files.createTempDirectory("models");
+        StandInModel.write(modelDirectory.resolve("stand-in.onnx"), 4);
+        System.setProperty("app.model.directory", modelDirectory.toString());
+        System.setProperty("app.model.filename", "stand-in.onnx");
+        System.setProperty("app.model.watch", "false");
+        System.setProperty("app.cache.max-memory-bytes", "0");
+        System.setProperty("server.port", "0");
+        webServer = Server.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!webServer.isRunning()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("failed to start webserver");
+            }
+            Thread.sleep(10);
+        }
+        webClient = WebClient.builder()
+                .baseUri("http://localhost:" + webServer.port())
+                .build();
+        body = new byte[size * size * 3];
+        new Random(size).nextBytes(body);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        webServer.shutdown()
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+        Files.deleteIfExists(modelDirectory.resolve("stand-in.onnx"));
+        Files.deleteIfExists(modelDirectory);
+    }
+
+    @Benchmark
+    public byte[] upscale() throws Exception {
+        return webClient.post()
+                .path("/api/v1/upscale")
+                .queryParam("width", String.valueOf(size))
+                .queryParam("height", String.valueOf(size))
+                .submit(body)
+                .thenCompose(response -> response.content().as(byte[].class))
+                .toCompletableFuture()
+                .get(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,123 @@
+package systems.cauldron.service.superresolution.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original element-at-a-time conversion loops against the bulk conversion path,
+ * both allocating per call (record methods) and writing into preallocated buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversionBenchmark {
+
+    /**
+     * "baboon" loads the 125 x 120 test fixture, otherwise a random square image of the given size is generated
+     */
+    @Param({"baboon", "512", "2048"})
+    public String image;
+
+    private ByteImageData byteImage;
+    private FloatImageData floatImage;
+    private FloatBuffer floatSink;
+    private ByteBuffer byteSink;
+
+    @Setup
+    public void setup() throws IOException {
+        byteImage = image.equals("baboon") ? loadFixture() : randomImage(Integer.parseInt(image));
+        floatImage = byteImage.toFloatImageData();
+        int numElements = byteImage.data().remaining();
+        floatSink = ByteBuffer.allocateDirect(numElements * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        byteSink = ByteBuffer.allocate(numElements);
+    }
+
+    @Benchmark
+    public FloatBuffer toFloatsScalar() {
+        ByteBuffer source = byteImage.data().duplicate();
+        ByteBuffer sink = ByteBuffer.allocateDirect(source.remaining() * 4)
+                .order(ByteOrder.nativeOrder());
+        while (source.hasRemaining()) {
+            sink.putFloat((source.get() & 0xff) / 255.0f);
+        }
+        sink.flip();
+        return sink.asFloatBuffer();
+    }
+
+    @Benchmark
+    public FloatImageData toFloatsRecord() {
+        return byteImage.toFloatImageData();
+    }
+
+    @Benchmark
+    public FloatImageData toFloatsPreallocated() {
+        floatSink.clear();
+        return byteImage.toFloatImageData(floatSink);
+    }
+
+    @Benchmark
+    public ByteBuffer toBytesScalar() {
+        FloatBuffer source = floatImage.data().duplicate();
+        ByteBuffer sink = ByteBuffer.allocate(source.remaining());
+        while (source.hasRemaining()) {
+            sink.put((byte) Math.round(255.0f * Math.max(0.0f, Math.min(1.0f, source.get()))));
+        }
+        sink.flip();
+        return sink;
+    }
+
+    @Benchmark
+    public ByteImageData toBytesRecord() {
+        return floatImage.toByteImageData();
+    }
+
+    @Benchmark
+    public ByteImageData toBytesPreallocated() {
+        byteSink.clear();
+        return floatImage.toByteImageData(byteSink);
+    }
+
+    static ByteImageData loadFixture() throws IOException {
+        Path path = Paths.get(System.getProperty("fixture.dir", "src/test/resources")).resolve("baboon.png");
+        BufferedImage bufferedImage = ImageIO.read(path.toFile());
+        int width = bufferedImage.getWidth();
+        int height = bufferedImage.getHeight();
+        int planeSize = width * height;
+        ByteBuffer data = ByteBuffer.allocate(planeSize * 3);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = bufferedImage.getRGB(x, y);
+                int index = y * width + x;
+                data.put(index, (byte) (rgb >> 16));
+                data.put(planeSize + index, (byte) (rgb >> 8));
+                data.put(2 * planeSize + index, (byte) rgb);
+            }
+        }
+        return new ByteImageData(data, width, height);
+    }
+
+    static ByteImageData randomImage(int size) {
+        byte[] data = new byte[size * size * 3];
+        new Random(size).nextBytes(data);
+        return new ByteImageData(ByteBuffer.wrap(data), size, size);
+    }
+}
@@ -0,0 +1,88 @@
+package systems.cauldron.service.superresolution.inference;
+
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single InferenceServer.resolve call at several input sizes. Unless the "model.path" system property
+ * points to a real model, the generated stand-in model is used, so the numbers reflect the overhead around the
+ * forward pass (tensor creation, copies, output extraction) rather than the network itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InferenceBenchmark {
+
+    @Param({"32", "128", "512"})
+    public int size;
+
+    private Path temporaryDirectory;
+    private InferenceServer inferenceServer;
+    private FloatImageData input;
+
+    @Setup
+    public void setup() throws IOException {
+        inferenceServer = new InferenceServer(modelPath(), 4, createBufferPool());
+        input = randomImage(size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        inferenceServer.close();
+        if (temporaryDirectory != null) {
+            Files.deleteIfExists(temporaryDirectory.resolve("stand-in.onnx"));
+            Files.deleteIfExists(temporaryDirectory);
+        }
+    }
+
+    @Benchmark
+    public FloatImageData resolve() {
+        return inferenceServer.resolve(new FloatImageData(input.data().duplicate(), input.width(), input.height()));
+    }
+
+    private Path modelPath() throws IOException {
+        String modelPath = System.getProperty("model.path");
+        if (modelPath != null) {
+            return Paths.get(modelPath);
+        }
+        temporaryDirectory = Files.createTempDirectory("models");
+        return StandInModel.write(temporaryDirectory.resolve("stand-in.onnx"), 4);
+    }
+
+    private static BufferPool createBufferPool() {
+        return new BufferPool(1L << 30, RegistryFactory.create().getRegistry(MetricRegistry.Type.APPLICATION));
+    }
+
+    static FloatImageData randomImage(int size) {
+        Random random = new Random(size);
+        FloatBuffer data = ByteBuffer.allocateDirect(size * size * 3 * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        while (data.hasRemaining()) {
+            data.put(random.nextFloat());
+        }
+        data.flip();
+        return new FloatImageData(data, size, size);
+    }
+}
@@ -0,0 +1,133 @@
+package systems.cauldron.service.superresolution.inference;
+
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.PixelConverter;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two ways of turning a model output into response bytes at several input sizes. "copied" lets the
+ * session allocate the output, copies it onto the heap and converts it into a new byte array, as responses used to
+ * be built. "bound" resolves into a pooled output tensor bound to the session and converts it a band at a time into
+ * pooled buffers, as the upscale endpoint does now.
+ * <p>
+ * Run with -PjmhProfilers=gc for the heap allocated per request (gc.alloc.rate.norm). The auxiliary counters report,
+ * next to the number of requests, how many outputs were copied out of the session and how many direct buffers were
+ * allocated rather than taken from the pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OutputBindingBenchmark {
+
+    private static final int BAND_BYTES = 256 * 1024;
+
+    @Param({"32", "128", "512"})
+    public int size;
+
+    @Param({"copied", "bound"})
+    public String output;
+
+    private Path temporaryDirectory;
+    private BufferPool bufferPool;
+    private InferenceServer inferenceServer;
+    private FloatImageData input;
+    private Counter copiedOutputs;
+    private Counter poolMisses;
+
+    @Setup
+    public void setup() throws IOException {
+        MetricRegistry metrics = RegistryFactory.create().getRegistry(MetricRegistry.Type.APPLICATION);
+        bufferPool = new BufferPool(1L << 30, metrics);
+        inferenceServer = new InferenceServer(modelPath(), 4, SessionPoolOptions.DEFAULT, bufferPool, metrics);
+        input = InferenceBenchmark.randomImage(size);
+        copiedOutputs = metrics.counter("inference.outputs", new Tag("binding", "copied"));
+        poolMisses = metrics.counter("buffer.pool.misses");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        inferenceServer.close();
+        if (temporaryDirectory != null) {
+            Files.deleteIfExists(temporaryDirectory.resolve("stand-in.onnx"));
+            Files.deleteIfExists(temporaryDirectory);
+        }
+    }
+
+    @Benchmark
+    public void respond(Counts counts, Blackhole blackhole) {
+        long copiedBefore = copiedOutputs.getCount();
+        long missesBefore = poolMisses.getCount();
+        FloatImageData image = new FloatImageData(input.data().duplicate(), input.width(), input.height());
+        if (output.equals("copied")) {
+            FloatImageData upscaled = inferenceServer.resolve(image);
+            ByteBuffer response = ByteBuffer.allocate(upscaled.data().remaining());
+            PixelConverter.toBytes(upscaled.data().duplicate(), response);
+            blackhole.consume(response.array());
+        } else {
+            try (BufferPool.Lease tensor = bufferPool.lease((long) size * size * 16 * 3 * 4)) {
+                FloatImageData upscaled = inferenceServer.resolve(image, tensor.floats());
+                FloatBuffer source = upscaled.data().duplicate();
+                while (source.hasRemaining()) {
+                    int length = Math.min(BAND_BYTES, source.remaining());
+                    try (BufferPool.Lease band = bufferPool.lease(length)) {
+                        PixelConverter.toBytes(source.slice(source.position(), length), band.buffer());
+                        blackhole.consume(band);
+                    }
+                    source.position(source.position() + length);
+                }
+            }
+        }
+        counts.requests++;
+        counts.outputCopies += copiedOutputs.getCount() - copiedBefore;
+        counts.directAllocations += poolMisses.getCount() - missesBefore;
+    }
+
+    private Path modelPath() throws IOException {
+        String modelPath = System.getProperty("model.path");
+        if (modelPath != null) {
+            return Paths.get(modelPath);
+        }
+        temporaryDirectory = Files.createTempDirectory("models");
+        return StandInModel.write(temporaryDirectory.resolve("stand-in.onnx"), 4);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counts {
+
+        public long requests;
+        public long outputCopies;
+        public long directAllocations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+            outputCopies = 0;
+            directAllocations = 0;
+        }
+    }
+}
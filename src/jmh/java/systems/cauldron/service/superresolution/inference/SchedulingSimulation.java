@@ -0,0 +1,123 @@
+package systems.cauldron.service.superresolution.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Discrete event simulation of the inference executor's queue under mixed traffic, comparing the latency of each image
+ * size in arrival order against shortest job first with several aging factors. Requests arrive as a Poisson process
+ * at the given utilization of the threads, mostly thumbnails with a share of medium and large images, and each runs
+ * for its output pixels at a fixed cost per pixel, which the scheduler is assumed to know.
+ * <p>
+ * Run with ./gradlew simulateScheduling, which prints p50 and p99 latency in milliseconds per size.
+ */
+public class SchedulingSimulation {
+
+    private static final int THREADS = 2;
+    private static final int SCALING_FACTOR = 4;
+    private static final double NANOS_PER_OUTPUT_PIXEL = 2.0;
+    private static final double UTILIZATION = 0.8;
+    private static final int REQUESTS = 200_000;
+
+    private static final String[] SIZES = {"256x256", "1024x1024", "2048x2048"};
+    private static final long[] PIXELS = {256L * 256, 1024L * 1024, 2048L * 2048};
+    private static final double[] SHARES = {0.80, 0.15, 0.05};
+
+    private static final double[] AGING_FACTORS = {1.0, 4.0, 16.0};
+
+    public static void main(String[] args) {
+        List<Request> requests = generate(new Random(42));
+        System.out.printf(Locale.ROOT, "%-10s %-10s %10s %10s%n", "policy", "size", "p50 ms", "p99 ms");
+        print("fifo", simulate(requests, SchedulingOptions.FIFO));
+        for (double agingFactor : AGING_FACTORS) {
+            print("sjf-" + (int) agingFactor, simulate(requests, new SchedulingOptions(agingFactor, false)));
+        }
+    }
+
+    private static List<Request> generate(Random random) {
+        double meanNanos = 0.0;
+        for (int i = 0; i < SIZES.length; i++) {
+            meanNanos += SHARES[i] * serviceNanos(PIXELS[i]);
+        }
+        double meanInterarrivalNanos = meanNanos / THREADS / UTILIZATION;
+        List<Request> requests = new ArrayList<>(REQUESTS);
+        double arrival = 0.0;
+        for (int i = 0; i < REQUESTS; i++) {
+            arrival += -Math.log(1.0 - random.nextDouble()) * meanInterarrivalNanos;
+            double draw = random.nextDouble();
+            int size = 0;
+            while (size < SIZES.length - 1 && draw >= SHARES[size]) {
+                draw -= SHARES[size];
+                size++;
+            }
+            requests.add(new Request(i, size, (long) arrival, (long) serviceNanos(PIXELS[size])));
+        }
+        return requests;
+    }
+
+    private static double serviceNanos(long pixels) {
+        return pixels * SCALING_FACTOR * SCALING_FACTOR * NANOS_PER_OUTPUT_PIXEL;
+    }
+
+    /**
+     * @return latencies in nanoseconds per size, in order of completion
+     */
+    private static long[][] simulate(List<Request> requests, SchedulingOptions scheduling) {
+        PriorityQueue<Queued> queue = new PriorityQueue<>(Comparator.comparingLong(Queued::deadline)
+                .thenComparingInt(queued -> queued.request().index()));
+        long[] threadsFreeAt = new long[THREADS];
+        List<List<Long>> latencies = new ArrayList<>();
+        for (int i = 0; i < SIZES.length; i++) {
+            latencies.add(new ArrayList<>());
+        }
+        int next = 0;
+        while (next < requests.size() || !queue.isEmpty()) {
+            int thread = 0;
+            for (int i = 1; i < THREADS; i++) {
+                if (threadsFreeAt[i] < threadsFreeAt[thread]) {
+                    thread = i;
+                }
+            }
+            // everything that arrived by the time a thread frees up competes for it
+            long now = threadsFreeAt[thread];
+            if (queue.isEmpty() && requests.get(next).arrival() > now) {
+                now = requests.get(next).arrival();
+            }
+            while (next < requests.size() && requests.get(next).arrival() <= now) {
+                Request request = requests.get(next++);
+                queue.add(new Queued(request, scheduling.deadline(request.arrival(), request.serviceNanos(), Priority.NORMAL)));
+            }
+            Request request = queue.poll().request();
+            threadsFreeAt[thread] = now + request.serviceNanos();
+            latencies.get(request.size()).add(threadsFreeAt[thread] - request.arrival());
+        }
+        return latencies.stream()
+                .map(values -> values.stream().mapToLong(Long::longValue).sorted().toArray())
+                .toArray(long[][]::new);
+    }
+
+    private static void print(String policy, long[][] latencies) {
+        for (int i = 0; i < SIZES.length; i++) {
+            System.out.printf(Locale.ROOT, "%-10s %-10s %10.1f %10.1f%n", policy, SIZES[i],
+                    percentile(latencies[i], 0.50) / 1e6, percentile(latencies[i], 0.99) / 1e6);
+        }
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    private record Request(int index, int size, long arrival, long serviceNanos) {
+    }
+
+    private record Queued(Request request, long deadline) {
+    }
+}
@@ -0,0 +1,88 @@
+package systems.cauldron.service.superresolution.inference;
+
+import ai.onnxruntime.OrtSession;
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures requests per second of concurrent callers against a single model for different ways of splitting
+ * the cores between sessions, e.g. one session using every core against several sessions using a few each.
+ * The model is read from the "model.path" system property, defaulting to the generated stand-in model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class SessionPoolBenchmark {
+
+    /**
+     * number of sessions x intra-op threads per session, 0 threads meaning the runtime default of one per core
+     */
+    @Param({"1x0", "1x8", "2x4", "4x2", "8x1"})
+    public String pool;
+
+    @Param({"sequential", "parallel"})
+    public String executionMode;
+
+    @Param({"64"})
+    public int size;
+
+    private Path temporaryDirectory;
+    private InferenceServer inferenceServer;
+    private FloatImageData input;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] split = pool.split("x");
+        SessionPoolOptions options = new SessionPoolOptions(Integer.parseInt(split[0]), Integer.parseInt(split[1]), 0,
+                OrtSession.SessionOptions.OptLevel.ALL_OPT,
+                OrtSession.SessionOptions.ExecutionMode.valueOf(executionMode.toUpperCase(Locale.ROOT)),
+                true,
+                null,
+                false);
+        String modelProperty = System.getProperty("model.path");
+        Path modelPath;
+        if (modelProperty != null) {
+            modelPath = Paths.get(modelProperty);
+        } else {
+            temporaryDirectory = Files.createTempDirectory("models");
+            modelPath = StandInModel.write(temporaryDirectory.resolve("stand-in.onnx"), 4);
+        }
+        MetricRegistry metrics = RegistryFactory.create().getRegistry(MetricRegistry.Type.APPLICATION);
+        inferenceServer = new InferenceServer(modelPath, 4, options, new BufferPool(1L << 28, metrics), metrics);
+        input = InferenceBenchmark.randomImage(size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        inferenceServer.close();
+        if (temporaryDirectory != null) {
+            Files.deleteIfExists(temporaryDirectory.resolve("stand-in.onnx"));
+            Files.deleteIfExists(temporaryDirectory);
+        }
+    }
+
+    @Benchmark
+    public FloatImageData resolve() {
+        return inferenceServer.resolve(new FloatImageData(input.data().duplicate(), input.width(), input.height()));
+    }
+}
@@ -0,0 +1,100 @@
+package systems.cauldron.service.superresolution.inference;
+
+import ai.onnxruntime.OrtSession;
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.ImageDataUtility;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the latency of a single image scales with the number of tile workers, each owning a session with
+ * a small number of intra-op threads, from one worker up to one per core. Worker counts beyond the cores of the
+ * machine are capped, so they repeat the measurement at all cores. Images are the baboon test fixture and larger
+ * generated ones. The model is read from the "model.path" system property, defaulting to the generated stand-in model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TileScalingBenchmark {
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    public int workers;
+
+    @Param({"1", "2"})
+    public int intraOpThreads;
+
+    /**
+     * "baboon" or the width and height of a generated image
+     */
+    @Param({"baboon", "512", "1024"})
+    public String image;
+
+    /**
+     * only takes effect with more than one intra-op thread, the calling thread of a session not being pinned
+     */
+    @Param({"false"})
+    public boolean pinThreads;
+
+    private Path temporaryDirectory;
+    private InferenceServer inferenceServer;
+    private TiledResolver tiledResolver;
+    private FloatImageData input;
+
+    @Setup
+    public void setup() throws IOException {
+        int cappedWorkers = Math.min(workers, Runtime.getRuntime().availableProcessors());
+        SessionPoolOptions sessionPoolOptions = new SessionPoolOptions(cappedWorkers, intraOpThreads, 1,
+                OrtSession.SessionOptions.OptLevel.ALL_OPT,
+                OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL,
+                true,
+                null,
+                pinThreads);
+        MetricRegistry metrics = RegistryFactory.create().getRegistry(MetricRegistry.Type.APPLICATION);
+        BufferPool bufferPool = new BufferPool(1L << 30, metrics);
+        inferenceServer = new InferenceServer(modelPath(), 4, sessionPoolOptions, bufferPool, metrics);
+        tiledResolver = new TiledResolver(inferenceServer, new TilingOptions(256, 8, BlendMode.LINEAR, cappedWorkers, 32), bufferPool, metrics);
+        input = image.equals("baboon")
+                ? ImageDataUtility.loadAsFloats(Paths.get("src", "test", "resources").resolve("baboon.png"))
+                : InferenceBenchmark.randomImage(Integer.parseInt(image));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        tiledResolver.close();
+        inferenceServer.close();
+        if (temporaryDirectory != null) {
+            Files.deleteIfExists(temporaryDirectory.resolve("stand-in.onnx"));
+            Files.deleteIfExists(temporaryDirectory);
+        }
+    }
+
+    @Benchmark
+    public FloatImageData resolve() {
+        return tiledResolver.resolve(new FloatImageData(input.data().duplicate(), input.width(), input.height()));
+    }
+
+    private Path modelPath() throws IOException {
+        String modelPath = System.getProperty("model.path");
+        if (modelPath != null) {
+            return Paths.get(modelPath);
+        }
+        temporaryDirectory = Files.createTempDirectory("models");
+        return StandInModel.write(temporaryDirectory.resolve("stand-in.onnx"), 4);
+    }
+}
@@ -6,6 +6,9 @@ module systems.cauldron.service.superresolution {
     requires io.helidon.health.checks;
     requires io.helidon.health;
     requires io.helidon.media.jsonp;
+    requires java.net.http;
     requires org.apache.logging.log4j;
+    requires jdk.unsupported;
+    requires java.desktop;
     exports systems.cauldron.service.superresolution;
 }
\ No newline at end of file
@@ -1,11 +1,13 @@
 package systems.cauldron.service.superresolution;
 
+import ai.onnxruntime.OrtSession;
 import io.helidon.common.LogConfig;
 import io.helidon.config.Config;
 import io.helidon.health.HealthSupport;
 import io.helidon.health.checks.HealthChecks;
 import io.helidon.media.jsonp.JsonpSupport;
 import io.helidon.metrics.MetricsSupport;
+import io.helidon.metrics.RegistryFactory;
 import io.helidon.webserver.Routing;
 import io.helidon.webserver.Service;
 import io.helidon.webserver.WebServer;
@@ -13,11 +15,58 @@ import io.helidon.webserver.cors.CorsSupport;
 import io.helidon.webserver.cors.CrossOriginConfig;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.cache.CacheOptions;
+import systems.cauldron.service.superresolution.cache.CachingResolver;
+import systems.cauldron.service.superresolution.cache.ResultCache;
+import systems.cauldron.service.superresolution.cluster.ClusterOptions;
+import systems.cauldron.service.superresolution.cluster.PeerClient;
+import systems.cauldron.service.superresolution.cluster.TileDispatcher;
+import systems.cauldron.service.superresolution.image.InterpolationKernel;
+import systems.cauldron.service.superresolution.inference.AdmissionOptions;
+import systems.cauldron.service.superresolution.inference.BatchScheduler;
+import systems.cauldron.service.superresolution.inference.BatchingOptions;
+import systems.cauldron.service.superresolution.inference.BlendMode;
+import systems.cauldron.service.superresolution.inference.InferenceExecutor;
 import systems.cauldron.service.superresolution.inference.InferenceServer;
+import systems.cauldron.service.superresolution.inference.Resolver;
+import systems.cauldron.service.superresolution.inference.SchedulingOptions;
+import systems.cauldron.service.superresolution.inference.SessionPoolOptions;
+import systems.cauldron.service.superresolution.inference.TiledResolver;
+import systems.cauldron.service.superresolution.inference.TilingOptions;
+import systems.cauldron.service.superresolution.jobs.JobOptions;
+import systems.cauldron.service.superresolution.jobs.JobStore;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+import systems.cauldron.service.superresolution.model.ModelDefinition;
+import systems.cauldron.service.superresolution.model.ModelOptions;
+import systems.cauldron.service.superresolution.model.ModelRegistry;
+import systems.cauldron.service.superresolution.model.ModelWarmup;
+import systems.cauldron.service.superresolution.model.Pipeline;
+import systems.cauldron.service.superresolution.model.Precision;
+import systems.cauldron.service.superresolution.model.PrecisionOptions;
+import systems.cauldron.service.superresolution.model.PrecisionSelector;
+import systems.cauldron.service.superresolution.model.WarmupOptions;
+import systems.cauldron.service.superresolution.web.BatchUpscaleOptions;
+import systems.cauldron.service.superresolution.web.BatchUpscaleService;
+import systems.cauldron.service.superresolution.web.FallbackOptions;
+import systems.cauldron.service.superresolution.web.FrameSequenceOptions;
+import systems.cauldron.service.superresolution.web.FrameSequenceService;
+import systems.cauldron.service.superresolution.web.JobService;
+import systems.cauldron.service.superresolution.web.TileService;
 import systems.cauldron.service.superresolution.web.UpscaleService;
 
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class Server {
@@ -37,26 +86,100 @@ public class Server {
         Config config = Config.create();
         Config appConfig = config.get("app");
         Config modelConfig = appConfig.get("model");
-        Path modelPath = Paths.get("models").resolve(modelConfig.get("filename").asString().get());
-        int scalingFactor = modelConfig.get("scaling-factor").asInt().get();
+        ModelOptions modelOptions = getModelOptions(modelConfig);
+        SessionPoolOptions sessionPoolOptions = getSessionPoolOptions(modelConfig.get("sessions"));
+        PrecisionOptions precisionOptions = getPrecisionOptions(modelConfig.get("precision"));
+        WarmupOptions warmupOptions = getWarmupOptions(modelConfig.get("warmup"));
+        TilingOptions tilingOptions = getTilingOptions(modelConfig.get("tiling"), sessionPoolOptions);
+        BatchingOptions batchingOptions = getBatchingOptions(modelConfig.get("batching"));
+        AdmissionOptions admissionOptions = getAdmissionOptions(appConfig.get("admission"));
+        SchedulingOptions schedulingOptions = getSchedulingOptions(appConfig.get("admission").get("scheduling"));
+        CacheOptions cacheOptions = getCacheOptions(appConfig.get("cache"));
+        JobOptions jobOptions = getJobOptions(appConfig.get("jobs"));
+        BatchUpscaleOptions batchUpscaleOptions = getBatchUpscaleOptions(appConfig.get("batch-upscale"));
+        FallbackOptions fallbackOptions = getFallbackOptions(appConfig.get("fallback"));
+        FrameSequenceOptions frameSequenceOptions = getFrameSequenceOptions(appConfig.get("frames"));
+        ClusterOptions clusterOptions = getClusterOptions(appConfig.get("cluster"));
+        int receptiveFieldMargin = modelConfig.get("receptive-field-margin").asInt().orElse(16);
+
+        MetricRegistry metricRegistry = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION);
+
+        // stages are closed in the reverse order of their creation
+        Deque<AutoCloseable> stages = new ArrayDeque<>();
+        long maxRetainedBytes = appConfig.get("buffer-pool").get("max-retained-bytes").asLong().orElse(512L * 1024 * 1024);
+        BufferPool bufferPool = new BufferPool(maxRetainedBytes, metricRegistry);
+        ResultCache resultCache = cacheOptions.enabled() ? new ResultCache(cacheOptions, metricRegistry) : null;
+        if (resultCache != null) {
+            stages.push(resultCache);
+        }
+        PrecisionSelector precisionSelector = new PrecisionSelector(precisionOptions, sessionPoolOptions, bufferPool, metricRegistry);
+        PeerClient peerClient = null;
+        if (clusterOptions.enabled()) {
+            if (tilingOptions.enabled()) {
+                peerClient = new PeerClient(clusterOptions, metricRegistry);
+                LOG.info("spreading tiles across peers {}", clusterOptions.peers());
+            } else {
+                LOG.warn("cluster peers are ignored since tiling is disabled");
+            }
+        }
+        PeerClient tilePeers = peerClient;
+
+        ModelRegistry modelRegistry = new ModelRegistry(modelOptions,
+                definition -> createPipeline(definition, precisionSelector, sessionPoolOptions, tilingOptions, batchingOptions, tilePeers,
+                        bufferPool, resultCache, metricRegistry),
+                metricRegistry);
+        stages.push(modelRegistry);
+
+        ModelWarmup modelWarmup = new ModelWarmup(modelRegistry, warmupOptions, sessionPoolOptions.sessions(), metricRegistry);
+        stages.push(modelWarmup);
+
+        InferenceExecutor inferenceExecutor = new InferenceExecutor(admissionOptions, schedulingOptions, metricRegistry);
+        stages.push(inferenceExecutor);
 
-        InferenceServer inferenceServer = new InferenceServer(modelPath, scalingFactor);
+        UpscaleService upscaleService = new UpscaleService(modelRegistry, inferenceExecutor, resultCache, fallbackOptions, bufferPool, metricRegistry,
+                receptiveFieldMargin,
+                appConfig.get("server-timing").asBoolean().orElse(false),
+                appConfig.get("upscale").get("codec-threads").asInt().orElse(2));
+        stages.push(upscaleService);
 
-        UpscaleService upscaleService = new UpscaleService(inferenceServer);
+        BatchUpscaleService batchUpscaleService = new BatchUpscaleService(modelRegistry, inferenceExecutor, batchUpscaleOptions, bufferPool, metricRegistry);
+        stages.push(batchUpscaleService);
 
-        Map<String, Service> serviceMap = Map.of("/api/v1", upscaleService);
+        FrameSequenceService frameSequenceService = new FrameSequenceService(modelRegistry, inferenceExecutor, frameSequenceOptions,
+                receptiveFieldMargin, bufferPool, metricRegistry);
 
-        WebServer server = WebServer.builder(getRouting(serviceMap))
+        List<Service> apiServices = new ArrayList<>(List.of(upscaleService, batchUpscaleService, frameSequenceService));
+        if (jobOptions.enabled()) {
+            JobStore jobStore = new JobStore(jobOptions, metricRegistry);
+            stages.push(jobStore);
+            JobService jobService = new JobService(modelRegistry, inferenceExecutor, jobStore, jobOptions.workers(), bufferPool, metricRegistry);
+            stages.push(jobService);
+            apiServices.add(jobService);
+        }
+
+        Map<String, List<Service>> serviceMap = new HashMap<>();
+        serviceMap.put("/api/v1", apiServices);
+        if (peerClient != null) {
+            // peers send tiles of at most the tile size they share with this instance
+            long maxTilePixels = (long) tilingOptions.tileSize() * tilingOptions.tileSize();
+            serviceMap.put("/internal", List.of(new TileService(modelRegistry, inferenceExecutor, maxTilePixels, clusterOptions.secret(), bufferPool,
+                    metricRegistry)));
+        }
+
+        WebServer server = WebServer.builder(getRouting(serviceMap, modelWarmup))
                 .config(config.get("server"))
                 .addMediaSupport(JsonpSupport.create())
                 .build();
         server.start().thenAccept(s -> {
             LOG.info("server started @ http://localhost:" + s.port());
+            modelWarmup.start();
             s.whenShutdown().thenRun(() -> {
-                try {
-                    inferenceServer.close();
-                } catch (Exception ex) {
-                    LOG.error("inference server was unable to shutdown cleanly", ex);
+                for (AutoCloseable stage : stages) {
+                    try {
+                        stage.close();
+                    } catch (Exception ex) {
+                        LOG.error("inference stage was unable to shutdown cleanly", ex);
+                    }
                 }
                 LOG.info("server stopped");
             });
@@ -67,10 +190,212 @@ public class Server {
         return server;
     }
 
-    private static Routing getRouting(Map<String, Service> serviceMap) {
+    /**
+     * Builds the resolver chain of a single model, closing whatever was already created if a stage fails to start.
+     */
+    private static Pipeline createPipeline(ModelDefinition definition, PrecisionSelector precisionSelector, SessionPoolOptions sessionPoolOptions,
+                                           TilingOptions tilingOptions, BatchingOptions batchingOptions, PeerClient peerClient,
+                                           BufferPool bufferPool, ResultCache resultCache, MetricRegistry metricRegistry) {
+        Deque<AutoCloseable> stages = new ArrayDeque<>();
+        try {
+            Precision precision = precisionSelector.select(definition);
+            // gauges of a replaced model are registered before the previous version's are removed
+            Tag modelTag = new Tag("model", definition.name());
+            Tag versionTag = new Tag("version", definition.version());
+            InferenceServer inferenceServer = new InferenceServer(definition.path(precision).orElseThrow(), definition.scalingFactor(), sessionPoolOptions, bufferPool,
+                    metricRegistry, modelTag, versionTag);
+            stages.push(inferenceServer);
+            Resolver resolver = inferenceServer;
+            if (batchingOptions.enabled()) {
+                if (inferenceServer.supportsBatching()) {
+                    BatchScheduler batchScheduler = new BatchScheduler(resolver, batchingOptions, inferenceServer.sessions(), metricRegistry, modelTag, versionTag);
+                    stages.push(batchScheduler);
+                    resolver = batchScheduler;
+                } else {
+                    LOG.warn("batching disabled since model '{}' has a fixed batch size", definition.name());
+                }
+            }
+            Resolver localResolver = resolver;
+            if (tilingOptions.enabled()) {
+                TiledResolver tiledResolver;
+                if (peerClient == null) {
+                    tiledResolver = new TiledResolver(resolver, tilingOptions, bufferPool, metricRegistry, modelTag);
+                } else {
+                    // the tile workers are shared between the local sessions and the tiles in flight to peers
+                    int tilesPerPeer = peerClient.options().tilesPerPeer();
+                    TileDispatcher tileDispatcher = new TileDispatcher(resolver, definition.name(), definition.version(), precision, peerClient,
+                            tilingOptions.parallelism(), tilesPerPeer, metricRegistry, modelTag);
+                    TilingOptions clusterTiling = tilingOptions.withParallelism(tilingOptions.parallelism() + peerClient.peers().size() * tilesPerPeer);
+                    tiledResolver = new TiledResolver(resolver, tileDispatcher, clusterTiling, bufferPool, metricRegistry, modelTag);
+                }
+                stages.push(tiledResolver);
+                resolver = tiledResolver;
+            }
+            CachingResolver cachingResolver = null;
+            if (resultCache != null) {
+                String cacheId = definition.name() + "@" + definition.version() + "/" + precision.name().toLowerCase(Locale.ROOT);
+                cachingResolver = new CachingResolver(resolver, resultCache, cacheId, metricRegistry);
+                resolver = cachingResolver;
+            }
+            return new Pipeline(resolver, localResolver, cachingResolver, precision, stages);
+        } catch (RuntimeException ex) {
+            new Pipeline(null, stages).close();
+            throw ex;
+        }
+    }
+
+    private static ModelOptions getModelOptions(Config modelConfig) {
+        Path directory = Paths.get(modelConfig.get("directory").asString().orElse("models"));
+        String filename = modelConfig.get("filename").asString().get();
+        String defaultModel = filename.endsWith(".onnx") ? filename.substring(0, filename.length() - ".onnx".length()) : filename;
+        int scalingFactor = modelConfig.get("scaling-factor").asInt().get();
+        Duration idleTimeout = Duration.ofSeconds(modelConfig.get("idle-timeout-seconds").asLong().orElse(0L));
+        boolean watch = modelConfig.get("watch").asBoolean().orElse(false);
+        return new ModelOptions(directory, defaultModel, scalingFactor, idleTimeout, watch);
+    }
+
+    private static SessionPoolOptions getSessionPoolOptions(Config sessionsConfig) {
+        SessionPoolOptions defaults = SessionPoolOptions.DEFAULT;
+        int sessions = sessionsConfig.get("count").asInt().orElse(defaults.sessions());
+        int intraOpThreads = sessionsConfig.get("intra-op-threads").asInt().orElse(defaults.intraOpThreads());
+        int interOpThreads = sessionsConfig.get("inter-op-threads").asInt().orElse(defaults.interOpThreads());
+        OrtSession.SessionOptions.OptLevel optimizationLevel = sessionsConfig.get("optimization-level").asString()
+                .map(value -> OrtSession.SessionOptions.OptLevel.valueOf(value.toUpperCase(Locale.ROOT)))
+                .orElse(defaults.optimizationLevel());
+        OrtSession.SessionOptions.ExecutionMode executionMode = sessionsConfig.get("execution-mode").asString()
+                .map(value -> OrtSession.SessionOptions.ExecutionMode.valueOf(value.toUpperCase(Locale.ROOT)))
+                .orElse(defaults.executionMode());
+        boolean memoryArena = sessionsConfig.get("memory-arena").asBoolean().orElse(defaults.memoryArena());
+        String optimizedModelDirectory = sessionsConfig.get("optimized-model-directory").asString().orElse("");
+        boolean pinThreads = sessionsConfig.get("pin-threads").asBoolean().orElse(defaults.pinThreads());
+        return new SessionPoolOptions(sessions, intraOpThreads, interOpThreads, optimizationLevel, executionMode, memoryArena,
+                optimizedModelDirectory.isBlank() ? null : Paths.get(optimizedModelDirectory), pinThreads);
+    }
+
+    private static PrecisionOptions getPrecisionOptions(Config precisionConfig) {
+        String mode = precisionConfig.get("mode").asString().orElse("fp32");
+        Precision precision = mode.equalsIgnoreCase("auto") ? null : Precision.valueOf(mode.toUpperCase(Locale.ROOT));
+        double minPsnr = precisionConfig.get("min-psnr").asDouble().orElse(40.0);
+        int iterations = precisionConfig.get("iterations").asInt().orElse(3);
+        String fixtureDirectory = precisionConfig.get("fixture-directory").asString().orElse("");
+        return new PrecisionOptions(precision, minPsnr, iterations, fixtureDirectory.isBlank() ? null : Paths.get(fixtureDirectory));
+    }
+
+    private static WarmupOptions getWarmupOptions(Config warmupConfig) {
+        int iterations = warmupConfig.get("iterations").asInt().orElse(0);
+        if (iterations == 0) {
+            return WarmupOptions.DISABLED;
+        }
+        List<WarmupOptions.Shape> shapes = warmupConfig.get("shapes").asList(String.class).orElse(List.of()).stream()
+                .map(WarmupOptions.Shape::parse)
+                .toList();
+        return new WarmupOptions(shapes, iterations);
+    }
+
+    /**
+     * A parallelism of 0 gives every session a tile worker of its own.
+     */
+    private static TilingOptions getTilingOptions(Config tilingConfig, SessionPoolOptions sessionPoolOptions) {
+        int tileSize = tilingConfig.get("tile-size").asInt().orElse(0);
+        if (tileSize == 0) {
+            return TilingOptions.DISABLED;
+        }
+        int overlap = tilingConfig.get("overlap").asInt().orElse(0);
+        BlendMode blendMode = tilingConfig.get("blend").asString()
+                .map(value -> BlendMode.valueOf(value.toUpperCase(Locale.ROOT)))
+                .orElse(BlendMode.LINEAR);
+        int parallelism = tilingConfig.get("parallelism").asInt().orElse(1);
+        if (parallelism == 0) {
+            parallelism = sessionPoolOptions.sessions();
+        }
+        int minTileSize = tilingConfig.get("min-tile-size").asInt().orElse(0);
+        return new TilingOptions(tileSize, overlap, blendMode, parallelism, minTileSize);
+    }
+
+    private static BatchingOptions getBatchingOptions(Config batchingConfig) {
+        int maxBatchSize = batchingConfig.get("max-batch-size").asInt().orElse(1);
+        if (maxBatchSize == 1) {
+            return BatchingOptions.DISABLED;
+        }
+        Duration maxWait = Duration.ofMillis(batchingConfig.get("max-wait-millis").asLong().orElse(5L));
+        int queueDepth = batchingConfig.get("queue-depth").asInt().orElse(64);
+        int padMultiple = batchingConfig.get("pad-multiple").asInt().orElse(1);
+        return new BatchingOptions(maxBatchSize, maxWait, queueDepth, padMultiple);
+    }
+
+    private static AdmissionOptions getAdmissionOptions(Config admissionConfig) {
+        int threads = admissionConfig.get("threads").asInt().orElse(2);
+        int maxPendingRequests = admissionConfig.get("max-pending-requests").asInt().orElse(32);
+        long maxPendingPixels = admissionConfig.get("max-pending-pixels").asLong().orElse(16L * 1024 * 1024);
+        return new AdmissionOptions(threads, maxPendingRequests, maxPendingPixels);
+    }
+
+    private static SchedulingOptions getSchedulingOptions(Config schedulingConfig) {
+        double agingFactor = schedulingConfig.get("aging-factor").asDouble().orElse(0.0);
+        boolean priorityClasses = schedulingConfig.get("priority-classes").asBoolean().orElse(false);
+        return new SchedulingOptions(agingFactor, priorityClasses);
+    }
+
+    private static ClusterOptions getClusterOptions(Config clusterConfig) {
+        List<URI> peers = clusterConfig.get("peers").asList(String.class).orElse(List.of()).stream()
+                .map(URI::create)
+                .toList();
+        if (peers.isEmpty()) {
+            return ClusterOptions.DISABLED;
+        }
+        int tilesPerPeer = clusterConfig.get("tiles-per-peer").asInt().orElse(2);
+        Duration timeout = Duration.ofMillis(clusterConfig.get("timeout-millis").asLong().orElse(30000L));
+        Duration failureBackoff = Duration.ofSeconds(clusterConfig.get("failure-backoff-seconds").asLong().orElse(30L));
+        String secret = clusterConfig.get("secret").asString().orElse(null);
+        return new ClusterOptions(peers, tilesPerPeer, timeout, failureBackoff, secret);
+    }
+
+    private static CacheOptions getCacheOptions(Config cacheConfig) {
+        long maxMemoryBytes = cacheConfig.get("max-memory-bytes").asLong().orElse(0L);
+        Config diskConfig = cacheConfig.get("disk");
+        String directory = diskConfig.get("directory").asString().orElse("");
+        Path diskDirectory = directory.isBlank() ? null : Paths.get(directory);
+        long maxDiskBytes = diskConfig.get("max-bytes").asLong().orElse(0L);
+        return new CacheOptions(maxMemoryBytes, diskDirectory, maxDiskBytes);
+    }
+
+    private static JobOptions getJobOptions(Config jobsConfig) {
+        String directory = jobsConfig.get("directory").asString().orElse("");
+        if (directory.isBlank()) {
+            return JobOptions.DISABLED;
+        }
+        int workers = jobsConfig.get("workers").asInt().orElse(1);
+        int maxQueuedJobs = jobsConfig.get("max-queued-jobs").asInt().orElse(1024);
+        Duration resultTtl = Duration.ofSeconds(jobsConfig.get("result-ttl-seconds").asLong().orElse(3600L));
+        return new JobOptions(Paths.get(directory), workers, maxQueuedJobs, resultTtl);
+    }
+
+    private static BatchUpscaleOptions getBatchUpscaleOptions(Config batchConfig) {
+        int maxItems = batchConfig.get("max-items").asInt().orElse(64);
+        int pipelineDepth = batchConfig.get("pipeline-depth").asInt().orElse(3);
+        int codecThreads = batchConfig.get("codec-threads").asInt().orElse(2);
+        return new BatchUpscaleOptions(maxItems, pipelineDepth, codecThreads);
+    }
+
+    private static FallbackOptions getFallbackOptions(Config fallbackConfig) {
+        InterpolationKernel kernel = InterpolationKernel.valueOf(fallbackConfig.get("kernel").asString().orElse("bicubic").toUpperCase(Locale.ROOT));
+        int parallelism = fallbackConfig.get("parallelism").asInt().orElse(Runtime.getRuntime().availableProcessors());
+        Duration latencySlo = Duration.ofMillis(fallbackConfig.get("latency-slo-millis").asLong().orElse(0L));
+        long maxTinyPixels = fallbackConfig.get("tiny-image-pixels").asLong().orElse(0L);
+        return new FallbackOptions(kernel, parallelism, latencySlo, maxTinyPixels);
+    }
+
+    private static FrameSequenceOptions getFrameSequenceOptions(Config framesConfig) {
+        int tileSize = framesConfig.get("tile-size").asInt().orElse(64);
+        int maxFrames = framesConfig.get("max-frames").asInt().orElse(300);
+        return new FrameSequenceOptions(tileSize, maxFrames);
+    }
+
+    private static Routing getRouting(Map<String, List<Service>> serviceMap, HealthCheck readiness) {
         MetricsSupport metrics = MetricsSupport.create();
         HealthSupport health = HealthSupport.builder()
                 .addLiveness(HealthChecks.healthChecks())
+                .addReadiness(readiness)
                 .build();
         Routing.Builder routing = Routing.builder()
                 .register(health)
@@ -84,7 +409,12 @@ public class Server {
                         .enabled(true)
                         .build())
                 .build();
-        serviceMap.forEach((path, service) -> routing.register(path, corsSupport, service));
+        serviceMap.forEach((path, services) -> {
+            List<Service> chain = new ArrayList<>();
+            chain.add(corsSupport);
+            chain.addAll(services);
+            routing.register(path, chain.toArray(Service[]::new));
+        });
         return routing.build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package systems.cauldron.service.superresolution.cache;
+
+import java.nio.file.Path;
+
+/**
+ * @param maxMemoryBytes maximum total size of the upscaled images kept in memory
+ * @param diskDirectory  directory of the persistent tier, or null to keep results in memory only
+ * @param maxDiskBytes   maximum total size of the upscaled images kept on disk
+ */
+public record CacheOptions(long maxMemoryBytes, Path diskDirectory, long maxDiskBytes) {
+
+    public static final CacheOptions DISABLED = new CacheOptions(0, null, 0);
+
+    public CacheOptions {
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("max memory bytes must not be negative");
+        }
+        if (diskDirectory != null && maxDiskBytes <= 0) {
+            throw new IllegalArgumentException("max disk bytes must be positive when a disk directory is given");
+        }
+    }
+
+    public boolean enabled() {
+        return maxMemoryBytes > 0 || diskEnabled();
+    }
+
+    public boolean diskEnabled() {
+        return diskDirectory != null;
+    }
+}
@@ -0,0 +1,221 @@
+package systems.cauldron.service.superresolution.cache;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import systems.cauldron.service.superresolution.image.ByteImageData;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.PixelConverter;
+import systems.cauldron.service.superresolution.inference.Resolver;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Skips the delegate for inputs it has already upscaled, keyed by a digest of the model id, the dimensions
+ * and the 8-bit pixel values of the input. Results are kept at the 8-bit precision they are sent with,
+ * so cached and freshly computed responses are byte for byte identical.
+ * Inputs whose results are too large for the cache bypass it altogether.
+ * <p>
+ * Callers that can wait without blocking a thread {@link #lookup} inputs instead of resolving them, which lets
+ * concurrent identical inputs share the one computation already in flight. Resolving never waits for a computation
+ * in flight, since it runs on the threads that computation may itself be queued behind.
+ */
+public class CachingResolver implements Resolver {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+
+    private static final ThreadLocal<ByteBuffer> CHUNKS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(CHUNK_SIZE));
+
+    private final Resolver delegate;
+    private final ResultCache cache;
+    private final String modelId;
+    private final ConcurrentHashMap<String, CompletableFuture<ByteImageData>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    public CachingResolver(Resolver delegate, ResultCache cache, String modelId, MetricRegistry metrics) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.modelId = modelId;
+        this.coalesced = metrics.counter("cache.coalesced");
+    }
+
+    /**
+     * @return the resolver computing the results that aren't cached
+     */
+    public Resolver delegate() {
+        return delegate;
+    }
+
+    @Override
+    public int scalingFactor() {
+        return delegate.scalingFactor();
+    }
+
+    @Override
+    public FloatImageData resolve(FloatImageData input) {
+        return resolveInto(input, null);
+    }
+
+    /**
+     * Cached results are converted straight into the sink, others are resolved into it by the delegate.
+     */
+    @Override
+    public FloatImageData resolve(FloatImageData input, FloatBuffer sink) {
+        return resolveInto(input, sink);
+    }
+
+    /**
+     * @param sink buffer to write the output into, or null to allocate one
+     */
+    private FloatImageData resolveInto(FloatImageData input, FloatBuffer sink) {
+        if (!accepts(input.width(), input.height())) {
+            // neither looked up nor quantized into a copy that the cache would discard
+            return sink == null ? delegate.resolve(input) : delegate.resolve(input, sink);
+        }
+        Lookup lookup = lookup(input);
+        if (!lookup.isMiss()) {
+            // an identical computation still in flight is not waited for, but duplicated
+            ByteImageData shared = lookup.result().getNow(null);
+            if (shared != null) {
+                return convert(shared, sink);
+            }
+        }
+        FloatImageData output;
+        try {
+            output = sink == null ? delegate.resolve(input) : delegate.resolve(input, sink);
+        } catch (RuntimeException ex) {
+            lookup.fail(ex);
+            throw ex;
+        }
+        lookup.complete(output);
+        return output;
+    }
+
+    /**
+     * @return whether results of an input of these dimensions fit in the cache, as others are never looked up
+     */
+    public boolean accepts(int width, int height) {
+        int scalingFactor = delegate.scalingFactor();
+        return cache.accepts((long) width * height * scalingFactor * scalingFactor * NUM_ELEMENTS_PER_PIXEL);
+    }
+
+    /**
+     * Looks an input up in the cache and among the computations in flight, for callers that don't resolve it
+     * through this resolver. Either the lookup is a miss, in which case the caller has to compute the output and
+     * report it or its failure to the lookup, or the result is shared with the cache or an identical computation.
+     * Hashing the input and reading the disk tier block, so this is best called off latency sensitive threads.
+     */
+    public Lookup lookup(FloatImageData input) {
+        String key = key(input);
+        Optional<ByteImageData> cached = cache.get(key);
+        if (cached.isPresent()) {
+            return new Lookup(key, CompletableFuture.completedFuture(cached.get()), false);
+        }
+        CompletableFuture<ByteImageData> computation = new CompletableFuture<>();
+        CompletableFuture<ByteImageData> existing = inFlight.putIfAbsent(key, computation);
+        if (existing != null) {
+            coalesced.inc();
+            return new Lookup(key, existing, false);
+        }
+        return new Lookup(key, computation, true);
+    }
+
+    private static FloatImageData convert(ByteImageData cached, FloatBuffer sink) {
+        return sink == null ? cached.toFloatImageData() : cached.toFloatImageData(sink);
+    }
+
+    /**
+     * The outcome of looking up a single input.
+     */
+    public final class Lookup {
+
+        private final String key;
+        private final CompletableFuture<ByteImageData> result;
+        private final boolean miss;
+
+        private Lookup(String key, CompletableFuture<ByteImageData> result, boolean miss) {
+            this.key = key;
+            this.result = result;
+            this.miss = miss;
+        }
+
+        /**
+         * @return whether the caller has to compute the output and report it
+         */
+        public boolean isMiss() {
+            return miss;
+        }
+
+        /**
+         * @return the 8-bit result, completing once it is cached, and shared with every lookup of an identical input
+         */
+        public CompletableFuture<ByteImageData> result() {
+            return result;
+        }
+
+        /**
+         * Caches the output of a miss, and completes the lookups that waited for it.
+         */
+        public void complete(FloatImageData output) {
+            if (!miss) {
+                return;
+            }
+            ByteImageData quantized;
+            try {
+                quantized = output.toByteImageData();
+            } catch (RuntimeException ex) {
+                fail(ex);
+                throw ex;
+            }
+            cache.put(key, quantized);
+            inFlight.remove(key, result);
+            result.complete(quantized);
+        }
+
+        /**
+         * Fails the lookups that waited for the output of a miss, leaving the next lookup to compute it anew.
+         */
+        public void fail(Throwable ex) {
+            if (!miss) {
+                return;
+            }
+            inFlight.remove(key, result);
+            result.completeExceptionally(ex);
+        }
+    }
+
+    String key(FloatImageData input) {
+        MessageDigest digest = createDigest();
+        digest.update(modelId.getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(2 * Integer.BYTES)
+                .putInt(input.width())
+                .putInt(input.height())
+                .flip());
+        ByteBuffer chunk = CHUNKS.get();
+        FloatBuffer source = input.data().duplicate();
+        while (source.hasRemaining()) {
+            int length = Math.min(CHUNK_SIZE, source.remaining());
+            chunk.clear();
+            PixelConverter.toBytes(source.slice(source.position(), length), chunk);
+            digest.update(chunk.array(), 0, length);
+            source.position(source.position() + length);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
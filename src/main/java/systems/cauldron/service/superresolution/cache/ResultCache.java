@@ -0,0 +1,321 @@
+package systems.cauldron.service.superresolution.cache;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.image.ByteImageData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Size-bounded store of upscaled images by content key, with two least recently used tiers:
+ * 1. heap buffers, lost on restart
+ * 2. one file per entry in a directory, indexed on startup and memory-mapped when read
+ * Entries found only on disk are promoted to memory. Failures of the disk tier are logged and treated as misses.
+ * Entries are written to disk on a background thread, so storing a result never waits for the disk.
+ */
+public class ResultCache implements AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(ResultCache.class);
+
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final CacheOptions options;
+    private final ExecutorService writer;
+    private final LinkedHashMap<String, ByteImageData> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final Counter memoryHits;
+    private final Counter diskHits;
+    private final Counter misses;
+    private final Counter memoryEvictions;
+    private final Counter diskEvictions;
+    private final Counter bytesSaved;
+
+    public ResultCache(CacheOptions options, MetricRegistry metrics) {
+        this.options = options;
+        this.memoryHits = metrics.counter("cache.hits", new Tag("tier", "memory"));
+        this.diskHits = metrics.counter("cache.hits", new Tag("tier", "disk"));
+        this.misses = metrics.counter("cache.misses");
+        this.memoryEvictions = metrics.counter("cache.evictions", new Tag("tier", "memory"));
+        this.diskEvictions = metrics.counter("cache.evictions", new Tag("tier", "disk"));
+        this.bytesSaved = metrics.counter("cache.bytes.saved");
+        metrics.register("cache.hit.ratio", (Gauge<Double>) this::hitRatio);
+        metrics.register("cache.memory.bytes", (Gauge<Long>) this::memoryBytes);
+        metrics.register("cache.disk.bytes", (Gauge<Long>) this::diskBytes);
+        if (options.diskEnabled()) {
+            loadIndex();
+            this.writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cache-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.writer = null;
+        }
+    }
+
+    public Optional<ByteImageData> get(String key) {
+        ByteImageData image;
+        synchronized (memory) {
+            image = memory.get(key);
+        }
+        if (image != null) {
+            memoryHits.inc();
+            bytesSaved.inc(image.data().remaining());
+            return Optional.of(duplicate(image));
+        }
+        if (options.diskEnabled()) {
+            image = read(key);
+            if (image != null) {
+                diskHits.inc();
+                bytesSaved.inc(image.data().remaining());
+                putInMemory(key, image);
+                return Optional.of(duplicate(image));
+            }
+        }
+        misses.inc();
+        return Optional.empty();
+    }
+
+    /**
+     * @param bytes size of the pixel data of a result
+     * @return whether a result of that size fits in either tier, as larger ones are never stored
+     */
+    public boolean accepts(long bytes) {
+        return bytes <= options.maxMemoryBytes() || (options.diskEnabled() && HEADER_SIZE + bytes <= options.maxDiskBytes());
+    }
+
+    public void put(String key, ByteImageData image) {
+        ByteImageData entry = duplicate(image);
+        putInMemory(key, entry);
+        if (writer != null) {
+            try {
+                writer.execute(() -> write(key, entry));
+            } catch (RejectedExecutionException ex) {
+                // shutting down, the entry stays in memory only
+            }
+        }
+    }
+
+    /**
+     * Finishes writing the entries already stored to disk.
+     */
+    @Override
+    public void close() throws Exception {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOG.warn("cache writer did not terminate in time");
+            writer.shutdownNow();
+        }
+    }
+
+    private void putInMemory(String key, ByteImageData image) {
+        long size = image.data().remaining();
+        if (size > options.maxMemoryBytes()) {
+            return;
+        }
+        synchronized (memory) {
+            ByteImageData previous = memory.put(key, image);
+            if (previous != null) {
+                memoryBytes -= previous.data().remaining();
+            }
+            memoryBytes += size;
+            Iterator<ByteImageData> eldest = memory.values().iterator();
+            while (memoryBytes > options.maxMemoryBytes()) {
+                memoryBytes -= eldest.next().data().remaining();
+                eldest.remove();
+                memoryEvictions.inc();
+            }
+        }
+    }
+
+    private ByteImageData read(String key) {
+        synchronized (disk) {
+            if (disk.get(key) == null) {
+                return null;
+            }
+        }
+        Path path = entryPath(key);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int width = mapped.getInt(0);
+            int height = mapped.getInt(Integer.BYTES);
+            ByteBuffer data = mapped.slice(HEADER_SIZE, mapped.capacity() - HEADER_SIZE);
+            if (data.remaining() != width * height * 3) {
+                throw new IOException("corrupt cache entry: " + path);
+            }
+            return new ByteImageData(data, width, height);
+        } catch (IOException ex) {
+            if (!(ex instanceof NoSuchFileException)) {
+                LOG.warn("discarding unreadable cache entry {}", path, ex);
+            }
+            removeFromDisk(key);
+            return null;
+        }
+    }
+
+    private void write(String key, ByteImageData image) {
+        long size = HEADER_SIZE + image.data().remaining();
+        if (size > options.maxDiskBytes()) {
+            return;
+        }
+        Path path = entryPath(key);
+        Path temporary = options.diskDirectory().resolve(key + "." + Thread.currentThread().getId() + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(image.width())
+                    .putInt(image.height())
+                    .flip();
+            ByteBuffer data = image.data().duplicate();
+            while (header.hasRemaining() || data.hasRemaining()) {
+                channel.write(new ByteBuffer[]{header, data});
+            }
+        } catch (IOException ex) {
+            LOG.warn("unable to write cache entry {}", path, ex);
+            return;
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            LOG.warn("unable to write cache entry {}", path, ex);
+            return;
+        }
+        List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            Long previous = disk.put(key, size);
+            if (previous != null) {
+                diskBytes -= previous;
+            }
+            diskBytes += size;
+            Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+            while (diskBytes > options.maxDiskBytes()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String evictedKey : evicted) {
+            delete(evictedKey);
+            diskEvictions.inc();
+        }
+    }
+
+    private void removeFromDisk(String key) {
+        synchronized (disk) {
+            Long size = disk.remove(key);
+            if (size != null) {
+                diskBytes -= size;
+            }
+        }
+        delete(key);
+    }
+
+    private void delete(String key) {
+        try {
+            Files.deleteIfExists(entryPath(key));
+        } catch (IOException ex) {
+            LOG.warn("unable to delete cache entry {}", key, ex);
+        }
+    }
+
+    /**
+     * Rebuilds the least recently used order from file modification times, oldest first.
+     */
+    private void loadIndex() {
+        try {
+            Files.createDirectories(options.diskDirectory());
+            List<Path> entries;
+            try (Stream<Path> files = Files.list(options.diskDirectory())) {
+                entries = files.sorted(Comparator.comparing(ResultCache::lastModified))
+                        .collect(Collectors.toCollection(ArrayList::new));
+            }
+            // writes interrupted by a previous shutdown
+            for (Path entry : entries) {
+                if (entry.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                    Files.deleteIfExists(entry);
+                }
+            }
+            entries.removeIf(path -> !path.getFileName().toString().endsWith(ENTRY_SUFFIX));
+            synchronized (disk) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    long size = Files.size(entry);
+                    disk.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+                    diskBytes += size;
+                }
+            }
+            LOG.info("indexed {} cached results ({} bytes) in {}", entries.size(), diskBytes, options.diskDirectory());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private Path entryPath(String key) {
+        return options.diskDirectory().resolve(key + ENTRY_SUFFIX);
+    }
+
+    private static ByteImageData duplicate(ByteImageData image) {
+        return new ByteImageData(image.data().duplicate(), image.width(), image.height());
+    }
+
+    private double hitRatio() {
+        long hits = memoryHits.getCount() + diskHits.getCount();
+        long total = hits + misses.getCount();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private long memoryBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+
+    private long diskBytes() {
+        synchronized (disk) {
+            return diskBytes;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package systems.cauldron.service.superresolution.cluster;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * @param peers          base URIs of the instances tiles of large images are sent to, e.g. http://10.0.0.2:8080,
+ *                       or none to resolve every tile locally
+ * @param tilesPerPeer   number of tiles in flight to each peer at once, on top of the local tile workers
+ * @param timeout        longest time a peer may take for a tile before it is recomputed locally
+ * @param failureBackoff time a peer that failed is left out before tiles are sent to it again
+ * @param secret         shared by every member of the cluster and sent with each tile, since the internal tile
+ *                       endpoint is served on the same port as the public API
+ */
+public record ClusterOptions(List<URI> peers, int tilesPerPeer, Duration timeout, Duration failureBackoff, String secret) {
+
+    public static final ClusterOptions DISABLED = new ClusterOptions(List.of(), 1, Duration.ofSeconds(30), Duration.ofSeconds(30), null);
+
+    public ClusterOptions {
+        peers = List.copyOf(peers);
+        if (tilesPerPeer < 1) {
+            throw new IllegalArgumentException("tiles per peer must be positive");
+        }
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        if (failureBackoff.isNegative()) {
+            throw new IllegalArgumentException("failure backoff must not be negative");
+        }
+        if (!peers.isEmpty() && (secret == null || secret.isBlank())) {
+            throw new IllegalArgumentException("a cluster secret is required with peers");
+        }
+    }
+
+    public boolean enabled() {
+        return !peers.isEmpty();
+    }
+}
@@ -0,0 +1,112 @@
+package systems.cauldron.service.superresolution.cluster;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.model.Precision;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends tiles to the internal tile endpoint of peer instances, keeping track of which peers recently failed.
+ */
+public class PeerClient {
+
+    private final static Logger LOG = LogManager.getLogger(PeerClient.class);
+
+    static final String TILE_PATH = "/internal/tiles";
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    private final ClusterOptions options;
+    private final MetricRegistry metrics;
+    private final HttpClient client;
+    private final Map<URI, Long> failedUntil = new ConcurrentHashMap<>();
+
+    public PeerClient(ClusterOptions options, MetricRegistry metrics) {
+        this.options = options;
+        this.metrics = metrics;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(options.timeout())
+                .build();
+    }
+
+    public ClusterOptions options() {
+        return options;
+    }
+
+    public List<URI> peers() {
+        return options.peers();
+    }
+
+    /**
+     * @return whether the peer has not failed within the failure backoff
+     */
+    boolean available(URI peer) {
+        Long until = failedUntil.get(peer);
+        return until == null || System.nanoTime() - until >= 0;
+    }
+
+    /**
+     * Resolves a tile on a peer into the remaining space of the sink. A peer that fails, or that serves a version or
+     * precision of the model other than the given one, is left out for the failure backoff.
+     *
+     * @throws UncheckedIOException if the peer is unreachable, too slow, or answers with anything but the upscaled tile
+     */
+    FloatImageData resolve(URI peer, String model, String version, Precision precision, int scalingFactor, FloatImageData tile, FloatBuffer sink) {
+        URI uri = peer.resolve(TILE_PATH + "?model=" + URLEncoder.encode(model, StandardCharsets.UTF_8)
+                + "&width=" + tile.width() + "&height=" + tile.height()
+                + "&version=" + URLEncoder.encode(version, StandardCharsets.UTF_8)
+                + "&precision=" + precision.name().toLowerCase(Locale.ROOT));
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(options.timeout())
+                .header("Content-Type", "application/octet-stream")
+                .header(SECRET_HEADER, options.secret())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(TileTransfer.encode(tile)))
+                .build();
+        long started = System.nanoTime();
+        try {
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 409) {
+                metrics.counter("cluster.peer.mismatches", new Tag("peer", peer.getAuthority())).inc();
+                throw new IOException("peer " + peer + " serves another version or precision of model '" + model + "'");
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException("peer " + peer + " answered with status " + response.statusCode());
+            }
+            FloatImageData output = TileTransfer.decode(response.body(), tile.width() * scalingFactor, tile.height() * scalingFactor, sink);
+            metrics.timer("cluster.peer.request", new Tag("peer", peer.getAuthority()))
+                    .update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            return output;
+        } catch (IOException ex) {
+            fail(peer, ex);
+            throw new UncheckedIOException(ex);
+        } catch (IllegalArgumentException ex) {
+            fail(peer, ex);
+            throw ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for peer " + peer, ex);
+        }
+    }
+
+    private void fail(URI peer, Exception ex) {
+        LOG.warn("peer {} failed, leaving it out for {} ms: {}", peer, options.failureBackoff().toMillis(), ex.getMessage());
+        failedUntil.put(peer, System.nanoTime() + options.failureBackoff().toNanos());
+        metrics.counter("cluster.peer.failures", new Tag("peer", peer.getAuthority())).inc();
+    }
+}
@@ -0,0 +1,132 @@
+package systems.cauldron.service.superresolution.cluster;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.inference.Resolver;
+import systems.cauldron.service.superresolution.model.Precision;
+
+import java.net.URI;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Resolves tiles on peer instances as well as on the local delegate. The delegate and every peer have a number of
+ * slots, and each tile takes whichever slot frees up first, so that faster instances end up with more of the tiles.
+ * A tile whose peer fails is recomputed locally, and the peer is left out until its failure backoff has passed.
+ * The same goes for a peer serving another version or precision of the model, whose tiles would not blend in.
+ */
+public class TileDispatcher implements Resolver {
+
+    private final static Logger LOG = LogManager.getLogger(TileDispatcher.class);
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+
+    private final Resolver local;
+    private final String model;
+    private final String version;
+    private final Precision precision;
+    private final PeerClient client;
+    private final BlockingQueue<Slot> slots = new LinkedBlockingQueue<>();
+    private final Counter localTiles;
+    private final Counter peerTiles;
+    private final Counter fallbackTiles;
+
+    /**
+     * @param version      version of the model the local delegate resolves with, which peers have to serve as well
+     * @param precision    precision of the model variant the local delegate resolves with, which peers have to serve as well
+     * @param localSlots   number of tiles resolved locally at once, the number of local tile workers
+     * @param tilesPerPeer number of tiles in flight to each peer at once
+     */
+    public TileDispatcher(Resolver local, String model, String version, Precision precision, PeerClient client, int localSlots, int tilesPerPeer,
+                          MetricRegistry metrics, Tag... tags) {
+        this.local = local;
+        this.model = model;
+        this.version = version;
+        this.precision = precision;
+        this.client = client;
+        for (int i = 0; i < localSlots; i++) {
+            slots.add(new Slot(null));
+        }
+        for (int i = 0; i < tilesPerPeer; i++) {
+            for (URI peer : client.peers()) {
+                slots.add(new Slot(peer));
+            }
+        }
+        this.localTiles = metrics.counter("cluster.tiles", withTarget(tags, "local"));
+        this.peerTiles = metrics.counter("cluster.tiles", withTarget(tags, "peer"));
+        this.fallbackTiles = metrics.counter("cluster.tiles", withTarget(tags, "fallback"));
+    }
+
+    @Override
+    public int scalingFactor() {
+        return local.scalingFactor();
+    }
+
+    @Override
+    public FloatImageData resolve(FloatImageData input) {
+        return dispatch(input, null);
+    }
+
+    @Override
+    public FloatImageData resolve(FloatImageData input, FloatBuffer sink) {
+        return dispatch(input, sink);
+    }
+
+    /**
+     * @param sink buffer to write the output into, or null to allocate one
+     */
+    private FloatImageData dispatch(FloatImageData input, FloatBuffer sink) {
+        Slot slot;
+        try {
+            slot = slots.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a tile slot", ex);
+        }
+        try {
+            if (slot.peer() != null && client.available(slot.peer())) {
+                int scalingFactor = local.scalingFactor();
+                FloatBuffer target = sink != null ? sink
+                        : FloatBuffer.allocate(input.width() * input.height() * scalingFactor * scalingFactor * NUM_ELEMENTS_PER_PIXEL);
+                try {
+                    FloatImageData output = client.resolve(slot.peer(), model, version, precision, scalingFactor, input, target);
+                    peerTiles.inc();
+                    return output;
+                } catch (RuntimeException ex) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw ex;
+                    }
+                    LOG.warn("recomputing {} x {} tile of peer {} locally", input.width(), input.height(), slot.peer());
+                    fallbackTiles.inc();
+                    return resolveLocally(input, sink);
+                }
+            }
+            localTiles.inc();
+            return resolveLocally(input, sink);
+        } finally {
+            slots.add(slot);
+        }
+    }
+
+    private FloatImageData resolveLocally(FloatImageData input, FloatBuffer sink) {
+        return sink == null ? local.resolve(input) : local.resolve(input, sink);
+    }
+
+    private static Tag[] withTarget(Tag[] tags, String target) {
+        Tag[] result = Arrays.copyOf(tags, tags.length + 1);
+        result[tags.length] = new Tag("target", target);
+        return result;
+    }
+
+    /**
+     * @param peer peer the slot sends tiles to, or null for a local slot
+     */
+    private record Slot(URI peer) {
+    }
+}
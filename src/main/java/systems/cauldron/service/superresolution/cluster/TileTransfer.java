@@ -0,0 +1,46 @@
+package systems.cauldron.service.superresolution.cluster;
+
+import systems.cauldron.service.superresolution.image.FloatImageData;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Tiles travel between instances in the inference model image format as little-endian 32-bit floats rather than
+ * quantized bytes, so that a tile blends into the output the same whichever instance resolved it.
+ */
+public final class TileTransfer {
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+    private static final int NUM_BYTES_PER_ELEMENT = 4;
+
+    private TileTransfer() {
+    }
+
+    public static byte[] encode(FloatImageData image) {
+        int elements = image.width() * image.height() * NUM_ELEMENTS_PER_PIXEL;
+        ByteBuffer bytes = ByteBuffer.allocate(elements * NUM_BYTES_PER_ELEMENT).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asFloatBuffer().put(image.data().slice(image.data().position(), elements));
+        return bytes.array();
+    }
+
+    /**
+     * Decodes into the remaining space of the sink.
+     *
+     * @throws IllegalArgumentException if the content doesn't hold an image of the given dimensions
+     */
+    public static FloatImageData decode(byte[] content, int width, int height, FloatBuffer sink) {
+        int elements = width * height * NUM_ELEMENTS_PER_PIXEL;
+        if (content.length != (long) elements * NUM_BYTES_PER_ELEMENT) {
+            throw new IllegalArgumentException("expected " + (long) elements * NUM_BYTES_PER_ELEMENT + " bytes for a " + width + " x " + height
+                    + " tile but got " + content.length);
+        }
+        if (sink.remaining() < elements) {
+            throw new IllegalArgumentException("sink has insufficient space for " + elements + " elements");
+        }
+        FloatBuffer target = sink.slice(sink.position(), elements);
+        target.put(0, ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer(), 0, elements);
+        return new FloatImageData(target, width, height);
+    }
+}
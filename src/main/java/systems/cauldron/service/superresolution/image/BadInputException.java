@@ -0,0 +1,16 @@
+package systems.cauldron.service.superresolution.image;
+
+/**
+ * Thrown when client supplied content has been checked and found unusable, such as an unreadable image or raw content
+ * that doesn't match its dimensions, as opposed to arguments that are invalid because of a programming error.
+ */
+public class BadInputException extends IllegalArgumentException {
+
+    public BadInputException(String message) {
+        super(message);
+    }
+
+    public BadInputException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -2,16 +2,35 @@ package systems.cauldron.service.superresolution.image;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * @param layout arrangement of the samples in the data
+ */
+public record ByteImageData(ByteBuffer data, int width, int height, PixelLayout layout) {
+
+    public ByteImageData(ByteBuffer data, int width, int height) {
+        this(data, width, height, PixelLayout.PLANAR_RGB);
+    }
 
-public record ByteImageData(ByteBuffer data, int width, int height) {
     public FloatImageData toFloatImageData() {
-        ByteBuffer source = data.duplicate();
-        ByteBuffer sink = ByteBuffer.allocateDirect(source.remaining() * 4)
-                .order(ByteOrder.nativeOrder());
-        while (source.hasRemaining()) {
-            sink.putFloat((source.get() & 0xff) / 255.0f);
+        FloatBuffer sink = ByteBuffer.allocateDirect(width * height * 3 * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        return toFloatImageData(sink);
+    }
+
+    /**
+     * Converts into the remaining space of a caller-provided buffer without allocating, discarding any alpha samples.
+     */
+    public FloatImageData toFloatImageData(FloatBuffer sink) {
+        FloatBuffer target = sink.slice();
+        if (layout == PixelLayout.PLANAR_RGB) {
+            PixelConverter.toFloats(data.duplicate(), target);
+        } else {
+            new PixelUnpacker(layout, width, height, target, null).accept(data.duplicate());
         }
-        sink.flip();
-        return new FloatImageData(sink.asFloatBuffer(), width, height);
+        target.position(0).limit(width * height * 3);
+        return new FloatImageData(target, width, height);
     }
 }
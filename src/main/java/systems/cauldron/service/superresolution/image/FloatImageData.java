@@ -5,12 +5,28 @@ import java.nio.FloatBuffer;
 
 public record FloatImageData(FloatBuffer data, int width, int height) {
     public ByteImageData toByteImageData() {
-        FloatBuffer source = data.duplicate();
-        ByteBuffer sink = ByteBuffer.allocate(source.remaining());
-        while (source.hasRemaining()) {
-            sink.put((byte) Math.round(255.0f * Math.max(0.0f, Math.min(1.0f, source.get()))));
-        }
-        sink.flip();
-        return new ByteImageData(sink, width, height);
+        return toByteImageData(ByteBuffer.allocate(data.remaining()));
+    }
+
+    /**
+     * Converts into the remaining space of a caller-provided buffer without allocating.
+     */
+    public ByteImageData toByteImageData(ByteBuffer sink) {
+        ByteBuffer target = sink.slice();
+        PixelConverter.toBytes(data.duplicate(), target);
+        target.flip();
+        return new ByteImageData(target, width, height);
+    }
+
+    /**
+     * Converts into the remaining space of a caller-provided buffer in the given layout without allocating.
+     *
+     * @param alpha alpha plane of the image's dimensions, or null for layouts without alpha
+     */
+    public ByteImageData toByteImageData(ByteBuffer sink, PixelLayout layout, Plane alpha) {
+        ByteBuffer target = sink.slice();
+        PixelConverter.toBytes(this, alpha, layout, 0, layout.rows(height), target);
+        target.flip();
+        return new ByteImageData(target, width, height, layout);
     }
 }
@@ -0,0 +1,194 @@
+package systems.cauldron.service.superresolution.image;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.util.Iterator;
+
+/**
+ * Decodes compressed images straight into the inference model image format, and encodes the inference model
+ * image format straight into compressed images, by exposing the planar float buffer to ImageIO as a 3-band
+ * banded raster instead of going through an intermediate interleaved image.
+ */
+public final class ImageCodec {
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+    private static final int NUM_BYTES_PER_ELEMENT = 4;
+
+    private ImageCodec() {
+    }
+
+    public record Dimensions(int width, int height) {
+        public long pixels() {
+            return (long) width * height;
+        }
+    }
+
+    /**
+     * Reads only as much of the image as needed to determine its dimensions.
+     *
+     * @throws BadInputException if the image is corrupt or of an unsupported format
+     */
+    public static Dimensions probe(byte[] encoded) {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            ImageReader reader = openReader(stream);
+            try {
+                return new Dimensions(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException ex) {
+            // the image is read from memory, so any failure lies in its content
+            throw new BadInputException("unreadable image", ex);
+        }
+    }
+
+    /**
+     * @param sink buffer with room for at least width * height * 3 floats
+     * @throws BadInputException if the image is corrupt or of an unsupported format
+     */
+    public static FloatImageData decode(byte[] encoded, FloatBuffer sink) {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            ImageReader reader = openReader(stream);
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                FloatBuffer target = sink.slice(sink.position(), width * height * NUM_ELEMENTS_PER_PIXEL);
+                if (isOpaqueColor(reader.getRawImageType(0))) {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setDestination(wrapAsBufferedImage(wrapAsDataBuffer(target), width, height));
+                    reader.read(0, param);
+                } else {
+                    // sources with alpha, palettes or a single band can't be read into an RGB destination directly
+                    copy(reader.read(0), target);
+                }
+                return new FloatImageData(target, width, height);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException ex) {
+            throw new BadInputException("unreadable image", ex);
+        }
+    }
+
+    public static void encode(FloatImageData image, ImageFormat format, OutputStream out) {
+        encode(image, format, Float.NaN, out);
+    }
+
+    /**
+     * @param compressionQuality ImageIO compression quality from 0 (smallest) to 1 (best), or NaN for the writer's default
+     */
+    public static void encode(FloatImageData image, ImageFormat format, float compressionQuality, OutputStream out) {
+        BufferedImage source = wrapAsBufferedImage(wrapAsDataBuffer(image.data()), image.width(), image.height());
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(format.mimeType());
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException("no encoder available for " + format.mimeType());
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (!Float.isNaN(compressionQuality) && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(compressionQuality);
+            }
+            writer.write(null, new IIOImage(source, null, null), param);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static ImageReader openReader(ImageInputStream stream) throws IOException {
+        if (stream == null) {
+            throw new IOException("unable to open image stream");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            throw new IOException("unsupported image format");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(stream, true, true);
+        return reader;
+    }
+
+    private static boolean isOpaqueColor(ImageTypeSpecifier type) {
+        if (type == null) {
+            return false;
+        }
+        ColorModel colorModel = type.getColorModel();
+        return type.getNumBands() == NUM_ELEMENTS_PER_PIXEL
+                && !colorModel.hasAlpha()
+                && !(colorModel instanceof IndexColorModel);
+    }
+
+    private static void copy(BufferedImage image, FloatBuffer target) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int planeSize = width * height;
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int index = y * width + x;
+                target.put(index, ((row[x] >> 16) & 0xff) / 255.0f);
+                target.put(planeSize + index, ((row[x] >> 8) & 0xff) / 255.0f);
+                target.put(2 * planeSize + index, (row[x] & 0xff) / 255.0f);
+            }
+        }
+    }
+
+    private static DataBuffer wrapAsDataBuffer(FloatBuffer buffer) {
+        return new DataBuffer(DataBuffer.TYPE_BYTE, buffer.remaining() * NUM_BYTES_PER_ELEMENT) {
+            @Override
+            public void setElem(int bank, int i, int val) {
+                buffer.put(i, val / 255.0f);
+            }
+
+            @Override
+            public int getElem(int bank, int i) {
+                return Math.round(255.0f * Math.max(0.0f, Math.min(1.0f, buffer.get(i))));
+            }
+        };
+    }
+
+    private static BufferedImage wrapAsBufferedImage(DataBuffer dataBuffer, int width, int height) {
+        int numPixels = width * height;
+        ColorSpace colorSpace = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+        ColorModel colorModel = new ComponentColorModel(colorSpace, new int[]{8, 8, 8}, false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        int[] bandOffsets = new int[NUM_ELEMENTS_PER_PIXEL];
+        for (int i = 0; i < NUM_ELEMENTS_PER_PIXEL; i++) {
+            bandOffsets[i] = i * numPixels;
+        }
+        SampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_BYTE, width, height, 1, width, bandOffsets);
+        WritableRaster raster = new WritableRaster(sampleModel, dataBuffer, new Point()) {
+        };
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+}
@@ -0,0 +1,54 @@
+package systems.cauldron.service.superresolution.image;
+
+import javax.imageio.ImageIO;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Compressed image formats accepted and produced by the API, availability of each depending on the
+ * ImageIO plugins present at runtime.
+ */
+public enum ImageFormat {
+    PNG("image/png", new byte[]{(byte) 0x89, 'P', 'N', 'G'}, 0),
+    JPEG("image/jpeg", new byte[]{(byte) 0xff, (byte) 0xd8, (byte) 0xff}, 0),
+    WEBP("image/webp", new byte[]{'W', 'E', 'B', 'P'}, 8);
+
+    private final String mimeType;
+    private final byte[] signature;
+    private final int signatureOffset;
+
+    ImageFormat(String mimeType, byte[] signature, int signatureOffset) {
+        this.mimeType = mimeType;
+        this.signature = signature;
+        this.signatureOffset = signatureOffset;
+    }
+
+    public String mimeType() {
+        return mimeType;
+    }
+
+    public boolean canDecode() {
+        return ImageIO.getImageReadersByMIMEType(mimeType).hasNext();
+    }
+
+    public boolean canEncode() {
+        return ImageIO.getImageWritersByMIMEType(mimeType).hasNext();
+    }
+
+    public static Optional<ImageFormat> fromMimeType(String mimeType) {
+        return Arrays.stream(values())
+                .filter(format -> format.mimeType.equalsIgnoreCase(mimeType))
+                .findFirst();
+    }
+
+    /**
+     * Identifies the format of an encoded image by the signature at the start of its content.
+     */
+    public static Optional<ImageFormat> detect(byte[] encoded) {
+        return Arrays.stream(values())
+                .filter(format -> encoded.length >= format.signatureOffset + format.signature.length
+                        && Arrays.equals(encoded, format.signatureOffset, format.signatureOffset + format.signature.length,
+                        format.signature, 0, format.signature.length))
+                .findFirst();
+    }
+}
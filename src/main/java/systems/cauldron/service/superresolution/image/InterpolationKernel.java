@@ -0,0 +1,51 @@
+package systems.cauldron.service.superresolution.image;
+
+/**
+ * Separable resampling kernels of the interpolating upscaler.
+ * - BICUBIC: Keys' cubic convolution with a = -0.5, 4 taps per axis
+ * - LANCZOS3: windowed sinc with 6 taps per axis, sharper at a higher cost
+ */
+public enum InterpolationKernel {
+    BICUBIC(2) {
+        @Override
+        double weight(double x) {
+            double t = Math.abs(x);
+            if (t < 1.0) {
+                return (1.5 * t - 2.5) * t * t + 1.0;
+            }
+            if (t < 2.0) {
+                return ((-0.5 * t + 2.5) * t - 4.0) * t + 2.0;
+            }
+            return 0.0;
+        }
+    },
+    LANCZOS3(3) {
+        @Override
+        double weight(double x) {
+            double t = Math.abs(x);
+            if (t < 1e-9) {
+                return 1.0;
+            }
+            if (t >= 3.0) {
+                return 0.0;
+            }
+            double pi = Math.PI * t;
+            return 3.0 * Math.sin(pi) * Math.sin(pi / 3.0) / (pi * pi);
+        }
+    };
+
+    private final int radius;
+
+    InterpolationKernel(int radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * @return number of source samples on each side of the sampling position the kernel reaches
+     */
+    int radius() {
+        return radius;
+    }
+
+    abstract double weight(double x);
+}
@@ -0,0 +1,144 @@
+package systems.cauldron.service.superresolution.image;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Upscales images in the inference model image format, or single planes such as an alpha channel, by separable
+ * interpolation, as a cheap alternative to a model.
+ * The image is resampled horizontally and then vertically, each pass splitting the rows of all channels across a
+ * fork-join pool. Kernel weights are computed once per output column and row rather than once per output pixel,
+ * and the vertical pass accumulates whole rows so its inner loop is a simple multiply-add the JIT can vectorize.
+ */
+public class Interpolator implements AutoCloseable {
+
+    private static final int ROWS_PER_TASK = 16;
+
+    private final InterpolationKernel kernel;
+    private final ForkJoinPool pool;
+
+    public Interpolator(InterpolationKernel kernel, int parallelism) {
+        this.kernel = kernel;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Upscales on the interpolator's own pool, keeping the caller's thread free.
+     */
+    public CompletableFuture<FloatImageData> submit(FloatImageData input, int scalingFactor) {
+        return CompletableFuture.supplyAsync(() -> upscale(input, scalingFactor), pool);
+    }
+
+    public CompletableFuture<Plane> submit(Plane input, int scalingFactor) {
+        return CompletableFuture.supplyAsync(() -> upscale(input, scalingFactor), pool);
+    }
+
+    public FloatImageData upscale(FloatImageData input, int scalingFactor) {
+        float[] output = upscale(input.data(), input.width(), input.height(), 3, scalingFactor);
+        return new FloatImageData(FloatBuffer.wrap(output), input.width() * scalingFactor, input.height() * scalingFactor);
+    }
+
+    public Plane upscale(Plane input, int scalingFactor) {
+        float[] output = upscale(input.data(), input.width(), input.height(), 1, scalingFactor);
+        return new Plane(FloatBuffer.wrap(output), input.width() * scalingFactor, input.height() * scalingFactor);
+    }
+
+    private float[] upscale(FloatBuffer data, int width, int height, int channels, int scalingFactor) {
+        int outputWidth = width * scalingFactor;
+        int outputHeight = height * scalingFactor;
+        float[] source = new float[width * height * channels];
+        data.duplicate().get(source);
+        Taps columns = Taps.of(kernel, width, scalingFactor);
+        Taps rows = Taps.of(kernel, height, scalingFactor);
+
+        float[] horizontal = new float[channels * height * outputWidth];
+        forEachRow(channels * height, row -> {
+            int sourceOffset = row * width;
+            int targetOffset = row * outputWidth;
+            for (int x = 0; x < outputWidth; x++) {
+                float sum = 0.0f;
+                int base = x * columns.count();
+                for (int k = 0; k < columns.count(); k++) {
+                    sum += columns.weights()[base + k] * source[sourceOffset + columns.index(x, k, width)];
+                }
+                horizontal[targetOffset + x] = sum;
+            }
+        });
+
+        float[] output = new float[channels * outputHeight * outputWidth];
+        forEachRow(channels * outputHeight, row -> {
+            int channelOffset = row / outputHeight * height * outputWidth;
+            int y = row % outputHeight;
+            int targetOffset = row * outputWidth;
+            int base = y * rows.count();
+            for (int k = 0; k < rows.count(); k++) {
+                float weight = rows.weights()[base + k];
+                int sourceOffset = channelOffset + rows.index(y, k, height) * outputWidth;
+                for (int x = 0; x < outputWidth; x++) {
+                    output[targetOffset + x] += weight * horizontal[sourceOffset + x];
+                }
+            }
+            // kernels with negative lobes overshoot around edges
+            for (int x = targetOffset; x < targetOffset + outputWidth; x++) {
+                output[x] = Math.min(1.0f, Math.max(0.0f, output[x]));
+            }
+        });
+        return output;
+    }
+
+    private void forEachRow(int rows, IntConsumer task) {
+        int tasks = (rows + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(t -> {
+            int end = Math.min(rows, (t + 1) * ROWS_PER_TASK);
+            for (int row = t * ROWS_PER_TASK; row < end; row++) {
+                task.accept(row);
+            }
+        })).join();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Normalized kernel weights of the source samples contributing to each output position along one axis,
+     * with sample centres aligned so that every source sample covers scalingFactor output samples.
+     *
+     * @param count  number of taps per output position
+     * @param start  index of the first tap of each output position, possibly outside the image
+     * @param weights weights of all taps, count per output position
+     */
+    private record Taps(int count, int[] start, float[] weights) {
+
+        static Taps of(InterpolationKernel kernel, int size, int scalingFactor) {
+            int count = 2 * kernel.radius();
+            int outputSize = size * scalingFactor;
+            int[] start = new int[outputSize];
+            float[] weights = new float[outputSize * count];
+            for (int i = 0; i < outputSize; i++) {
+                double centre = (i + 0.5) / scalingFactor - 0.5;
+                int first = (int) Math.floor(centre) - kernel.radius() + 1;
+                start[i] = first;
+                double sum = 0.0;
+                for (int k = 0; k < count; k++) {
+                    sum += kernel.weight(centre - (first + k));
+                }
+                for (int k = 0; k < count; k++) {
+                    weights[i * count + k] = (float) (kernel.weight(centre - (first + k)) / sum);
+                }
+            }
+            return new Taps(count, start, weights);
+        }
+
+        /**
+         * @return source index of a tap, repeating the edge samples beyond the image
+         */
+        int index(int position, int tap, int size) {
+            return Math.min(size - 1, Math.max(0, start[position] + tap));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package systems.cauldron.service.superresolution.image;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts between the API image format and the inference model image format in bulk, writing into
+ * caller-provided buffers. Elements are processed as primitive arrays, either the buffers' own backing
+ * arrays or reusable per-thread chunks, so the inner loops are free of per-element buffer bounds checks
+ * and byte order handling and are simple enough for the JIT to vectorize.
+ */
+public final class PixelConverter {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private static final ThreadLocal<Chunk> CHUNKS = ThreadLocal.withInitial(Chunk::new);
+    private static final ThreadLocal<Rows> ROWS = ThreadLocal.withInitial(Rows::new);
+
+    private PixelConverter() {
+    }
+
+    /**
+     * Converts all remaining bytes of the source, advancing the positions of both buffers.
+     */
+    public static void toFloats(ByteBuffer source, FloatBuffer sink) {
+        int count = source.remaining();
+        if (sink.remaining() < count) {
+            throw new IllegalArgumentException("sink has insufficient space for " + count + " elements");
+        }
+        if (source.hasArray() && sink.hasArray()) {
+            toFloats(source.array(), source.arrayOffset() + source.position(), sink.array(), sink.arrayOffset() + sink.position(), count);
+            source.position(source.position() + count);
+            sink.position(sink.position() + count);
+            return;
+        }
+        Chunk chunk = CHUNKS.get();
+        while (source.hasRemaining()) {
+            int length = Math.min(CHUNK_SIZE, source.remaining());
+            source.get(chunk.bytes, 0, length);
+            toFloats(chunk.bytes, 0, chunk.floats, 0, length);
+            sink.put(chunk.floats, 0, length);
+        }
+    }
+
+    /**
+     * Converts all remaining floats of the source, clamping to [0, 1], advancing the positions of both buffers.
+     */
+    public static void toBytes(FloatBuffer source, ByteBuffer sink) {
+        int count = source.remaining();
+        if (sink.remaining() < count) {
+            throw new IllegalArgumentException("sink has insufficient space for " + count + " elements");
+        }
+        if (source.hasArray() && sink.hasArray()) {
+            toBytes(source.array(), source.arrayOffset() + source.position(), sink.array(), sink.arrayOffset() + sink.position(), count);
+            source.position(source.position() + count);
+            sink.position(sink.position() + count);
+            return;
+        }
+        Chunk chunk = CHUNKS.get();
+        while (source.hasRemaining()) {
+            int length = Math.min(CHUNK_SIZE, source.remaining());
+            source.get(chunk.floats, 0, length);
+            toBytes(chunk.floats, 0, chunk.bytes, 0, length);
+            sink.put(chunk.bytes, 0, length);
+        }
+    }
+
+    /**
+     * Converts whole rows of an image into the API image format in the given layout, quantizing and arranging the
+     * samples in a single pass. Rows are counted in the order of the layout, so that consecutive calls can write
+     * out an image a band of rows at a time. Gray samples are the luma of the color channels.
+     *
+     * @param alpha    alpha plane of the image's dimensions, required by layouts with alpha
+     * @param firstRow index of the first row within the layout's rows
+     */
+    public static void toBytes(FloatImageData image, Plane alpha, PixelLayout layout, int firstRow, int rows, ByteBuffer sink) {
+        int width = image.width();
+        int height = image.height();
+        if (layout.hasAlpha() && (alpha == null || alpha.width() != width || alpha.height() != height)) {
+            throw new IllegalArgumentException("layout requires an alpha plane of the image's dimensions");
+        }
+        if (firstRow < 0 || rows < 0 || firstRow + rows > layout.rows(height)) {
+            throw new IllegalArgumentException("rows exceed the image dimensions");
+        }
+        if (sink.remaining() < (long) rows * layout.rowBytes(width)) {
+            throw new IllegalArgumentException("sink has insufficient space for " + rows + " rows");
+        }
+        FloatBuffer data = image.data();
+        int planeSize = width * height;
+        if (layout == PixelLayout.PLANAR_RGB || layout == PixelLayout.PLANAR_RGBA) {
+            // rows within a plane are contiguous, so each plane's share is converted in bulk
+            int row = firstRow;
+            while (row < firstRow + rows) {
+                int plane = row / height;
+                int count = Math.min(firstRow + rows - row, height - row % height);
+                FloatBuffer source = plane < 3
+                        ? data.slice(data.position() + row * width, count * width)
+                        : alpha.data().slice(alpha.data().position() + (row - 3 * height) * width, count * width);
+                toBytes(source, sink);
+                row += count;
+            }
+            return;
+        }
+        Rows scratch = ROWS.get().ensureCapacity(width, layout.rowBytes(width));
+        for (int y = firstRow; y < firstRow + rows; y++) {
+            int offset = data.position() + y * width;
+            data.get(offset, scratch.red, 0, width);
+            data.get(offset + planeSize, scratch.green, 0, width);
+            data.get(offset + 2 * planeSize, scratch.blue, 0, width);
+            if (layout == PixelLayout.GRAY) {
+                for (int x = 0; x < width; x++) {
+                    scratch.bytes[x] = quantize(0.299f * scratch.red[x] + 0.587f * scratch.green[x] + 0.114f * scratch.blue[x]);
+                }
+            } else {
+                int channels = layout.channels();
+                if (layout.hasAlpha()) {
+                    alpha.data().get(alpha.data().position() + y * width, scratch.alpha, 0, width);
+                }
+                for (int x = 0; x < width; x++) {
+                    int index = x * channels;
+                    scratch.bytes[index] = quantize(scratch.red[x]);
+                    scratch.bytes[index + 1] = quantize(scratch.green[x]);
+                    scratch.bytes[index + 2] = quantize(scratch.blue[x]);
+                    if (channels == 4) {
+                        scratch.bytes[index + 3] = quantize(scratch.alpha[x]);
+                    }
+                }
+            }
+            sink.put(scratch.bytes, 0, layout.rowBytes(width));
+        }
+    }
+
+    private static void toFloats(byte[] source, int sourceOffset, float[] sink, int sinkOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            sink[sinkOffset + i] = (source[sourceOffset + i] & 0xff) / 255.0f;
+        }
+    }
+
+    private static void toBytes(float[] source, int sourceOffset, byte[] sink, int sinkOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            sink[sinkOffset + i] = quantize(source[sourceOffset + i]);
+        }
+    }
+
+    private static byte quantize(float value) {
+        return (byte) Math.round(255.0f * Math.max(0.0f, Math.min(1.0f, value)));
+    }
+
+    private static final class Chunk {
+        private final byte[] bytes = new byte[CHUNK_SIZE];
+        private final float[] floats = new float[CHUNK_SIZE];
+    }
+
+    /**
+     * A row of each channel and the converted row, grown to the widest image seen by the thread.
+     */
+    private static final class Rows {
+        private float[] red = new float[0];
+        private float[] green = new float[0];
+        private float[] blue = new float[0];
+        private float[] alpha = new float[0];
+        private byte[] bytes = new byte[0];
+
+        Rows ensureCapacity(int width, int rowBytes) {
+            if (red.length < width || bytes.length < rowBytes) {
+                red = new float[width];
+                green = new float[width];
+                blue = new float[width];
+                alpha = new float[width];
+                bytes = new byte[Math.max(rowBytes, 4 * width)];
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package systems.cauldron.service.superresolution.image;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Arrangement of the 8-bit samples of raw images in the API image format. Planar layouts hold each channel as a whole
+ * plane after the other, interleaved layouts the channels of each pixel next to each other. Gray images have a single
+ * plane, which the model sees replicated into all three color channels.
+ */
+public enum PixelLayout {
+    PLANAR_RGB(3, true),
+    PLANAR_RGBA(4, true),
+    INTERLEAVED_RGB(3, false),
+    INTERLEAVED_RGBA(4, false),
+    GRAY(1, true);
+
+    private final int channels;
+    private final boolean planar;
+
+    PixelLayout(int channels, boolean planar) {
+        this.channels = channels;
+        this.planar = planar;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public boolean planar() {
+        return planar;
+    }
+
+    public boolean hasAlpha() {
+        return channels == 4;
+    }
+
+    public long bytes(long pixels) {
+        return pixels * channels;
+    }
+
+    /**
+     * @return number of rows of samples in the order they are laid out, a planar image having a set of rows per plane
+     */
+    public int rows(int height) {
+        return planar ? channels * height : height;
+    }
+
+    public int rowBytes(int width) {
+        return planar ? width : channels * width;
+    }
+
+    /**
+     * @return the layout named by a query parameter value such as "interleaved-rgba"
+     */
+    public static Optional<PixelLayout> fromParameter(String value) {
+        return Arrays.stream(values())
+                .filter(layout -> layout.parameterValue().equalsIgnoreCase(value))
+                .findFirst();
+    }
+
+    public String parameterValue() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
@@ -0,0 +1,128 @@
+package systems.cauldron.service.superresolution.image;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts the bytes of a raw image in any pixel layout into the inference model image format as they arrive,
+ * normalizing and transposing into the color planes in a single pass, so that clients can send their pixels as they
+ * hold them. Gray samples are replicated into all three color planes and alpha samples go into a plane of their own.
+ * Content may be split anywhere, even within a pixel.
+ */
+public final class PixelUnpacker {
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+    private static final int CHUNK_SIZE = 4096;
+
+    private final PixelLayout layout;
+    private final int planeSize;
+    private final FloatBuffer color;
+    private final FloatBuffer alpha;
+    private final long length;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private long consumed;
+
+    /**
+     * @param color sink with room for width * height * 3 floats from its position on
+     * @param alpha sink with room for width * height floats from its position on, or null to discard alpha samples
+     */
+    public PixelUnpacker(PixelLayout layout, int width, int height, FloatBuffer color, FloatBuffer alpha) {
+        this.layout = layout;
+        this.planeSize = width * height;
+        if (color.remaining() < planeSize * NUM_ELEMENTS_PER_PIXEL) {
+            throw new IllegalArgumentException("color sink has insufficient space for " + planeSize * NUM_ELEMENTS_PER_PIXEL + " elements");
+        }
+        this.color = color.slice(color.position(), planeSize * NUM_ELEMENTS_PER_PIXEL);
+        if (layout.hasAlpha() && alpha != null) {
+            if (alpha.remaining() < planeSize) {
+                throw new IllegalArgumentException("alpha sink has insufficient space for " + planeSize + " elements");
+            }
+            this.alpha = alpha.slice(alpha.position(), planeSize);
+        } else {
+            this.alpha = null;
+        }
+        this.length = layout.bytes(planeSize);
+    }
+
+    /**
+     * @return number of bytes still expected
+     */
+    public long remaining() {
+        return length - consumed;
+    }
+
+    /**
+     * Converts all remaining bytes of the source, advancing its position.
+     *
+     * @throws BadInputException if the source holds more bytes than still expected
+     */
+    public void accept(ByteBuffer source) {
+        if (source.remaining() > remaining()) {
+            throw new BadInputException("content exceeds the image dimensions");
+        }
+        if (layout == PixelLayout.PLANAR_RGB || layout == PixelLayout.PLANAR_RGBA) {
+            acceptPlanes(source);
+            return;
+        }
+        while (source.hasRemaining()) {
+            int count = Math.min(CHUNK_SIZE, source.remaining());
+            source.get(chunk, 0, count);
+            if (layout == PixelLayout.GRAY) {
+                acceptGray(count);
+            } else {
+                acceptInterleaved(count);
+            }
+            consumed += count;
+        }
+    }
+
+    /**
+     * Color planes are already in the model's order, so runs of them are converted in bulk.
+     */
+    private void acceptPlanes(ByteBuffer source) {
+        int colorSize = planeSize * NUM_ELEMENTS_PER_PIXEL;
+        while (source.hasRemaining()) {
+            int offset = (int) consumed;
+            int count;
+            if (offset < colorSize) {
+                count = Math.min(source.remaining(), colorSize - offset);
+                PixelConverter.toFloats(source.slice(source.position(), count), color.slice(offset, count));
+            } else {
+                count = source.remaining();
+                if (alpha != null) {
+                    PixelConverter.toFloats(source.slice(source.position(), count), alpha.slice(offset - colorSize, count));
+                }
+            }
+            source.position(source.position() + count);
+            consumed += count;
+        }
+    }
+
+    private void acceptGray(int count) {
+        int pixel = (int) consumed;
+        for (int i = 0; i < count; i++, pixel++) {
+            float value = (chunk[i] & 0xff) / 255.0f;
+            color.put(pixel, value);
+            color.put(planeSize + pixel, value);
+            color.put(2 * planeSize + pixel, value);
+        }
+    }
+
+    private void acceptInterleaved(int count) {
+        int channels = layout.channels();
+        int pixel = (int) (consumed / channels);
+        int channel = (int) (consumed % channels);
+        for (int i = 0; i < count; i++) {
+            float value = (chunk[i] & 0xff) / 255.0f;
+            if (channel < NUM_ELEMENTS_PER_PIXEL) {
+                color.put(channel * planeSize + pixel, value);
+            } else if (alpha != null) {
+                alpha.put(pixel, value);
+            }
+            if (++channel == channels) {
+                channel = 0;
+                pixel++;
+            }
+        }
+    }
+}
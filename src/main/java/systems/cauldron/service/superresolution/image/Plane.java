@@ -0,0 +1,25 @@
+package systems.cauldron.service.superresolution.image;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A single channel image in the inference model image format, such as an alpha channel, which is upscaled apart from
+ * the color channels.
+ */
+public record Plane(FloatBuffer data, int width, int height) {
+
+    /**
+     * Copies a region of the plane into a plane of its own.
+     */
+    public Plane crop(Region region) {
+        if (region.x() + region.width() > width || region.y() + region.height() > height) {
+            throw new IllegalArgumentException("region exceeds the plane dimensions");
+        }
+        FloatBuffer target = FloatBuffer.allocate((int) region.pixels());
+        for (int row = 0; row < region.height(); row++) {
+            int sourceIndex = data.position() + (region.y() + row) * width + region.x();
+            target.put(row * region.width(), data, sourceIndex, region.width());
+        }
+        return new Plane(target, region.width(), region.height());
+    }
+}
@@ -0,0 +1,108 @@
+package systems.cauldron.service.superresolution.image;
+
+import java.nio.FloatBuffer;
+import java.util.Optional;
+
+/**
+ * A rectangle of pixels within an image.
+ */
+public record Region(int x, int y, int width, int height) {
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+
+    public Region {
+        if (x < 0 || y < 0) {
+            throw new IllegalArgumentException("region must not start at negative coordinates");
+        }
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("region must not be empty");
+        }
+    }
+
+    public long pixels() {
+        return (long) width * height;
+    }
+
+    /**
+     * @return the part of the region that lies within an image of the given dimensions, or empty if there is none
+     */
+    public Optional<Region> clip(int imageWidth, int imageHeight) {
+        int right = Math.min(x + width, imageWidth);
+        int bottom = Math.min(y + height, imageHeight);
+        if (right <= x || bottom <= y) {
+            return Optional.empty();
+        }
+        return Optional.of(new Region(x, y, right - x, bottom - y));
+    }
+
+    /**
+     * @param scalingFactor ratio of the dimensions of the image this region lies in to those of the source image
+     * @param margin        number of source pixels around the covered area that contribute to its pixels
+     * @return the region of the source image needed to compute this region, clipped to the source image
+     */
+    public Region source(int scalingFactor, int margin, int sourceWidth, int sourceHeight) {
+        int left = Math.max(0, x / scalingFactor - margin);
+        int top = Math.max(0, y / scalingFactor - margin);
+        int right = Math.min(sourceWidth, ceilDiv(x + width, scalingFactor) + margin);
+        int bottom = Math.min(sourceHeight, ceilDiv(y + height, scalingFactor) + margin);
+        return new Region(left, top, right - left, bottom - top);
+    }
+
+    public Region scale(int scalingFactor) {
+        return new Region(x * scalingFactor, y * scalingFactor, width * scalingFactor, height * scalingFactor);
+    }
+
+    /**
+     * @return this region in the coordinates of an enclosing region
+     */
+    public Region relativeTo(Region enclosing) {
+        return new Region(x - enclosing.x, y - enclosing.y, width, height);
+    }
+
+    /**
+     * Copies this region of a planar image into the start of the target buffer.
+     */
+    public FloatImageData copy(FloatImageData source, FloatBuffer target) {
+        if (x + width > source.width() || y + height > source.height()) {
+            throw new IllegalArgumentException("region exceeds the image dimensions");
+        }
+        FloatBuffer sourceData = source.data();
+        int sourcePlaneSize = source.width() * source.height();
+        int targetPlaneSize = width * height;
+        for (int channel = 0; channel < NUM_ELEMENTS_PER_PIXEL; channel++) {
+            for (int row = 0; row < height; row++) {
+                int sourceIndex = sourceData.position() + channel * sourcePlaneSize + (y + row) * source.width() + x;
+                int targetIndex = channel * targetPlaneSize + row * width;
+                target.put(targetIndex, sourceData, sourceIndex, width);
+            }
+        }
+        return new FloatImageData(target, width, height);
+    }
+
+    /**
+     * Copies a planar image of the region's dimensions into this region of the target image.
+     */
+    public void paste(FloatImageData source, FloatImageData target) {
+        if (source.width() != width || source.height() != height) {
+            throw new IllegalArgumentException("source must have the dimensions of the region");
+        }
+        if (x + width > target.width() || y + height > target.height()) {
+            throw new IllegalArgumentException("region exceeds the image dimensions");
+        }
+        FloatBuffer sourceData = source.data();
+        FloatBuffer targetData = target.data();
+        int sourcePlaneSize = width * height;
+        int targetPlaneSize = target.width() * target.height();
+        for (int channel = 0; channel < NUM_ELEMENTS_PER_PIXEL; channel++) {
+            for (int row = 0; row < height; row++) {
+                int sourceIndex = sourceData.position() + channel * sourcePlaneSize + row * width;
+                int targetIndex = targetData.position() + channel * targetPlaneSize + (y + row) * target.width() + x;
+                targetData.put(targetIndex, sourceData, sourceIndex, width);
+            }
+        }
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,21 @@
+package systems.cauldron.service.superresolution.inference;
+
+/**
+ * @param threads            number of threads dedicated to executing inference work
+ * @param maxPendingRequests maximum number of admitted requests, queued or executing
+ * @param maxPendingPixels   maximum total input pixels of admitted requests, queued or executing
+ */
+public record AdmissionOptions(int threads, int maxPendingRequests, long maxPendingPixels) {
+
+    public AdmissionOptions {
+        if (threads < 1) {
+            throw new IllegalArgumentException("thread count must be positive");
+        }
+        if (maxPendingRequests < threads) {
+            throw new IllegalArgumentException("max pending requests must be at least the thread count");
+        }
+        if (maxPendingPixels < 1) {
+            throw new IllegalArgumentException("max pending pixels must be positive");
+        }
+    }
+}
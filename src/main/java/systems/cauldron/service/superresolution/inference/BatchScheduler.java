@@ -0,0 +1,308 @@
+package systems.cauldron.service.superresolution.inference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.Region;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects concurrently submitted images of the same shape for a short window and resolves
+ * them with a single call to the delegate's batch resolution, completing each submitter's future
+ * with its own slice of the output. Images whose dimensions round up to the same multiple of the
+ * configured padding share a shape: smaller ones are padded to the largest of their batch by
+ * repeating their edge pixels, and their outputs are cropped back to their own upscaled size.
+ */
+public class BatchScheduler implements Resolver, AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(BatchScheduler.class);
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+
+    private final Resolver delegate;
+    private final BatchingOptions options;
+    private final Map<Shape, ArrayDeque<Pending>> pending = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<Thread> dispatchers;
+    private final MetricRegistry metrics;
+    private final MetricID queueDepthId;
+    private final Counter batchCounter;
+    private final Counter paddedCounter;
+    private final Histogram batchSizes;
+    private final Histogram batchFillPercentages;
+    private final Timer batchWaits;
+    private int queued = 0;
+    private boolean running = true;
+
+    public BatchScheduler(Resolver delegate, BatchingOptions options, MetricRegistry metrics, Tag... tags) {
+        this(delegate, options, 1, metrics, tags);
+    }
+
+    /**
+     * @param concurrency number of batches handed to the delegate at the same time, matching the sessions behind it
+     * @param tags        distinguishes the metrics of schedulers sharing a registry, the queue depth gauge being removed on close
+     */
+    public BatchScheduler(Resolver delegate, BatchingOptions options, int concurrency, MetricRegistry metrics, Tag... tags) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.delegate = delegate;
+        this.options = options;
+        this.metrics = metrics;
+        this.queueDepthId = new MetricID("batch.queue.depth", tags);
+        this.batchCounter = metrics.counter("batch.count", tags);
+        this.paddedCounter = metrics.counter("batch.padded", tags);
+        this.batchSizes = metrics.histogram("batch.size", tags);
+        this.batchFillPercentages = metrics.histogram("batch.fill.percent", tags);
+        this.batchWaits = metrics.timer("batch.wait", tags);
+        Metadata queueDepth = Metadata.builder()
+                .withName(queueDepthId.getName())
+                .withType(MetricType.GAUGE)
+                .build();
+        metrics.register(queueDepth, (Gauge<Integer>) this::queued, tags);
+        this.dispatchers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Thread dispatcher = new Thread(this::dispatch, "batch-dispatcher-" + i);
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            dispatchers.add(dispatcher);
+        }
+    }
+
+    @Override
+    public int scalingFactor() {
+        return delegate.scalingFactor();
+    }
+
+    @Override
+    public FloatImageData resolve(FloatImageData input) {
+        try {
+            return submit(input).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @throws OverloadedException        if the queue is full
+     * @throws RejectedExecutionException if the scheduler has been closed
+     */
+    public CompletableFuture<FloatImageData> submit(FloatImageData input) {
+        Pending request = new Pending(input, new CompletableFuture<>(), System.nanoTime());
+        lock.lock();
+        try {
+            if (!running) {
+                throw new RejectedExecutionException("batch scheduler has been closed");
+            }
+            if (queued >= options.queueDepth()) {
+                throw new OverloadedException("batch queue is full", options.maxWait());
+            }
+            pending.computeIfAbsent(shapeOf(input), shape -> new ArrayDeque<>()).add(request);
+            queued++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return request.future();
+    }
+
+    private Shape shapeOf(FloatImageData input) {
+        int multiple = options.padMultiple();
+        return new Shape(ceilToMultiple(input.width(), multiple), ceilToMultiple(input.height(), multiple));
+    }
+
+    private static int ceilToMultiple(int value, int multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    private int queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            List<Pending> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+            execute(batch);
+        }
+    }
+
+    /**
+     * Waits for the images sharing the shape of the oldest queued image until either the batch is full
+     * or the oldest image has waited for the configured window. Another dispatcher may take those images
+     * in the meantime, in which case the wait starts over with whatever is queued then.
+     *
+     * @return the next batch to execute, or null once the scheduler is closed
+     */
+    private List<Pending> nextBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                while (running && queued == 0) {
+                    changed.await();
+                }
+                if (!running) {
+                    return null;
+                }
+                Shape shape = oldestShape();
+                ArrayDeque<Pending> candidates = pending.get(shape);
+                long deadline = candidates.peek().enqueued() + options.maxWait().toNanos();
+                long remaining = deadline - System.nanoTime();
+                while (running && pending.get(shape) == candidates && candidates.size() < options.maxBatchSize() && remaining > 0) {
+                    remaining = changed.awaitNanos(remaining);
+                }
+                if (!running) {
+                    return null;
+                }
+                if (pending.get(shape) != candidates || candidates.isEmpty()) {
+                    continue;
+                }
+                int size = Math.min(candidates.size(), options.maxBatchSize());
+                List<Pending> batch = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    batch.add(candidates.poll());
+                }
+                if (candidates.isEmpty()) {
+                    pending.remove(shape, candidates);
+                }
+                queued -= size;
+                // dispatchers waiting on the same images look for other work
+                changed.signalAll();
+                return batch;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Shape oldestShape() {
+        Shape oldest = null;
+        long oldestEnqueued = Long.MAX_VALUE;
+        for (Map.Entry<Shape, ArrayDeque<Pending>> entry : pending.entrySet()) {
+            long enqueued = entry.getValue().peek().enqueued();
+            if (oldest == null || enqueued - oldestEnqueued < 0) {
+                oldest = entry.getKey();
+                oldestEnqueued = enqueued;
+            }
+        }
+        return oldest;
+    }
+
+    private void execute(List<Pending> batch) {
+        long now = System.nanoTime();
+        batch.forEach(request -> batchWaits.update(now - request.enqueued(), TimeUnit.NANOSECONDS));
+        batchCounter.inc();
+        batchSizes.update(batch.size());
+        batchFillPercentages.update(100 * batch.size() / options.maxBatchSize());
+        // padded only as far as the largest image of the batch, so a batch of one is never padded
+        int width = batch.stream().mapToInt(request -> request.input().width()).max().orElseThrow();
+        int height = batch.stream().mapToInt(request -> request.input().height()).max().orElseThrow();
+        try {
+            List<FloatImageData> outputs = delegate.resolveBatch(batch.stream()
+                    .map(request -> pad(request.input(), width, height))
+                    .toList());
+            int scalingFactor = delegate.scalingFactor();
+            for (int i = 0; i < batch.size(); i++) {
+                FloatImageData input = batch.get(i).input();
+                batch.get(i).future().complete(crop(outputs.get(i), input.width() * scalingFactor, input.height() * scalingFactor));
+            }
+        } catch (RuntimeException ex) {
+            LOG.error("batch of {} images failed", batch.size(), ex);
+            batch.forEach(request -> request.future().completeExceptionally(ex));
+        }
+    }
+
+    /**
+     * Extends the planes of an image to the given dimensions by repeating its last column and row.
+     */
+    private FloatImageData pad(FloatImageData input, int width, int height) {
+        if (input.width() == width && input.height() == height) {
+            return input;
+        }
+        paddedCounter.inc();
+        FloatBuffer source = input.data();
+        int offset = source.position();
+        FloatBuffer padded = FloatBuffer.allocate(width * height * NUM_ELEMENTS_PER_PIXEL);
+        for (int channel = 0; channel < NUM_ELEMENTS_PER_PIXEL; channel++) {
+            for (int y = 0; y < height; y++) {
+                int row = offset + (channel * input.height() + Math.min(y, input.height() - 1)) * input.width();
+                for (int x = 0; x < width; x++) {
+                    padded.put(source.get(row + Math.min(x, input.width() - 1)));
+                }
+            }
+        }
+        return new FloatImageData(padded.flip(), width, height);
+    }
+
+    private static FloatImageData crop(FloatImageData output, int width, int height) {
+        if (output.width() == width && output.height() == height) {
+            return output;
+        }
+        return new Region(0, 0, width, height).copy(output, FloatBuffer.allocate(width * height * NUM_ELEMENTS_PER_PIXEL));
+    }
+
+    @Override
+    public void close() throws Exception {
+        List<Pending> abandoned = new ArrayList<>();
+        lock.lock();
+        try {
+            running = false;
+            pending.values().forEach(abandoned::addAll);
+            pending.clear();
+            queued = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        abandoned.forEach(request -> request.future().completeExceptionally(new CancellationException("batch scheduler closed")));
+        for (Thread dispatcher : dispatchers) {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        metrics.remove(queueDepthId);
+    }
+
+    private record Shape(int width, int height) {
+    }
+
+    private record Pending(FloatImageData input, CompletableFuture<FloatImageData> future, long enqueued) {
+    }
+}
@@ -0,0 +1,38 @@
+package systems.cauldron.service.superresolution.inference;
+
+import java.time.Duration;
+
+/**
+ * @param maxBatchSize maximum number of equally shaped images combined into a single forward pass
+ * @param maxWait      longest time the oldest queued image waits for its batch to fill up
+ * @param queueDepth   maximum number of images waiting to be batched before new ones are rejected
+ * @param padMultiple  images whose dimensions round up to the same multiple of this are padded to a common shape and
+ *                     batched together, their outputs cropped back; 1 only batches images of identical dimensions
+ */
+public record BatchingOptions(int maxBatchSize, Duration maxWait, int queueDepth, int padMultiple) {
+
+    public static final BatchingOptions DISABLED = new BatchingOptions(1, Duration.ZERO, 1);
+
+    public BatchingOptions(int maxBatchSize, Duration maxWait, int queueDepth) {
+        this(maxBatchSize, maxWait, queueDepth, 1);
+    }
+
+    public BatchingOptions {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("max batch size must be positive");
+        }
+        if (maxWait.isNegative()) {
+            throw new IllegalArgumentException("max wait must not be negative");
+        }
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("queue depth must be positive");
+        }
+        if (padMultiple < 1) {
+            throw new IllegalArgumentException("pad multiple must be positive");
+        }
+    }
+
+    public boolean enabled() {
+        return maxBatchSize > 1;
+    }
+}
@@ -0,0 +1,11 @@
+package systems.cauldron.service.superresolution.inference;
+
+/**
+ * How overlapping tile outputs are combined into the final image.
+ * - CROP: each output pixel is taken from exactly one tile, split at the middle of the overlap
+ * - LINEAR: tile outputs are cross-faded with linear ramps across the overlap
+ */
+public enum BlendMode {
+    CROP,
+    LINEAR
+}
@@ -0,0 +1,169 @@
+package systems.cauldron.service.superresolution.inference;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.image.ByteImageData;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.PixelConverter;
+import systems.cauldron.service.superresolution.image.Region;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Upscales a sequence of equally sized frames, resolving only the tiles that changed since the previous frame.
+ * <p>
+ * The frame is divided into a grid of tiles, each hashed over its pixels and a margin around it, since the output
+ * of the model for a tile depends on that neighbourhood. Tiles whose hash matches the previous frame keep their
+ * previous output, changed tiles are resolved together with their margin and cropped into the output, which is kept
+ * between frames. When most tiles changed, the whole frame is resolved in a single pass instead.
+ * <p>
+ * Frames of a sequence must be resolved one after another.
+ */
+public class FrameSequence {
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+    private static final int NUM_BYTES_PER_ELEMENT = 4;
+    private static final double WHOLE_FRAME_RATIO = 0.5;
+
+    private final int width;
+    private final int height;
+    private final int scalingFactor;
+    private final BufferPool bufferPool;
+    private final List<Region> tiles = new ArrayList<>();
+    private final List<Region> sources = new ArrayList<>();
+    private final long[] hashes;
+    private final FloatImageData frame;
+    private final FloatImageData output;
+    private final Counter reusedTiles;
+    private final Counter resolvedTiles;
+    private Resolver previousResolver;
+
+    /**
+     * @param tileSize width and height of the tiles compared between frames, in input pixels
+     * @param margin   number of input pixels around a tile that its output depends on
+     */
+    public FrameSequence(int width, int height, int scalingFactor, int tileSize, int margin, BufferPool bufferPool, MetricRegistry metrics, Tag... tags) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size must be positive");
+        }
+        this.width = width;
+        this.height = height;
+        this.scalingFactor = scalingFactor;
+        this.bufferPool = bufferPool;
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                Region tile = new Region(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+                tiles.add(tile);
+                sources.add(tile.source(1, margin, width, height));
+            }
+        }
+        this.hashes = new long[tiles.size()];
+        this.frame = new FloatImageData(FloatBuffer.allocate(width * height * NUM_ELEMENTS_PER_PIXEL), width, height);
+        int outputWidth = width * scalingFactor;
+        int outputHeight = height * scalingFactor;
+        // direct, so that whole frames can be resolved straight into it
+        FloatBuffer outputData = ByteBuffer.allocateDirect(outputWidth * outputHeight * NUM_ELEMENTS_PER_PIXEL * NUM_BYTES_PER_ELEMENT)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        this.output = new FloatImageData(outputData, outputWidth, outputHeight);
+        this.reusedTiles = metrics.counter("frames.tiles", withTag(tags, new Tag("outcome", "reused")));
+        this.resolvedTiles = metrics.counter("frames.tiles", withTag(tags, new Tag("outcome", "resolved")));
+    }
+
+    /**
+     * Every tile is resolved for the first frame, and again whenever the resolver changes, e.g. after a model reload.
+     *
+     * @return the upscaled frame, which is overwritten by the next call
+     */
+    public FloatImageData resolve(ByteImageData input, Resolver resolver) {
+        if (input.width() != width || input.height() != height) {
+            throw new IllegalArgumentException("frames of a sequence must share the same dimensions");
+        }
+        if (resolver.scalingFactor() != scalingFactor) {
+            throw new IllegalStateException("scaling factor of the model changed within the sequence");
+        }
+        boolean reset = resolver != previousResolver;
+        long[] frameHashes = new long[tiles.size()];
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < tiles.size(); i++) {
+            frameHashes[i] = hash(input, sources.get(i));
+            if (reset || frameHashes[i] != hashes[i]) {
+                changed.add(i);
+            }
+        }
+        if (!changed.isEmpty()) {
+            try {
+                resolveChanged(input, resolver, changed);
+            } catch (RuntimeException ex) {
+                // the output may be partly updated, so the next frame is resolved in full
+                previousResolver = null;
+                throw ex;
+            }
+        }
+        System.arraycopy(frameHashes, 0, hashes, 0, hashes.length);
+        previousResolver = resolver;
+        reusedTiles.inc(tiles.size() - changed.size());
+        resolvedTiles.inc(changed.size());
+        return output;
+    }
+
+    private void resolveChanged(ByteImageData input, Resolver resolver, List<Integer> changed) {
+        PixelConverter.toFloats(input.data().duplicate(), frame.data().duplicate());
+        if (changed.size() > tiles.size() * WHOLE_FRAME_RATIO) {
+            resolver.resolve(new FloatImageData(frame.data().duplicate(), width, height), output.data().duplicate());
+            return;
+        }
+        for (int i : changed) {
+            Region tile = tiles.get(i);
+            Region source = sources.get(i);
+            long sourceElements = source.pixels() * NUM_ELEMENTS_PER_PIXEL;
+            try (BufferPool.Lease tensor = bufferPool.lease(sourceElements * NUM_BYTES_PER_ELEMENT);
+                 BufferPool.Lease upscaledTensor = bufferPool.lease(sourceElements * scalingFactor * scalingFactor * NUM_BYTES_PER_ELEMENT)) {
+                FloatImageData upscaled = resolver.resolve(source.copy(frame, tensor.floats()), upscaledTensor.floats());
+                Region target = tile.scale(scalingFactor);
+                Region within = target.relativeTo(source.scale(scalingFactor));
+                target.paste(within.copy(upscaled, FloatBuffer.allocate((int) target.pixels() * NUM_ELEMENTS_PER_PIXEL)), output);
+            }
+        }
+    }
+
+    /**
+     * 64-bit hash of the planar bytes of a region, reading 8 bytes at a time where rows allow it.
+     */
+    static long hash(ByteImageData image, Region region) {
+        ByteBuffer data = image.data();
+        int planeSize = image.width() * image.height();
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int channel = 0; channel < NUM_ELEMENTS_PER_PIXEL; channel++) {
+            for (int row = 0; row < region.height(); row++) {
+                int index = data.position() + channel * planeSize + (region.y() + row) * image.width() + region.x();
+                int end = index + region.width();
+                for (; index + Long.BYTES <= end; index += Long.BYTES) {
+                    hash = mix(hash, data.getLong(index));
+                }
+                for (; index < end; index++) {
+                    hash = mix(hash, data.get(index));
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        long mixed = (hash ^ value) * 0xBF58476D1CE4E5B9L;
+        return mixed ^ (mixed >>> 31);
+    }
+
+    private static Tag[] withTag(Tag[] tags, Tag tag) {
+        Tag[] result = Arrays.copyOf(tags, tags.length + 1);
+        result[tags.length] = tag;
+        return result;
+    }
+}
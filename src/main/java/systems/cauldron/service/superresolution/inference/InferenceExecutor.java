@@ -0,0 +1,219 @@
+package systems.cauldron.service.superresolution.inference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs inference work on a dedicated thread pool, keeping it off the webserver's threads, and bounds the amount of
+ * admitted work by both request count and total input pixels so that overload is refused up front instead of
+ * growing latency and native memory without limit.
+ * <p>
+ * Admitted work whose input has arrived waits for a thread in the order given by the scheduling options, shortest
+ * job first with aging by default. The cost of a request is estimated from its output pixels, its input pixels times
+ * the square of the model's scaling factor, at the average cost per output pixel observed so far.
+ */
+public class InferenceExecutor implements AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(InferenceExecutor.class);
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    // weight given to the latest observation when tracking the average cost per pixel
+    private static final double SMOOTHING = 0.2;
+
+    private final AdmissionOptions options;
+    private final SchedulingOptions scheduling;
+    private final ExecutorService executor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Timer queueWaits;
+    private final Timer executions;
+    private final Counter rejections;
+    private int pendingRequests = 0;
+    private long pendingPixels = 0;
+    private double nanosPerPixel = 0.0;
+    private double nanosPerOutputPixel = 0.0;
+
+    public InferenceExecutor(AdmissionOptions options, MetricRegistry metrics) {
+        this(options, SchedulingOptions.FIFO, metrics);
+    }
+
+    public InferenceExecutor(AdmissionOptions options, SchedulingOptions scheduling, MetricRegistry metrics) {
+        this.options = options;
+        this.scheduling = scheduling;
+        AtomicInteger threadCount = new AtomicInteger();
+        // admission bounds the number of queued tasks
+        this.executor = new ThreadPoolExecutor(options.threads(), options.threads(), 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(options.maxPendingRequests()),
+                runnable -> new Thread(runnable, "inference-" + threadCount.incrementAndGet()));
+        this.queueWaits = metrics.timer("inference.queue.wait");
+        this.executions = metrics.timer("inference.execution");
+        this.rejections = metrics.counter("inference.rejected");
+        metrics.register("inference.pending.requests", (Gauge<Integer>) this::pendingRequests);
+        metrics.register("inference.pending.pixels", (Gauge<Long>) this::pendingPixels);
+    }
+
+    /**
+     * Submits work of normal priority whose cost is proportional to its input pixels.
+     *
+     * @see #submit(long, int, Priority, Supplier, Function)
+     */
+    public <I, O> CompletableFuture<O> submit(long pixels, Supplier<? extends CompletionStage<I>> input, Function<I, O> task) {
+        return submit(pixels, 1, Priority.NORMAL, input, task);
+    }
+
+    /**
+     * Reserves capacity for a request before any of its input is consumed, then applies the task to the input
+     * on the inference thread pool once it is available. The reservation is released when the task finishes.
+     *
+     * @param pixels        number of input pixels, used as the cost estimate of the request
+     * @param scalingFactor scaling factor of the model the task runs, which scales the cost of each input pixel
+     * @param input         supplies the input, only invoked once the request has been admitted
+     * @throws OverloadedException if admitting the request would exceed the configured capacity
+     */
+    public <I, O> CompletableFuture<O> submit(long pixels, int scalingFactor, Priority priority,
+                                              Supplier<? extends CompletionStage<I>> input, Function<I, O> task) {
+        admit(pixels);
+        long outputPixels = pixels * scalingFactor * scalingFactor;
+        CompletableFuture<O> result = new CompletableFuture<>();
+        try {
+            input.get().whenComplete((value, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                } else {
+                    enqueue(new Scheduled(deadline(outputPixels, priority), sequence.getAndIncrement(),
+                            () -> execute(pixels, outputPixels, value, task, result)), result);
+                }
+            });
+        } catch (RuntimeException ex) {
+            release(pixels);
+            throw ex;
+        }
+        return result.whenComplete((value, ex) -> release(pixels));
+    }
+
+    private void enqueue(Scheduled scheduled, CompletableFuture<?> result) {
+        try {
+            executor.execute(scheduled);
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+        }
+    }
+
+    private <I, O> void execute(long pixels, long outputPixels, I value, Function<I, O> task, CompletableFuture<O> result) {
+        long started = System.nanoTime();
+        try {
+            result.complete(task.apply(value));
+        } catch (Throwable ex) {
+            result.completeExceptionally(ex);
+        } finally {
+            long elapsed = System.nanoTime() - started;
+            executions.update(elapsed, TimeUnit.NANOSECONDS);
+            observe(pixels, outputPixels, elapsed);
+        }
+    }
+
+    private synchronized long deadline(long outputPixels, Priority priority) {
+        return scheduling.deadline(System.nanoTime(), outputPixels * nanosPerOutputPixel, priority);
+    }
+
+    private synchronized void admit(long pixels) {
+        // a request larger than the whole budget would never fit, so it is admitted whenever the executor is idle
+        boolean fits = pendingPixels + pixels <= options.maxPendingPixels() || pendingRequests == 0;
+        if (pendingRequests >= options.maxPendingRequests() || !fits) {
+            rejections.inc();
+            throw new OverloadedException("inference capacity exhausted", estimateDrainTime());
+        }
+        pendingRequests++;
+        pendingPixels += pixels;
+    }
+
+    private synchronized void release(long pixels) {
+        pendingRequests--;
+        pendingPixels -= pixels;
+    }
+
+    private synchronized void observe(long pixels, long outputPixels, long elapsedNanos) {
+        nanosPerPixel = smooth(nanosPerPixel, (double) elapsedNanos / Math.max(1L, pixels));
+        nanosPerOutputPixel = smooth(nanosPerOutputPixel, (double) elapsedNanos / Math.max(1L, outputPixels));
+    }
+
+    private static double smooth(double average, double observed) {
+        return average == 0.0 ? observed : SMOOTHING * observed + (1.0 - SMOOTHING) * average;
+    }
+
+    /**
+     * Estimates how long a request of the given size would take if it were submitted now, from the average cost per
+     * pixel observed so far, which is zero until the first request has finished.
+     */
+    public synchronized Duration estimateLatency(long pixels) {
+        return Duration.ofNanos((long) ((pendingPixels / (double) options.threads() + pixels) * nanosPerPixel));
+    }
+
+    private synchronized Duration estimateDrainTime() {
+        double seconds = pendingPixels * nanosPerPixel / options.threads() / NANOS_PER_SECOND;
+        return Duration.ofSeconds(Math.max(1L, (long) Math.ceil(seconds)));
+    }
+
+    private synchronized int pendingRequests() {
+        return pendingRequests;
+    }
+
+    private synchronized long pendingPixels() {
+        return pendingPixels;
+    }
+
+    @Override
+    public void close() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOG.warn("inference executor did not terminate in time");
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A task waiting for an inference thread, ordered by its deadline and, between equal deadlines, by arrival.
+     */
+    private final class Scheduled implements Runnable, Comparable<Scheduled> {
+
+        private final long deadline;
+        private final long sequence;
+        private final long enqueued = System.nanoTime();
+        private final Runnable task;
+
+        private Scheduled(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            queueWaits.update(System.nanoTime() - enqueued, TimeUnit.NANOSECONDS);
+            task.run();
+        }
+
+        @Override
+        public int compareTo(Scheduled other) {
+            // deadlines are compared by difference, as nano times may overflow
+            int order = Long.signum(deadline - other.deadline);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -4,64 +4,321 @@ import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+import io.helidon.metrics.RegistryFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricID;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
 import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.memory.BufferPool;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-public class InferenceServer implements AutoCloseable {
+public class InferenceServer implements Resolver, AutoCloseable {
 
     private final static Logger LOG = LogManager.getLogger(InferenceServer.class);
 
+    private static final String THREAD_AFFINITIES = "session.intra_op_thread_affinities";
+
     private final OrtEnvironment env;
     private final OrtSession.SessionOptions opts;
-    private final OrtSession session;
+    private final List<OrtSession> sessions;
+    private final BlockingQueue<OrtSession> idleSessions;
     private final int modelScalingFactor;
+    private final boolean dynamicBatchSize;
+    private final BufferPool bufferPool;
+    private final MetricRegistry metrics;
+    private final MetricID busySessionsId;
+    private final Timer runs;
+    private final Histogram tensorElements;
+    private final Counter pixels;
+    private final Counter boundOutputs;
+    private final Counter copiedOutputs;
+
+    public InferenceServer(Path modelPath, int modelScalingFactor, BufferPool bufferPool) {
+        this(modelPath, modelScalingFactor, SessionPoolOptions.DEFAULT, bufferPool,
+                RegistryFactory.create().getRegistry(MetricRegistry.Type.APPLICATION));
+    }
 
-    public InferenceServer(Path modelPath, int modelScalingFactor) {
+    /**
+     * @param tags distinguishes the metrics of models sharing a registry, the busy sessions gauge being removed on close
+     */
+    public InferenceServer(Path modelPath, int modelScalingFactor, SessionPoolOptions poolOptions, BufferPool bufferPool,
+                           MetricRegistry metrics, Tag... tags) {
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.busySessionsId = new MetricID("inference.sessions.busy", tags);
+        this.runs = metrics.timer("inference.run", tags);
+        this.tensorElements = metrics.histogram("inference.tensor.elements", tags);
+        this.pixels = metrics.counter("inference.pixels", tags);
+        this.boundOutputs = metrics.counter("inference.outputs", withTag(tags, new Tag("binding", "bound")));
+        this.copiedOutputs = metrics.counter("inference.outputs", withTag(tags, new Tag("binding", "copied")));
+        this.sessions = new ArrayList<>(poolOptions.sessions());
         try {
             this.env = OrtEnvironment.getEnvironment();
             this.opts = new OrtSession.SessionOptions();
-            if (System.getenv("CUDA_VERSION") != null) {
+            boolean cuda = System.getenv("CUDA_VERSION") != null;
+            if (cuda) {
                 this.opts.addCUDA();
                 LOG.info("opening model '{}' for inference with CUDA", modelPath.getFileName());
             } else {
                 LOG.info("opening model '{}' for inference", modelPath.getFileName());
             }
-            this.session = env.createSession(modelPath.toString(), opts);
+            if (poolOptions.intraOpThreads() > 0) {
+                this.opts.setIntraOpNumThreads(poolOptions.intraOpThreads());
+            }
+            if (poolOptions.interOpThreads() > 0) {
+                this.opts.setInterOpNumThreads(poolOptions.interOpThreads());
+            }
+            this.opts.setExecutionMode(poolOptions.executionMode());
+            this.opts.setCPUArenaAllocator(poolOptions.memoryArena());
+            Path sessionModelPath = modelPath;
+            if (poolOptions.optimizedModelDirectory() != null) {
+                sessionModelPath = prepareOptimizedModel(modelPath, poolOptions, cuda);
+            } else {
+                this.opts.setOptimizationLevel(poolOptions.optimizationLevel());
+            }
+            boolean pinThreads = poolOptions.pinThreads() && poolOptions.intraOpThreads() > 1;
+            for (int i = 0; i < poolOptions.sessions(); i++) {
+                if (pinThreads) {
+                    // sessions copy their options when created, so the entry is overwritten for each one
+                    this.opts.addConfigEntry(THREAD_AFFINITIES,
+                            threadAffinities(i, poolOptions.intraOpThreads(), Runtime.getRuntime().availableProcessors()));
+                }
+                this.sessions.add(env.createSession(sessionModelPath.toString(), opts));
+            }
+            this.idleSessions = new ArrayBlockingQueue<>(sessions.size(), false, sessions);
             this.modelScalingFactor = modelScalingFactor;
+            OrtSession session = sessions.get(0);
+            LOG.info("{} session(s) with intra-op threads: {}{}, inter-op threads: {}, execution mode: {}",
+                    sessions.size(), poolOptions.intraOpThreads(), pinThreads ? " (pinned)" : "", poolOptions.interOpThreads(), poolOptions.executionMode());
             LOG.info("inputs: {}", session.getInputInfo().values());
             LOG.info("outputs: {}", session.getOutputInfo().values());
+            TensorInfo inputInfo = (TensorInfo) session.getInputInfo().get("input").getInfo();
+            this.dynamicBatchSize = inputInfo.getShape()[0] < 0;
+            Metadata busySessions = Metadata.builder()
+                    .withName(busySessionsId.getName())
+                    .withType(MetricType.GAUGE)
+                    .build();
+            metrics.register(busySessions, (Gauge<Integer>) () -> sessions.size() - idleSessions.size(), tags);
         } catch (OrtException ex) {
+            sessions.forEach(InferenceServer::closeQuietly);
             throw new RuntimeException(ex);
         }
     }
 
+    /**
+     * Optimizing the graph of a large model takes a noticeable part of startup, so the optimized graph is saved
+     * once and loaded without further optimization afterwards, until the original model file changes.
+     *
+     * @return the path of the model file to create sessions from
+     */
+    private Path prepareOptimizedModel(Path modelPath, SessionPoolOptions poolOptions, boolean cuda) throws OrtException {
+        String fileName = modelPath.getFileName().toString();
+        String baseName = fileName.endsWith(".onnx") ? fileName.substring(0, fileName.length() - ".onnx".length()) : fileName;
+        String level = poolOptions.optimizationLevel().name().toLowerCase(Locale.ROOT);
+        Path optimizedPath = poolOptions.optimizedModelDirectory().resolve(baseName + "." + level + (cuda ? ".cuda" : ".cpu") + ".onnx");
+        try {
+            if (Files.exists(optimizedPath) && Files.getLastModifiedTime(optimizedPath).compareTo(Files.getLastModifiedTime(modelPath)) >= 0) {
+                LOG.info("loading previously optimized model '{}'", optimizedPath);
+                opts.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.NO_OPT);
+                return optimizedPath;
+            }
+            Files.createDirectories(optimizedPath.getParent());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        LOG.info("saving optimized model to '{}'", optimizedPath);
+        opts.setOptimizationLevel(poolOptions.optimizationLevel());
+        try (OrtSession.SessionOptions saveOpts = new OrtSession.SessionOptions()) {
+            if (cuda) {
+                saveOpts.addCUDA();
+            }
+            saveOpts.setOptimizationLevel(poolOptions.optimizationLevel());
+            saveOpts.setOptimizedModelFilePath(optimizedPath.toString());
+            env.createSession(modelPath.toString(), saveOpts).close();
+        }
+        opts.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.NO_OPT);
+        return optimizedPath;
+    }
+
+    /**
+     * Assigns session i the i-th block of intra-op thread count logical processors, wrapping around when there are
+     * more threads than processors. The thread calling run is the first thread of the pool and cannot be pinned,
+     * so only the remaining threads get an entry, each a 1-based processor number.
+     */
+    static String threadAffinities(int session, int intraOpThreads, int processors) {
+        StringJoiner affinities = new StringJoiner(";");
+        int first = session * intraOpThreads;
+        for (int thread = 1; thread < intraOpThreads; thread++) {
+            affinities.add(String.valueOf((first + thread) % processors + 1));
+        }
+        return affinities.toString();
+    }
+
+    /**
+     * @return number of sessions able to run inference concurrently
+     */
+    public int sessions() {
+        return sessions.size();
+    }
+
+    @Override
+    public int scalingFactor() {
+        return modelScalingFactor;
+    }
+
+    /**
+     * @return whether the model accepts inputs with a batch dimension other than 1
+     */
+    public boolean supportsBatching() {
+        return dynamicBatchSize;
+    }
+
+    @Override
     public FloatImageData resolve(FloatImageData input) {
         LOG.info("resolving image with dimensions: {} x {}", input.width(), input.height());
+        FloatBuffer outputData = run(input.data(), 1, input.width(), input.height(), null);
+        LOG.info("resolution complete");
+        int outputWidth = input.width() * modelScalingFactor;
+        int outputHeight = input.height() * modelScalingFactor;
+        return new FloatImageData(outputData, outputWidth, outputHeight);
+    }
+
+    /**
+     * Binds the sink as the output tensor, so the session writes the result straight into it rather than into
+     * memory of its own that is then copied out. Only direct buffers in native order can be bound, others are
+     * filled by copying.
+     */
+    @Override
+    public FloatImageData resolve(FloatImageData input, FloatBuffer sink) {
+        if (!sink.isDirect() || sink.order() != ByteOrder.nativeOrder()) {
+            return Resolver.super.resolve(input, sink);
+        }
+        int outputWidth = input.width() * modelScalingFactor;
+        int outputHeight = input.height() * modelScalingFactor;
+        int outputSize = outputWidth * outputHeight * 3;
+        if (sink.remaining() < outputSize) {
+            throw new IllegalArgumentException("sink has insufficient space for " + outputSize + " elements");
+        }
+        LOG.info("resolving image with dimensions: {} x {}", input.width(), input.height());
+        FloatBuffer outputData = run(input.data(), 1, input.width(), input.height(), sink.slice(sink.position(), outputSize));
+        LOG.info("resolution complete");
+        return new FloatImageData(outputData, outputWidth, outputHeight);
+    }
+
+    /**
+     * Resolves equally sized images with a single forward pass over a [N,3,H,W] tensor.
+     */
+    @Override
+    public List<FloatImageData> resolveBatch(List<FloatImageData> inputs) {
+        if (inputs.size() == 1 || !dynamicBatchSize) {
+            return Resolver.super.resolveBatch(inputs);
+        }
+        int width = inputs.get(0).width();
+        int height = inputs.get(0).height();
+        int inputSize = width * height * 3;
         FloatBuffer outputData;
-        try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, input.data(), new long[]{1, 3, input.height(), input.width()})) {
-            try (OrtSession.Result result = session.run(Map.of("input", inputTensor))) {
+        try (BufferPool.Lease batchBuffer = bufferPool.lease((long) inputs.size() * inputSize * 4)) {
+            FloatBuffer batchData = batchBuffer.floats();
+            for (int i = 0; i < inputs.size(); i++) {
+                FloatImageData input = inputs.get(i);
+                if (input.width() != width || input.height() != height) {
+                    throw new IllegalArgumentException("batched images must share the same dimensions");
+                }
+                batchData.put(i * inputSize, input.data(), input.data().position(), inputSize);
+            }
+            LOG.info("resolving batch of {} images with dimensions: {} x {}", inputs.size(), width, height);
+            outputData = run(batchData, inputs.size(), width, height, null);
+        }
+        LOG.info("resolution complete");
+        int outputWidth = width * modelScalingFactor;
+        int outputHeight = height * modelScalingFactor;
+        int outputSize = outputWidth * outputHeight * 3;
+        List<FloatImageData> outputs = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            outputs.add(new FloatImageData(outputData.slice(i * outputSize, outputSize), outputWidth, outputHeight));
+        }
+        return outputs;
+    }
+
+    /**
+     * @param outputData buffer to bind as the output tensor, or null to copy the output out of the session's memory
+     */
+    private FloatBuffer run(FloatBuffer inputData, int batchSize, int width, int height, FloatBuffer outputData) {
+        OrtSession session;
+        try {
+            session = idleSessions.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        tensorElements.update((long) batchSize * 3 * height * width);
+        pixels.inc((long) batchSize * height * width);
+        long[] outputShape = {batchSize, 3, (long) height * modelScalingFactor, (long) width * modelScalingFactor};
+        try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputData, new long[]{batchSize, 3, height, width});
+             OnnxTensor boundTensor = outputData == null ? null : OnnxTensor.createTensor(env, outputData, outputShape)) {
+            Map<String, OnnxTensor> inputs = Map.of("input", inputTensor);
+            long started = System.nanoTime();
+            try (OrtSession.Result result = boundTensor == null ? session.run(inputs) : session.run(inputs, Map.of("output", boundTensor))) {
+                runs.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                if (boundTensor != null) {
+                    boundOutputs.inc();
+                    return outputData;
+                }
                 OnnxTensor outputTensor = (OnnxTensor) result.get("output")
                         .orElseThrow(() -> new RuntimeException("no output returned from model"));
-                outputData = outputTensor.getFloatBuffer();
+                copiedOutputs.inc();
+                return outputTensor.getFloatBuffer();
             }
         } catch (OrtException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            idleSessions.add(session);
+        }
+    }
+
+    private static Tag[] withTag(Tag[] tags, Tag tag) {
+        Tag[] result = Arrays.copyOf(tags, tags.length + 1);
+        result[tags.length] = tag;
+        return result;
+    }
+
+    private static void closeQuietly(OrtSession session) {
+        try {
+            session.close();
+        } catch (OrtException ex) {
+            LOG.error("unable to close inference session", ex);
         }
-        LOG.info("resolution complete");
-        int outputWidth = input.width() * modelScalingFactor;
-        int outputHeight = input.height() * modelScalingFactor;
-        return new FloatImageData(outputData, outputWidth, outputHeight);
     }
 
     @Override
     public void close() throws Exception {
         try {
-            session.close();
+            metrics.remove(busySessionsId);
+            sessions.forEach(InferenceServer::closeQuietly);
             opts.close();
         } finally {
             env.close();
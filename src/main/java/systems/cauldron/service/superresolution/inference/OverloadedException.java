@@ -0,0 +1,24 @@
+package systems.cauldron.service.superresolution.inference;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when work is refused because accepting it would exceed the configured capacity.
+ */
+public class OverloadedException extends RejectedExecutionException {
+
+    private final Duration retryAfter;
+
+    public OverloadedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return estimated time until enough capacity frees up for a retry to be admitted
+     */
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
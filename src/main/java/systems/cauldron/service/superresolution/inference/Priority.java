@@ -0,0 +1,36 @@
+package systems.cauldron.service.superresolution.inference;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Priority class of inference work, which scales how far the estimated cost of a request holds it back behind cheaper
+ * requests that arrive after it.
+ * - HIGH: interactive requests, held back by a quarter of their cost
+ * - NORMAL: held back by their cost
+ * - LOW: background work such as jobs, held back by four times their cost
+ */
+public enum Priority {
+    HIGH(0.25),
+    NORMAL(1.0),
+    LOW(4.0);
+
+    private final double costWeight;
+
+    Priority(double costWeight) {
+        this.costWeight = costWeight;
+    }
+
+    public double costWeight() {
+        return costWeight;
+    }
+
+    /**
+     * @return the priority named by a query parameter value such as "low"
+     */
+    public static Optional<Priority> fromParameter(String value) {
+        return Arrays.stream(values())
+                .filter(priority -> priority.name().equalsIgnoreCase(value))
+                .findFirst();
+    }
+}
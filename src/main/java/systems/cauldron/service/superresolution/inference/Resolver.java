@@ -0,0 +1,38 @@
+package systems.cauldron.service.superresolution.inference;
+
+import systems.cauldron.service.superresolution.image.FloatImageData;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * A stage capable of producing an upscaled copy of an image in the inference model image format.
+ * Implementations are expected to be thread-safe.
+ */
+public interface Resolver {
+
+    FloatImageData resolve(FloatImageData input);
+
+    /**
+     * Resolves into the remaining space of a caller-provided buffer, e.g. a pooled one that is reused across requests.
+     * Implementations able to write their output in place should override this instead of copying.
+     */
+    default FloatImageData resolve(FloatImageData input, FloatBuffer sink) {
+        FloatImageData output = resolve(input);
+        FloatBuffer target = sink.slice();
+        target.put(output.data().duplicate());
+        return new FloatImageData(target.flip(), output.width(), output.height());
+    }
+
+    /**
+     * Resolves several images at once, returning the outputs in input order.
+     * Implementations able to share work across images should override this.
+     */
+    default List<FloatImageData> resolveBatch(List<FloatImageData> inputs) {
+        return inputs.stream()
+                .map(this::resolve)
+                .toList();
+    }
+
+    int scalingFactor();
+}
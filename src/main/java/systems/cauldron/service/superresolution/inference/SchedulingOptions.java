@@ -0,0 +1,31 @@
+package systems.cauldron.service.superresolution.inference;
+
+/**
+ * Orders queued inference work shortest job first with aging: each request is due at its arrival time plus its
+ * estimated run time multiplied by the aging factor, and runs in order of that deadline. Cheaper requests overtake a
+ * costly one only while they arrive within that window after it, so no request waits indefinitely.
+ *
+ * @param agingFactor      multiple of its estimated run time a request may be held back behind later, cheaper ones;
+ *                         zero runs requests in arrival order
+ * @param priorityClasses  whether the priority class of a request scales its estimated run time, or is ignored
+ */
+public record SchedulingOptions(double agingFactor, boolean priorityClasses) {
+
+    public static final SchedulingOptions FIFO = new SchedulingOptions(0.0, false);
+
+    public SchedulingOptions {
+        if (!(agingFactor >= 0.0) || Double.isInfinite(agingFactor)) {
+            throw new IllegalArgumentException("aging factor must be finite and not negative");
+        }
+    }
+
+    /**
+     * @param enqueuedNanos  time the request became ready to run, from System.nanoTime()
+     * @param estimatedNanos estimated run time of the request
+     * @return the time by which the request is due, the earliest being run first
+     */
+    public long deadline(long enqueuedNanos, double estimatedNanos, Priority priority) {
+        double weight = priorityClasses ? priority.costWeight() : 1.0;
+        return enqueuedNanos + (long) (agingFactor * weight * estimatedNanos);
+    }
+}
@@ -0,0 +1,45 @@
+package systems.cauldron.service.superresolution.inference;
+
+import ai.onnxruntime.OrtSession;
+
+import java.nio.file.Path;
+
+/**
+ * @param sessions                number of sessions running inference concurrently, each with its own thread pools
+ * @param intraOpThreads          threads parallelizing a single operator within each session, or 0 for the runtime default
+ * @param interOpThreads          threads running independent operators within each session in parallel mode, or 0 for the runtime default
+ * @param optimizationLevel       graph optimizations applied when a model is loaded
+ * @param executionMode           whether independent operators of a session are run sequentially or in parallel
+ * @param memoryArena             whether CPU allocations are kept in a growing arena between runs rather than released
+ * @param optimizedModelDirectory directory where optimized graphs are saved and reused on the next startup, or null
+ * @param pinThreads              whether the intra-op threads of each session are pinned to a block of logical processors
+ *                                of their own, which on most machines keeps a session within one NUMA node
+ */
+public record SessionPoolOptions(int sessions,
+                                 int intraOpThreads,
+                                 int interOpThreads,
+                                 OrtSession.SessionOptions.OptLevel optimizationLevel,
+                                 OrtSession.SessionOptions.ExecutionMode executionMode,
+                                 boolean memoryArena,
+                                 Path optimizedModelDirectory,
+                                 boolean pinThreads) {
+
+    public static final SessionPoolOptions DEFAULT = new SessionPoolOptions(1, 0, 0,
+            OrtSession.SessionOptions.OptLevel.ALL_OPT,
+            OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL,
+            true,
+            null,
+            false);
+
+    public SessionPoolOptions {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("number of sessions must be positive");
+        }
+        if (intraOpThreads < 0 || interOpThreads < 0) {
+            throw new IllegalArgumentException("thread counts must not be negative");
+        }
+        if (pinThreads && intraOpThreads == 0) {
+            throw new IllegalArgumentException("pinning threads requires an explicit number of intra-op threads");
+        }
+    }
+}
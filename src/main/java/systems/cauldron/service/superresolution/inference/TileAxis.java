@@ -0,0 +1,93 @@
+package systems.cauldron.service.superresolution.inference;
+
+/**
+ * Splits one image dimension into evenly spaced, equally sized segments overlapping by at least the
+ * requested amount, and precomputes the normalized blend weight of every output position of every segment.
+ * Weights are separable, so the weight of a pixel in a 2D tile is the product of its two axis weights.
+ */
+final class TileAxis {
+
+    private final int[] starts;
+    private final int extent;
+    private final float[][] weights;
+
+    TileAxis(int length, int tileSize, int overlap, int scalingFactor, BlendMode blendMode) {
+        this.extent = Math.min(length, tileSize);
+        this.starts = computeStarts(length, extent, overlap);
+        this.weights = computeWeights(length, scalingFactor, blendMode);
+    }
+
+    int count() {
+        return starts.length;
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int extent() {
+        return extent;
+    }
+
+    /**
+     * @return blend weights for each of the (extent * scalingFactor) output positions of the segment
+     */
+    float[] weights(int index) {
+        return weights[index];
+    }
+
+    private static int[] computeStarts(int length, int extent, int overlap) {
+        if (length <= extent) {
+            return new int[]{0};
+        }
+        int stride = extent - overlap;
+        int count = 1 + (length - extent + stride - 1) / stride;
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = (int) Math.round((double) i * (length - extent) / (count - 1));
+        }
+        return result;
+    }
+
+    private float[][] computeWeights(int length, int scalingFactor, BlendMode blendMode) {
+        int count = starts.length;
+        int scaledExtent = extent * scalingFactor;
+        float[][] result = new float[count][scaledExtent];
+        float[] totals = new float[length * scalingFactor];
+        for (int i = 0; i < count; i++) {
+            int origin = starts[i] * scalingFactor;
+            // overlap with the previous and next segments in output coordinates
+            int leadIn = i > 0 ? (starts[i - 1] + extent) * scalingFactor : origin;
+            int leadOut = i < count - 1 ? starts[i + 1] * scalingFactor : origin + scaledExtent;
+            for (int p = 0; p < scaledExtent; p++) {
+                int position = origin + p;
+                float weight = ramp(position, origin, leadIn, blendMode) * (1.0f - ramp(position, leadOut, origin + scaledExtent, blendMode));
+                result[i][p] = weight;
+                totals[position] += weight;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int origin = starts[i] * scalingFactor;
+            for (int p = 0; p < scaledExtent; p++) {
+                result[i][p] /= totals[origin + p];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 0 before the region [from, to), 1 after it, and a transition within it
+     */
+    private static float ramp(int position, int from, int to, BlendMode blendMode) {
+        if (position >= to) {
+            return 1.0f;
+        }
+        if (position < from) {
+            return 0.0f;
+        }
+        return switch (blendMode) {
+            case CROP -> position >= (from + to) / 2 ? 1.0f : 0.0f;
+            case LINEAR -> (position - from + 0.5f) / (to - from);
+        };
+    }
+}
@@ -0,0 +1,268 @@
+package systems.cauldron.service.superresolution.inference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.Region;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounds the size of the tensors fed to the delegate by:
+ * 1. splitting the input into overlapping tiles of at most tileSize x tileSize
+ * 2. resolving each tile independently, optionally in parallel
+ * 3. blending the upscaled tiles into a single preallocated output image, or into the caller's buffer when given one
+ * <p>
+ * Tiles are resolved on a fork-join pool of the configured parallelism, which should match the number of sessions
+ * of the model so that each worker has a session of its own. With a minimum tile size, images that would give fewer
+ * tiles than there are workers are split further, so that one image alone keeps every session busy rather than
+ * a single session with many intra-op threads, which scales poorly on machines with many cores.
+ * <p>
+ * Tiles may be resolved by a delegate of their own, such as one that spreads them across instances, while images that
+ * fit into a single tile always go to the delegate.
+ */
+public class TiledResolver implements Resolver, AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(TiledResolver.class);
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+    private static final int NUM_BYTES_PER_ELEMENT = 4;
+    private static final float[] ZEROS = new float[4096];
+
+    private final Resolver delegate;
+    private final Resolver tileDelegate;
+    private final TilingOptions options;
+    private final BufferPool bufferPool;
+    private final ForkJoinPool pool;
+    private final Histogram tileCounts;
+    private final Timer tiledResolutions;
+    private final Timer wholeResolutions;
+
+    public TiledResolver(Resolver delegate, TilingOptions options, BufferPool bufferPool, MetricRegistry metrics, Tag... tags) {
+        this(delegate, delegate, options, bufferPool, metrics, tags);
+    }
+
+    public TiledResolver(Resolver delegate, Resolver tileDelegate, TilingOptions options, BufferPool bufferPool, MetricRegistry metrics, Tag... tags) {
+        if (!options.enabled()) {
+            throw new IllegalArgumentException("tiling options must specify a tile size");
+        }
+        if (tileDelegate.scalingFactor() != delegate.scalingFactor()) {
+            throw new IllegalArgumentException("tile delegate must have the scaling factor of the delegate");
+        }
+        this.delegate = delegate;
+        this.tileDelegate = tileDelegate;
+        this.options = options;
+        this.bufferPool = bufferPool;
+        this.tileCounts = metrics.histogram("tiling.tiles", tags);
+        this.tiledResolutions = metrics.timer("tiling.resolve", withTag(tags, new Tag("mode", "tiled")));
+        this.wholeResolutions = metrics.timer("tiling.resolve", withTag(tags, new Tag("mode", "whole")));
+        this.pool = options.parallelism() > 1 ? new ForkJoinPool(options.parallelism(), TiledResolver::createWorker, null, false) : null;
+    }
+
+    @Override
+    public int scalingFactor() {
+        return delegate.scalingFactor();
+    }
+
+    @Override
+    public FloatImageData resolve(FloatImageData input) {
+        return resolveInto(input, null);
+    }
+
+    /**
+     * Tiles are blended straight into the sink, which is cleared first since blending accumulates.
+     */
+    @Override
+    public FloatImageData resolve(FloatImageData input, FloatBuffer sink) {
+        return resolveInto(input, sink);
+    }
+
+    /**
+     * @param sink buffer to write the output into, or null to allocate one
+     */
+    private FloatImageData resolveInto(FloatImageData input, FloatBuffer sink) {
+        long started = System.nanoTime();
+        int tileWidth = tileSize(input.width(), input.height(), input.width());
+        int tileHeight = tileSize(input.width(), input.height(), input.height());
+        if (input.width() <= tileWidth && input.height() <= tileHeight) {
+            FloatImageData output = sink == null ? delegate.resolve(input) : delegate.resolve(input, sink);
+            tileCounts.update(1);
+            wholeResolutions.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            return output;
+        }
+        int scalingFactor = delegate.scalingFactor();
+        TileAxis columns = new TileAxis(input.width(), tileWidth, options.overlap(), scalingFactor, options.blendMode());
+        TileAxis rows = new TileAxis(input.height(), tileHeight, options.overlap(), scalingFactor, options.blendMode());
+        LOG.info("resolving image with dimensions: {} x {} as {} x {} tiles", input.width(), input.height(), columns.count(), rows.count());
+        int outputWidth = input.width() * scalingFactor;
+        int outputHeight = input.height() * scalingFactor;
+        int outputSize = outputWidth * outputHeight * NUM_ELEMENTS_PER_PIXEL;
+        FloatBuffer output;
+        if (sink == null) {
+            output = ByteBuffer.allocateDirect(outputSize * NUM_BYTES_PER_ELEMENT)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        } else {
+            if (sink.remaining() < outputSize) {
+                throw new IllegalArgumentException("sink has insufficient space for " + outputSize + " elements");
+            }
+            output = sink.slice(sink.position(), outputSize);
+            clear(output);
+        }
+        FloatImageData result = new FloatImageData(output, outputWidth, outputHeight);
+        int tiles = rows.count() * columns.count();
+        if (pool == null) {
+            for (int tile = 0; tile < tiles; tile++) {
+                resolveTile(input, result, columns, tile % columns.count(), rows, tile / columns.count());
+            }
+        } else {
+            AtomicBoolean failed = new AtomicBoolean();
+            List<CompletableFuture<Void>> futures = new ArrayList<>(tiles);
+            for (int tile = 0; tile < tiles; tile++) {
+                int column = tile % columns.count();
+                int row = tile / columns.count();
+                futures.add(CompletableFuture.runAsync(() -> {
+                    if (failed.get()) {
+                        return;
+                    }
+                    try {
+                        resolveTile(input, result, columns, column, rows, row);
+                    } catch (RuntimeException ex) {
+                        failed.set(true);
+                        throw ex;
+                    }
+                }, pool));
+            }
+            // every tile has to be done with the input and the output before either is released by the caller
+            RuntimeException failure = null;
+            for (CompletableFuture<Void> future : futures) {
+                try {
+                    future.join();
+                } catch (CompletionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause() instanceof RuntimeException cause ? cause : ex;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        tileCounts.update(tiles);
+        tiledResolutions.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    /**
+     * @return the tile size along one axis, below the configured one when the image would leave workers idle
+     */
+    private int tileSize(int width, int height, int length) {
+        if (pool == null || options.minTileSize() == 0) {
+            return options.tileSize();
+        }
+        int tileSize = options.tileSize();
+        int tiles = tileCount(width, tileSize) * tileCount(height, tileSize);
+        if (tiles >= options.parallelism()) {
+            return tileSize;
+        }
+        // square grids keep the overlap computed twice to a minimum
+        int perAxis = (int) Math.ceil(Math.sqrt(options.parallelism()));
+        int split = (length + perAxis - 1) / perAxis + options.overlap();
+        return Math.max(options.minTileSize(), Math.min(tileSize, split));
+    }
+
+    private int tileCount(int length, int tileSize) {
+        if (length <= tileSize) {
+            return 1;
+        }
+        int step = tileSize - options.overlap();
+        return (length - options.overlap() + step - 1) / step;
+    }
+
+    private static ForkJoinWorkerThread createWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("tile-worker-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static Tag[] withTag(Tag[] tags, Tag tag) {
+        Tag[] result = Arrays.copyOf(tags, tags.length + 1);
+        result[tags.length] = tag;
+        return result;
+    }
+
+    private void resolveTile(FloatImageData input, FloatImageData output, TileAxis columns, int column, TileAxis rows, int row) {
+        int x = columns.start(column);
+        int y = rows.start(row);
+        int scalingFactor = delegate.scalingFactor();
+        long tileElements = (long) columns.extent() * rows.extent() * NUM_ELEMENTS_PER_PIXEL;
+        try (BufferPool.Lease tileBuffer = bufferPool.lease(tileElements * NUM_BYTES_PER_ELEMENT);
+             BufferPool.Lease upscaledBuffer = bufferPool.lease(tileElements * scalingFactor * scalingFactor * NUM_BYTES_PER_ELEMENT)) {
+            FloatImageData tile = new Region(x, y, columns.extent(), rows.extent()).copy(input, tileBuffer.floats());
+            FloatImageData upscaled = tileDelegate.resolve(tile, upscaledBuffer.floats());
+            blend(upscaled, output, x * scalingFactor, y * scalingFactor, columns.weights(column), rows.weights(row));
+        }
+    }
+
+    private static void clear(FloatBuffer buffer) {
+        FloatBuffer target = buffer.duplicate();
+        while (target.hasRemaining()) {
+            target.put(ZEROS, 0, Math.min(ZEROS.length, target.remaining()));
+        }
+    }
+
+    /**
+     * Tiles may overlap, so accumulation into the shared output is serialized.
+     */
+    private static void blend(FloatImageData tile, FloatImageData output, int x, int y, float[] columnWeights, float[] rowWeights) {
+        FloatBuffer tileData = tile.data();
+        FloatBuffer outputData = output.data();
+        int tilePlaneSize = tile.width() * tile.height();
+        int outputPlaneSize = output.width() * output.height();
+        synchronized (outputData) {
+            for (int channel = 0; channel < NUM_ELEMENTS_PER_PIXEL; channel++) {
+                for (int row = 0; row < tile.height(); row++) {
+                    float rowWeight = rowWeights[row];
+                    if (rowWeight == 0.0f) {
+                        continue;
+                    }
+                    int tileIndex = tileData.position() + channel * tilePlaneSize + row * tile.width();
+                    int outputIndex = channel * outputPlaneSize + (y + row) * output.width() + x;
+                    for (int column = 0; column < tile.width(); column++) {
+                        float weight = rowWeight * columnWeights[column];
+                        if (weight != 0.0f) {
+                            outputData.put(outputIndex + column, outputData.get(outputIndex + column) + weight * tileData.get(tileIndex + column));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (pool != null) {
+            pool.shutdown();
+            if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package systems.cauldron.service.superresolution.inference;
+
+/**
+ * @param tileSize    maximum width and height of a tile in input pixels, or 0 to disable tiling
+ * @param overlap     minimum number of input pixels shared by adjacent tiles
+ * @param blendMode   how the overlapping regions are merged
+ * @param parallelism number of tiles resolved concurrently
+ * @param minTileSize smallest width and height images are split down to so that every worker gets a tile,
+ *                    or 0 to only split images larger than the tile size
+ */
+public record TilingOptions(int tileSize, int overlap, BlendMode blendMode, int parallelism, int minTileSize) {
+
+    public static final TilingOptions DISABLED = new TilingOptions(0, 0, BlendMode.CROP, 1, 0);
+
+    public TilingOptions {
+        if (tileSize < 0) {
+            throw new IllegalArgumentException("tile size must not be negative");
+        }
+        if (overlap < 0 || (tileSize > 0 && overlap >= tileSize)) {
+            throw new IllegalArgumentException("overlap must be non-negative and smaller than the tile size");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        if (minTileSize != 0 && (minTileSize <= overlap || minTileSize > tileSize)) {
+            throw new IllegalArgumentException("min tile size must be larger than the overlap and at most the tile size");
+        }
+    }
+
+    public TilingOptions withParallelism(int parallelism) {
+        return new TilingOptions(tileSize, overlap, blendMode, parallelism, minTileSize);
+    }
+
+    public boolean enabled() {
+        return tileSize > 0;
+    }
+}
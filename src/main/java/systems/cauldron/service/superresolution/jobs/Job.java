@@ -0,0 +1,46 @@
+package systems.cauldron.service.superresolution.jobs;
+
+import java.time.Instant;
+import java.util.Properties;
+
+/**
+ * @param error reason a failed job failed, otherwise null
+ */
+public record Job(String id, JobRequest request, JobStatus status, Instant created, Instant updated, String error) {
+
+    Job withStatus(JobStatus status, String error) {
+        return new Job(id, request, status, created, Instant.now(), error);
+    }
+
+    Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("status", status.name());
+        properties.setProperty("model", request.model());
+        properties.setProperty("input-type", request.inputType());
+        properties.setProperty("width", String.valueOf(request.width()));
+        properties.setProperty("height", String.valueOf(request.height()));
+        properties.setProperty("output-type", request.outputType());
+        properties.setProperty("compression-quality", String.valueOf(request.compressionQuality()));
+        properties.setProperty("created", created.toString());
+        properties.setProperty("updated", updated.toString());
+        if (error != null) {
+            properties.setProperty("error", error);
+        }
+        return properties;
+    }
+
+    static Job fromProperties(String id, Properties properties) {
+        JobRequest request = new JobRequest(
+                properties.getProperty("model"),
+                properties.getProperty("input-type"),
+                Integer.parseInt(properties.getProperty("width")),
+                Integer.parseInt(properties.getProperty("height")),
+                properties.getProperty("output-type"),
+                Float.parseFloat(properties.getProperty("compression-quality")));
+        return new Job(id, request,
+                JobStatus.valueOf(properties.getProperty("status")),
+                Instant.parse(properties.getProperty("created")),
+                Instant.parse(properties.getProperty("updated")),
+                properties.getProperty("error"));
+    }
+}
@@ -0,0 +1,31 @@
+package systems.cauldron.service.superresolution.jobs;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * @param directory     directory holding the queued jobs' inputs and the finished jobs' results, or null to disable jobs
+ * @param workers       number of threads feeding queued jobs to the inference executor
+ * @param maxQueuedJobs maximum number of jobs waiting or running, beyond which submissions are refused
+ * @param resultTtl     time after which a finished job and its result are deleted
+ */
+public record JobOptions(Path directory, int workers, int maxQueuedJobs, Duration resultTtl) {
+
+    public static final JobOptions DISABLED = new JobOptions(null, 1, 1, Duration.ZERO);
+
+    public JobOptions {
+        if (workers < 1) {
+            throw new IllegalArgumentException("worker count must be positive");
+        }
+        if (maxQueuedJobs < 1) {
+            throw new IllegalArgumentException("max queued jobs must be positive");
+        }
+        if (directory != null && (resultTtl.isZero() || resultTtl.isNegative())) {
+            throw new IllegalArgumentException("result ttl must be positive when a directory is given");
+        }
+    }
+
+    public boolean enabled() {
+        return directory != null;
+    }
+}
@@ -0,0 +1,14 @@
+package systems.cauldron.service.superresolution.jobs;
+
+/**
+ * What to upscale and how to return it, as given when the job was submitted.
+ *
+ * @param model              name of the model to run
+ * @param inputType          media type of the stored input, either raw planar RGB bytes or a compressed image
+ * @param width              width of raw input, or 0 for compressed input
+ * @param height             height of raw input, or 0 for compressed input
+ * @param outputType         media type of the result
+ * @param compressionQuality ImageIO compression quality of a compressed result, or NaN for the format's default
+ */
+public record JobRequest(String model, String inputType, int width, int height, String outputType, float compressionQuality) {
+}
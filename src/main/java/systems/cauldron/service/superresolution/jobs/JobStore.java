@@ -0,0 +1,385 @@
+package systems.cauldron.service.superresolution.jobs;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+import systems.cauldron.service.superresolution.inference.OverloadedException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Durable queue of upscale jobs and store of their results, with one directory per job holding:
+ * 1. "input.bin", the submitted body, flushed to disk before the job is acknowledged
+ * 2. "job.properties", the job's state, atomically replaced on every change
+ * 3. "result.bin", the finished job's output, written through a memory mapping and served from one
+ * Jobs that were queued or running when the service stopped are queued again on startup. Finished jobs
+ * are deleted along with their result once the result ttl has passed since they finished.
+ */
+public class JobStore implements AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(JobStore.class);
+
+    private static final String INPUT_FILE = "input.bin";
+    private static final String METADATA_FILE = "job.properties";
+    private static final String RESULT_FILE = "result.bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final double SMOOTHING = 0.2;
+
+    private final JobOptions options;
+    private final MetricRegistry metrics;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    // queued and running jobs, and reservations for jobs whose input is still being received
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Counter submitted;
+    private final Counter rejected;
+    private final Counter expired;
+    private final Timer turnaround;
+    private final ScheduledExecutorService cleaner;
+    private volatile double nanosPerJob = 0.0;
+
+    public JobStore(JobOptions options, MetricRegistry metrics) {
+        this.options = options;
+        this.metrics = metrics;
+        this.submitted = metrics.counter("jobs.submitted");
+        this.rejected = metrics.counter("jobs.rejected");
+        this.expired = metrics.counter("jobs.expired");
+        this.turnaround = metrics.timer("jobs.turnaround");
+        metrics.register("jobs.pending", (Gauge<Integer>) pending::get);
+        recover();
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000L, Math.min(options.resultTtl().toMillis() / 4, TimeUnit.MINUTES.toMillis(1)));
+        this.cleaner.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a place in the queue for a job whose input is yet to be received, so that a full queue refuses the job
+     * before its body has been read. The place is given up again when the reservation is closed without having been
+     * used for a submission.
+     *
+     * @throws OverloadedException if the maximum number of queued jobs has been reached
+     */
+    public Reservation reserve() {
+        if (pending.incrementAndGet() > options.maxQueuedJobs()) {
+            pending.decrementAndGet();
+            rejected.inc();
+            throw new OverloadedException("job queue is full", retryAfter());
+        }
+        return new Reservation();
+    }
+
+    /**
+     * Persists the input and queues the job.
+     *
+     * @throws OverloadedException if the maximum number of queued jobs has been reached
+     */
+    public Job submit(JobRequest request, byte[] input) {
+        try (Reservation reservation = reserve()) {
+            return submit(reservation, request, input);
+        }
+    }
+
+    /**
+     * Persists the input and queues the job in the place taken by the reservation.
+     */
+    public Job submit(Reservation reservation, JobRequest request, byte[] input) {
+        reservation.claim();
+        String id = UUID.randomUUID().toString();
+        Path directory = options.directory().resolve(id);
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(directory.resolve(INPUT_FILE), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer data = ByteBuffer.wrap(input);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(true);
+            }
+            Instant now = Instant.now();
+            Job job = new Job(id, request, JobStatus.QUEUED, now, now, null);
+            save(job);
+            queue.add(id);
+            submitted.inc();
+            return job;
+        } catch (IOException ex) {
+            abandon(id);
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            abandon(id);
+            throw ex;
+        }
+    }
+
+    private void abandon(String id) {
+        pending.decrementAndGet();
+        jobs.remove(id);
+        delete(options.directory().resolve(id));
+    }
+
+    public Optional<Job> get(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * Blocks until a job is queued and marks it as running.
+     */
+    public Job take() throws InterruptedException {
+        while (true) {
+            Job job = jobs.get(queue.take());
+            if (job != null && job.status() == JobStatus.QUEUED) {
+                running.add(job.id());
+                Job taken = job.withStatus(JobStatus.RUNNING, null);
+                try {
+                    save(taken);
+                } catch (RuntimeException ex) {
+                    release(taken);
+                    throw ex;
+                }
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * @return read-only mapping of the job's input
+     */
+    public ByteBuffer input(Job job) {
+        return map(options.directory().resolve(job.id()).resolve(INPUT_FILE))
+                .orElseThrow(() -> new IllegalStateException("input of job " + job.id() + " is missing"));
+    }
+
+    /**
+     * Writes the result through a mapping of the given size, then marks the job as succeeded and deletes its input.
+     */
+    public Job complete(Job job, long size, Consumer<ByteBuffer> writer) {
+        Path directory = options.directory().resolve(job.id());
+        Path temporary = directory.resolve(RESULT_FILE + TEMPORARY_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                writer.accept(mapped);
+                mapped.force();
+            }
+            Files.move(temporary, directory.resolve(RESULT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(directory.resolve(INPUT_FILE));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return finish(job, JobStatus.SUCCEEDED, null);
+    }
+
+    public Job fail(Job job, String error) {
+        try {
+            Files.deleteIfExists(options.directory().resolve(job.id()).resolve(INPUT_FILE));
+        } catch (IOException ex) {
+            LOG.warn("unable to delete input of job {}", job.id(), ex);
+        }
+        return finish(job, JobStatus.FAILED, error);
+    }
+
+    /**
+     * @return read-only mapping of the result, or empty if the job has not succeeded or has expired
+     */
+    public Optional<ByteBuffer> result(Job job) {
+        if (job.status() != JobStatus.SUCCEEDED) {
+            return Optional.empty();
+        }
+        return map(options.directory().resolve(job.id()).resolve(RESULT_FILE));
+    }
+
+    /**
+     * Deletes every finished job that finished longer than the result ttl ago.
+     */
+    void expire() {
+        Instant threshold = Instant.now().minus(options.resultTtl());
+        for (Job job : List.copyOf(jobs.values())) {
+            if (job.status().finished() && job.updated().isBefore(threshold) && jobs.remove(job.id(), job)) {
+                delete(options.directory().resolve(job.id()));
+                expired.inc();
+            }
+        }
+    }
+
+    /**
+     * Gives up the place in the queue of a job that was taken, whether or not it could be marked as finished, so that
+     * a failing job directory doesn't leave the queue looking fuller than it is. Releasing a job more than once has
+     * no further effect.
+     */
+    public void release(Job job) {
+        if (running.remove(job.id())) {
+            pending.decrementAndGet();
+        }
+    }
+
+    private Job finish(Job job, JobStatus status, String error) {
+        Job finished = job.withStatus(status, error);
+        try {
+            save(finished);
+        } finally {
+            release(job);
+        }
+        metrics.counter("jobs.finished", new Tag("status", status.name().toLowerCase(Locale.ROOT))).inc();
+        turnaround.update(Duration.between(job.created(), finished.updated()).toNanos(), TimeUnit.NANOSECONDS);
+        double observed = Duration.between(job.updated(), finished.updated()).toNanos();
+        nanosPerJob = nanosPerJob == 0.0 ? observed : SMOOTHING * observed + (1.0 - SMOOTHING) * nanosPerJob;
+        return finished;
+    }
+
+    /**
+     * Estimated time for the workers to get through the jobs currently queued.
+     */
+    private Duration retryAfter() {
+        return Duration.ofNanos((long) (pending.get() * nanosPerJob / options.workers()));
+    }
+
+    private void save(Job job) {
+        Path directory = options.directory().resolve(job.id());
+        Path temporary = directory.resolve(METADATA_FILE + TEMPORARY_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = Channels.newOutputStream(channel);
+                job.toProperties().store(out, null);
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(METADATA_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        jobs.put(job.id(), job);
+    }
+
+    /**
+     * Indexes the jobs in the directory, queueing unfinished ones again in the order they were submitted
+     * and deleting submissions that were interrupted before they were acknowledged.
+     */
+    private void recover() {
+        List<Job> unfinished = new ArrayList<>();
+        try {
+            Files.createDirectories(options.directory());
+            List<Path> directories;
+            try (Stream<Path> files = Files.list(options.directory())) {
+                directories = files.filter(Files::isDirectory).toList();
+            }
+            for (Path directory : directories) {
+                Path metadata = directory.resolve(METADATA_FILE);
+                if (!Files.exists(metadata)) {
+                    delete(directory);
+                    continue;
+                }
+                Properties properties = new Properties();
+                try (InputStream in = Files.newInputStream(metadata)) {
+                    properties.load(in);
+                }
+                Job job = Job.fromProperties(directory.getFileName().toString(), properties);
+                if (job.status().finished()) {
+                    jobs.put(job.id(), job);
+                } else {
+                    unfinished.add(job);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        unfinished.sort(Comparator.comparing(Job::created));
+        for (Job job : unfinished) {
+            save(job.withStatus(JobStatus.QUEUED, null));
+            pending.incrementAndGet();
+            queue.add(job.id());
+        }
+        LOG.info("recovered {} finished and {} unfinished jobs in {}", jobs.size() - unfinished.size(), unfinished.size(), options.directory());
+    }
+
+    private static Optional<ByteBuffer> map(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return Optional.of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (NoSuchFileException ex) {
+            return Optional.empty();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void delete(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (NoSuchFileException ex) {
+            // already gone
+        } catch (IOException ex) {
+            LOG.warn("unable to delete job directory {}", directory, ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        cleaner.shutdownNow();
+    }
+
+    /**
+     * A place in the queue, held until it is either used by a submission or closed.
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private final AtomicBoolean held = new AtomicBoolean(true);
+
+        private Reservation() {
+        }
+
+        private void claim() {
+            if (!held.compareAndSet(true, false)) {
+                throw new IllegalStateException("reservation has already been used or closed");
+            }
+        }
+
+        @Override
+        public void close() {
+            if (held.compareAndSet(true, false)) {
+                pending.decrementAndGet();
+            }
+        }
+    }
+}
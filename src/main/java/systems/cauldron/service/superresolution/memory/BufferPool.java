@@ -0,0 +1,154 @@
+package systems.cauldron.service.superresolution.memory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out direct buffers rounded up to power-of-two size classes for the duration of a single request.
+ * Released buffers are kept for reuse while the total retained capacity stays within the configured bound;
+ * any other buffer is freed immediately on release rather than whenever the garbage collector gets to it.
+ */
+public class BufferPool {
+
+    private final static Logger LOG = LogManager.getLogger(BufferPool.class);
+
+    /**
+     * Size of the largest buffer that can be leased, as buffers are indexed by int.
+     */
+    public static final long MAX_BUFFER_BYTES = Integer.MAX_VALUE;
+
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_CLASS_SHIFT = 30;
+
+    private static final Unsafe UNSAFE = loadUnsafe();
+
+    private final long maxRetainedBytes;
+    private final ConcurrentLinkedDeque<ByteBuffer>[] classes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong leasedBytes = new AtomicLong();
+    private final Counter hits;
+    private final Counter misses;
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(long maxRetainedBytes, MetricRegistry metrics) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.classes = new ConcurrentLinkedDeque[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ConcurrentLinkedDeque<>();
+        }
+        this.hits = metrics.counter("buffer.pool.hits");
+        this.misses = metrics.counter("buffer.pool.misses");
+        metrics.register("buffer.pool.retained.bytes", (Gauge<Long>) retainedBytes::get);
+        metrics.register("buffer.pool.leased.bytes", (Gauge<Long>) leasedBytes::get);
+    }
+
+    /**
+     * @return a lease on a zero-positioned, native-ordered direct buffer with a limit of exactly the requested size
+     */
+    public Lease lease(long bytes) {
+        if (bytes < 0 || bytes > MAX_BUFFER_BYTES) {
+            throw new IllegalArgumentException("unsupported buffer size: " + bytes);
+        }
+        int sizeClass = sizeClass((int) bytes);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = classes[sizeClass].pollFirst();
+        }
+        if (buffer != null) {
+            retainedBytes.addAndGet(-buffer.capacity());
+            hits.inc();
+        } else {
+            int capacity = sizeClass >= 0 ? 1 << (sizeClass + MIN_CLASS_SHIFT) : (int) bytes;
+            buffer = ByteBuffer.allocateDirect(capacity);
+            misses.inc();
+        }
+        leasedBytes.addAndGet(buffer.capacity());
+        return new Lease(buffer, (int) bytes, sizeClass);
+    }
+
+    private void release(ByteBuffer buffer, int sizeClass) {
+        leasedBytes.addAndGet(-buffer.capacity());
+        if (sizeClass >= 0 && retainedBytes.addAndGet(buffer.capacity()) <= maxRetainedBytes) {
+            buffer.clear();
+            classes[sizeClass].offerFirst(buffer);
+        } else {
+            if (sizeClass >= 0) {
+                retainedBytes.addAndGet(-buffer.capacity());
+            }
+            free(buffer);
+        }
+    }
+
+    /**
+     * @return the index of the smallest size class able to hold the given number of bytes, or -1 if none can
+     */
+    private static int sizeClass(int bytes) {
+        int shift = Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, bytes) - 1));
+        return shift <= MAX_CLASS_SHIFT ? shift - MIN_CLASS_SHIFT : -1;
+    }
+
+    private static void free(ByteBuffer buffer) {
+        if (UNSAFE != null) {
+            UNSAFE.invokeCleaner(buffer);
+        }
+    }
+
+    private static Unsafe loadUnsafe() {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LOG.warn("direct buffers will be freed by the garbage collector", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Exclusive use of a pooled buffer, returned to the pool when closed. Closing more than once has no effect.
+     * Neither the buffer nor any view of it may be used after the lease is closed.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final ByteBuffer buffer;
+        private final int size;
+        private final int sizeClass;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(ByteBuffer buffer, int size, int sizeClass) {
+            this.buffer = buffer;
+            this.size = size;
+            this.sizeClass = sizeClass;
+        }
+
+        public ByteBuffer buffer() {
+            return buffer.duplicate()
+                    .clear()
+                    .limit(size)
+                    .order(ByteOrder.nativeOrder());
+        }
+
+        public FloatBuffer floats() {
+            return buffer().asFloatBuffer();
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(buffer, sizeClass);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package systems.cauldron.service.superresolution.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @param variants reduced precision variants present next to the model file
+ * @param version  changes whenever the model file or one of its variants is replaced, so results of different weights are never mixed up
+ */
+public record ModelDefinition(String name, Path path, int scalingFactor, Map<Precision, Path> variants, String version) {
+
+    static final String EXTENSION = ".onnx";
+
+    private static final Pattern SCALING_FACTOR_SUFFIX = Pattern.compile(".*[-_]x(\\d+)");
+
+    public ModelDefinition {
+        variants = Map.copyOf(variants);
+    }
+
+    /**
+     * @return the definition of the model file, or empty if the path isn't a full precision model file
+     */
+    static Optional<ModelDefinition> of(Path path, int defaultScalingFactor) {
+        String fileName = path.getFileName().toString();
+        if (!fileName.endsWith(EXTENSION) || Precision.baseOf(path).isPresent() || !Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        String name = fileName.substring(0, fileName.length() - EXTENSION.length());
+        Matcher matcher = SCALING_FACTOR_SUFFIX.matcher(name);
+        int scalingFactor = matcher.matches() ? Integer.parseInt(matcher.group(1)) : defaultScalingFactor;
+        try {
+            StringBuilder version = new StringBuilder(fileVersion(path));
+            Map<Precision, Path> variants = new EnumMap<>(Precision.class);
+            for (Precision precision : Precision.values()) {
+                Path variant = precision.variantOf(path);
+                if (precision != Precision.FP32 && Files.isRegularFile(variant)) {
+                    variants.put(precision, variant);
+                    version.append('+').append(fileVersion(variant));
+                }
+            }
+            return Optional.of(new ModelDefinition(name, path, scalingFactor, variants, version.toString()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return the model file of the given precision, or empty if there is no such variant
+     */
+    public Optional<Path> path(Precision precision) {
+        return precision == Precision.FP32 ? Optional.of(path) : Optional.ofNullable(variants.get(precision));
+    }
+
+    private static String fileVersion(Path path) throws IOException {
+        return Long.toHexString(Files.getLastModifiedTime(path).toMillis()) + "-" + Long.toHexString(Files.size(path));
+    }
+}
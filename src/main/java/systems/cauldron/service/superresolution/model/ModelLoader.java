@@ -0,0 +1,6 @@
+package systems.cauldron.service.superresolution.model;
+
+@FunctionalInterface
+public interface ModelLoader {
+    Pipeline load(ModelDefinition definition);
+}
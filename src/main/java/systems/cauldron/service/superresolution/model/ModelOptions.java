@@ -0,0 +1,23 @@
+package systems.cauldron.service.superresolution.model;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * @param directory            directory scanned for .onnx models, each named after its file without the extension
+ * @param defaultModel         name of the model used when a request doesn't select one, kept loaded at all times
+ * @param defaultScalingFactor scaling factor of models whose file name has no -xN suffix
+ * @param idleTimeout          time after which a model without requests is unloaded, or zero to keep models loaded
+ * @param watch                whether models added, replaced or removed in the directory are picked up without a restart
+ */
+public record ModelOptions(Path directory, String defaultModel, int defaultScalingFactor, Duration idleTimeout, boolean watch) {
+
+    public ModelOptions {
+        if (defaultScalingFactor < 1) {
+            throw new IllegalArgumentException("default scaling factor must be positive");
+        }
+        if (idleTimeout.isNegative()) {
+            throw new IllegalArgumentException("idle timeout must not be negative");
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package systems.cauldron.service.superresolution.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.cache.CachingResolver;
+import systems.cauldron.service.superresolution.inference.Resolver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of the models in a directory and loads each one's pipeline on first use.
+ * Replacing a model file swaps in a pipeline for the new weights while requests already using the old one finish,
+ * removing it unloads the model, and models without requests for the idle timeout are unloaded until used again.
+ * A pipeline is closed once it has been unloaded and the last request holding it has released it.
+ */
+public class ModelRegistry implements AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(ModelRegistry.class);
+
+    private static final Duration SETTLE_TIME = Duration.ofMillis(500);
+
+    private final ModelOptions options;
+    private final ModelLoader loader;
+    private final MetricRegistry metrics;
+    private final Map<String, ModelDefinition> catalog = new ConcurrentHashMap<>();
+    private final Map<String, Model> loaded = new ConcurrentHashMap<>();
+    private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+    private final Counter loads;
+    private final Counter unloads;
+    private final ScheduledExecutorService evictor;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    public ModelRegistry(ModelOptions options, ModelLoader loader, MetricRegistry metrics) {
+        this.options = options;
+        this.loader = loader;
+        this.metrics = metrics;
+        this.loads = metrics.counter("model.loads");
+        this.unloads = metrics.counter("model.unloads");
+        metrics.register("model.loaded", (Gauge<Integer>) loaded::size);
+        try (Stream<Path> files = Files.list(options.directory())) {
+            files.forEach(this::refresh);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (!catalog.containsKey(options.defaultModel())) {
+            throw new IllegalArgumentException("default model '" + options.defaultModel() + "' not found in " + options.directory());
+        }
+        LOG.info("found models: {}", new TreeSet<>(catalog.keySet()));
+        acquire(options.defaultModel()).close();
+        if (options.idleTimeout().isZero()) {
+            this.evictor = null;
+        } else {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "model-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1000L, options.idleTimeout().toMillis() / 4);
+            this.evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+        if (options.watch()) {
+            try {
+                this.watchService = options.directory().getFileSystem().newWatchService();
+                options.directory().register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            this.watcher = new Thread(this::watch, "model-watcher");
+            this.watcher.setDaemon(true);
+            this.watcher.start();
+        } else {
+            this.watchService = null;
+            this.watcher = null;
+        }
+    }
+
+    public String defaultModel() {
+        return options.defaultModel();
+    }
+
+    public boolean contains(String name) {
+        return catalog.containsKey(name) || loaded.containsKey(name);
+    }
+
+    /**
+     * @return the current definition of the model, without loading it
+     */
+    public Optional<ModelDefinition> definition(String name) {
+        return Optional.ofNullable(catalog.get(name))
+                .or(() -> Optional.ofNullable(loaded.get(name)).map(Model::definition));
+    }
+
+    public Set<String> names() {
+        return new TreeSet<>(catalog.keySet());
+    }
+
+    /**
+     * Loads the model if needed, blocking until it is ready.
+     *
+     * @return a handle keeping the model's current pipeline open until it is closed
+     * @throws IllegalArgumentException if there is no such model
+     */
+    public Handle acquire(String name) {
+        while (true) {
+            Model model = loaded.get(name);
+            if (model != null && model.retain()) {
+                return new Handle(model);
+            }
+            synchronized (loadLock(name)) {
+                if (loaded.get(name) == model || loaded.get(name) == null) {
+                    ModelDefinition definition = catalog.get(name);
+                    if (definition == null) {
+                        throw new IllegalArgumentException("unknown model: " + name);
+                    }
+                    install(definition);
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings the catalog up to date with a single file, reloading the model if it is loaded and it or one of its variants was replaced.
+     */
+    void refresh(Path changed) {
+        // a changed variant changes the definition of its full precision model
+        Path path = Precision.baseOf(changed).orElse(changed);
+        String fileName = path.getFileName().toString();
+        if (!fileName.endsWith(ModelDefinition.EXTENSION)) {
+            return;
+        }
+        String name = fileName.substring(0, fileName.length() - ModelDefinition.EXTENSION.length());
+        Optional<ModelDefinition> definition;
+        try {
+            definition = ModelDefinition.of(path, options.defaultScalingFactor());
+        } catch (UncheckedIOException ex) {
+            LOG.warn("unable to read model file {}", path, ex);
+            return;
+        }
+        synchronized (loadLock(name)) {
+            if (definition.isEmpty()) {
+                if (catalog.remove(name) != null) {
+                    LOG.info("model '{}' removed", name);
+                    if (name.equals(options.defaultModel())) {
+                        LOG.warn("default model '{}' removed, keeping the loaded version", name);
+                        return;
+                    }
+                    Model model = loaded.remove(name);
+                    if (model != null) {
+                        model.retire();
+                    }
+                }
+                return;
+            }
+            ModelDefinition previous = catalog.put(name, definition.get());
+            if (definition.get().equals(previous)) {
+                return;
+            }
+            LOG.info("model '{}' {} with scaling factor {}", name, previous == null ? "added" : "replaced", definition.get().scalingFactor());
+            if (loaded.containsKey(name)) {
+                try {
+                    install(definition.get());
+                } catch (RuntimeException ex) {
+                    LOG.error("unable to reload model '{}', keeping the previous version", name, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unloads every model other than the default one that has been idle for longer than the idle timeout.
+     */
+    void evictIdle() {
+        long threshold = System.nanoTime() - options.idleTimeout().toNanos();
+        for (Model model : List.copyOf(loaded.values())) {
+            String name = model.definition().name();
+            if (name.equals(options.defaultModel()) || model.inUse() || model.lastUsed() - threshold > 0) {
+                continue;
+            }
+            synchronized (loadLock(name)) {
+                if (loaded.remove(name, model)) {
+                    LOG.info("unloading idle model '{}'", name);
+                    model.retire();
+                }
+            }
+        }
+    }
+
+    /**
+     * Must hold the model's load lock.
+     */
+    private void install(ModelDefinition definition) {
+        String name = definition.name();
+        long started = System.nanoTime();
+        Pipeline pipeline = loader.load(definition);
+        metrics.timer("model.load.time", new Tag("model", name))
+                .update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        loads.inc();
+        LOG.info("model '{}' loaded in {} ms", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        Model previous = loaded.put(name, new Model(definition, pipeline));
+        if (previous != null) {
+            previous.retire();
+        }
+    }
+
+    private Object loadLock(String name) {
+        return loadLocks.computeIfAbsent(name, key -> new Object());
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<Path> changed = new HashSet<>();
+                // let writes settle so a model is loaded once it has been copied completely
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path path) {
+                            changed.add(options.directory().resolve(path));
+                        }
+                    }
+                    key.reset();
+                    key = watchService.poll(SETTLE_TIME.toMillis(), TimeUnit.MILLISECONDS);
+                }
+                changed.forEach(this::refresh);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            LOG.debug("model watcher stopped");
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (watchService != null) {
+            watchService.close();
+            watcher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        for (String name : List.copyOf(loaded.keySet())) {
+            synchronized (loadLock(name)) {
+                Model model = loaded.remove(name);
+                if (model != null) {
+                    model.retire();
+                }
+            }
+        }
+    }
+
+    /**
+     * Use of a loaded model for the duration of a request. Closing more than once has no effect.
+     */
+    public static final class Handle implements AutoCloseable {
+
+        private final Model model;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Handle(Model model) {
+            this.model = model;
+        }
+
+        public ModelDefinition definition() {
+            return model.definition();
+        }
+
+        public Resolver resolver() {
+            return model.pipeline().resolver();
+        }
+
+        public Precision precision() {
+            return model.pipeline().precision();
+        }
+
+        public Resolver localResolver() {
+            return model.pipeline().localResolver();
+        }
+
+        public Resolver uncachedResolver() {
+            return model.pipeline().uncachedResolver();
+        }
+
+        /**
+         * @return the cache in front of the resolver, or null if results aren't cached
+         */
+        public CachingResolver cache() {
+            return model.pipeline().cache();
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                model.release();
+            }
+        }
+    }
+
+    /**
+     * A pipeline counted by the handles open on it. Once retired, it can no longer be retained
+     * and is closed as soon as the count drops to zero.
+     */
+    private final class Model {
+
+        private static final int RETIRED = Integer.MIN_VALUE / 2;
+
+        private final ModelDefinition definition;
+        private final Pipeline pipeline;
+        private final AtomicInteger references = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long lastUsed = System.nanoTime();
+
+        private Model(ModelDefinition definition, Pipeline pipeline) {
+            this.definition = definition;
+            this.pipeline = pipeline;
+        }
+
+        ModelDefinition definition() {
+            return definition;
+        }
+
+        Pipeline pipeline() {
+            return pipeline;
+        }
+
+        long lastUsed() {
+            return lastUsed;
+        }
+
+        boolean inUse() {
+            return references.get() > 0;
+        }
+
+        boolean retain() {
+            lastUsed = System.nanoTime();
+            if (references.incrementAndGet() > 0) {
+                return true;
+            }
+            release();
+            return false;
+        }
+
+        void release() {
+            lastUsed = System.nanoTime();
+            if (references.decrementAndGet() == RETIRED) {
+                closePipeline();
+            }
+        }
+
+        void retire() {
+            if (references.addAndGet(RETIRED) == RETIRED) {
+                closePipeline();
+            }
+        }
+
+        private void closePipeline() {
+            if (closed.compareAndSet(false, true)) {
+                LOG.info("closing pipeline of model '{}' version {}", definition.name(), definition.version());
+                pipeline.close();
+                unloads.inc();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package systems.cauldron.service.superresolution.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.inference.Resolver;
+
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readiness check that stays down until the default model has run a number of inferences at the configured shapes,
+ * so that no traffic reaches an instance before ONNX Runtime made its lazy allocations and picked its kernels for them.
+ * Each session of the pool makes its own allocations, so every iteration runs one inference per session concurrently.
+ * Warm-up inferences bypass the result cache, leaving its contents and hit ratio to real traffic, and each runs on a
+ * different noise image regardless, since identical concurrent inputs could be coalesced further down the chain.
+ * A failed warm-up is logged and the instance reported ready regardless, the model having been loaded already.
+ */
+public class ModelWarmup implements HealthCheck, AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(ModelWarmup.class);
+
+    private final ModelRegistry models;
+    private final WarmupOptions options;
+    private final int sessions;
+    private final MetricRegistry metrics;
+    private final Thread thread;
+    private volatile boolean ready;
+
+    /**
+     * @param sessions number of sessions each model runs on
+     */
+    public ModelWarmup(ModelRegistry models, WarmupOptions options, int sessions, MetricRegistry metrics) {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("sessions must be positive");
+        }
+        this.models = models;
+        this.options = options;
+        this.sessions = sessions;
+        this.metrics = metrics;
+        this.thread = new Thread(this::run, "model-warmup");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Warms up in the background, to be called once the server accepts health checks.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    boolean ready() {
+        return ready;
+    }
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("model-warmup")
+                .state(ready)
+                .build();
+    }
+
+    void run() {
+        String model = models.defaultModel();
+        try {
+            warmUp(model);
+        } catch (RuntimeException ex) {
+            LOG.error("warm-up of model '{}' failed", model, ex);
+        }
+        // the process start time is unavailable on some platforms
+        Duration coldStart = ProcessHandle.current().info().startInstant()
+                .map(started -> Duration.between(started, Instant.now()))
+                .orElse(Duration.ZERO);
+        metrics.register("startup.cold.millis", (Gauge<Long>) coldStart::toMillis);
+        ready = true;
+        LOG.info("ready {} ms after process start", coldStart.toMillis());
+    }
+
+    private void warmUp(String model) {
+        Random random = new Random(0);
+        ExecutorService passes = Executors.newFixedThreadPool(sessions, runnable -> {
+            Thread thread = new Thread(runnable, "model-warmup-pass");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ModelRegistry.Handle handle = models.acquire(model)) {
+            Resolver resolver = handle.uncachedResolver();
+            for (WarmupOptions.Shape shape : options.shapes()) {
+                for (int i = 0; i < options.iterations(); i++) {
+                    List<FloatImageData> inputs = new ArrayList<>(sessions);
+                    for (int session = 0; session < sessions; session++) {
+                        inputs.add(noise(shape, random));
+                    }
+                    long started = System.nanoTime();
+                    List<Future<FloatImageData>> results = new ArrayList<>(sessions);
+                    for (FloatImageData input : inputs) {
+                        results.add(passes.submit(() -> resolver.resolve(input)));
+                    }
+                    for (Future<FloatImageData> result : results) {
+                        result.get();
+                    }
+                    long elapsed = System.nanoTime() - started;
+                    metrics.timer("model.warmup", new Tag("model", model))
+                            .update(elapsed, TimeUnit.NANOSECONDS);
+                    LOG.info("warm-up iteration {}/{} of model '{}' at {}x{} on {} session(s) took {} ms", i + 1, options.iterations(), model,
+                            shape.width(), shape.height(), sessions, TimeUnit.NANOSECONDS.toMillis(elapsed));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(ex.getCause());
+        } finally {
+            passes.shutdownNow();
+        }
+    }
+
+    private static FloatImageData noise(WarmupOptions.Shape shape, Random random) {
+        FloatBuffer data = FloatBuffer.allocate(shape.width() * shape.height() * 3);
+        while (data.hasRemaining()) {
+            data.put(random.nextFloat());
+        }
+        return new FloatImageData(data.flip(), shape.width(), shape.height());
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+}
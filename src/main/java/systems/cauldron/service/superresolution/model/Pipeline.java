@@ -0,0 +1,44 @@
+package systems.cauldron.service.superresolution.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import systems.cauldron.service.superresolution.cache.CachingResolver;
+import systems.cauldron.service.superresolution.inference.Resolver;
+
+import java.util.Deque;
+
+/**
+ * The resolver chain built for a single model, together with the stages to close when the model is unloaded.
+ *
+ * @param localResolver resolves on this instance alone, for tiles that peer instances send
+ * @param cache         the cache in front of the resolver, or null if results aren't cached
+ * @param precision     precision of the model variant the sessions were created from
+ * @param stages        closed from first to last, so they should be pushed in the order of their creation
+ */
+public record Pipeline(Resolver resolver, Resolver localResolver, CachingResolver cache, Precision precision,
+                       Deque<AutoCloseable> stages) implements AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(Pipeline.class);
+
+    public Pipeline(Resolver resolver, Deque<AutoCloseable> stages) {
+        this(resolver, resolver, null, Precision.FP32, stages);
+    }
+
+    /**
+     * @return the resolver chain without the cache in front of it
+     */
+    public Resolver uncachedResolver() {
+        return cache == null ? resolver : cache.delegate();
+    }
+
+    @Override
+    public void close() {
+        for (AutoCloseable stage : stages) {
+            try {
+                stage.close();
+            } catch (Exception ex) {
+                LOG.error("inference stage was unable to shutdown cleanly", ex);
+            }
+        }
+    }
+}
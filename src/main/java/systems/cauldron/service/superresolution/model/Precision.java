@@ -0,0 +1,45 @@
+package systems.cauldron.service.superresolution.model;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Numeric precision of a model's weights. Reduced precision variants of a model are stored next to it,
+ * with the precision inserted before the extension, e.g. "esrgan.fp16.onnx" and "esrgan.int8.onnx",
+ * and are expected to keep float32 inputs and outputs.
+ */
+public enum Precision {
+    FP32,
+    FP16,
+    INT8;
+
+    private String suffix() {
+        return "." + name().toLowerCase(Locale.ROOT) + ModelDefinition.EXTENSION;
+    }
+
+    /**
+     * @return path of this precision's variant of the given full precision model file
+     */
+    public Path variantOf(Path modelPath) {
+        if (this == FP32) {
+            return modelPath;
+        }
+        String fileName = modelPath.getFileName().toString();
+        String baseName = fileName.substring(0, fileName.length() - ModelDefinition.EXTENSION.length());
+        return modelPath.resolveSibling(baseName + suffix());
+    }
+
+    /**
+     * @return the full precision model file of a reduced precision variant, or empty if the path isn't one
+     */
+    static Optional<Path> baseOf(Path variantPath) {
+        String fileName = variantPath.getFileName().toString();
+        return Arrays.stream(values())
+                .filter(precision -> precision != FP32 && fileName.endsWith(precision.suffix()))
+                .findFirst()
+                .map(precision -> variantPath.resolveSibling(
+                        fileName.substring(0, fileName.length() - precision.suffix().length()) + ModelDefinition.EXTENSION));
+    }
+}
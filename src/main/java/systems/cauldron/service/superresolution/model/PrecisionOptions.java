@@ -0,0 +1,22 @@
+package systems.cauldron.service.superresolution.model;
+
+import java.nio.file.Path;
+
+/**
+ * @param precision        precision to serve whenever the model has such a variant, or null to pick one automatically
+ * @param minPsnr          minimum PSNR in dB of a variant's output against the full precision output for it to be picked
+ * @param iterations       number of timed passes over the fixtures when comparing variants
+ * @param fixtureDirectory directory of images the variants are compared on, or null to compare them on a generated image
+ */
+public record PrecisionOptions(Precision precision, double minPsnr, int iterations, Path fixtureDirectory) {
+
+    public PrecisionOptions {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+    }
+
+    public boolean automatic() {
+        return precision == null;
+    }
+}
@@ -0,0 +1,230 @@
+package systems.cauldron.service.superresolution.model;
+
+import io.helidon.metrics.RegistryFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.ImageCodec;
+import systems.cauldron.service.superresolution.image.ImageFormat;
+import systems.cauldron.service.superresolution.inference.InferenceServer;
+import systems.cauldron.service.superresolution.inference.SessionPoolOptions;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Chooses which precision variant of a model to serve. In automatic mode, the first time a version of a model is
+ * loaded every variant is run over the fixture images next to the full precision model, and the fastest one whose
+ * output stays within the PSNR threshold of the full precision output is served. The comparison is logged as a report
+ * and its outcome is kept for later loads of the same version.
+ */
+public class PrecisionSelector {
+
+    private final static Logger LOG = LogManager.getLogger(PrecisionSelector.class);
+
+    private static final int GENERATED_FIXTURE_SIZE = 64;
+
+    private final PrecisionOptions options;
+    private final SessionPoolOptions sessionPoolOptions;
+    private final BufferPool bufferPool;
+    private final MetricRegistry metrics;
+    private final Map<String, Precision> selected = new ConcurrentHashMap<>();
+    private List<FloatImageData> fixtures;
+
+    public PrecisionSelector(PrecisionOptions options, SessionPoolOptions sessionPoolOptions, BufferPool bufferPool, MetricRegistry metrics) {
+        this.options = options;
+        // variants are compared one forward pass at a time
+        this.sessionPoolOptions = new SessionPoolOptions(1,
+                sessionPoolOptions.intraOpThreads(),
+                sessionPoolOptions.interOpThreads(),
+                sessionPoolOptions.optimizationLevel(),
+                sessionPoolOptions.executionMode(),
+                sessionPoolOptions.memoryArena(),
+                sessionPoolOptions.optimizedModelDirectory(),
+                sessionPoolOptions.pinThreads());
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the precision to serve the model with, which the model always has a file for
+     */
+    public Precision select(ModelDefinition definition) {
+        Precision precision = selected.computeIfAbsent(definition.name() + "@" + definition.version(), key -> choose(definition));
+        metrics.counter("model.precision.selected", new Tag("model", definition.name()), new Tag("precision", label(precision))).inc();
+        return precision;
+    }
+
+    private Precision choose(ModelDefinition definition) {
+        if (!options.automatic()) {
+            if (definition.path(options.precision()).isPresent()) {
+                return options.precision();
+            }
+            LOG.warn("model '{}' has no {} variant, serving full precision", definition.name(), label(options.precision()));
+            return Precision.FP32;
+        }
+        if (definition.variants().isEmpty()) {
+            return Precision.FP32;
+        }
+        List<FloatImageData> inputs = fixtures();
+        Measurement reference = measure(definition, Precision.FP32, inputs, null);
+        if (reference.failure() != null) {
+            throw new IllegalStateException("unable to run model '" + definition.name() + "': " + reference.failure());
+        }
+        List<Measurement> measurements = new ArrayList<>(List.of(reference));
+        for (Precision precision : definition.variants().keySet()) {
+            measurements.add(measure(definition, precision, inputs, reference.outputs()));
+        }
+        Precision precision = fastestWithinThreshold(measurements, options.minPsnr());
+        report(definition, measurements, precision);
+        return precision;
+    }
+
+    private Measurement measure(ModelDefinition definition, Precision precision, List<FloatImageData> inputs, List<FloatImageData> reference) {
+        Path path = definition.path(precision).orElseThrow();
+        MetricRegistry detached = RegistryFactory.create().getRegistry(MetricRegistry.Type.APPLICATION);
+        try (InferenceServer server = new InferenceServer(path, definition.scalingFactor(), sessionPoolOptions, bufferPool, detached)) {
+            // the first pass warms up the session and provides the outputs to compare
+            List<FloatImageData> outputs = new ArrayList<>(inputs.size());
+            for (FloatImageData input : inputs) {
+                outputs.add(server.resolve(duplicate(input)));
+            }
+            long started = System.nanoTime();
+            for (int i = 0; i < options.iterations(); i++) {
+                for (FloatImageData input : inputs) {
+                    server.resolve(duplicate(input));
+                }
+            }
+            double nanosPerImage = (double) (System.nanoTime() - started) / (options.iterations() * inputs.size());
+            double psnr = Double.POSITIVE_INFINITY;
+            if (reference != null) {
+                for (int i = 0; i < outputs.size(); i++) {
+                    psnr = Math.min(psnr, psnr(reference.get(i), outputs.get(i)));
+                }
+            }
+            return new Measurement(precision, nanosPerImage, psnr, outputs, null);
+        } catch (Exception ex) {
+            LOG.warn("unable to run {} variant of model '{}'", label(precision), definition.name(), ex);
+            return new Measurement(precision, Double.NaN, Double.NaN, List.of(), String.valueOf(ex.getMessage()));
+        }
+    }
+
+    private static void report(ModelDefinition definition, List<Measurement> measurements, Precision selected) {
+        StringBuilder report = new StringBuilder("precision report for model '").append(definition.name()).append("':");
+        for (Measurement measurement : measurements) {
+            report.append(String.format(Locale.ROOT, "%n  %-5s ", label(measurement.precision())));
+            if (measurement.failure() != null) {
+                report.append("failed: ").append(measurement.failure());
+            } else if (measurement.precision() == Precision.FP32) {
+                report.append(String.format(Locale.ROOT, "%10.2f ms/image  reference", measurement.nanosPerImage() / 1e6));
+            } else {
+                report.append(String.format(Locale.ROOT, "%10.2f ms/image  PSNR %.2f dB", measurement.nanosPerImage() / 1e6, measurement.psnr()));
+            }
+            if (measurement.precision() == selected) {
+                report.append("  <- serving");
+            }
+        }
+        LOG.info(report.toString());
+    }
+
+    static Precision fastestWithinThreshold(List<Measurement> measurements, double minPsnr) {
+        return measurements.stream()
+                .filter(measurement -> measurement.failure() == null && measurement.psnr() >= minPsnr)
+                .min(Comparator.comparingDouble(Measurement::nanosPerImage))
+                .map(Measurement::precision)
+                .orElse(Precision.FP32);
+    }
+
+    /**
+     * Peak signal-to-noise ratio in dB of an image against a reference, with elements in [0, 1].
+     */
+    static double psnr(FloatImageData expected, FloatImageData actual) {
+        if (expected.width() != actual.width() || expected.height() != actual.height()) {
+            throw new IllegalArgumentException("images must share the same dimensions");
+        }
+        FloatBuffer a = expected.data().duplicate();
+        FloatBuffer b = actual.data().duplicate();
+        int count = a.remaining();
+        double sumOfSquares = 0.0;
+        for (int i = 0; i < count; i++) {
+            double difference = a.get() - b.get();
+            sumOfSquares += difference * difference;
+        }
+        double meanSquaredError = sumOfSquares / count;
+        return meanSquaredError == 0.0 ? Double.POSITIVE_INFINITY : 10.0 * Math.log10(1.0 / meanSquaredError);
+    }
+
+    private synchronized List<FloatImageData> fixtures() {
+        if (fixtures == null) {
+            fixtures = options.fixtureDirectory() == null ? List.of(generateFixture()) : loadFixtures(options.fixtureDirectory());
+        }
+        return fixtures;
+    }
+
+    private static List<FloatImageData> loadFixtures(Path directory) {
+        List<FloatImageData> images = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.sorted().toList()) {
+                byte[] content = Files.readAllBytes(file);
+                Optional<ImageFormat> format = ImageFormat.detect(content).filter(ImageFormat::canDecode);
+                if (format.isPresent()) {
+                    ImageCodec.Dimensions dimensions = ImageCodec.probe(content);
+                    images.add(ImageCodec.decode(content, FloatBuffer.allocate((int) dimensions.pixels() * 3)));
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("no fixture images found in " + directory);
+        }
+        return images;
+    }
+
+    /**
+     * Smooth gradients with fine noise on top, so that both flat areas and detail are compared.
+     */
+    private static FloatImageData generateFixture() {
+        int size = GENERATED_FIXTURE_SIZE;
+        FloatBuffer data = FloatBuffer.allocate(size * size * 3);
+        Random random = new Random(42);
+        for (int channel = 0; channel < 3; channel++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    double value = 0.5 + 0.3 * Math.sin(x * 0.2 + channel) * Math.cos(y * 0.15) + 0.1 * (random.nextDouble() - 0.5);
+                    data.put((float) Math.min(1.0, Math.max(0.0, value)));
+                }
+            }
+        }
+        return new FloatImageData(data.flip(), size, size);
+    }
+
+    private static FloatImageData duplicate(FloatImageData image) {
+        return new FloatImageData(image.data().duplicate(), image.width(), image.height());
+    }
+
+    private static String label(Precision precision) {
+        return precision.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param failure reason the variant could not be run, otherwise null
+     */
+    record Measurement(Precision precision, double nanosPerImage, double psnr, List<FloatImageData> outputs, String failure) {
+    }
+}
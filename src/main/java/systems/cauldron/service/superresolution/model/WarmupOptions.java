@@ -0,0 +1,48 @@
+package systems.cauldron.service.superresolution.model;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @param shapes     input dimensions to run the default model at before reporting ready, typically those of the most common requests
+ * @param iterations number of inferences at each shape
+ */
+public record WarmupOptions(List<Shape> shapes, int iterations) {
+
+    public static final WarmupOptions DISABLED = new WarmupOptions(List.of(), 0);
+
+    public WarmupOptions {
+        shapes = List.copyOf(shapes);
+        if (iterations < 0) {
+            throw new IllegalArgumentException("iterations must not be negative");
+        }
+    }
+
+    public boolean enabled() {
+        return iterations > 0 && !shapes.isEmpty();
+    }
+
+    public record Shape(int width, int height) {
+
+        public Shape {
+            if (width < 1 || height < 1) {
+                throw new IllegalArgumentException("warm-up shape must not be empty");
+            }
+        }
+
+        /**
+         * @param value width and height separated by an "x", e.g. "256x256"
+         */
+        public static Shape parse(String value) {
+            String[] dimensions = value.trim().toLowerCase(Locale.ROOT).split("x");
+            if (dimensions.length != 2) {
+                throw new IllegalArgumentException("invalid warm-up shape: " + value);
+            }
+            try {
+                return new Shape(Integer.parseInt(dimensions[0].trim()), Integer.parseInt(dimensions[1].trim()));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("invalid warm-up shape: " + value, ex);
+            }
+        }
+    }
+}
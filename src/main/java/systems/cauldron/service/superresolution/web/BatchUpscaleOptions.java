@@ -0,0 +1,21 @@
+package systems.cauldron.service.superresolution.web;
+
+/**
+ * @param maxItems      maximum number of images in a single batch request
+ * @param pipelineDepth maximum number of images of a batch that are being decoded, resolved or encoded at once
+ * @param codecThreads  number of threads decoding and encoding the images of all batches
+ */
+public record BatchUpscaleOptions(int maxItems, int pipelineDepth, int codecThreads) {
+
+    public BatchUpscaleOptions {
+        if (maxItems < 1) {
+            throw new IllegalArgumentException("max items must be positive");
+        }
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("pipeline depth must be positive");
+        }
+        if (codecThreads < 1) {
+            throw new IllegalArgumentException("codec thread count must be positive");
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.MediaType;
+import io.helidon.common.http.Parameters;
+import io.helidon.webserver.Routing;
+import io.helidon.webserver.ServerRequest;
+import io.helidon.webserver.ServerResponse;
+import io.helidon.webserver.Service;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import systems.cauldron.service.superresolution.image.BadInputException;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.ImageCodec;
+import systems.cauldron.service.superresolution.image.ImageFormat;
+import systems.cauldron.service.superresolution.image.PixelConverter;
+import systems.cauldron.service.superresolution.inference.InferenceExecutor;
+import systems.cauldron.service.superresolution.inference.OverloadedException;
+import systems.cauldron.service.superresolution.inference.Priority;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+import systems.cauldron.service.superresolution.model.ModelRegistry;
+import systems.cauldron.service.superresolution.web.Upscaler.EncodedPayload;
+import systems.cauldron.service.superresolution.web.Upscaler.Encoding;
+import systems.cauldron.service.superresolution.web.Upscaler.Input;
+import systems.cauldron.service.superresolution.web.Upscaler.Output;
+import systems.cauldron.service.superresolution.web.Upscaler.Payload;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upscales many images in one request. The body is a sequence of frames, each a 4 byte big-endian length followed by
+ * that many bytes of a PNG/JPEG/WebP image, or of raw planar RGB bytes when "width" and "height" parameters are given.
+ * <p>
+ * Frames are parsed from the body as it arrives, and each image goes through three stages, decoding and encoding on
+ * a codec thread pool and inference on the inference executor, with up to the pipeline depth of images of a batch in
+ * flight or waiting to be written at once. While one image is being resolved the next one is already being decoded
+ * and the previous one encoded, so the model is kept busy instead of waiting on conversions, and the rest of the body
+ * is only read as results are written out.
+ * <p>
+ * Results are streamed back as each one completes, each prefixed by a 16 byte header of big-endian integers:
+ * index of the image in the request, output width, output height and length of the output that follows,
+ * which is -1 with no output if the image failed. A body that ends within a frame or holds more than the maximum
+ * number of images ends the stream with an error after the results of the images before it.
+ */
+public class BatchUpscaleService implements Service, AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(BatchUpscaleService.class);
+
+    private static final int FRAME_HEADER_SIZE = 4 * Integer.BYTES;
+    private static final long MIN_BACKOFF_MILLIS = 50L;
+
+    private final ModelRegistry models;
+    private final InferenceExecutor executor;
+    private final BatchUpscaleOptions options;
+    private final Upscaler upscaler;
+    private final MetricRegistry metrics;
+    private final ExecutorService codecExecutor;
+    private final Counter failedItems;
+
+    public BatchUpscaleService(ModelRegistry models, InferenceExecutor executor, BatchUpscaleOptions options, BufferPool bufferPool, MetricRegistry metrics) {
+        this.models = models;
+        this.executor = executor;
+        this.options = options;
+        this.upscaler = new Upscaler(models, bufferPool, metrics);
+        this.metrics = metrics;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.codecExecutor = Executors.newFixedThreadPool(options.codecThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "batch-codec-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.failedItems = metrics.counter("batch.items.failed");
+    }
+
+    @Override
+    public void update(Routing.Rules rules) {
+        rules.post("/upscale/batch", this::upscale);
+    }
+
+    private void upscale(ServerRequest request, ServerResponse response) {
+        Parameters parameters = request.queryParams();
+        Encoding encoding;
+        try {
+            encoding = parseEncoding(parameters);
+        } catch (IllegalArgumentException ex) {
+            response.status(400).send();
+            return;
+        }
+        String model = parameters.first("model").orElse(models.defaultModel());
+        if (!models.contains(model)) {
+            response.status(404).send();
+            return;
+        }
+        int width = UpscaleService.parsePositiveIntParam(parameters, "width");
+        int height = UpscaleService.parsePositiveIntParam(parameters, "height");
+        boolean raw = parameters.first("width").isPresent() || parameters.first("height").isPresent();
+        if (raw && (width == -1 || height == -1)) {
+            response.status(400).send();
+            return;
+        }
+        Batch batch = new Batch(model, width, height, encoding);
+        PartStream results = new PartStream(PartParser.lengthPrefixed(), options.maxItems(), options.pipelineDepth(), batch::process);
+        results.completion().whenComplete((items, ex) -> {
+            if (ex == null) {
+                metrics.histogram("batch.items").update(items);
+                metrics.timer("batch.request").update(System.nanoTime() - batch.started, TimeUnit.NANOSECONDS);
+            } else if (ex instanceof BadInputException) {
+                LOG.warn("batch ended early: {}", ex.getMessage());
+            } else if (!(ex instanceof CancellationException)) {
+                LOG.error("error while streaming batch", ex);
+            }
+        });
+        // the status is committed once results stream out, so content found invalid only then can only end the stream
+        response.status(200);
+        response.headers().contentType(MediaType.APPLICATION_OCTET_STREAM);
+        request.content().subscribe(results);
+        response.send(results);
+    }
+
+    /**
+     * Output follows the "format" parameter, either "raw" (the default) or the name of an encodable image format.
+     */
+    private static Encoding parseEncoding(Parameters parameters) {
+        String name = parameters.first("format").orElse("raw");
+        if (name.equalsIgnoreCase("raw")) {
+            return null;
+        }
+        ImageFormat format = ImageFormat.valueOf(name.toUpperCase(Locale.ROOT));
+        if (!format.canEncode()) {
+            throw new IllegalArgumentException("unable to encode " + format);
+        }
+        return new Encoding(format, UpscaleService.parseCompressionQuality(parameters, format));
+    }
+
+    /**
+     * Framed output of a single image, or of a failure when the payload is null.
+     */
+    static ByteBuffer frame(int index, int width, int height, byte[] payload) {
+        int length = payload == null ? 0 : payload.length;
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + length)
+                .putInt(index)
+                .putInt(width)
+                .putInt(height)
+                .putInt(payload == null ? -1 : length);
+        if (payload != null) {
+            frame.put(payload);
+        }
+        return frame.flip();
+    }
+
+    @Override
+    public void close() {
+        codecExecutor.shutdownNow();
+    }
+
+    /**
+     * The images of one request, each decoded, resolved and encoded as it is parsed from the content.
+     */
+    private final class Batch {
+
+        private final String model;
+        private final int width;
+        private final int height;
+        private final Encoding encoding;
+        private final long started = System.nanoTime();
+
+        private Batch(String model, int width, int height, Encoding encoding) {
+            this.model = model;
+            this.width = width;
+            this.height = height;
+            this.encoding = encoding;
+        }
+
+        /**
+         * @return the framed output of the image, or of its failure, never completing exceptionally
+         */
+        CompletionStage<ByteBuffer> process(int index, ByteBuffer item) {
+            StageTimings timings = new StageTimings(metrics, model);
+            return CompletableFuture.supplyAsync(() -> decode(item, timings), codecExecutor)
+                    .thenCompose(input -> resolve(input, timings))
+                    .thenApplyAsync(output -> render(index, output, timings), codecExecutor)
+                    .exceptionally(ex -> {
+                        LOG.warn("image {} of batch failed", index, ex);
+                        failedItems.inc();
+                        return frame(index, 0, 0, null);
+                    });
+        }
+
+        private Input decode(ByteBuffer item, StageTimings timings) {
+            if (width != -1) {
+                long expected = (long) width * height * 3;
+                if (item.remaining() != expected) {
+                    throw new IllegalArgumentException("expected " + expected + " bytes of raw input");
+                }
+                return upscaler.convert(item.duplicate(), width, height, timings);
+            }
+            byte[] content = new byte[item.remaining()];
+            item.duplicate().get(content);
+            ImageFormat format = ImageFormat.detect(content)
+                    .filter(ImageFormat::canDecode)
+                    .orElseThrow(() -> new IllegalArgumentException("unsupported image format"));
+            return upscaler.decode(content, ImageCodec.probe(content), format, timings);
+        }
+
+        /**
+         * Waits out the executor's retry estimate when it is overloaded, since the rest of the batch is already streaming.
+         */
+        private CompletableFuture<Output> resolve(Input input, StageTimings timings) {
+            long pixels = (long) input.image().width() * input.image().height();
+            try {
+                return executor.submit(pixels, upscaler.scalingFactor(model), Priority.NORMAL, () -> CompletableFuture.completedFuture(input),
+                        (Input admitted) -> upscaler.resolve(model, admitted, timings));
+            } catch (OverloadedException ex) {
+                long backoff = Math.max(MIN_BACKOFF_MILLIS, ex.retryAfter().toMillis());
+                return CompletableFuture.supplyAsync(() -> input, CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS))
+                        .thenCompose(retried -> resolve(retried, timings));
+            }
+        }
+
+        private ByteBuffer render(int index, Output output, StageTimings timings) {
+            FloatImageData image = output.image();
+            try (Payload payload = upscaler.render(output, encoding, timings)) {
+                if (payload instanceof EncodedPayload encoded) {
+                    return frame(index, image.width(), image.height(), encoded.data());
+                }
+                ByteBuffer raw = ByteBuffer.allocate(image.data().remaining());
+                PixelConverter.toBytes(image.data().duplicate(), raw);
+                timings.lap("convert");
+                return frame(index, image.width(), image.height(), raw.array());
+            }
+        }
+    }
+}
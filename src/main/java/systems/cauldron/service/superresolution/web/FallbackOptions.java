@@ -0,0 +1,33 @@
+package systems.cauldron.service.superresolution.web;
+
+import systems.cauldron.service.superresolution.image.InterpolationKernel;
+
+import java.time.Duration;
+
+/**
+ * @param kernel        kernel of the interpolating upscaler serving requests that do not run a model
+ * @param parallelism   number of threads of the interpolating upscaler
+ * @param latencySlo    estimated inference latency beyond which requests are interpolated instead, or zero to always run the model
+ * @param maxTinyPixels number of input pixels up to which images are always interpolated, or 0 to always run the model
+ */
+public record FallbackOptions(InterpolationKernel kernel, int parallelism, Duration latencySlo, long maxTinyPixels) {
+
+    public FallbackOptions {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        if (latencySlo.isNegative()) {
+            throw new IllegalArgumentException("latency slo must not be negative");
+        }
+        if (maxTinyPixels < 0) {
+            throw new IllegalArgumentException("max tiny pixels must not be negative");
+        }
+    }
+
+    /**
+     * @return whether requests are interpolated when inference is overloaded or slower than the latency slo
+     */
+    public boolean degrades() {
+        return !latencySlo.isZero();
+    }
+}
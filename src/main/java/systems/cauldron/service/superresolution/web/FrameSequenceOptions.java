@@ -0,0 +1,17 @@
+package systems.cauldron.service.superresolution.web;
+
+/**
+ * @param tileSize  width and height in input pixels of the tiles compared between consecutive frames
+ * @param maxFrames maximum number of frames in a single sequence request
+ */
+public record FrameSequenceOptions(int tileSize, int maxFrames) {
+
+    public FrameSequenceOptions {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size must be positive");
+        }
+        if (maxFrames < 1) {
+            throw new IllegalArgumentException("max frames must be positive");
+        }
+    }
+}
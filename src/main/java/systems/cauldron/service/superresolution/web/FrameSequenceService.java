@@ -0,0 +1,173 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.DataChunk;
+import io.helidon.common.http.MediaType;
+import io.helidon.common.http.Parameters;
+import io.helidon.webserver.Routing;
+import io.helidon.webserver.ServerRequest;
+import io.helidon.webserver.ServerResponse;
+import io.helidon.webserver.Service;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.image.BadInputException;
+import systems.cauldron.service.superresolution.image.ByteImageData;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.PixelConverter;
+import systems.cauldron.service.superresolution.inference.FrameSequence;
+import systems.cauldron.service.superresolution.inference.InferenceExecutor;
+import systems.cauldron.service.superresolution.inference.OverloadedException;
+import systems.cauldron.service.superresolution.inference.Priority;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+import systems.cauldron.service.superresolution.model.ModelDefinition;
+import systems.cauldron.service.superresolution.model.ModelRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upscales a clip given as consecutive raw planar RGB frames of the size set by the "width" and "height" parameters,
+ * streaming back the upscaled frames in the same layout as each one completes. Frames are read from the request as
+ * they arrive and resolved in order as the response asks for them, and only the tiles that changed since the previous
+ * frame are run through the model, so mostly static footage such as screen recordings costs a fraction of upscaling
+ * every frame on its own.
+ */
+public class FrameSequenceService implements Service {
+
+    private final static Logger LOG = LogManager.getLogger(FrameSequenceService.class);
+
+    private static final long MIN_BACKOFF_MILLIS = 50L;
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+    private static final int NUM_BYTES_PER_ELEMENT = 4;
+
+    private final ModelRegistry models;
+    private final InferenceExecutor executor;
+    private final FrameSequenceOptions options;
+    private final int margin;
+    private final BufferPool bufferPool;
+    private final MetricRegistry metrics;
+
+    /**
+     * @param margin number of input pixels around a tile that are compared and resolved along with it
+     */
+    public FrameSequenceService(ModelRegistry models, InferenceExecutor executor, FrameSequenceOptions options, int margin,
+                                BufferPool bufferPool, MetricRegistry metrics) {
+        this.models = models;
+        this.executor = executor;
+        this.options = options;
+        this.margin = margin;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void update(Routing.Rules rules) {
+        rules.post("/upscale/frames", this::upscale);
+    }
+
+    private void upscale(ServerRequest request, ServerResponse response) {
+        Parameters parameters = request.queryParams();
+        int width = UpscaleService.parsePositiveIntParam(parameters, "width");
+        int height = UpscaleService.parsePositiveIntParam(parameters, "height");
+        if (width == -1 || height == -1) {
+            response.status(400).send();
+            return;
+        }
+        String model = parameters.first("model").orElse(models.defaultModel());
+        Optional<ModelDefinition> definition = models.definition(model);
+        if (definition.isEmpty()) {
+            response.status(404).send();
+            return;
+        }
+        int scalingFactor = definition.get().scalingFactor();
+        // the sequence keeps an upscaled frame in a single direct buffer
+        if ((long) width * height * scalingFactor * scalingFactor * NUM_ELEMENTS_PER_PIXEL * NUM_BYTES_PER_ELEMENT > Integer.MAX_VALUE) {
+            response.status(413).send();
+            return;
+        }
+        int frameSize = width * height * NUM_ELEMENTS_PER_PIXEL;
+        OptionalLong length = request.headers().contentLength();
+        if (length.isPresent()) {
+            if (length.getAsLong() == 0 || length.getAsLong() % frameSize != 0) {
+                response.status(400).send();
+                return;
+            }
+            if (length.getAsLong() / frameSize > options.maxFrames()) {
+                response.status(413).send();
+                return;
+            }
+        }
+        FrameSequence sequence = new FrameSequence(width, height, scalingFactor, options.tileSize(), margin, bufferPool, metrics,
+                new Tag("model", model));
+        Clip clip = new Clip(width, height, model, scalingFactor, sequence);
+        // one frame at a time, each resolved against the previous one
+        PartStream frames = new PartStream(PartParser.fixedSize(frameSize), options.maxFrames(), 1, (index, frame) -> clip.submit(frame));
+        frames.completion().whenComplete((count, ex) -> {
+            if (ex == null) {
+                metrics.histogram("frames.count").update(count);
+                metrics.timer("frames.request").update(System.nanoTime() - clip.started, TimeUnit.NANOSECONDS);
+            } else if (ex instanceof BadInputException) {
+                LOG.warn("frame sequence ended early: {}", ex.getMessage());
+            } else if (!(ex instanceof CancellationException)) {
+                LOG.error("error while resolving sequence", ex);
+            }
+        });
+        // the status is committed once frames stream out, so content found invalid only then can only end the stream
+        response.status(200);
+        response.headers().contentType(MediaType.APPLICATION_OCTET_STREAM);
+        length.ifPresent(bytes -> response.headers().contentLength(bytes * scalingFactor * scalingFactor));
+        request.content().subscribe(frames);
+        response.send(frames);
+    }
+
+    /**
+     * The frames of one request, each submitted to the inference executor once the previous one has been streamed out.
+     */
+    private final class Clip {
+
+        private final int width;
+        private final int height;
+        private final String model;
+        private final int scalingFactor;
+        private final FrameSequence sequence;
+        private final long started = System.nanoTime();
+
+        private Clip(int width, int height, String model, int scalingFactor, FrameSequence sequence) {
+            this.width = width;
+            this.height = height;
+            this.model = model;
+            this.scalingFactor = scalingFactor;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Waits out the executor's retry estimate when it is overloaded, since the earlier frames are already streaming.
+         */
+        private CompletableFuture<ByteBuffer> submit(ByteBuffer frame) {
+            try {
+                return executor.submit((long) width * height, scalingFactor, Priority.NORMAL, () -> CompletableFuture.completedFuture(frame), this::resolve);
+            } catch (OverloadedException ex) {
+                long backoff = Math.max(MIN_BACKOFF_MILLIS, ex.retryAfter().toMillis());
+                return CompletableFuture.supplyAsync(() -> frame, CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS))
+                        .thenCompose(this::submit);
+            }
+        }
+
+        private ByteBuffer resolve(ByteBuffer content) {
+            ByteImageData frame = new ByteImageData(content, width, height);
+            FloatImageData upscaled;
+            try (ModelRegistry.Handle handle = models.acquire(model)) {
+                upscaled = sequence.resolve(frame, handle.resolver());
+            }
+            // the sequence overwrites its output with the next frame
+            ByteBuffer converted = ByteBuffer.allocate(upscaled.data().remaining());
+            PixelConverter.toBytes(upscaled.data().duplicate(), converted);
+            return converted.flip();
+        }
+    }
+}
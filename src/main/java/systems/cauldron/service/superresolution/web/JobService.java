@@ -0,0 +1,302 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.DataChunk;
+import io.helidon.common.http.MediaType;
+import io.helidon.common.http.Parameters;
+import io.helidon.common.reactive.Multi;
+import io.helidon.webserver.Routing;
+import io.helidon.webserver.ServerRequest;
+import io.helidon.webserver.ServerResponse;
+import io.helidon.webserver.Service;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.ImageCodec;
+import systems.cauldron.service.superresolution.image.ImageFormat;
+import systems.cauldron.service.superresolution.image.PixelConverter;
+import systems.cauldron.service.superresolution.inference.InferenceExecutor;
+import systems.cauldron.service.superresolution.inference.OverloadedException;
+import systems.cauldron.service.superresolution.inference.Priority;
+import systems.cauldron.service.superresolution.jobs.Job;
+import systems.cauldron.service.superresolution.jobs.JobRequest;
+import systems.cauldron.service.superresolution.jobs.JobStatus;
+import systems.cauldron.service.superresolution.jobs.JobStore;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+import systems.cauldron.service.superresolution.model.ModelRegistry;
+import systems.cauldron.service.superresolution.web.Upscaler.EncodedPayload;
+import systems.cauldron.service.superresolution.web.Upscaler.Encoding;
+import systems.cauldron.service.superresolution.web.Upscaler.Input;
+import systems.cauldron.service.superresolution.web.Upscaler.Payload;
+import systems.cauldron.service.superresolution.web.Upscaler.RawPayload;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Accepts the same input as the synchronous upscale endpoint, but responds as soon as the input has been persisted
+ * with the id of a job that is run in the background. Job workers wait for capacity of the inference executor
+ * instead of being refused, so bursts of jobs are queued on disk and drained at the rate inference allows.
+ */
+public class JobService implements Service, AutoCloseable {
+
+    private final static Logger LOG = LogManager.getLogger(JobService.class);
+
+    private static final String RAW_TYPE = "application/octet-stream";
+    private static final long MIN_BACKOFF_MILLIS = 50L;
+
+    private final ModelRegistry models;
+    private final InferenceExecutor executor;
+    private final JobStore store;
+    private final Upscaler upscaler;
+    private final MetricRegistry metrics;
+    private final List<Thread> workers = new ArrayList<>();
+
+    public JobService(ModelRegistry models, InferenceExecutor executor, JobStore store, int workers, BufferPool bufferPool, MetricRegistry metrics) {
+        this.models = models;
+        this.executor = executor;
+        this.store = store;
+        this.upscaler = new Upscaler(models, bufferPool, metrics);
+        this.metrics = metrics;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "job-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            this.workers.add(worker);
+        }
+    }
+
+    @Override
+    public void update(Routing.Rules rules) {
+        rules.post("/jobs", this::submit)
+                .get("/jobs/{id}", this::status)
+                .get("/jobs/{id}/result", this::result);
+    }
+
+    private void submit(ServerRequest request, ServerResponse response) {
+        Parameters parameters = request.queryParams();
+        Optional<MediaType> accepted = request.headers().bestAccepted(UpscaleService.acceptableTypes());
+        if (accepted.isEmpty()) {
+            response.status(406).send();
+            return;
+        }
+        String outputType = accepted.get().type() + "/" + accepted.get().subtype();
+        float compressionQuality;
+        try {
+            compressionQuality = ImageFormat.fromMimeType(outputType)
+                    .map(format -> UpscaleService.parseCompressionQuality(parameters, format))
+                    .orElse(Float.NaN);
+        } catch (IllegalArgumentException ex) {
+            response.status(400).send();
+            return;
+        }
+        String model = parameters.first("model").orElse(models.defaultModel());
+        if (!models.contains(model)) {
+            response.status(404).send();
+            return;
+        }
+        Optional<ImageFormat> inputFormat = request.headers().contentType()
+                .flatMap(type -> ImageFormat.fromMimeType(type.type() + "/" + type.subtype()));
+        JobRequest jobRequest;
+        if (inputFormat.isPresent()) {
+            if (!inputFormat.get().canDecode()) {
+                response.status(415).send();
+                return;
+            }
+            jobRequest = new JobRequest(model, inputFormat.get().mimeType(), 0, 0, outputType, compressionQuality);
+        } else {
+            int width = UpscaleService.parsePositiveIntParam(parameters, "width");
+            int height = UpscaleService.parsePositiveIntParam(parameters, "height");
+            if (width == -1 || height == -1) {
+                response.status(400).send();
+                return;
+            }
+            jobRequest = new JobRequest(model, RAW_TYPE, width, height, outputType, compressionQuality);
+        }
+        JobStore.Reservation reservation;
+        try {
+            reservation = store.reserve();
+        } catch (OverloadedException ex) {
+            UpscaleService.reject(response, ex);
+            return;
+        }
+        request.content().as(byte[].class)
+                // persisting blocks on the disk, so it is kept off the webserver's threads
+                .thenApplyAsync(content -> {
+                    long expected = (long) jobRequest.width() * jobRequest.height() * 3;
+                    if (expected > 0 && content.length != expected) {
+                        throw new IllegalArgumentException("expected " + expected + " bytes of raw input");
+                    }
+                    return store.submit(reservation, jobRequest, content);
+                })
+                // gives the place back unless the job took it, including when the body couldn't be read
+                .whenComplete((job, ex) -> reservation.close())
+                .thenAccept(job -> {
+                    response.status(202);
+                    response.addHeader("Location", "/api/v1/jobs/" + job.id());
+                    response.send(describe(job));
+                })
+                .exceptionally(ex -> {
+                    Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                    if (cause instanceof OverloadedException overloaded) {
+                        UpscaleService.reject(response, overloaded);
+                    } else if (cause instanceof IllegalArgumentException) {
+                        response.status(400).send();
+                    } else {
+                        LOG.error("unable to submit job", ex);
+                        response.status(500).send();
+                    }
+                    return null;
+                });
+    }
+
+    private void status(ServerRequest request, ServerResponse response) {
+        Optional<Job> job = store.get(request.path().param("id"));
+        if (job.isEmpty()) {
+            response.status(404).send();
+            return;
+        }
+        response.send(describe(job.get()));
+    }
+
+    /**
+     * Responds with 409 while the job has not succeeded, and with the result, read through a memory mapping, once it has.
+     */
+    private void result(ServerRequest request, ServerResponse response) {
+        Optional<Job> job = store.get(request.path().param("id"));
+        if (job.isEmpty()) {
+            response.status(404).send();
+            return;
+        }
+        if (job.get().status() != JobStatus.SUCCEEDED) {
+            response.status(409).send(describe(job.get()));
+            return;
+        }
+        Optional<ByteBuffer> result = store.result(job.get());
+        if (result.isEmpty()) {
+            response.status(404).send();
+            return;
+        }
+        response.status(200);
+        response.headers().contentType(MediaType.parse(job.get().request().outputType()));
+        response.headers().contentLength(result.get().remaining());
+        response.send(Multi.just(DataChunk.create(result.get())));
+    }
+
+    private static JsonObject describe(Job job) {
+        JsonObjectBuilder builder = Json.createObjectBuilder()
+                .add("id", job.id())
+                .add("status", job.status().name().toLowerCase(Locale.ROOT))
+                .add("model", job.request().model())
+                .add("created", job.created().toString())
+                .add("updated", job.updated().toString());
+        if (job.status() == JobStatus.SUCCEEDED) {
+            builder.add("result", "/api/v1/jobs/" + job.id() + "/result");
+        }
+        if (job.error() != null) {
+            builder.add("error", job.error());
+        }
+        return builder.build();
+    }
+
+    private void work() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    run(store.take());
+                } catch (RuntimeException ex) {
+                    // e.g. the job directory failing, which must not stop the queue from draining once it recovers
+                    LOG.error("job worker failed", ex);
+                    Thread.sleep(MIN_BACKOFF_MILLIS);
+                }
+            }
+        } catch (InterruptedException ex) {
+            LOG.debug("job worker stopped");
+        }
+    }
+
+    /**
+     * A job interrupted by shutdown is left running, to be queued again when the service restarts.
+     */
+    private void run(Job job) throws InterruptedException {
+        JobRequest request = job.request();
+        StageTimings timings = new StageTimings(metrics, request.model());
+        try {
+            ByteBuffer input = store.input(job);
+            Encoding encoding = ImageFormat.fromMimeType(request.outputType())
+                    .map(format -> new Encoding(format, request.compressionQuality()))
+                    .orElse(null);
+            Optional<ImageFormat> inputFormat = ImageFormat.fromMimeType(request.inputType());
+            Payload payload;
+            if (inputFormat.isPresent()) {
+                byte[] content = new byte[input.remaining()];
+                input.get(content);
+                ImageCodec.Dimensions dimensions = ImageCodec.probe(content);
+                payload = execute(dimensions.pixels(), () -> upscaler.decode(content, dimensions, inputFormat.get(), timings),
+                        request.model(), encoding, timings);
+            } else {
+                payload = execute((long) request.width() * request.height(), () -> upscaler.convert(input, request.width(), request.height(), timings),
+                        request.model(), encoding, timings);
+            }
+            try (payload) {
+                if (payload instanceof EncodedPayload encoded) {
+                    store.complete(job, encoded.data().length, buffer -> buffer.put(encoded.data()));
+                } else {
+                    FloatImageData image = ((RawPayload) payload).image();
+                    store.complete(job, image.data().remaining(), buffer -> PixelConverter.toBytes(image.data().duplicate(), buffer));
+                }
+            }
+            timings.lap("store");
+        } catch (RuntimeException ex) {
+            LOG.error("job {} failed", job.id(), ex);
+            store.fail(job, String.valueOf(ex.getMessage()));
+        } finally {
+            // the job's place in the queue is given up even if it couldn't be marked as finished
+            store.release(job);
+        }
+    }
+
+    /**
+     * Submits to the inference executor, backing off for as long as it estimates until it has capacity again.
+     */
+    private Payload execute(long pixels, Supplier<Input> input, String model, Encoding encoding, StageTimings timings) throws InterruptedException {
+        while (true) {
+            try {
+                // jobs are background work, behind any interactive request of similar cost
+                return executor.submit(pixels, upscaler.scalingFactor(model), Priority.LOW, () -> CompletableFuture.completedFuture(input.get()),
+                        (Input admitted) -> upscaler.process(model, admitted, encoding, timings)).get();
+            } catch (OverloadedException ex) {
+                Thread.sleep(Math.max(MIN_BACKOFF_MILLIS, ex.retryAfter().toMillis()));
+            } catch (ExecutionException ex) {
+                // a full batch queue refuses from within the task
+                if (ex.getCause() instanceof OverloadedException cause) {
+                    Thread.sleep(Math.max(MIN_BACKOFF_MILLIS, cause.retryAfter().toMillis()));
+                } else if (ex.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                } else {
+                    throw new RuntimeException(ex.getCause());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package systems.cauldron.service.superresolution.web;
+
+import systems.cauldron.service.superresolution.image.BadInputException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits content into parts in whichever chunks the content arrives.
+ */
+interface PartParser {
+
+    /**
+     * @return the parts completed by the data, consuming all of it
+     * @throws BadInputException if the data cannot start or continue a part
+     */
+    List<ByteBuffer> accept(ByteBuffer data);
+
+    /**
+     * @throws BadInputException if the content ended within a part
+     */
+    void finish();
+
+    /**
+     * Parts each made of a 4 byte big-endian length followed by that many bytes.
+     */
+    static PartParser lengthPrefixed() {
+        return new LengthPrefixed();
+    }
+
+    /**
+     * Parts of the given number of bytes each, of which there must be at least one.
+     */
+    static PartParser fixedSize(int size) {
+        return new FixedSize(size);
+    }
+
+    /**
+     * Splits a whole body at once.
+     *
+     * @throws BadInputException if the body does not consist of complete parts
+     */
+    static List<ByteBuffer> split(PartParser parser, ByteBuffer body) {
+        List<ByteBuffer> parts = parser.accept(body);
+        parser.finish();
+        return parts;
+    }
+
+    /**
+     * A part's buffer grows as its bytes arrive rather than being allocated at its declared length, so a length
+     * that the content never backs up costs no more than the content that was actually sent.
+     */
+    final class LengthPrefixed implements PartParser {
+
+        private static final int INITIAL_PART_BYTES = 64 * 1024;
+
+        private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        private byte[] part;
+        private int length = -1;
+        private int filled = 0;
+
+        private LengthPrefixed() {
+        }
+
+        @Override
+        public List<ByteBuffer> accept(ByteBuffer data) {
+            List<ByteBuffer> parts = new ArrayList<>();
+            while (data.hasRemaining()) {
+                if (length == -1) {
+                    while (header.hasRemaining() && data.hasRemaining()) {
+                        header.put(data.get());
+                    }
+                    if (header.hasRemaining()) {
+                        break;
+                    }
+                    length = header.flip().getInt();
+                    header.clear();
+                    if (length < 0) {
+                        throw new BadInputException("invalid frame length " + length);
+                    }
+                    part = new byte[Math.min(length, INITIAL_PART_BYTES)];
+                    filled = 0;
+                }
+                int count = Math.min(data.remaining(), length - filled);
+                if (filled + count > part.length) {
+                    part = Arrays.copyOf(part, (int) Math.min(length, Math.max(2L * part.length, filled + count)));
+                }
+                data.get(part, filled, count);
+                filled += count;
+                if (filled == length) {
+                    parts.add(ByteBuffer.wrap(part));
+                    part = null;
+                    length = -1;
+                }
+            }
+            return parts;
+        }
+
+        @Override
+        public void finish() {
+            if (length != -1) {
+                throw new BadInputException("truncated frame of " + length + " bytes");
+            }
+            if (header.position() > 0) {
+                throw new BadInputException("truncated frame header");
+            }
+        }
+    }
+
+    final class FixedSize implements PartParser {
+
+        private final int size;
+        private byte[] part;
+        private int filled = 0;
+        private boolean any = false;
+
+        private FixedSize(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("part size must be positive");
+            }
+            this.size = size;
+            this.part = new byte[size];
+        }
+
+        @Override
+        public List<ByteBuffer> accept(ByteBuffer data) {
+            List<ByteBuffer> parts = new ArrayList<>();
+            while (data.hasRemaining()) {
+                int count = Math.min(data.remaining(), size - filled);
+                data.get(part, filled, count);
+                filled += count;
+                if (filled == size) {
+                    parts.add(ByteBuffer.wrap(part));
+                    part = new byte[size];
+                    filled = 0;
+                    any = true;
+                }
+            }
+            return parts;
+        }
+
+        @Override
+        public void finish() {
+            if (filled > 0) {
+                throw new BadInputException("content ended " + (size - filled) + " bytes short of a whole frame");
+            }
+            if (!any) {
+                throw new BadInputException("content holds no frames");
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.DataChunk;
+import systems.cauldron.service.superresolution.image.BadInputException;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Splits request content into parts as it arrives and streams out the result of each part as soon as it completes.
+ * Up to the pipeline depth of parts are processed or held finished but not yet written at once, so with a depth of 1
+ * results follow the order of the parts. Results are only written as the response asks for them, and content is only
+ * read while no parsed part is waiting to be started, so a client that stops reading the response also stops the
+ * request from being read, rather than the whole body piling up in memory.
+ */
+final class PartStream implements Flow.Processor<DataChunk, DataChunk> {
+
+    private final PartParser parser;
+    private final int maxParts;
+    private final int pipelineDepth;
+    private final BiFunction<Integer, ByteBuffer, CompletionStage<ByteBuffer>> processor;
+    private final Queue<ByteBuffer> parts = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuffer> results = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicBoolean chunkRequested = new AtomicBoolean();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger pendingDrains = new AtomicInteger();
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super DataChunk> subscriber;
+    private volatile boolean upstreamDone = false;
+    private volatile boolean cancelled = false;
+    private volatile Throwable failure;
+    // only accessed while receiving content, which the publisher never does concurrently
+    private int received = 0;
+    // only accessed while draining, which never runs concurrently
+    private int started = 0;
+    private int emitted = 0;
+    private boolean done = false;
+
+    /**
+     * @param maxParts      number of parts beyond which the content is refused
+     * @param pipelineDepth number of parts processed or held unwritten at once
+     * @param processor     maps the index and content of each part to the chunk to stream out for it
+     */
+    PartStream(PartParser parser, int maxParts, int pipelineDepth, BiFunction<Integer, ByteBuffer, CompletionStage<ByteBuffer>> processor) {
+        this.parser = parser;
+        this.maxParts = maxParts;
+        this.pipelineDepth = pipelineDepth;
+        this.processor = processor;
+    }
+
+    /**
+     * @return a stage completing with the number of parts once the last result was streamed out, or exceptionally if
+     * the content was invalid, a part failed or the response was cancelled
+     */
+    CompletionStage<Integer> completion() {
+        return completion;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(DataChunk chunk) {
+        try {
+            if (failure != null || cancelled) {
+                return;
+            }
+            for (ByteBuffer data : chunk.data()) {
+                for (ByteBuffer part : parser.accept(data.duplicate())) {
+                    if (++received > maxParts) {
+                        throw new BadInputException("content exceeds " + maxParts + " parts");
+                    }
+                    parts.add(part);
+                }
+            }
+        } catch (RuntimeException ex) {
+            failure = ex;
+        } finally {
+            chunk.release();
+        }
+        chunkRequested.set(false);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        failure = throwable;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            parser.finish();
+        } catch (RuntimeException ex) {
+            failure = ex;
+        }
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DataChunk> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("results can only be streamed once"));
+            return;
+        }
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    failure = new IllegalArgumentException("requested " + n + " results");
+                } else {
+                    demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                drain();
+            }
+        });
+    }
+
+    private void drain() {
+        if (pendingDrains.getAndIncrement() != 0) {
+            // the drain in progress picks up whatever changed
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!done) {
+                Flow.Subscriber<? super DataChunk> target = subscriber;
+                if (cancelled) {
+                    finish();
+                    completion.completeExceptionally(new CancellationException("results were cancelled"));
+                    break;
+                }
+                if (failure != null) {
+                    // nothing more is read once the stream has failed, but the failure can only be signalled once subscribed
+                    cancelUpstream();
+                    if (target != null) {
+                        finish();
+                        target.onError(failure);
+                        completion.completeExceptionally(failure);
+                    }
+                    break;
+                }
+                if (target == null) {
+                    requestContent();
+                    break;
+                }
+                if (demand.get() > 0) {
+                    ByteBuffer result = results.poll();
+                    if (result != null) {
+                        emitted++;
+                        if (demand.get() != Long.MAX_VALUE) {
+                            demand.decrementAndGet();
+                        }
+                        target.onNext(DataChunk.create(result));
+                        continue;
+                    }
+                }
+                // finished results count against the depth until written, so a stalled response stops new parts
+                if (running.get() + results.size() < pipelineDepth) {
+                    ByteBuffer part = parts.poll();
+                    if (part != null) {
+                        running.incrementAndGet();
+                        start(started++, part);
+                        continue;
+                    }
+                }
+                if (upstreamDone && parts.isEmpty() && running.get() == 0 && results.isEmpty()) {
+                    finish();
+                    target.onComplete();
+                    completion.complete(emitted);
+                    break;
+                }
+                requestContent();
+                break;
+            }
+            missed = pendingDrains.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void start(int index, ByteBuffer part) {
+        CompletionStage<ByteBuffer> stage;
+        try {
+            stage = processor.apply(index, part);
+        } catch (RuntimeException ex) {
+            stage = CompletableFuture.failedFuture(ex);
+        }
+        stage.whenComplete((result, ex) -> {
+            if (ex != null) {
+                failure = ex;
+            } else {
+                results.add(result);
+            }
+            running.decrementAndGet();
+            drain();
+        });
+    }
+
+    /**
+     * Reads on while no parsed part is waiting to be started.
+     */
+    private void requestContent() {
+        Flow.Subscription subscription = upstream;
+        if (subscription != null && !upstreamDone && parts.isEmpty() && chunkRequested.compareAndSet(false, true)) {
+            subscription.request(1);
+        }
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription = upstream;
+        if (subscription != null && !upstreamDone) {
+            upstreamDone = true;
+            subscription.cancel();
+        }
+    }
+
+    private void finish() {
+        done = true;
+        cancelUpstream();
+        parts.clear();
+    }
+}
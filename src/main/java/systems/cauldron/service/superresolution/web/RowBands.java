@@ -0,0 +1,207 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.DataChunk;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.PixelConverter;
+import systems.cauldron.service.superresolution.image.PixelLayout;
+import systems.cauldron.service.superresolution.image.Plane;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts an image in the inference model image format into response chunks in the API image format, a band of
+ * whole rows at a time. Bands are converted on the given executor as the response asks for them, never on the
+ * webserver's event loop, and at most {@link #MAX_UNWRITTEN_BANDS} bands are held converted but not yet written,
+ * so a slow client holds a few bands rather than a copy of the whole image. Each band lives in a pooled buffer that
+ * is returned by the chunk's release callback once it has been written. Bands are written in the requested pixel
+ * layout, quantizing and arranging the samples in the same pass.
+ */
+final class RowBands implements Flow.Publisher<DataChunk>, AutoCloseable {
+
+    private static final int TARGET_BAND_BYTES = 256 * 1024;
+    private static final int MAX_UNWRITTEN_BANDS = 4;
+
+    private final FloatImageData image;
+    private final Plane alpha;
+    private final PixelLayout layout;
+    private final int rows;
+    private final int rowBytes;
+    private final int bandRows;
+    private final BufferPool bufferPool;
+    private final Executor executor;
+    private final Runnable onConverted;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger unwritten = new AtomicInteger();
+    private final AtomicInteger pendingDrains = new AtomicInteger();
+    private final AtomicBoolean converted = new AtomicBoolean();
+    private volatile Flow.Subscriber<? super DataChunk> subscriber;
+    private volatile Throwable failure;
+    private volatile boolean cancelled = false;
+    // only accessed while draining, which never runs concurrently
+    private int nextRow = 0;
+    private boolean done = false;
+
+    /**
+     * @param alpha       alpha plane of the image's dimensions, or null for layouts without alpha
+     * @param onConverted run once the image is no longer read, after its last band was converted or the bands were
+     *                    cancelled
+     */
+    RowBands(FloatImageData image, Plane alpha, PixelLayout layout, BufferPool bufferPool, Executor executor, Runnable onConverted) {
+        this.image = image;
+        this.alpha = alpha;
+        this.layout = layout;
+        this.rows = layout.rows(image.height());
+        this.rowBytes = layout.rowBytes(image.width());
+        this.bandRows = Math.max(1, TARGET_BAND_BYTES / rowBytes);
+        this.bufferPool = bufferPool;
+        this.executor = executor;
+        this.onConverted = onConverted;
+    }
+
+    long length() {
+        return (long) rows * rowBytes;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DataChunk> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("row bands can only be sent once"));
+            return;
+        }
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    failure = new IllegalArgumentException("requested " + n + " bands");
+                } else {
+                    demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Stops converting bands that haven't been asked for yet. Bands already handed out keep their buffers until
+     * their chunks are released.
+     */
+    @Override
+    public void close() {
+        cancelled = true;
+        drain();
+    }
+
+    private void drain() {
+        if (pendingDrains.getAndIncrement() != 0) {
+            // the drain in progress picks up whatever changed
+            return;
+        }
+        try {
+            executor.execute(this::emit);
+        } catch (RejectedExecutionException ex) {
+            failure = ex;
+            emit();
+        }
+    }
+
+    private void emit() {
+        int missed = 1;
+        do {
+            while (!done) {
+                Flow.Subscriber<? super DataChunk> target = subscriber;
+                if (cancelled || target == null) {
+                    if (cancelled) {
+                        finish();
+                    }
+                    break;
+                }
+                if (failure != null) {
+                    finish();
+                    target.onError(failure);
+                    break;
+                }
+                if (nextRow >= rows) {
+                    finish();
+                    target.onComplete();
+                    break;
+                }
+                if (demand.get() == 0 || unwritten.get() >= MAX_UNWRITTEN_BANDS) {
+                    break;
+                }
+                DataChunk chunk;
+                try {
+                    chunk = convert(nextRow, Math.min(bandRows, rows - nextRow));
+                } catch (RuntimeException ex) {
+                    finish();
+                    target.onError(ex);
+                    break;
+                }
+                nextRow += bandRows;
+                if (nextRow >= rows) {
+                    // the last band is out, so the image can be returned before it has been written
+                    releaseImage();
+                }
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                target.onNext(chunk);
+            }
+            missed = pendingDrains.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private DataChunk convert(int row, int count) {
+        BufferPool.Lease lease = bufferPool.lease((long) count * rowBytes);
+        try {
+            ByteBuffer band = lease.buffer();
+            PixelConverter.toBytes(image, alpha, layout, row, count, band);
+            band.flip();
+            unwritten.incrementAndGet();
+            return DataChunk.create(true, () -> written(lease), band);
+        } catch (RuntimeException ex) {
+            lease.close();
+            throw ex;
+        }
+    }
+
+    private void written(BufferPool.Lease lease) {
+        lease.close();
+        unwritten.decrementAndGet();
+        drain();
+    }
+
+    private void finish() {
+        done = true;
+        releaseImage();
+    }
+
+    private void releaseImage() {
+        if (converted.compareAndSet(false, true)) {
+            onConverted.run();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package systems.cauldron.service.superresolution.web;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits the lifetime of a single request into consecutive stages, each lasting from the end of the previous one,
+ * recording every stage into the "upscale.stage" timer and keeping them for a Server-Timing response header.
+ * Stages of a request run one after another, possibly on different threads.
+ */
+final class StageTimings {
+
+    private final MetricRegistry metrics;
+    private final Tag modelTag;
+    private final long started;
+    private final Map<String, Long> durations = new LinkedHashMap<>();
+    private long lastMark;
+
+    StageTimings(MetricRegistry metrics, String model) {
+        this.metrics = metrics;
+        this.modelTag = new Tag("model", model);
+        this.started = System.nanoTime();
+        this.lastMark = started;
+    }
+
+    /**
+     * Ends the current stage under the given name and starts the next one.
+     */
+    synchronized void lap(String stage) {
+        long now = System.nanoTime();
+        long duration = now - lastMark;
+        lastMark = now;
+        durations.merge(stage, duration, Long::sum);
+        metrics.timer("upscale.stage", new Tag("stage", stage), modelTag)
+                .update(duration, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time since the request started as a whole.
+     *
+     * @return the recorded duration in nanoseconds
+     */
+    synchronized long complete() {
+        long duration = System.nanoTime() - started;
+        metrics.timer("upscale.request", modelTag)
+                .update(duration, TimeUnit.NANOSECONDS);
+        return duration;
+    }
+
+    /**
+     * @return the stages completed so far in the Server-Timing header format, with durations in milliseconds
+     */
+    synchronized String serverTiming() {
+        StringJoiner joiner = new StringJoiner(", ");
+        durations.forEach((stage, duration) -> joiner.add(String.format(Locale.ROOT, "%s;dur=%.2f", stage, duration / 1e6)));
+        return joiner.toString();
+    }
+}
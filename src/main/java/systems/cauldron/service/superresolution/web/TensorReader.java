@@ -0,0 +1,41 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.DataChunk;
+import io.helidon.common.reactive.Multi;
+import systems.cauldron.service.superresolution.image.BadInputException;
+import systems.cauldron.service.superresolution.image.PixelUnpacker;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Converts request content in the API image format straight into an inference model tensor as it arrives,
+ * without first collecting the whole body, whichever pixel layout it arrives in.
+ */
+final class TensorReader {
+
+    private TensorReader() {
+    }
+
+    /**
+     * @return a stage completing once the content has exactly filled the image of the unpacker
+     */
+    static CompletionStage<Void> read(Flow.Publisher<DataChunk> content, PixelUnpacker unpacker) {
+        return Multi.create(content)
+                .forEach(chunk -> {
+                    try {
+                        for (ByteBuffer data : chunk.data()) {
+                            unpacker.accept(data.duplicate());
+                        }
+                    } finally {
+                        chunk.release();
+                    }
+                })
+                .thenRun(() -> {
+                    if (unpacker.remaining() > 0) {
+                        throw new BadInputException("content ended " + unpacker.remaining() + " bytes short of the image dimensions");
+                    }
+                });
+    }
+}
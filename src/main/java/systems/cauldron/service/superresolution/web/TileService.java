@@ -0,0 +1,177 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.MediaType;
+import io.helidon.common.http.Parameters;
+import io.helidon.webserver.Routing;
+import io.helidon.webserver.ServerRequest;
+import io.helidon.webserver.ServerResponse;
+import io.helidon.webserver.Service;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import systems.cauldron.service.superresolution.cluster.PeerClient;
+import systems.cauldron.service.superresolution.cluster.TileTransfer;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.inference.InferenceExecutor;
+import systems.cauldron.service.superresolution.inference.OverloadedException;
+import systems.cauldron.service.superresolution.inference.Priority;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+import systems.cauldron.service.superresolution.model.ModelDefinition;
+import systems.cauldron.service.superresolution.model.ModelRegistry;
+import systems.cauldron.service.superresolution.model.Precision;
+import systems.cauldron.service.superresolution.web.Upscaler.Input;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Internal endpoint through which a coordinating instance has tiles of a large image resolved by this one. Tiles
+ * arrive and leave in the inference model image format and run on this instance alone, so they are never passed on
+ * to further peers. They are admitted like any other request, so an overloaded instance refuses them and the
+ * coordinator resolves them itself. The endpoint is only served by instances that are part of a cluster, and only to
+ * requests carrying the cluster's shared secret. A tile sent for another version or precision of the model than the
+ * one loaded here is refused with 409, since its output would not match the tiles the coordinator resolves itself.
+ */
+public class TileService implements Service {
+
+    private final static Logger LOG = LogManager.getLogger(TileService.class);
+
+    private static final int NUM_ELEMENTS_PER_PIXEL = 3;
+    private static final int NUM_BYTES_PER_ELEMENT = 4;
+
+    private final ModelRegistry models;
+    private final InferenceExecutor executor;
+    private final long maxTilePixels;
+    private final byte[] secret;
+    private final BufferPool bufferPool;
+    private final MetricRegistry metrics;
+
+    /**
+     * @param maxTilePixels most pixels of a tile accepted, as no coordinator sends tiles larger than the configured tile size
+     * @param secret        shared secret every tile request has to carry
+     */
+    public TileService(ModelRegistry models, InferenceExecutor executor, long maxTilePixels, String secret, BufferPool bufferPool,
+                       MetricRegistry metrics) {
+        this.models = models;
+        this.executor = executor;
+        this.maxTilePixels = maxTilePixels;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void update(Routing.Rules rules) {
+        rules.post("/tiles", this::resolve);
+    }
+
+    private void resolve(ServerRequest request, ServerResponse response) {
+        byte[] presented = request.headers().first(PeerClient.SECRET_HEADER)
+                .map(value -> value.getBytes(StandardCharsets.UTF_8))
+                .orElse(new byte[0]);
+        // compared in constant time, so the secret can't be guessed from response times
+        if (!MessageDigest.isEqual(secret, presented)) {
+            response.status(401).send();
+            return;
+        }
+        Parameters parameters = request.queryParams();
+        String model = parameters.first("model").orElse(models.defaultModel());
+        Optional<ModelDefinition> definition = models.definition(model);
+        if (definition.isEmpty()) {
+            response.status(404).send();
+            return;
+        }
+        Optional<String> version = parameters.first("version");
+        Optional<Precision> precision;
+        try {
+            precision = parameters.first("precision").map(value -> Precision.valueOf(value.toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException ex) {
+            response.status(400).send();
+            return;
+        }
+        if (version.isEmpty() || precision.isEmpty()) {
+            response.status(400).send();
+            return;
+        }
+        // a version that no longer matches is refused before the tile is read, the precision once the model is loaded
+        if (!definition.get().version().equals(version.get())) {
+            response.status(409).send();
+            return;
+        }
+        int width = UpscaleService.parsePositiveIntParam(parameters, "width");
+        int height = UpscaleService.parsePositiveIntParam(parameters, "height");
+        if (width == -1 || height == -1) {
+            response.status(400).send();
+            return;
+        }
+        if ((long) width * height > maxTilePixels) {
+            response.status(413).send();
+            return;
+        }
+        StageTimings timings = new StageTimings(metrics, model);
+        CompletableFuture<byte[]> result;
+        try {
+            result = executor.submit((long) width * height, definition.get().scalingFactor(), Priority.NORMAL,
+                    () -> request.content().as(byte[].class)
+                            .thenApply(content -> receive(content, width, height, timings)),
+                    (Input input) -> resolve(model, version.get(), precision.get(), input, timings));
+        } catch (OverloadedException ex) {
+            timings.complete();
+            UpscaleService.reject(response, ex);
+            return;
+        }
+        result.thenCompose(output -> {
+                    response.headers().contentType(MediaType.APPLICATION_OCTET_STREAM);
+                    return response.send(output);
+                })
+                .exceptionally(ex -> {
+                    if (ex.getCause() instanceof MismatchException) {
+                        response.status(409).send();
+                    } else if (ex.getCause() instanceof IllegalArgumentException) {
+                        response.status(400).send();
+                    } else {
+                        LOG.error("error while resolving tile", ex);
+                        response.status(500).send();
+                    }
+                    return response;
+                })
+                .whenComplete((sent, ex) -> timings.complete());
+    }
+
+    private Input receive(byte[] content, int width, int height, StageTimings timings) {
+        BufferPool.Lease tensor = bufferPool.lease((long) width * height * NUM_ELEMENTS_PER_PIXEL * NUM_BYTES_PER_ELEMENT);
+        try {
+            FloatImageData tile = TileTransfer.decode(content, width, height, tensor.floats());
+            timings.lap("receive");
+            return new Input(tensor, tile);
+        } catch (RuntimeException ex) {
+            tensor.close();
+            throw ex;
+        }
+    }
+
+    private byte[] resolve(String model, String version, Precision precision, Input input, StageTimings timings) {
+        timings.lap("queue");
+        long pixels = (long) input.image().width() * input.image().height();
+        try (BufferPool.Lease ignored = input.tensor(); ModelRegistry.Handle handle = models.acquire(model)) {
+            if (!handle.definition().version().equals(version) || handle.precision() != precision) {
+                throw new MismatchException();
+            }
+            int scalingFactor = handle.resolver().scalingFactor();
+            try (BufferPool.Lease output = bufferPool.lease(pixels * scalingFactor * scalingFactor * NUM_ELEMENTS_PER_PIXEL * NUM_BYTES_PER_ELEMENT)) {
+                FloatImageData upscaled = handle.localResolver().resolve(input.image(), output.floats());
+                timings.lap("resolve");
+                return TileTransfer.encode(upscaled);
+            }
+        }
+    }
+
+    /**
+     * Thrown when the loaded model is another version or precision than the coordinator resolves with.
+     */
+    private static class MismatchException extends RuntimeException {
+    }
+}
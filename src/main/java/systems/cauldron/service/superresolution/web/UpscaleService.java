@@ -1,5 +1,6 @@
 package systems.cauldron.service.superresolution.web;
 
+import io.helidon.common.http.MediaType;
 import io.helidon.common.http.Parameters;
 import io.helidon.webserver.Routing;
 import io.helidon.webserver.ServerRequest;
@@ -7,21 +8,111 @@ import io.helidon.webserver.ServerResponse;
 import io.helidon.webserver.Service;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import systems.cauldron.service.superresolution.image.ByteImageData;
+import org.eclipse.microprofile.metrics.ConcurrentGauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.cache.CachingResolver;
+import systems.cauldron.service.superresolution.cache.ResultCache;
+import systems.cauldron.service.superresolution.image.BadInputException;
 import systems.cauldron.service.superresolution.image.FloatImageData;
-import systems.cauldron.service.superresolution.inference.InferenceServer;
+import systems.cauldron.service.superresolution.image.ImageCodec;
+import systems.cauldron.service.superresolution.image.ImageFormat;
+import systems.cauldron.service.superresolution.image.Interpolator;
+import systems.cauldron.service.superresolution.image.PixelLayout;
+import systems.cauldron.service.superresolution.image.PixelUnpacker;
+import systems.cauldron.service.superresolution.image.Plane;
+import systems.cauldron.service.superresolution.image.Region;
+import systems.cauldron.service.superresolution.inference.InferenceExecutor;
+import systems.cauldron.service.superresolution.inference.OverloadedException;
+import systems.cauldron.service.superresolution.inference.Priority;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+import systems.cauldron.service.superresolution.model.ModelRegistry;
+import systems.cauldron.service.superresolution.web.Upscaler.EncodedPayload;
+import systems.cauldron.service.superresolution.web.Upscaler.Encoding;
+import systems.cauldron.service.superresolution.web.Upscaler.Input;
+import systems.cauldron.service.superresolution.web.Upscaler.Output;
+import systems.cauldron.service.superresolution.web.Upscaler.Payload;
+import systems.cauldron.service.superresolution.web.Upscaler.RawPayload;
+import systems.cauldron.service.superresolution.web.Upscaler.Viewport;
 
-import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
-public class UpscaleService implements Service {
+/**
+ * Upscales a single image per request. Besides running the model, images can be upscaled by interpolation,
+ * which is far cheaper but also far less detailed: when asked for with "quality=fast", for images too small to be
+ * worth a model run, and, in degraded mode, when the inference executor is overloaded or estimates that the request
+ * would miss the latency SLO. Responses report which of these paths served them in an X-Upscale-Path header.
+ * <p>
+ * A "crop" parameter of x,y,width,height in output pixels limits the output to that region, and the work to the
+ * region of the input it depends on, so a viewport of a large image costs about as much as an image of its size.
+ * <p>
+ * A "layout" parameter selects the pixel layout of raw images, planar RGB by default. Layouts with alpha require both
+ * the request and the response to be raw; their alpha channel is interpolated alongside the model run.
+ * <p>
+ * A "priority" parameter of high, normal (the default) or low sets the priority class of the model run, which the
+ * inference executor weighs against its estimated cost when ordering queued requests.
+ * <p>
+ * Model results the cache holds, and results of identical inputs already being upscaled, are reused without queueing
+ * for inference. Since inputs are keyed by their content, cacheable inputs are received before they are admitted.
+ */
+public class UpscaleService implements Service, AutoCloseable {
 
     private final static Logger LOG = LogManager.getLogger(UpscaleService.class);
 
-    private final InferenceServer inferenceServer;
+    static final String FAST_QUALITY = "fast";
 
-    public UpscaleService(InferenceServer inferenceServer) {
-        this.inferenceServer = inferenceServer;
+    private final ModelRegistry models;
+    private final InferenceExecutor executor;
+    private final ResultCache resultCache;
+    private final FallbackOptions fallbackOptions;
+    private final Interpolator interpolator;
+    private final BufferPool bufferPool;
+    private final MetricRegistry metrics;
+    private final Upscaler upscaler;
+    private final int cropMargin;
+    private final boolean serverTiming;
+    private final ExecutorService codecExecutor;
+    private final ConcurrentGauge activeRequests;
+    private final AtomicBoolean firstRequest = new AtomicBoolean(true);
+
+    /**
+     * @param resultCache  cache shared by the models, or null if results aren't cached
+     * @param cropMargin   number of input pixels around a crop run through the model along with it, so that the model
+     *                     sees the same neighbourhood at the edges of the crop as it would within the whole image
+     * @param serverTiming whether responses report the duration of each stage before the response in a Server-Timing header
+     * @param codecThreads number of threads probing and decoding compressed input and converting raw output into response chunks
+     */
+    public UpscaleService(ModelRegistry models, InferenceExecutor executor, ResultCache resultCache, FallbackOptions fallbackOptions, BufferPool bufferPool,
+                          MetricRegistry metrics, int cropMargin, boolean serverTiming, int codecThreads) {
+        this.models = models;
+        this.executor = executor;
+        this.resultCache = resultCache;
+        this.fallbackOptions = fallbackOptions;
+        this.interpolator = new Interpolator(fallbackOptions.kernel(), fallbackOptions.parallelism());
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.upscaler = new Upscaler(models, bufferPool, metrics);
+        this.cropMargin = cropMargin;
+        this.serverTiming = serverTiming;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.codecExecutor = Executors.newFixedThreadPool(codecThreads, runnable -> {
+            Thread thread = new Thread(runnable, "upscale-codec-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.activeRequests = metrics.concurrentGauge("upscale.active");
     }
 
     @Override
@@ -30,34 +121,482 @@ public class UpscaleService implements Service {
     }
 
     /**
-     * 1. convert the API image format to the inference model image format
-     * 2. execute inference model
-     * 3. convert the inference model image format back to the API image format
+     * 1. convert the API image format (raw planar bytes, or a compressed image) to the inference model image format
+     * 2. execute the inference model selected by the "model" parameter, or the default model, or interpolate instead
+     * 3. convert the inference model image format back to the negotiated API image format
      */
     private void upscale(ServerRequest request, ServerResponse response) {
         Parameters parameters = request.queryParams();
+        Optional<MediaType> accepted = request.headers().bestAccepted(acceptableTypes());
+        if (accepted.isEmpty()) {
+            response.status(406).send();
+            return;
+        }
+        Encoding encoding;
+        try {
+            encoding = ImageFormat.fromMimeType(accepted.get().type() + "/" + accepted.get().subtype())
+                    .map(format -> new Encoding(format, parseCompressionQuality(parameters, format)))
+                    .orElse(null);
+        } catch (IllegalArgumentException ex) {
+            response.status(400).send();
+            return;
+        }
+        String model = parameters.first("model").orElse(models.defaultModel());
+        if (!models.contains(model)) {
+            response.status(404).send();
+            return;
+        }
+        Region crop;
+        try {
+            crop = parseCrop(parameters);
+        } catch (IllegalArgumentException ex) {
+            response.status(400).send();
+            return;
+        }
+        boolean fast = parameters.first("quality").filter(FAST_QUALITY::equalsIgnoreCase).isPresent();
+        Optional<ImageFormat> inputFormat = request.headers().contentType()
+                .flatMap(type -> ImageFormat.fromMimeType(type.type() + "/" + type.subtype()));
+        PixelLayout layout;
+        Priority priority;
+        try {
+            layout = parseLayout(parameters);
+            priority = parsePriority(parameters);
+        } catch (IllegalArgumentException ex) {
+            response.status(400).send();
+            return;
+        }
+        if (layout.hasAlpha() && (inputFormat.isPresent() || encoding != null)) {
+            // compressed images carry no alpha to upscale, or have no place for it
+            response.status(400).send();
+            return;
+        }
+        if (inputFormat.isPresent()) {
+            if (!inputFormat.get().canDecode()) {
+                response.status(415).send();
+                return;
+            }
+            StageTimings timings = begin(model);
+            // probing and decoding block, so both run on the codec threads rather than the webserver's event loop
+            request.content().as(byte[].class)
+                    .thenApplyAsync(content -> {
+                        timings.lap("receive");
+                        return new Received(content, ImageCodec.probe(content));
+                    }, codecExecutor)
+                    .thenCompose(received -> {
+                        ImageCodec.Dimensions dimensions = received.dimensions();
+                        Viewport viewport = viewport(crop, model, dimensions.width(), dimensions.height());
+                        if (!fits(model, dimensions.width(), dimensions.height(), viewport)) {
+                            throw new ImageTooLargeException(dimensions.width(), dimensions.height());
+                        }
+                        long pixels = viewport == null ? dimensions.pixels() : viewport.source().pixels();
+                        UpscalePath path = choosePath(fast, pixels);
+                        if (path == UpscalePath.MODEL) {
+                            try {
+                                return runModel(model, pixels, priority, () -> decode(received, inputFormat.get(), timings), viewport, encoding, timings);
+                            } catch (OverloadedException ex) {
+                                if (!fallbackOptions.degrades()) {
+                                    throw ex;
+                                }
+                                path = UpscalePath.DEGRADED;
+                            }
+                        }
+                        UpscalePath interpolated = path;
+                        return decode(received, inputFormat.get(), timings)
+                                .thenCompose(input -> interpolate(model, input, viewport, encoding, timings))
+                                .thenApply(payload -> new Result(payload, interpolated));
+                    })
+                    .thenCompose(result -> send(response, result, layout, null, timings))
+                    .exceptionally(ex -> fail(response, ex))
+                    .whenComplete((sent, ex) -> end(timings));
+            return;
+        }
         int width = parsePositiveIntParam(parameters, "width");
         int height = parsePositiveIntParam(parameters, "height");
         if (width == -1 || height == -1) {
             response.status(400).send();
         } else {
-            request.content().as(byte[].class)
-                    .thenApply(ByteBuffer::wrap)
-                    .thenApply(buffer -> new ByteImageData(buffer, width, height))
-                    .thenApply(ByteImageData::toFloatImageData)
-                    .thenApply(inferenceServer::resolve)
-                    .thenApply(FloatImageData::toByteImageData)
-                    .thenApply(byteImageData -> byteImageData.data().array())
-                    .thenCompose(buffer -> response.status(200).send(buffer))
-                    .exceptionally(ex -> {
-                        LOG.error("error while upscaling", ex);
-                        response.status(500).send();
-                        return null;
-                    });
-        }
-    }
-
-    private static int parsePositiveIntParam(Parameters parameters, String key) {
+            Viewport viewport;
+            try {
+                viewport = viewport(crop, model, width, height);
+            } catch (CropOutsideImageException ex) {
+                response.status(400).send();
+                return;
+            }
+            if (!fits(model, width, height, viewport)) {
+                response.status(413).send();
+                return;
+            }
+            StageTimings timings = begin(model);
+            long pixels = viewport == null ? (long) width * height : viewport.source().pixels();
+            UpscalePath path = choosePath(fast, pixels);
+            AlphaChannel alpha = layout.hasAlpha() ? new AlphaChannel(model, viewport) : null;
+            CompletableFuture<Result> result = null;
+            if (path == UpscalePath.MODEL) {
+                try {
+                    result = runModel(model, pixels, priority, () -> receive(request, layout, width, height, alpha, timings), viewport, encoding, timings);
+                } catch (OverloadedException ex) {
+                    if (!fallbackOptions.degrades()) {
+                        end(timings);
+                        reject(response, ex);
+                        return;
+                    }
+                    path = UpscalePath.DEGRADED;
+                }
+            }
+            if (result == null) {
+                UpscalePath interpolated = path;
+                result = receive(request, layout, width, height, alpha, timings).toCompletableFuture()
+                        .thenCompose(input -> interpolate(model, input, viewport, encoding, timings))
+                        .thenApply(payload -> new Result(payload, interpolated));
+            }
+            result.thenCompose(served -> alpha == null
+                            ? send(response, served, layout, null, timings)
+                            : alpha.upscaled()
+                            .whenComplete((plane, ex) -> {
+                                if (ex != null) {
+                                    served.payload().close();
+                                }
+                            })
+                            .thenCompose(plane -> send(response, served, layout, plane, timings)))
+                    .exceptionally(ex -> fail(response, ex))
+                    .whenComplete((sent, ex) -> end(timings));
+        }
+    }
+
+    /**
+     * Interpolation is chosen up front for fast and tiny requests, and in degraded mode when the request is estimated
+     * to miss the latency SLO; requests the inference executor turns away are degraded once they have been refused.
+     */
+    private UpscalePath choosePath(boolean fast, long pixels) {
+        if (fast || pixels <= fallbackOptions.maxTinyPixels()) {
+            return UpscalePath.FAST;
+        }
+        if (fallbackOptions.degrades() && executor.estimateLatency(pixels).compareTo(fallbackOptions.latencySlo()) > 0) {
+            return UpscalePath.DEGRADED;
+        }
+        return UpscalePath.MODEL;
+    }
+
+    private CompletableFuture<Input> decode(Received received, ImageFormat format, StageTimings timings) {
+        return CompletableFuture.supplyAsync(() -> upscaler.decode(received.content(), received.dimensions(), format, timings), codecExecutor);
+    }
+
+    /**
+     * Runs the model on inputs the cache can't hold right after admission, before they are consumed, and looks up
+     * the others once they have been received.
+     *
+     * @param pixels number of pixels of the input that are run through the model
+     * @throws OverloadedException if an input that isn't looked up is refused
+     */
+    private CompletableFuture<Result> runModel(String model, long pixels, Priority priority, Supplier<CompletionStage<Input>> input,
+                                               Viewport viewport, Encoding encoding, StageTimings timings) {
+        int scalingFactor = upscaler.scalingFactor(model);
+        if (resultCache == null || !resultCache.accepts(pixels * scalingFactor * scalingFactor * 3)) {
+            return executor.submit(pixels, scalingFactor, priority, input,
+                            received -> upscaler.process(model, received, viewport, encoding, timings))
+                    .thenApply(payload -> new Result(payload, UpscalePath.MODEL));
+        }
+        // hashing the input blocks, so it is kept off the webserver's threads
+        return input.get().toCompletableFuture()
+                .thenComposeAsync(received -> {
+                    Input source = viewport == null ? received : upscaler.crop(received, viewport, timings);
+                    return runCached(model, pixels, scalingFactor, priority, source, viewport, encoding, timings);
+                }, codecExecutor);
+    }
+
+    /**
+     * Waits for a cached or in-flight result without holding on to any thread, or otherwise queues the model run and
+     * shares its result with the identical inputs that arrive in the meantime.
+     *
+     * @param source the source region of the viewport, or the whole input
+     */
+    private CompletableFuture<Result> runCached(String model, long pixels, int scalingFactor, Priority priority, Input source,
+                                                Viewport viewport, Encoding encoding, StageTimings timings) {
+        ModelRegistry.Handle handle;
+        CachingResolver.Lookup lookup;
+        try {
+            handle = models.acquire(model);
+        } catch (RuntimeException ex) {
+            source.tensor().close();
+            throw ex;
+        }
+        try {
+            lookup = handle.cache().lookup(source.image());
+        } catch (RuntimeException ex) {
+            handle.close();
+            source.tensor().close();
+            throw ex;
+        }
+        timings.lap("lookup");
+        if (!lookup.isMiss()) {
+            handle.close();
+            source.tensor().close();
+            return lookup.result()
+                    .thenApplyAsync(cached -> upscaler.render(upscaler.restore(cached, timings), viewport, encoding, timings), codecExecutor)
+                    .thenApply(payload -> new Result(payload, UpscalePath.MODEL));
+        }
+        CompletableFuture<Payload> computed;
+        try {
+            computed = executor.submit(pixels, scalingFactor, priority, () -> CompletableFuture.completedFuture(source), input -> {
+                timings.lap("queue");
+                Output output = upscaler.resolve(model, handle.uncachedResolver(), input, timings);
+                try {
+                    lookup.complete(output.image());
+                } catch (RuntimeException ex) {
+                    output.close();
+                    throw ex;
+                }
+                return upscaler.render(output, viewport, encoding, timings);
+            });
+        } catch (OverloadedException ex) {
+            lookup.fail(ex);
+            handle.close();
+            if (!fallbackOptions.degrades()) {
+                source.tensor().close();
+                throw ex;
+            }
+            return interpolateSource(model, source, viewport, encoding, timings)
+                    .thenApply(payload -> new Result(payload, UpscalePath.DEGRADED));
+        }
+        return computed
+                .whenComplete((payload, ex) -> {
+                    if (ex != null) {
+                        lookup.fail(ex);
+                    }
+                    handle.close();
+                })
+                .thenApply(payload -> new Result(payload, UpscalePath.MODEL));
+    }
+
+    /**
+     * Upscales on the interpolator's threads, leaving the inference threads to the model, and returns the tensor to the pool.
+     */
+    private CompletableFuture<Payload> interpolate(String model, Input received, Viewport viewport, Encoding encoding, StageTimings timings) {
+        return interpolateSource(model, viewport == null ? received : upscaler.crop(received, viewport, timings), viewport, encoding, timings);
+    }
+
+    /**
+     * @param source the source region of the viewport, or the whole input
+     */
+    private CompletableFuture<Payload> interpolateSource(String model, Input source, Viewport viewport, Encoding encoding, StageTimings timings) {
+        int scalingFactor;
+        try {
+            scalingFactor = upscaler.scalingFactor(model);
+        } catch (RuntimeException ex) {
+            source.tensor().close();
+            throw ex;
+        }
+        return interpolator.submit(source.image(), scalingFactor)
+                .whenComplete((output, ex) -> source.tensor().close())
+                .thenApply(image -> {
+                    timings.lap("interpolate");
+                    return upscaler.render(new Output(null, image), viewport, encoding, timings);
+                });
+    }
+
+    /**
+     * @return the regions of the input and output a crop covers, or null to upscale the whole image
+     * @throws CropOutsideImageException if the crop lies entirely outside the output
+     */
+    private Viewport viewport(Region crop, String model, int width, int height) {
+        if (crop == null) {
+            return null;
+        }
+        int scalingFactor = upscaler.scalingFactor(model);
+        Region clipped = crop.clip(width * scalingFactor, height * scalingFactor)
+                .orElseThrow(() -> new CropOutsideImageException(crop));
+        return Viewport.of(clipped, scalingFactor, cropMargin, width, height);
+    }
+
+    /**
+     * @return whether the tensors of the input and of the output it is upscaled to can each be leased from the pool
+     */
+    private boolean fits(String model, int width, int height, Viewport viewport) {
+        long scalingFactor = upscaler.scalingFactor(model);
+        // a crop is cut from the upscaled source region, which is leased whole
+        long sourcePixels = viewport == null ? (long) width * height : viewport.source().pixels();
+        long outputPixels = sourcePixels * scalingFactor * scalingFactor;
+        return (long) width * height * 3 * 4 <= BufferPool.MAX_BUFFER_BYTES && outputPixels * 3 * 4 <= BufferPool.MAX_BUFFER_BYTES;
+    }
+
+    private StageTimings begin(String model) {
+        activeRequests.inc();
+        return new StageTimings(metrics, model);
+    }
+
+    private void end(StageTimings timings) {
+        long duration = timings.complete();
+        // the first request pays for whatever the warm-up left cold
+        if (firstRequest.compareAndSet(true, false)) {
+            metrics.timer("startup.first.request").update(duration, TimeUnit.NANOSECONDS);
+        }
+        activeRequests.dec();
+    }
+
+    static MediaType[] acceptableTypes() {
+        return Stream.concat(Stream.of(MediaType.APPLICATION_OCTET_STREAM),
+                        Arrays.stream(ImageFormat.values())
+                                .filter(ImageFormat::canEncode)
+                                .map(format -> MediaType.parse(format.mimeType())))
+                .toArray(MediaType[]::new);
+    }
+
+    /**
+     * @param alpha receives the alpha samples of layouts with alpha, or null to discard them
+     */
+    private CompletionStage<Input> receive(ServerRequest request, PixelLayout layout, int width, int height, AlphaChannel alpha,
+                                           StageTimings timings) {
+        BufferPool.Lease tensor = bufferPool.lease((long) width * height * 3 * 4);
+        BufferPool.Lease alphaTensor = alpha == null ? null : bufferPool.lease((long) width * height * 4);
+        FloatBuffer sink = tensor.floats();
+        PixelUnpacker unpacker = new PixelUnpacker(layout, width, height, sink, alphaTensor == null ? null : alphaTensor.floats());
+        return TensorReader.read(request.content(), unpacker)
+                .thenApply(ignored -> {
+                    timings.lap("receive");
+                    return new Input(tensor, new FloatImageData(sink, width, height));
+                })
+                .whenComplete((input, ex) -> {
+                    if (ex != null) {
+                        tensor.close();
+                    }
+                    if (alpha != null) {
+                        if (ex != null) {
+                            alphaTensor.close();
+                            alpha.upscaled().completeExceptionally(ex);
+                        } else {
+                            alpha.upscale(alphaTensor, width, height);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @param alpha alpha plane of the payload's dimensions, or null for layouts without alpha
+     */
+    private CompletionStage<ServerResponse> send(ServerResponse response, Result result, PixelLayout layout, Plane alpha, StageTimings timings) {
+        Payload payload = result.payload();
+        String path = result.path().name().toLowerCase(Locale.ROOT);
+        metrics.counter("upscale.path", new Tag("path", path)).inc();
+        response.status(200);
+        response.addHeader("X-Upscale-Path", path);
+        if (serverTiming) {
+            response.addHeader("Server-Timing", timings.serverTiming());
+        }
+        if (payload instanceof EncodedPayload encoded) {
+            response.headers().contentType(MediaType.parse(encoded.format().mimeType()));
+            return response.send(encoded.data())
+                    .whenComplete((sent, ex) -> timings.lap("send"));
+        }
+        RowBands bands = new RowBands(((RawPayload) payload).image(), alpha, layout, bufferPool, codecExecutor, payload::close);
+        response.headers().contentType(MediaType.APPLICATION_OCTET_STREAM);
+        response.headers().contentLength(bands.length());
+        return response.send(bands)
+                .whenComplete((sent, ex) -> {
+                    // returns the tensor if the response failed before every band was asked for
+                    bands.close();
+                    timings.lap("send");
+                });
+    }
+
+    private static ServerResponse fail(ServerResponse response, Throwable ex) {
+        if (ex.getCause() instanceof OverloadedException cause) {
+            reject(response, cause);
+        } else if (ex.getCause() instanceof ImageTooLargeException) {
+            response.status(413).send();
+        } else if (ex.getCause() instanceof BadInputException) {
+            // raw content not matching its dimensions or layout, an unreadable image, or a crop outside of it
+            response.status(400).send();
+        } else {
+            LOG.error("error while upscaling", ex);
+            response.status(500).send();
+        }
+        return response;
+    }
+
+    static void reject(ServerResponse response, OverloadedException ex) {
+        LOG.warn("rejecting upscale request: {}", ex.getMessage());
+        response.status(429)
+                .addHeader("Retry-After", String.valueOf(Math.max(1L, ex.retryAfter().toSeconds())))
+                .send();
+    }
+
+    /**
+     * Maps the "quality" (1 to 100, lossy formats, other than "fast" which selects interpolation) or "compression-level" (0 to 9, PNG) query parameter
+     * to an ImageIO compression quality, or NaN if the relevant parameter is absent.
+     *
+     * @throws IllegalArgumentException if the parameter is out of range
+     */
+    static float parseCompressionQuality(Parameters parameters, ImageFormat format) {
+        if (format == ImageFormat.PNG) {
+            Optional<String> level = parameters.first("compression-level");
+            if (level.isEmpty()) {
+                return Float.NaN;
+            }
+            int value = parseIntParam(level.get(), 0, 9);
+            return 1.0f - value / 9.0f;
+        }
+        Optional<String> quality = parameters.first("quality").filter(value -> !value.equalsIgnoreCase(FAST_QUALITY));
+        if (quality.isEmpty()) {
+            return Float.NaN;
+        }
+        return parseIntParam(quality.get(), 1, 100) / 100.0f;
+    }
+
+    /**
+     * Parses the "layout" parameter, planar RGB if it is absent.
+     *
+     * @throws IllegalArgumentException if the layout is unknown
+     */
+    static PixelLayout parseLayout(Parameters parameters) {
+        Optional<String> layout = parameters.first("layout");
+        if (layout.isEmpty()) {
+            return PixelLayout.PLANAR_RGB;
+        }
+        return PixelLayout.fromParameter(layout.get())
+                .orElseThrow(() -> new IllegalArgumentException("unknown layout '" + layout.get() + "'"));
+    }
+
+    /**
+     * Parses the "priority" parameter, normal if it is absent.
+     *
+     * @throws IllegalArgumentException if the priority is unknown
+     */
+    static Priority parsePriority(Parameters parameters) {
+        Optional<String> priority = parameters.first("priority");
+        if (priority.isEmpty()) {
+            return Priority.NORMAL;
+        }
+        return Priority.fromParameter(priority.get())
+                .orElseThrow(() -> new IllegalArgumentException("unknown priority '" + priority.get() + "'"));
+    }
+
+    /**
+     * Parses the "crop" parameter as x,y,width,height, or null if it is absent.
+     *
+     * @throws IllegalArgumentException if the parameter isn't a non-empty rectangle
+     */
+    static Region parseCrop(Parameters parameters) {
+        Optional<String> crop = parameters.first("crop");
+        if (crop.isEmpty()) {
+            return null;
+        }
+        String[] values = crop.get().split(",", -1);
+        if (values.length != 4) {
+            throw new IllegalArgumentException("crop must be x,y,width,height");
+        }
+        return new Region(Integer.parseInt(values[0].strip()), Integer.parseInt(values[1].strip()),
+                Integer.parseInt(values[2].strip()), Integer.parseInt(values[3].strip()));
+    }
+
+    private static int parseIntParam(String value, int min, int max) {
+        int result = Integer.parseInt(value);
+        if (result < min || result > max) {
+            throw new IllegalArgumentException("parameter must be between " + min + " and " + max);
+        }
+        return result;
+    }
+
+    static int parsePositiveIntParam(Parameters parameters, String key) {
         Optional<String> valueResult = parameters.first(key);
         if (valueResult.isEmpty()) {
             return -1;
@@ -75,4 +614,82 @@ public class UpscaleService implements Service {
             }
         }
     }
+
+    @Override
+    public void close() {
+        codecExecutor.shutdownNow();
+        interpolator.close();
+    }
+
+    private enum UpscalePath {
+        MODEL, FAST, DEGRADED
+    }
+
+    private record Received(byte[] content, ImageCodec.Dimensions dimensions) {
+    }
+
+    private record Result(Payload payload, UpscalePath path) {
+    }
+
+    /**
+     * The alpha channel of a request, which is interpolated on the interpolator's threads while the color channels take
+     * their own path, and cropped to the same viewport.
+     */
+    private final class AlphaChannel {
+
+        private final String model;
+        private final Viewport viewport;
+        private final CompletableFuture<Plane> upscaled = new CompletableFuture<>();
+
+        private AlphaChannel(String model, Viewport viewport) {
+            this.model = model;
+            this.viewport = viewport;
+        }
+
+        CompletableFuture<Plane> upscaled() {
+            return upscaled;
+        }
+
+        /**
+         * Upscales the received alpha samples and returns their tensor to the pool.
+         */
+        void upscale(BufferPool.Lease tensor, int width, int height) {
+            CompletableFuture<Plane> interpolated;
+            try {
+                Plane received = new Plane(tensor.floats(), width, height);
+                Plane source = viewport == null ? received : received.crop(viewport.source());
+                interpolated = interpolator.submit(source, upscaler.scalingFactor(model));
+            } catch (RuntimeException ex) {
+                tensor.close();
+                upscaled.completeExceptionally(ex);
+                return;
+            }
+            interpolated.whenComplete((plane, ex) -> {
+                tensor.close();
+                if (ex != null) {
+                    upscaled.completeExceptionally(ex);
+                } else {
+                    upscaled.complete(viewport == null ? plane : plane.crop(viewport.output()));
+                }
+            });
+        }
+    }
+
+    /**
+     * A clipped crop can only be checked against the output once the dimensions of a compressed input are known.
+     */
+    private static final class CropOutsideImageException extends BadInputException {
+        CropOutsideImageException(Region crop) {
+            super("crop " + crop + " lies outside the output");
+        }
+    }
+
+    /**
+     * Likewise, a compressed input can only be found too large to upscale once its dimensions are known.
+     */
+    private static final class ImageTooLargeException extends BadInputException {
+        ImageTooLargeException(int width, int height) {
+            super("image of " + width + " x " + height + " pixels is too large to upscale");
+        }
+    }
 }
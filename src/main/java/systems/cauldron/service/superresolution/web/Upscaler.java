@@ -0,0 +1,270 @@
+package systems.cauldron.service.superresolution.web;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import systems.cauldron.service.superresolution.image.ByteImageData;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.ImageCodec;
+import systems.cauldron.service.superresolution.image.ImageFormat;
+import systems.cauldron.service.superresolution.image.PixelConverter;
+import systems.cauldron.service.superresolution.image.Region;
+import systems.cauldron.service.superresolution.inference.Resolver;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+import systems.cauldron.service.superresolution.model.ModelRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The transport independent part of an upscale, shared by the synchronous and the job API:
+ * decoding the input into a pooled tensor, running it through the selected model and rendering the output.
+ * The model writes its output into a pooled tensor as well, which raw payloads hold on to until they are closed.
+ */
+final class Upscaler {
+
+    private final ModelRegistry models;
+    private final BufferPool bufferPool;
+    private final MetricRegistry metrics;
+
+    Upscaler(ModelRegistry models, BufferPool bufferPool, MetricRegistry metrics) {
+        this.models = models;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @throws IllegalStateException if the model was removed since the request was accepted
+     */
+    int scalingFactor(String model) {
+        return models.definition(model)
+                .orElseThrow(() -> new IllegalStateException("model '" + model + "' was removed"))
+                .scalingFactor();
+    }
+
+    /**
+     * Converts raw planar bytes that are already in memory, consuming the remaining bytes of the source.
+     */
+    Input convert(ByteBuffer raw, int width, int height, StageTimings timings) {
+        BufferPool.Lease tensor = bufferPool.lease((long) width * height * 3 * 4);
+        try {
+            PixelConverter.toFloats(raw, tensor.floats());
+            timings.lap("convert");
+            return new Input(tensor, new FloatImageData(tensor.floats(), width, height));
+        } catch (RuntimeException ex) {
+            tensor.close();
+            throw ex;
+        }
+    }
+
+    Input decode(byte[] content, ImageCodec.Dimensions dimensions, ImageFormat format, StageTimings timings) {
+        BufferPool.Lease tensor = bufferPool.lease(dimensions.pixels() * 3 * 4);
+        long started = System.nanoTime();
+        try {
+            FloatImageData image = ImageCodec.decode(content, tensor.floats());
+            return new Input(tensor, image);
+        } catch (RuntimeException ex) {
+            tensor.close();
+            throw ex;
+        } finally {
+            metrics.timer("codec.decode", new Tag("format", format.name().toLowerCase(Locale.ROOT)))
+                    .update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            timings.lap("decode");
+        }
+    }
+
+    /**
+     * Runs on the inference thread once the input has been received.
+     */
+    Payload process(String model, Input input, Encoding encoding, StageTimings timings) {
+        return render(resolve(model, input, timings), encoding, timings);
+    }
+
+    /**
+     * Runs on the inference thread once the input has been received, resolving only what the viewport needs.
+     */
+    Payload process(String model, Input input, Viewport viewport, Encoding encoding, StageTimings timings) {
+        if (viewport == null) {
+            return process(model, input, encoding, timings);
+        }
+        Output output = resolve(model, crop(input, viewport, timings), timings);
+        return render(output, viewport, encoding, timings);
+    }
+
+    /**
+     * Copies the source region of the viewport into a tensor of its own, returning the original one to the pool.
+     */
+    Input crop(Input input, Viewport viewport, StageTimings timings) {
+        try (BufferPool.Lease ignored = input.tensor()) {
+            BufferPool.Lease tensor = bufferPool.lease(viewport.source().pixels() * 3 * 4);
+            FloatImageData image = viewport.source().copy(input.image(), tensor.floats());
+            timings.lap("crop");
+            return new Input(tensor, image);
+        }
+    }
+
+    /**
+     * Copies the output region of the viewport into a tensor of its own, returning the original one to the pool.
+     *
+     * @param output the upscaled source region of the viewport
+     */
+    Output crop(Output output, Viewport viewport, StageTimings timings) {
+        try (output) {
+            BufferPool.Lease tensor = bufferPool.lease(viewport.output().pixels() * 3 * 4);
+            FloatImageData cropped = viewport.output().copy(output.image(), tensor.floats());
+            timings.lap("crop");
+            return new Output(tensor, cropped);
+        }
+    }
+
+    /**
+     * Runs the input through the model straight into a pooled output tensor, returning the input tensor to the pool.
+     */
+    Output resolve(String model, Input input, StageTimings timings) {
+        timings.lap("queue");
+        ModelRegistry.Handle handle;
+        try {
+            handle = models.acquire(model);
+        } catch (RuntimeException ex) {
+            input.tensor().close();
+            throw ex;
+        }
+        try (handle) {
+            return resolve(model, handle.resolver(), input, timings);
+        }
+    }
+
+    /**
+     * Runs the input through a resolver of the model, which the caller keeps open, straight into a pooled output
+     * tensor, returning the input tensor to the pool.
+     */
+    Output resolve(String model, Resolver resolver, Input input, StageTimings timings) {
+        Tag modelTag = new Tag("model", model);
+        long pixels = (long) input.image().width() * input.image().height();
+        metrics.histogram("upscale.input.pixels", modelTag).update(pixels);
+        Output output;
+        try (BufferPool.Lease ignored = input.tensor()) {
+            int scalingFactor = resolver.scalingFactor();
+            BufferPool.Lease tensor = bufferPool.lease(pixels * scalingFactor * scalingFactor * 3 * 4);
+            try {
+                output = new Output(tensor, resolver.resolve(input.image(), tensor.floats()));
+            } catch (RuntimeException ex) {
+                tensor.close();
+                throw ex;
+            }
+        }
+        timings.lap("resolve");
+        metrics.counter("upscale.pixels", modelTag).inc(pixels);
+        return output;
+    }
+
+    /**
+     * Converts a cached result back into a pooled output tensor.
+     */
+    Output restore(ByteImageData cached, StageTimings timings) {
+        BufferPool.Lease tensor = bufferPool.lease((long) cached.width() * cached.height() * 3 * 4);
+        try {
+            Output output = new Output(tensor, cached.toFloatImageData(tensor.floats()));
+            timings.lap("cache");
+            return output;
+        } catch (RuntimeException ex) {
+            tensor.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Renders the upscaled source region of the viewport, cropped to its output region, or the whole output.
+     */
+    Payload render(Output output, Viewport viewport, Encoding encoding, StageTimings timings) {
+        return render(viewport == null ? output : crop(output, viewport, timings), encoding, timings);
+    }
+
+    /**
+     * Compressed output is encoded right away, returning the output tensor to the pool, while raw output is
+     * converted into row bands as the response asks for them, together with any alpha, so the payload keeps the
+     * tensor until it is closed.
+     */
+    Payload render(Output output, Encoding encoding, StageTimings timings) {
+        if (encoding == null) {
+            return new RawPayload(output);
+        }
+        try (output) {
+            long started = System.nanoTime();
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            ImageCodec.encode(output.image(), encoding.format(), encoding.compressionQuality(), encoded);
+            metrics.timer("codec.encode", new Tag("format", encoding.format().name().toLowerCase(Locale.ROOT)))
+                    .update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            timings.lap("encode");
+            return new EncodedPayload(encoded.toByteArray(), encoding.format());
+        }
+    }
+
+    record Input(BufferPool.Lease tensor, FloatImageData image) {
+    }
+
+    /**
+     * @param tensor pooled buffer holding the image, or null for an image on the heap
+     */
+    record Output(BufferPool.Lease tensor, FloatImageData image) implements AutoCloseable {
+
+        /**
+         * Returns the tensor to the pool, after which the image must no longer be used.
+         */
+        @Override
+        public void close() {
+            if (tensor != null) {
+                tensor.close();
+            }
+        }
+    }
+
+    /**
+     * @param source region of the input that is run through the model
+     * @param output region of the upscaled source region that is returned
+     */
+    record Viewport(Region source, Region output) {
+
+        /**
+         * @param crop   requested region in output coordinates, already clipped to the output
+         * @param margin number of input pixels around the crop that the model needs to compute its edges
+         */
+        static Viewport of(Region crop, int scalingFactor, int margin, int inputWidth, int inputHeight) {
+            Region source = crop.source(scalingFactor, margin, inputWidth, inputHeight);
+            return new Viewport(source, crop.relativeTo(source.scale(scalingFactor)));
+        }
+    }
+
+    /**
+     * @param compressionQuality ImageIO compression quality, or NaN for the format's default
+     */
+    record Encoding(ImageFormat format, float compressionQuality) {
+    }
+
+    /**
+     * Closing a payload returns whatever pooled memory it holds, after which it must no longer be used.
+     */
+    sealed interface Payload extends AutoCloseable permits RawPayload, EncodedPayload {
+        @Override
+        void close();
+    }
+
+    record RawPayload(Output output) implements Payload {
+
+        FloatImageData image() {
+            return output.image();
+        }
+
+        @Override
+        public void close() {
+            output.close();
+        }
+    }
+
+    record EncodedPayload(byte[] data, ImageFormat format) implements Payload {
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -13,6 +13,10 @@ import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 public class ServerTest {
@@ -95,7 +99,62 @@ public class ServerTest {
                 .thenApply(response -> response.status().code())
                 .toCompletableFuture()
                 .get(10L, TimeUnit.SECONDS);
-        Assertions.assertEquals(500, result);
+        Assertions.assertEquals(400, result);
+    }
+
+    @Test
+    public void testOversizedUpscale() throws Exception {
+        // the input tensor of these dimensions can't be leased, so the request is refused before any content is read
+        int result = webClient.post()
+                .path("/api/v1/upscale")
+                .queryParam("width", String.valueOf(65536))
+                .queryParam("height", String.valueOf(65536))
+                .submit(new byte[12])
+                .thenApply(response -> response.status().code())
+                .toCompletableFuture()
+                .get(10L, TimeUnit.SECONDS);
+        Assertions.assertEquals(413, result);
+    }
+
+    @Test
+    public void testBatchUpscale() throws Exception {
+        int width = 16;
+        int height = 8;
+        int[] lengths = {width * height * 3, width * height * 2, width * height * 3, width * height * 3};
+        ByteBuffer body = ByteBuffer.allocate(Arrays.stream(lengths).map(length -> Integer.BYTES + length).sum());
+        for (int length : lengths) {
+            body.putInt(length).put(new byte[length]);
+        }
+        byte[] result = webClient.post()
+                .path("/api/v1/upscale/batch")
+                .queryParam("width", String.valueOf(width))
+                .queryParam("height", String.valueOf(height))
+                .submit(body.array())
+                .thenCompose(response -> {
+                    Assertions.assertEquals(200, response.status().code());
+                    return response.content().as(byte[].class);
+                })
+                .toCompletableFuture()
+                .get(10L, TimeUnit.SECONDS);
+        // results arrive in completion order, so each is matched to its image by the index in its header
+        Map<Integer, Integer> results = new HashMap<>();
+        ByteBuffer frames = ByteBuffer.wrap(result);
+        while (frames.hasRemaining()) {
+            int index = frames.getInt();
+            int outputWidth = frames.getInt();
+            int outputHeight = frames.getInt();
+            int length = frames.getInt();
+            if (length != -1) {
+                Assertions.assertEquals(width * 4, outputWidth);
+                Assertions.assertEquals(height * 4, outputHeight);
+                Assertions.assertEquals(outputWidth * outputHeight * 3, length);
+                frames.position(frames.position() + length);
+            }
+            Assertions.assertNull(results.put(index, length));
+        }
+        Assertions.assertEquals(Set.of(0, 1, 2, 3), results.keySet());
+        // the image of the wrong size fails on its own
+        Assertions.assertEquals(-1, results.get(1));
     }
 
     @Test
@@ -0,0 +1,27 @@
+package systems.cauldron.service.superresolution;
+
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+/**
+ * Collaborators that tests construct the same way throughout.
+ */
+public final class TestFixtures {
+
+    private static final long MAX_RETAINED_BYTES = 1L << 24;
+
+    private TestFixtures() {
+    }
+
+    /**
+     * @return a registry of its own, so that metrics of one test never count towards another
+     */
+    public static MetricRegistry createRegistry() {
+        return RegistryFactory.create().getRegistry(MetricRegistry.Type.APPLICATION);
+    }
+
+    public static BufferPool createBufferPool() {
+        return new BufferPool(MAX_RETAINED_BYTES, createRegistry());
+    }
+}
@@ -0,0 +1,170 @@
+package systems.cauldron.service.superresolution.cache;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.inference.Resolver;
+
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class CachingResolverTest {
+
+    @Test
+    public void ensureRepeatedInputsAreServedFromMemory() {
+        MetricRegistry registry = createRegistry();
+        CountingResolver delegate = new CountingResolver();
+        CachingResolver resolver = new CachingResolver(delegate, new ResultCache(new CacheOptions(1L << 20, null, 0), registry), "model", registry);
+        FloatImageData first = resolver.resolve(image(8, 8, 0.25f));
+        FloatImageData second = resolver.resolve(image(8, 8, 0.25f));
+        resolver.resolve(image(8, 8, 0.75f));
+        assertEquals(2, delegate.calls.get());
+        assertImageEquals(first, second);
+        assertEquals(1L, registry.counter("cache.hits", new Tag("tier", "memory")).getCount());
+        assertEquals(2L, registry.counter("cache.misses").getCount());
+        assertEquals(16L * 16 * 3, registry.counter("cache.bytes.saved").getCount());
+    }
+
+    @Test
+    public void ensureKeyDependsOnModelAndDimensions() {
+        MetricRegistry registry = createRegistry();
+        ResultCache cache = new ResultCache(CacheOptions.DISABLED, registry);
+        CachingResolver resolver = new CachingResolver(new CountingResolver(), cache, "a", registry);
+        CachingResolver otherModel = new CachingResolver(new CountingResolver(), cache, "b", createRegistry());
+        assertEquals(resolver.key(image(4, 8, 0.5f)), resolver.key(image(4, 8, 0.5f)));
+        assertNotEquals(resolver.key(image(4, 8, 0.5f)), resolver.key(image(8, 4, 0.5f)));
+        assertNotEquals(resolver.key(image(4, 8, 0.5f)), otherModel.key(image(4, 8, 0.5f)));
+    }
+
+    @Test
+    public void ensureLeastRecentlyUsedEntriesAreEvicted() {
+        MetricRegistry registry = createRegistry();
+        CountingResolver delegate = new CountingResolver();
+        // room for two 8x8 outputs of 16x16x3 bytes
+        CachingResolver resolver = new CachingResolver(delegate, new ResultCache(new CacheOptions(2 * 768, null, 0), registry), "model", registry);
+        resolver.resolve(image(8, 8, 0.1f));
+        resolver.resolve(image(8, 8, 0.2f));
+        resolver.resolve(image(8, 8, 0.1f));
+        resolver.resolve(image(8, 8, 0.3f));
+        resolver.resolve(image(8, 8, 0.1f));
+        resolver.resolve(image(8, 8, 0.2f));
+        assertEquals(4, delegate.calls.get());
+        assertEquals(2L, registry.counter("cache.evictions", new Tag("tier", "memory")).getCount());
+    }
+
+    @Test
+    public void ensureResultsTooLargeToCacheBypassIt() {
+        MetricRegistry registry = createRegistry();
+        CountingResolver delegate = new CountingResolver();
+        // less than one 8x8 output of 16x16x3 bytes
+        CachingResolver resolver = new CachingResolver(delegate, new ResultCache(new CacheOptions(767, null, 0), registry), "model", registry);
+        resolver.resolve(image(8, 8, 0.1f));
+        resolver.resolve(image(8, 8, 0.1f));
+        assertEquals(2, delegate.calls.get());
+        assertEquals(0L, registry.counter("cache.misses").getCount());
+        assertEquals(8, resolver.resolve(image(4, 4, 0.1f)).width());
+        assertEquals(1L, registry.counter("cache.misses").getCount());
+    }
+
+    @Test
+    public void ensureDiskTierSurvivesRestart(@TempDir Path directory) throws Exception {
+        CacheOptions options = new CacheOptions(1L << 20, directory, 1L << 20);
+        CountingResolver delegate = new CountingResolver();
+        FloatImageData expected;
+        // closing waits for the entry to be written in the background
+        try (ResultCache cache = new ResultCache(options, createRegistry())) {
+            expected = new CachingResolver(delegate, cache, "model", createRegistry()).resolve(image(8, 8, 0.5f));
+        }
+        MetricRegistry registry = createRegistry();
+        CachingResolver restarted = new CachingResolver(delegate, new ResultCache(options, registry), "model", registry);
+        FloatImageData actual = restarted.resolve(image(8, 8, 0.5f));
+        restarted.resolve(image(8, 8, 0.5f));
+        assertEquals(1, delegate.calls.get());
+        assertImageEquals(expected, actual);
+        assertEquals(1L, registry.counter("cache.hits", new Tag("tier", "disk")).getCount());
+        assertEquals(1L, registry.counter("cache.hits", new Tag("tier", "memory")).getCount());
+    }
+
+    @Test
+    public void ensureConcurrentIdenticalLookupsAreCoalesced() {
+        MetricRegistry registry = createRegistry();
+        CountingResolver delegate = new CountingResolver();
+        CachingResolver resolver = new CachingResolver(delegate, new ResultCache(new CacheOptions(1L << 20, null, 0), registry), "model", registry);
+        CachingResolver.Lookup first = resolver.lookup(image(8, 8, 0.5f));
+        CachingResolver.Lookup second = resolver.lookup(image(8, 8, 0.5f));
+        assertTrue(first.isMiss());
+        assertFalse(second.isMiss());
+        assertFalse(second.result().isDone());
+        first.complete(delegate.resolve(image(8, 8, 0.5f)));
+        assertEquals(16, second.result().join().width());
+        assertFalse(resolver.lookup(image(8, 8, 0.5f)).isMiss());
+        assertEquals(1, delegate.calls.get());
+        assertEquals(1L, registry.counter("cache.coalesced").getCount());
+    }
+
+    /**
+     * resolving runs on the threads an identical computation may be queued behind, so it must not wait for it
+     */
+    @Test
+    public void ensureResolvingDoesNotWaitForLookupsInFlight() {
+        MetricRegistry registry = createRegistry();
+        CountingResolver delegate = new CountingResolver();
+        CachingResolver resolver = new CachingResolver(delegate, new ResultCache(new CacheOptions(1L << 20, null, 0), registry), "model", registry);
+        CachingResolver.Lookup pending = resolver.lookup(image(8, 8, 0.5f));
+        assertEquals(16, resolver.resolve(image(8, 8, 0.5f)).width());
+        assertEquals(1, delegate.calls.get());
+        pending.fail(new IllegalStateException("abandoned"));
+        assertTrue(pending.result().isCompletedExceptionally());
+        assertTrue(resolver.lookup(image(8, 8, 0.5f)).isMiss());
+    }
+
+    private static FloatImageData image(int width, int height, float value) {
+        FloatBuffer data = FloatBuffer.allocate(width * height * 3);
+        while (data.hasRemaining()) {
+            data.put(value);
+        }
+        data.flip();
+        return new FloatImageData(data, width, height);
+    }
+
+    private static void assertImageEquals(FloatImageData expected, FloatImageData actual) {
+        assertEquals(expected.width(), actual.width());
+        assertEquals(expected.height(), actual.height());
+        for (int i = 0; i < expected.data().remaining(); i++) {
+            assertEquals(expected.data().get(i), actual.data().get(i), 0.5f / 255);
+        }
+    }
+
+    /**
+     * Doubles the dimensions, brightening the input by a little.
+     */
+    private static class CountingResolver implements Resolver {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public FloatImageData resolve(FloatImageData input) {
+            calls.incrementAndGet();
+            FloatBuffer output = FloatBuffer.allocate(input.data().remaining() * 4);
+            while (output.hasRemaining()) {
+                output.put(Math.min(1.0f, input.data().get(0) + 0.01f));
+            }
+            output.flip();
+            return new FloatImageData(output, input.width() * 2, input.height() * 2);
+        }
+
+        @Override
+        public int scalingFactor() {
+            return 2;
+        }
+    }
+}
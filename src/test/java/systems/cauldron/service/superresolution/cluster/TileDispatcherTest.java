@@ -0,0 +1,167 @@
+package systems.cauldron.service.superresolution.cluster;
+
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.Test;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.inference.Resolver;
+import systems.cauldron.service.superresolution.model.Precision;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class TileDispatcherTest {
+
+    @Test
+    public void ensureTilesAreSpreadAcrossPeers() throws Exception {
+        NearestResolver resolver = new NearestResolver(2);
+        AtomicInteger peerTiles = new AtomicInteger();
+        HttpServer peer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        peer.createContext(PeerClient.TILE_PATH, exchange -> {
+            String[] query = exchange.getRequestURI().getQuery().split("&");
+            assertEquals("model=esrgan", query[0]);
+            assertEquals("version=1", query[3]);
+            assertEquals("precision=fp32", query[4]);
+            assertEquals("secret", exchange.getRequestHeaders().getFirst(PeerClient.SECRET_HEADER));
+            int width = Integer.parseInt(query[1].substring("width=".length()));
+            int height = Integer.parseInt(query[2].substring("height=".length()));
+            FloatImageData tile = TileTransfer.decode(exchange.getRequestBody().readAllBytes(), width, height,
+                    FloatBuffer.allocate(width * height * 3));
+            byte[] output = TileTransfer.encode(resolver.resolve(tile));
+            peerTiles.incrementAndGet();
+            exchange.sendResponseHeaders(200, output.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(output);
+            }
+        });
+        peer.start();
+        try {
+            MetricRegistry metrics = createRegistry();
+            PeerClient client = new PeerClient(options(URI.create("http://localhost:" + peer.getAddress().getPort())), metrics);
+            TileDispatcher dispatcher = new TileDispatcher(resolver, "esrgan", "1", Precision.FP32, client, 1, 1, metrics);
+            for (int i = 0; i < 4; i++) {
+                FloatImageData tile = randomImage(8 + i, 6, i);
+                assertImageEquals(resolver.resolve(tile), dispatcher.resolve(tile, FloatBuffer.allocate(tile.width() * tile.height() * 12)));
+            }
+            // slots are taken in turn when tiles are resolved one after another
+            assertEquals(2, peerTiles.get());
+            assertEquals(2L, metrics.counter("cluster.tiles", new Tag("target", "peer")).getCount());
+            assertEquals(2L, metrics.counter("cluster.tiles", new Tag("target", "local")).getCount());
+        } finally {
+            peer.stop(0);
+        }
+    }
+
+    @Test
+    public void ensureTilesOfFailedPeersAreRecomputedLocally() throws Exception {
+        NearestResolver resolver = new NearestResolver(2);
+        MetricRegistry metrics = createRegistry();
+        PeerClient client = new PeerClient(options(URI.create("http://localhost:" + closedPort())), metrics);
+        TileDispatcher dispatcher = new TileDispatcher(resolver, "esrgan", "1", Precision.FP32, client, 1, 1, metrics);
+        for (int i = 0; i < 4; i++) {
+            FloatImageData tile = randomImage(8, 8, i);
+            assertImageEquals(resolver.resolve(tile), dispatcher.resolve(tile));
+        }
+        // the failed peer is left out for the backoff instead of failing every tile sent its way
+        assertEquals(1L, metrics.counter("cluster.tiles", new Tag("target", "fallback")).getCount());
+        assertEquals(3L, metrics.counter("cluster.tiles", new Tag("target", "local")).getCount());
+        assertEquals(0L, metrics.counter("cluster.tiles", new Tag("target", "peer")).getCount());
+    }
+
+    @Test
+    public void ensureTilesRefusedByMismatchedPeersAreRecomputedLocally() throws Exception {
+        NearestResolver resolver = new NearestResolver(2);
+        HttpServer peer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        peer.createContext(PeerClient.TILE_PATH, exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(409, -1);
+            exchange.close();
+        });
+        peer.start();
+        try {
+            MetricRegistry metrics = createRegistry();
+            URI address = URI.create("http://localhost:" + peer.getAddress().getPort());
+            PeerClient client = new PeerClient(options(address), metrics);
+            TileDispatcher dispatcher = new TileDispatcher(resolver, "esrgan", "2", Precision.FP16, client, 1, 1, metrics);
+            FloatImageData tile = randomImage(8, 8, 0);
+            FloatImageData expected = resolver.resolve(tile);
+            assertImageEquals(expected, dispatcher.resolve(tile));
+            assertImageEquals(expected, dispatcher.resolve(tile));
+            // a peer serving another version or precision never contributes a tile that would not match the local ones
+            assertEquals(1L, metrics.counter("cluster.peer.mismatches", new Tag("peer", address.getAuthority())).getCount());
+            assertEquals(1L, metrics.counter("cluster.tiles", new Tag("target", "fallback")).getCount());
+            assertEquals(0L, metrics.counter("cluster.tiles", new Tag("target", "peer")).getCount());
+        } finally {
+            peer.stop(0);
+        }
+    }
+
+    private static ClusterOptions options(URI peer) {
+        return new ClusterOptions(List.of(peer), 1, Duration.ofSeconds(5), Duration.ofMinutes(1), "secret");
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static FloatImageData randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        FloatBuffer data = FloatBuffer.allocate(width * height * 3);
+        while (data.hasRemaining()) {
+            data.put(random.nextFloat());
+        }
+        return new FloatImageData(data.flip(), width, height);
+    }
+
+    private static void assertImageEquals(FloatImageData expected, FloatImageData actual) {
+        assertEquals(expected.width(), actual.width());
+        assertEquals(expected.height(), actual.height());
+        for (int i = 0; i < expected.width() * expected.height() * 3; i++) {
+            assertEquals(expected.data().get(expected.data().position() + i), actual.data().get(actual.data().position() + i));
+        }
+    }
+
+    private static final class NearestResolver implements Resolver {
+
+        private final int scalingFactor;
+
+        private NearestResolver(int scalingFactor) {
+            this.scalingFactor = scalingFactor;
+        }
+
+        @Override
+        public FloatImageData resolve(FloatImageData input) {
+            int outputWidth = input.width() * scalingFactor;
+            int outputHeight = input.height() * scalingFactor;
+            FloatBuffer output = FloatBuffer.allocate(outputWidth * outputHeight * 3);
+            for (int channel = 0; channel < 3; channel++) {
+                for (int y = 0; y < outputHeight; y++) {
+                    for (int x = 0; x < outputWidth; x++) {
+                        int sourceIndex = (channel * input.height() + y / scalingFactor) * input.width() + x / scalingFactor;
+                        output.put(input.data().get(input.data().position() + sourceIndex));
+                    }
+                }
+            }
+            return new FloatImageData(output.flip(), outputWidth, outputHeight);
+        }
+
+        @Override
+        public int scalingFactor() {
+            return scalingFactor;
+        }
+    }
+}
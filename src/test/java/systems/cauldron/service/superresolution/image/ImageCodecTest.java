@@ -0,0 +1,75 @@
+package systems.cauldron.service.superresolution.image;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImageCodecTest {
+
+    @Test
+    public void ensurePngRoundTripIsLossless() throws IOException {
+        Path inputPath = Paths.get("src", "test", "resources").resolve("baboon.png");
+        byte[] encoded = Files.readAllBytes(inputPath);
+
+        ImageCodec.Dimensions dimensions = ImageCodec.probe(encoded);
+        assertEquals(125, dimensions.width());
+        assertEquals(120, dimensions.height());
+
+        FloatImageData decoded = ImageCodec.decode(encoded, FloatBuffer.allocate((int) dimensions.pixels() * 3));
+        assertEquals(ImageDataUtility.loadAsFloats(inputPath), decoded);
+
+        ByteArrayOutputStream reencoded = new ByteArrayOutputStream();
+        ImageCodec.encode(decoded, ImageFormat.PNG, 0.0f, reencoded);
+        FloatImageData redecoded = ImageCodec.decode(reencoded.toByteArray(), FloatBuffer.allocate((int) dimensions.pixels() * 3));
+        assertEquals(decoded, redecoded);
+    }
+
+    @Test
+    public void ensureJpegQualityAffectsSize() throws IOException {
+        Path inputPath = Paths.get("src", "test", "resources").resolve("baboon.png");
+        FloatImageData image = ImageDataUtility.loadAsFloats(inputPath);
+        ByteArrayOutputStream low = new ByteArrayOutputStream();
+        ImageCodec.encode(image, ImageFormat.JPEG, 0.1f, low);
+        ByteArrayOutputStream high = new ByteArrayOutputStream();
+        ImageCodec.encode(image, ImageFormat.JPEG, 0.95f, high);
+        assertTrue(low.size() < high.size());
+        assertEquals(new ImageCodec.Dimensions(125, 120), ImageCodec.probe(high.toByteArray()));
+    }
+
+    @Test
+    public void ensureImagesWithAlphaAreDecoded() throws IOException {
+        BufferedImage source = new BufferedImage(4, 2, BufferedImage.TYPE_INT_ARGB);
+        source.setRGB(1, 1, 0x80ff8000);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(source, "png", encoded);
+        FloatImageData decoded = ImageCodec.decode(encoded.toByteArray(), FloatBuffer.allocate(4 * 2 * 3));
+        int index = 4 + 1;
+        assertEquals(1.0f, decoded.data().get(index), 0.0f);
+        assertEquals(128 / 255.0f, decoded.data().get(8 + index), 0.0f);
+        assertEquals(0.0f, decoded.data().get(16 + index), 0.0f);
+    }
+
+    @Test
+    public void ensureFormatsAreDetectedBySignature() throws IOException {
+        byte[] png = Files.readAllBytes(Paths.get("src", "test", "resources").resolve("baboon.png"));
+        assertEquals(Optional.of(ImageFormat.PNG), ImageFormat.detect(png));
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageCodec.encode(ImageCodec.decode(png, FloatBuffer.allocate(125 * 120 * 3)), ImageFormat.JPEG, jpeg);
+        assertEquals(Optional.of(ImageFormat.JPEG), ImageFormat.detect(jpeg.toByteArray()));
+        byte[] webp = "RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(Optional.of(ImageFormat.WEBP), ImageFormat.detect(webp));
+        assertEquals(Optional.empty(), ImageFormat.detect(new byte[]{1, 2, 3}));
+    }
+}
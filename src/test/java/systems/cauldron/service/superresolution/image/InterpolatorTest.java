@@ -0,0 +1,81 @@
+package systems.cauldron.service.superresolution.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InterpolatorTest {
+
+    @Test
+    public void ensureFlatImagesStayFlat() {
+        FloatImageData input = generate(7, 5, (channel, x, y) -> 0.25f * (channel + 1));
+        for (InterpolationKernel kernel : InterpolationKernel.values()) {
+            try (Interpolator interpolator = new Interpolator(kernel, 2)) {
+                FloatImageData output = interpolator.upscale(input, 4);
+                assertEquals(28, output.width());
+                assertEquals(20, output.height());
+                FloatBuffer data = output.data().duplicate();
+                for (int channel = 0; channel < 3; channel++) {
+                    for (int i = 0; i < 28 * 20; i++) {
+                        assertEquals(0.25f * (channel + 1), data.get(), 1e-6f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ensureBicubicReproducesGradientsAwayFromEdges() {
+        FloatImageData input = generate(16, 16, (channel, x, y) -> 0.1f + 0.02f * x + 0.03f * y);
+        try (Interpolator interpolator = new Interpolator(InterpolationKernel.BICUBIC, 3)) {
+            FloatImageData output = interpolator.upscale(input, 4);
+            FloatBuffer data = output.data();
+            for (int y = 12; y < 52; y++) {
+                for (int x = 12; x < 52; x++) {
+                    // output samples are centred between the source samples they were interpolated from
+                    float expected = 0.1f + 0.02f * ((x + 0.5f) / 4 - 0.5f) + 0.03f * ((y + 0.5f) / 4 - 0.5f);
+                    assertEquals(expected, data.get(y * 64 + x), 1e-5f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ensureOutputIsClampedAndIndependentOfParallelism() {
+        Random random = new Random(7);
+        FloatImageData input = generate(37, 23, (channel, x, y) -> random.nextBoolean() ? 1.0f : 0.0f);
+        FloatImageData expected;
+        try (Interpolator interpolator = new Interpolator(InterpolationKernel.LANCZOS3, 1)) {
+            expected = interpolator.upscale(input, 4);
+        }
+        try (Interpolator interpolator = new Interpolator(InterpolationKernel.LANCZOS3, 4)) {
+            FloatImageData actual = interpolator.submit(input, 4).join();
+            assertEquals(expected, actual);
+            FloatBuffer data = actual.data().duplicate();
+            while (data.hasRemaining()) {
+                float value = data.get();
+                assertTrue(value >= 0.0f && value <= 1.0f);
+            }
+        }
+    }
+
+    private static FloatImageData generate(int width, int height, Sample sample) {
+        FloatBuffer data = FloatBuffer.allocate(width * height * 3);
+        for (int channel = 0; channel < 3; channel++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    data.put(sample.value(channel, x, y));
+                }
+            }
+        }
+        return new FloatImageData(data.flip(), width, height);
+    }
+
+    private interface Sample {
+        float value(int channel, int x, int y);
+    }
+}
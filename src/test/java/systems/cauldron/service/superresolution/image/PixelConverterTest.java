@@ -0,0 +1,66 @@
+package systems.cauldron.service.superresolution.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PixelConverterTest {
+
+    private static final int NUM_ELEMENTS = 3 * 4099;
+
+    @Test
+    public void ensureHeapAndDirectConversionsAgree() {
+        ByteBuffer bytes = randomBytes();
+        FloatBuffer heapFloats = FloatBuffer.allocate(NUM_ELEMENTS);
+        FloatBuffer directFloats = ByteBuffer.allocateDirect(NUM_ELEMENTS * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        PixelConverter.toFloats(bytes.duplicate(), heapFloats);
+        PixelConverter.toFloats(bytes.duplicate(), directFloats);
+        heapFloats.flip();
+        directFloats.flip();
+        assertEquals(heapFloats, directFloats);
+        for (int i = 0; i < NUM_ELEMENTS; i++) {
+            assertEquals((bytes.get(i) & 0xff) / 255.0f, heapFloats.get(i), 0.0f);
+        }
+    }
+
+    @Test
+    public void ensureRoundTripPreservesBytes() {
+        ByteBuffer bytes = randomBytes();
+        FloatBuffer floats = ByteBuffer.allocateDirect(NUM_ELEMENTS * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        PixelConverter.toFloats(bytes.duplicate(), floats);
+        floats.flip();
+        ByteBuffer heapBytes = ByteBuffer.allocate(NUM_ELEMENTS);
+        ByteBuffer directBytes = ByteBuffer.allocateDirect(NUM_ELEMENTS);
+        PixelConverter.toBytes(floats.duplicate(), heapBytes);
+        PixelConverter.toBytes(floats.duplicate(), directBytes);
+        heapBytes.flip();
+        directBytes.flip();
+        assertEquals(bytes, heapBytes);
+        assertEquals(bytes, directBytes);
+    }
+
+    @Test
+    public void ensureOutOfRangeFloatsAreClamped() {
+        FloatBuffer floats = FloatBuffer.wrap(new float[]{-1.0f, 0.5f, 2.0f});
+        ByteBuffer bytes = ByteBuffer.allocate(3);
+        PixelConverter.toBytes(floats, bytes);
+        assertEquals(0, bytes.get(0) & 0xff);
+        assertEquals(128, bytes.get(1) & 0xff);
+        assertEquals(255, bytes.get(2) & 0xff);
+    }
+
+    private static ByteBuffer randomBytes() {
+        byte[] data = new byte[NUM_ELEMENTS];
+        new Random(42).nextBytes(data);
+        return ByteBuffer.wrap(data);
+    }
+}
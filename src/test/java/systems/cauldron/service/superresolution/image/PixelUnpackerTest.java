@@ -0,0 +1,81 @@
+package systems.cauldron.service.superresolution.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PixelUnpackerTest {
+
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    @Test
+    public void ensureEveryLayoutRoundTrips() {
+        for (PixelLayout layout : PixelLayout.values()) {
+            byte[] pixels = randomBytes(layout);
+            FloatBuffer color = FloatBuffer.allocate(WIDTH * HEIGHT * 3);
+            FloatBuffer alpha = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            PixelUnpacker unpacker = new PixelUnpacker(layout, WIDTH, HEIGHT, color, alpha);
+            // chunk sizes that split rows, planes and pixels
+            ByteBuffer source = ByteBuffer.wrap(pixels);
+            int chunk = 7;
+            while (source.hasRemaining()) {
+                int length = Math.min(chunk, source.remaining());
+                unpacker.accept(source.slice(source.position(), length));
+                source.position(source.position() + length);
+                chunk = chunk * 3 % 1009 + 1;
+            }
+            assertEquals(0L, unpacker.remaining());
+
+            FloatImageData image = new FloatImageData(color, WIDTH, HEIGHT);
+            ByteBuffer bytes = ByteBuffer.allocate(pixels.length);
+            PixelConverter.toBytes(image, new Plane(alpha, WIDTH, HEIGHT), layout, 0, layout.rows(HEIGHT), bytes);
+            assertEquals(ByteBuffer.wrap(pixels), bytes.flip(), layout.parameterValue());
+        }
+    }
+
+    @Test
+    public void ensureInterleavedPixelsAreTransposedIntoPlanes() {
+        byte[] pixels = {(byte) 255, 0, 51, (byte) 204, 0, (byte) 255, 102, 0};
+        FloatBuffer color = FloatBuffer.allocate(6);
+        FloatBuffer alpha = FloatBuffer.allocate(2);
+        new PixelUnpacker(PixelLayout.INTERLEAVED_RGBA, 2, 1, color, alpha).accept(ByteBuffer.wrap(pixels));
+        assertEquals(FloatBuffer.wrap(new float[]{1.0f, 0.0f, 0.0f, 1.0f, 0.2f, 0.4f}), color);
+        assertEquals(FloatBuffer.wrap(new float[]{0.8f, 0.0f}), alpha);
+    }
+
+    @Test
+    public void ensureGrayIsReplicatedAndConvertedBackByLuma() {
+        FloatBuffer color = FloatBuffer.allocate(3);
+        new PixelUnpacker(PixelLayout.GRAY, 1, 1, color, null).accept(ByteBuffer.wrap(new byte[]{(byte) 128}));
+        assertEquals(color.get(0), color.get(1));
+        assertEquals(color.get(0), color.get(2));
+
+        FloatImageData red = new FloatImageData(FloatBuffer.wrap(new float[]{1.0f, 0.0f, 0.0f}), 1, 1);
+        ByteBuffer gray = ByteBuffer.allocate(1);
+        PixelConverter.toBytes(red, null, PixelLayout.GRAY, 0, 1, gray);
+        assertEquals(76, gray.get(0) & 0xff);
+    }
+
+    @Test
+    public void ensureExcessContentIsRejected() {
+        PixelUnpacker unpacker = new PixelUnpacker(PixelLayout.INTERLEAVED_RGB, 2, 2, FloatBuffer.allocate(12), null);
+        unpacker.accept(ByteBuffer.allocate(10));
+        assertEquals(2L, unpacker.remaining());
+        assertThrows(BadInputException.class, () -> unpacker.accept(ByteBuffer.allocate(3)));
+    }
+
+    private static byte[] randomBytes(PixelLayout layout) {
+        byte[] data = new byte[(int) layout.bytes((long) WIDTH * HEIGHT)];
+        new Random(layout.ordinal()).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,63 @@
+package systems.cauldron.service.superresolution.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RegionTest {
+
+    @Test
+    public void ensureSourceRegionCoversCropAndMargin() {
+        Region crop = new Region(37, 10, 20, 6);
+        assertEquals(new Region(7, 0, 10, 6), crop.source(4, 2, 100, 100));
+        assertEquals(new Region(9, 2, 6, 2), crop.source(4, 0, 100, 100));
+        assertEquals(new Region(7, 0, 8, 4), crop.source(4, 2, 15, 4));
+    }
+
+    @Test
+    public void ensureCropsAreClippedToTheImage() {
+        assertEquals(Optional.of(new Region(90, 0, 10, 5)), new Region(90, 0, 20, 5).clip(100, 50));
+        assertEquals(Optional.empty(), new Region(100, 0, 20, 5).clip(100, 50));
+        assertThrows(IllegalArgumentException.class, () -> new Region(0, 0, 0, 5));
+        assertThrows(IllegalArgumentException.class, () -> new Region(-1, 0, 1, 5));
+    }
+
+    /**
+     * interpolation only reaches as far as its kernel, so with a margin of at least its radius
+     * upscaling the source region must reproduce the crop of the whole upscaled image exactly
+     */
+    @Test
+    public void ensureCroppedSourceReproducesCropOfWholeOutput() {
+        FloatImageData input = randomImage(40, 30);
+        Region crop = new Region(51, 33, 45, 50);
+        try (Interpolator interpolator = new Interpolator(InterpolationKernel.LANCZOS3, 2)) {
+            FloatImageData whole = interpolator.upscale(input, 4);
+            FloatImageData expected = crop.copy(whole, FloatBuffer.allocate((int) crop.pixels() * 3));
+
+            Region source = crop.source(4, 3, input.width(), input.height());
+            FloatImageData upscaledSource = interpolator.upscale(source.copy(input, FloatBuffer.allocate((int) source.pixels() * 3)), 4);
+            Region relative = crop.relativeTo(source.scale(4));
+            FloatImageData actual = relative.copy(upscaledSource, FloatBuffer.allocate((int) crop.pixels() * 3));
+
+            assertEquals(expected.width(), actual.width());
+            assertEquals(expected.height(), actual.height());
+            for (int i = 0; i < expected.data().remaining(); i++) {
+                assertEquals(expected.data().get(i), actual.data().get(i), 1e-6f);
+            }
+        }
+    }
+
+    private static FloatImageData randomImage(int width, int height) {
+        Random random = new Random(3);
+        FloatBuffer data = FloatBuffer.allocate(width * height * 3);
+        while (data.hasRemaining()) {
+            data.put(random.nextFloat());
+        }
+        return new FloatImageData(data.flip(), width, height);
+    }
+}
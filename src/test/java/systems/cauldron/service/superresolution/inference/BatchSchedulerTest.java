@@ -0,0 +1,151 @@
+package systems.cauldron.service.superresolution.inference;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class BatchSchedulerTest {
+
+    @Test
+    public void ensureEquallySizedImagesShareBatch() throws Exception {
+        RecordingResolver delegate = new RecordingResolver();
+        BatchingOptions options = new BatchingOptions(4, Duration.ofSeconds(5), 16);
+        List<CompletableFuture<FloatImageData>> futures = new ArrayList<>();
+        try (BatchScheduler scheduler = new BatchScheduler(delegate, options, createRegistry())) {
+            for (int i = 0; i < 4; i++) {
+                futures.add(scheduler.submit(constantImage(8, 8, i)));
+            }
+            for (int i = 0; i < 4; i++) {
+                FloatImageData output = futures.get(i).get(10, TimeUnit.SECONDS);
+                assertEquals(16, output.width());
+                assertEquals(i, output.data().get(0), 0.0f);
+            }
+        }
+        assertEquals(List.of(4), delegate.batchSizes);
+    }
+
+    @Test
+    public void ensureDifferentlySizedImagesAreNotBatched() throws Exception {
+        RecordingResolver delegate = new RecordingResolver();
+        BatchingOptions options = new BatchingOptions(4, Duration.ofMillis(50), 16);
+        try (BatchScheduler scheduler = new BatchScheduler(delegate, options, createRegistry())) {
+            CompletableFuture<FloatImageData> small = scheduler.submit(constantImage(8, 8, 1));
+            CompletableFuture<FloatImageData> large = scheduler.submit(constantImage(16, 16, 2));
+            assertEquals(16, small.get(10, TimeUnit.SECONDS).width());
+            assertEquals(32, large.get(10, TimeUnit.SECONDS).width());
+        }
+        assertEquals(List.of(1, 1), delegate.batchSizes);
+    }
+
+    @Test
+    public void ensureImagesPaddedToCommonShapeShareBatch() throws Exception {
+        RecordingResolver delegate = new RecordingResolver();
+        BatchingOptions options = new BatchingOptions(2, Duration.ofSeconds(5), 16, 8);
+        MetricRegistry metrics = createRegistry();
+        try (BatchScheduler scheduler = new BatchScheduler(delegate, options, metrics)) {
+            CompletableFuture<FloatImageData> full = scheduler.submit(constantImage(8, 8, 1));
+            CompletableFuture<FloatImageData> edge = scheduler.submit(constantImage(6, 7, 2));
+            FloatImageData fullOutput = full.get(10, TimeUnit.SECONDS);
+            assertEquals(16, fullOutput.width());
+            assertEquals(16, fullOutput.height());
+            // the padded image gets back only the output of its own pixels
+            FloatImageData edgeOutput = edge.get(10, TimeUnit.SECONDS);
+            assertEquals(12, edgeOutput.width());
+            assertEquals(14, edgeOutput.height());
+            assertEquals(12 * 14 * 3, edgeOutput.data().remaining());
+            assertEquals(2, edgeOutput.data().get(edgeOutput.data().limit() - 1), 0.0f);
+        }
+        assertEquals(List.of(2), delegate.batchSizes);
+        assertEquals(1L, metrics.counter("batch.padded").getCount());
+    }
+
+    @Test
+    public void ensureFullQueueRejects() throws Exception {
+        RecordingResolver delegate = new RecordingResolver();
+        BatchingOptions options = new BatchingOptions(8, Duration.ofSeconds(5), 2);
+        try (BatchScheduler scheduler = new BatchScheduler(delegate, options, createRegistry())) {
+            scheduler.submit(constantImage(8, 8, 0));
+            scheduler.submit(constantImage(8, 8, 0));
+            assertThrows(RejectedExecutionException.class, () -> scheduler.submit(constantImage(8, 8, 0)));
+        }
+    }
+
+    @Test
+    public void ensureConcurrentDispatchersCompleteEverySubmission() throws Exception {
+        RecordingResolver delegate = new RecordingResolver();
+        BatchingOptions options = new BatchingOptions(4, Duration.ofMillis(1), 1024);
+        int submitters = 16;
+        int submissionsPerSubmitter = 50;
+        List<CompletableFuture<FloatImageData>> futures = new CopyOnWriteArrayList<>();
+        try (BatchScheduler scheduler = new BatchScheduler(delegate, options, 4, createRegistry())) {
+            ExecutorService executor = Executors.newFixedThreadPool(submitters);
+            try {
+                List<Future<?>> submissions = new ArrayList<>();
+                for (int i = 0; i < submitters; i++) {
+                    int submitter = i;
+                    submissions.add(executor.submit(() -> {
+                        for (int j = 0; j < submissionsPerSubmitter; j++) {
+                            futures.add(scheduler.submit(constantImage(8, 8, submitter)));
+                        }
+                    }));
+                }
+                for (Future<?> submission : submissions) {
+                    submission.get(10, TimeUnit.SECONDS);
+                }
+            } finally {
+                executor.shutdown();
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(submitters * submissionsPerSubmitter, futures.size());
+        assertEquals(submitters * submissionsPerSubmitter, delegate.batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(delegate.batchSizes.stream().allMatch(size -> size > 0 && size <= 4));
+    }
+
+    private static FloatImageData constantImage(int width, int height, float value) {
+        FloatBuffer data = FloatBuffer.allocate(width * height * 3);
+        while (data.hasRemaining()) {
+            data.put(value);
+        }
+        data.flip();
+        return new FloatImageData(data, width, height);
+    }
+
+    private static class RecordingResolver implements Resolver {
+
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public FloatImageData resolve(FloatImageData input) {
+            return constantImage(input.width() * 2, input.height() * 2, input.data().get(0));
+        }
+
+        @Override
+        public List<FloatImageData> resolveBatch(List<FloatImageData> inputs) {
+            batchSizes.add(inputs.size());
+            return Resolver.super.resolveBatch(inputs);
+        }
+
+        @Override
+        public int scalingFactor() {
+            return 2;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package systems.cauldron.service.superresolution.inference;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.Test;
+import systems.cauldron.service.superresolution.image.ByteImageData;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static systems.cauldron.service.superresolution.TestFixtures.createBufferPool;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class FrameSequenceTest {
+
+    @Test
+    public void ensureOnlyChangedTilesAreResolved() {
+        MetricRegistry registry = createRegistry();
+        CountingResolver resolver = new CountingResolver(2);
+        FrameSequence sequence = new FrameSequence(64, 48, 2, 16, 2, createBufferPool(), registry);
+        byte[] pixels = randomPixels(64, 48);
+
+        assertFrameEquals(pixels, 64, 48, sequence.resolve(frame(pixels, 64, 48), resolver));
+        assertEquals(64L * 48, resolver.pixels.get());
+
+        // a static frame resolves nothing
+        resolver.pixels.set(0);
+        assertFrameEquals(pixels, 64, 48, sequence.resolve(frame(pixels, 64, 48), resolver));
+        assertEquals(0L, resolver.pixels.get());
+
+        // a change in the middle of a tile resolves that tile with its margin
+        resolver.pixels.set(0);
+        pixels[20 * 64 + 40] ^= (byte) 0xFF;
+        assertFrameEquals(pixels, 64, 48, sequence.resolve(frame(pixels, 64, 48), resolver));
+        assertEquals(20L * 20, resolver.pixels.get());
+
+        // a change within the margin of neighbouring tiles resolves those too, with margins clipped at the edges
+        resolver.pixels.set(0);
+        pixels[2 * 64 * 48 + 16 * 64 + 16] ^= (byte) 0xFF;
+        assertFrameEquals(pixels, 64, 48, sequence.resolve(frame(pixels, 64, 48), resolver));
+        assertEquals(18L * 18 + 2L * 18 * 20 + 20L * 20, resolver.pixels.get());
+
+        assertEquals(12L + 11 + 8, registry.counter("frames.tiles", new Tag("outcome", "reused")).getCount());
+    }
+
+    @Test
+    public void ensureFramesAfterAFailureAreResolvedInFull() {
+        CountingResolver resolver = new CountingResolver(2);
+        FrameSequence sequence = new FrameSequence(32, 32, 2, 16, 2, createBufferPool(), createRegistry());
+        byte[] pixels = randomPixels(32, 32);
+        sequence.resolve(frame(pixels, 32, 32), resolver);
+
+        pixels[0] ^= (byte) 0xFF;
+        Resolver failing = new Resolver() {
+            @Override
+            public FloatImageData resolve(FloatImageData input) {
+                throw new IllegalStateException("broken");
+            }
+
+            @Override
+            public int scalingFactor() {
+                return 2;
+            }
+        };
+        assertThrows(IllegalStateException.class, () -> sequence.resolve(frame(pixels, 32, 32), failing));
+
+        resolver.pixels.set(0);
+        assertFrameEquals(pixels, 32, 32, sequence.resolve(frame(pixels, 32, 32), resolver));
+        assertEquals(32L * 32, resolver.pixels.get());
+    }
+
+    private static void assertFrameEquals(byte[] pixels, int width, int height, FloatImageData actual) {
+        FloatImageData expected = new CountingResolver(2).resolve(frame(pixels, width, height).toFloatImageData());
+        assertEquals(expected.width(), actual.width());
+        assertEquals(expected.height(), actual.height());
+        for (int i = 0; i < expected.data().remaining(); i++) {
+            assertEquals(expected.data().get(i), actual.data().get(i), 1e-6f);
+        }
+    }
+
+    private static ByteImageData frame(byte[] pixels, int width, int height) {
+        return new ByteImageData(ByteBuffer.wrap(pixels.clone()), width, height);
+    }
+
+    private static byte[] randomPixels(int width, int height) {
+        byte[] pixels = new byte[width * height * 3];
+        new Random(width * 31L + height).nextBytes(pixels);
+        return pixels;
+    }
+
+    /**
+     * Nearest neighbor upscaling, which is position independent, counting the input pixels it resolved.
+     */
+    private static final class CountingResolver implements Resolver {
+
+        private final int scalingFactor;
+        private final AtomicLong pixels = new AtomicLong();
+
+        private CountingResolver(int scalingFactor) {
+            this.scalingFactor = scalingFactor;
+        }
+
+        @Override
+        public FloatImageData resolve(FloatImageData input) {
+            pixels.addAndGet((long) input.width() * input.height());
+            int outputWidth = input.width() * scalingFactor;
+            int outputHeight = input.height() * scalingFactor;
+            FloatBuffer output = FloatBuffer.allocate(outputWidth * outputHeight * 3);
+            for (int channel = 0; channel < 3; channel++) {
+                for (int y = 0; y < outputHeight; y++) {
+                    for (int x = 0; x < outputWidth; x++) {
+                        int sourceIndex = (channel * input.height() + y / scalingFactor) * input.width() + x / scalingFactor;
+                        output.put(input.data().get(input.data().position() + sourceIndex));
+                    }
+                }
+            }
+            return new FloatImageData(output.flip(), outputWidth, outputHeight);
+        }
+
+        @Override
+        public int scalingFactor() {
+            return scalingFactor;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package systems.cauldron.service.superresolution.inference;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class InferenceExecutorTest {
+
+    @Test
+    public void ensureExcessPixelsAreRejected() throws Exception {
+        AdmissionOptions options = new AdmissionOptions(1, 8, 1000);
+        try (InferenceExecutor executor = new InferenceExecutor(options, createRegistry())) {
+            CompletableFuture<String> body = new CompletableFuture<>();
+            CompletableFuture<Integer> admitted = executor.submit(600, () -> body, String::length);
+            OverloadedException ex = assertThrows(OverloadedException.class,
+                    () -> executor.submit(600, () -> CompletableFuture.completedFuture("rejected"), String::length));
+            assertTrue(ex.retryAfter().toSeconds() >= 1);
+            body.complete("admitted");
+            assertEquals(8, admitted.get(10, TimeUnit.SECONDS));
+            assertEquals(8, executor.submit(600, () -> CompletableFuture.completedFuture("admitted"), String::length)
+                    .get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void ensureExcessRequestsAreRejected() throws Exception {
+        AdmissionOptions options = new AdmissionOptions(1, 2, 1000);
+        try (InferenceExecutor executor = new InferenceExecutor(options, createRegistry())) {
+            CompletableFuture<String> body = new CompletableFuture<>();
+            executor.submit(1, () -> body, String::length);
+            executor.submit(1, () -> body, String::length);
+            assertThrows(OverloadedException.class, () -> executor.submit(1, () -> body, String::length));
+            body.complete("done");
+        }
+    }
+
+    @Test
+    public void ensureOversizedRequestIsAdmittedWhenIdle() throws Exception {
+        AdmissionOptions options = new AdmissionOptions(1, 2, 1000);
+        try (InferenceExecutor executor = new InferenceExecutor(options, createRegistry())) {
+            CompletableFuture<Integer> result = executor.submit(5000, () -> CompletableFuture.completedFuture("large"), String::length);
+            assertEquals(5, result.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void ensureCheaperRequestsOvertakeCostlyOnes() throws Exception {
+        assertEquals(List.of("small", "large"), runQueued(new SchedulingOptions(100.0, false)));
+    }
+
+    @Test
+    public void ensureRequestsRunInArrivalOrderWithoutAging() throws Exception {
+        assertEquals(List.of("large", "small"), runQueued(SchedulingOptions.FIFO));
+    }
+
+    @Test
+    public void ensureDeadlinesAgeWithCostAndPriority() {
+        SchedulingOptions options = new SchedulingOptions(2.0, true);
+        assertEquals(105L, options.deadline(100L, 10.0, Priority.HIGH));
+        assertEquals(120L, options.deadline(100L, 10.0, Priority.NORMAL));
+        assertEquals(180L, options.deadline(100L, 10.0, Priority.LOW));
+        assertEquals(120L, new SchedulingOptions(2.0, false).deadline(100L, 10.0, Priority.LOW));
+        assertThrows(IllegalArgumentException.class, () -> new SchedulingOptions(-1.0, false));
+    }
+
+    /**
+     * Queues a large and then a small request behind a blocked thread, once a first request has calibrated the cost
+     * per pixel, and returns the order in which they ran.
+     */
+    private static List<String> runQueued(SchedulingOptions scheduling) throws Exception {
+        AdmissionOptions options = new AdmissionOptions(1, 8, Long.MAX_VALUE);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        try (InferenceExecutor executor = new InferenceExecutor(options, scheduling, createRegistry())) {
+            executor.submit(1000, () -> CompletableFuture.completedFuture("calibration"), String::length).get(10, TimeUnit.SECONDS);
+            CountDownLatch blocked = new CountDownLatch(1);
+            CompletableFuture<Boolean> blocking = executor.submit(1, () -> CompletableFuture.completedFuture(blocked), latch -> {
+                try {
+                    return latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            CompletableFuture<Boolean> large = executor.submit(100_000_000L, 4, Priority.NORMAL,
+                    () -> CompletableFuture.completedFuture("large"), order::add);
+            CompletableFuture<Boolean> small = executor.submit(10, 4, Priority.NORMAL,
+                    () -> CompletableFuture.completedFuture("small"), order::add);
+            blocked.countDown();
+            assertTrue(blocking.get(10, TimeUnit.SECONDS));
+            large.get(10, TimeUnit.SECONDS);
+            small.get(10, TimeUnit.SECONDS);
+        }
+        return order;
+    }
+}
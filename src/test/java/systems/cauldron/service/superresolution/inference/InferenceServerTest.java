@@ -1,14 +1,24 @@
 package systems.cauldron.service.superresolution.inference;
 
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import systems.cauldron.service.superresolution.image.FloatImageData;
 import systems.cauldron.service.superresolution.image.ImageDataUtility;
+import systems.cauldron.service.superresolution.memory.BufferPool;
 
+import java.nio.FloatBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createBufferPool;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
 
 public class InferenceServerTest {
 
@@ -20,7 +30,8 @@ public class InferenceServerTest {
         int scalingFactor = 4;
         Path modelPath = Paths.get("models").resolve("esrgan.onnx");
         FloatImageData outputImage;
-        try (InferenceServer service = new InferenceServer(modelPath, scalingFactor)) {
+        BufferPool bufferPool = createBufferPool();
+        try (InferenceServer service = new InferenceServer(modelPath, scalingFactor, bufferPool)) {
             outputImage = service.resolve(inputImage);
         }
         assertEquals(inputImage.width() * scalingFactor, outputImage.width());
@@ -29,4 +40,70 @@ public class InferenceServerTest {
         ImageDataUtility.save(outputImage, outputPath, "image/png");
         ImageDataUtility.show(outputPath);
     }
+
+    @Test
+    public void ensureStandInModelUpscales(@TempDir Path directory) throws Exception {
+        int scalingFactor = 4;
+        Path modelPath = StandInModel.write(directory.resolve("stand-in.onnx"), scalingFactor);
+        FloatImageData first = randomImage(16, 12, 1);
+        FloatImageData second = randomImage(16, 12, 2);
+        BufferPool bufferPool = createBufferPool();
+        try (InferenceServer service = new InferenceServer(modelPath, scalingFactor, bufferPool)) {
+            assertTrue(service.supportsBatching());
+            assertNearestNeighbor(first, service.resolve(first), scalingFactor);
+            List<FloatImageData> outputs = service.resolveBatch(List.of(first, second));
+            assertNearestNeighbor(first, outputs.get(0), scalingFactor);
+            assertNearestNeighbor(second, outputs.get(1), scalingFactor);
+        }
+    }
+
+    @Test
+    public void ensureOutputIsWrittenIntoBoundSink(@TempDir Path directory) throws Exception {
+        int scalingFactor = 4;
+        Path modelPath = StandInModel.write(directory.resolve("stand-in.onnx"), scalingFactor);
+        FloatImageData input = randomImage(16, 12, 3);
+        MetricRegistry registry = createRegistry();
+        BufferPool bufferPool = new BufferPool(1L << 24, registry);
+        try (InferenceServer service = new InferenceServer(modelPath, scalingFactor, SessionPoolOptions.DEFAULT, bufferPool, registry);
+             BufferPool.Lease sink = bufferPool.lease(16L * 12 * scalingFactor * scalingFactor * 3 * 4)) {
+            FloatImageData output = service.resolve(input, sink.floats());
+            assertNearestNeighbor(input, output, scalingFactor);
+            assertNearestNeighbor(input, new FloatImageData(sink.floats(), output.width(), output.height()), scalingFactor);
+            assertNearestNeighbor(input, service.resolve(input, FloatBuffer.allocate(sink.floats().remaining())), scalingFactor);
+        }
+        assertEquals(1L, registry.counter("inference.outputs", new Tag("binding", "bound")).getCount());
+        assertEquals(1L, registry.counter("inference.outputs", new Tag("binding", "copied")).getCount());
+    }
+
+    @Test
+    public void ensurePinnedSessionsGetDisjointProcessors() {
+        assertEquals("2;3;4", InferenceServer.threadAffinities(0, 4, 16));
+        assertEquals("6;7;8", InferenceServer.threadAffinities(1, 4, 16));
+        assertEquals("2;3;4", InferenceServer.threadAffinities(4, 4, 16));
+        assertEquals("", InferenceServer.threadAffinities(3, 1, 16));
+    }
+
+    private static void assertNearestNeighbor(FloatImageData input, FloatImageData output, int scalingFactor) {
+        assertEquals(input.width() * scalingFactor, output.width());
+        assertEquals(input.height() * scalingFactor, output.height());
+        for (int channel = 0; channel < 3; channel++) {
+            for (int y = 0; y < output.height(); y++) {
+                for (int x = 0; x < output.width(); x++) {
+                    int inputIndex = (channel * input.height() + y / scalingFactor) * input.width() + x / scalingFactor;
+                    int outputIndex = (channel * output.height() + y) * output.width() + x;
+                    assertEquals(input.data().get(inputIndex), output.data().get(outputIndex), 1e-6f);
+                }
+            }
+        }
+    }
+
+    private static FloatImageData randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        FloatBuffer data = FloatBuffer.allocate(width * height * 3);
+        while (data.hasRemaining()) {
+            data.put(random.nextFloat());
+        }
+        data.flip();
+        return new FloatImageData(data, width, height);
+    }
 }
\ No newline at end of file
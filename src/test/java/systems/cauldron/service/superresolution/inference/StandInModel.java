@@ -0,0 +1,162 @@
+package systems.cauldron.service.superresolution.inference;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates a tiny ONNX model with the same interface as the ESRGAN model, a dynamically sized [N,3,H,W] "input"
+ * and [N,3,H*s,W*s] "output", computed as an identity 3x3 convolution followed by nearest neighbor upscaling.
+ * It stands in for the real model, which is stored outside of git, wherever the inference path itself is exercised.
+ * The handful of protobuf messages needed are encoded by hand rather than pulling in the ONNX and protobuf libraries.
+ */
+public final class StandInModel {
+
+    private static final int IR_VERSION = 7;
+    private static final int OPSET_VERSION = 13;
+    private static final int FLOAT = 1;
+    private static final int ATTRIBUTE_INTS = 7;
+    private static final int ATTRIBUTE_STRING = 3;
+    private static final int CHANNELS = 3;
+
+    private StandInModel() {
+    }
+
+    public static Path write(Path path, int scalingFactor) throws IOException {
+        Files.write(path, encode(scalingFactor));
+        return path;
+    }
+
+    /**
+     * The output equals the input upscaled by repeating each pixel in a scalingFactor x scalingFactor block.
+     */
+    public static byte[] encode(int scalingFactor) {
+        float[] weights = new float[CHANNELS * CHANNELS * 3 * 3];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            // centre tap of the kernel mapping each channel onto itself
+            weights[(channel * CHANNELS + channel) * 9 + 4] = 1.0f;
+        }
+        float[] scales = {1.0f, 1.0f, scalingFactor, scalingFactor};
+
+        Message convolution = new Message()
+                .string(1, "input")
+                .string(1, "weights")
+                .string(2, "features")
+                .string(3, "convolution")
+                .string(4, "Conv")
+                .message(5, intsAttribute("kernel_shape", 3, 3))
+                .message(5, intsAttribute("pads", 1, 1, 1, 1));
+        Message resize = new Message()
+                .string(1, "features")
+                .string(1, "")
+                .string(1, "scales")
+                .string(2, "output")
+                .string(3, "upscale")
+                .string(4, "Resize")
+                .message(5, stringAttribute("mode", "nearest"))
+                .message(5, stringAttribute("coordinate_transformation_mode", "asymmetric"))
+                .message(5, stringAttribute("nearest_mode", "floor"));
+        Message graph = new Message()
+                .message(1, convolution)
+                .message(1, resize)
+                .string(2, "stand-in")
+                .message(5, floatTensor("weights", weights, CHANNELS, CHANNELS, 3, 3))
+                .message(5, floatTensor("scales", scales, scales.length))
+                .message(11, imageValueInfo("input", "height", "width"))
+                .message(12, imageValueInfo("output", "output_height", "output_width"));
+        return new Message()
+                .varint(1, IR_VERSION)
+                .string(2, "super-resolution-service")
+                .message(7, graph)
+                .message(8, new Message().string(1, "").varint(2, OPSET_VERSION))
+                .toByteArray();
+    }
+
+    private static Message intsAttribute(String name, long... values) {
+        Message attribute = new Message().string(1, name);
+        for (long value : values) {
+            attribute.varint(8, value);
+        }
+        return attribute.varint(20, ATTRIBUTE_INTS);
+    }
+
+    private static Message stringAttribute(String name, String value) {
+        return new Message()
+                .string(1, name)
+                .string(4, value)
+                .varint(20, ATTRIBUTE_STRING);
+    }
+
+    private static Message floatTensor(String name, float[] values, long... dims) {
+        Message tensor = new Message();
+        for (long dim : dims) {
+            tensor.varint(1, dim);
+        }
+        ByteBuffer raw = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (float value : values) {
+            raw.putFloat(value);
+        }
+        return tensor.varint(2, FLOAT)
+                .string(8, name)
+                .bytes(9, raw.array());
+    }
+
+    private static Message imageValueInfo(String name, String height, String width) {
+        Message shape = new Message()
+                .message(1, new Message().string(2, "batch"))
+                .message(1, new Message().varint(1, CHANNELS))
+                .message(1, new Message().string(2, height))
+                .message(1, new Message().string(2, width));
+        Message tensorType = new Message()
+                .varint(1, FLOAT)
+                .message(2, shape);
+        return new Message()
+                .string(1, name)
+                .message(2, new Message().message(1, tensorType));
+    }
+
+    /**
+     * Protobuf encoding of the varint and length-delimited fields, which are the only wire types the model needs.
+     */
+    private static final class Message {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Message varint(int field, long value) {
+            writeVarint((long) field << 3);
+            writeVarint(value);
+            return this;
+        }
+
+        Message string(int field, String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Message message(int field, Message value) {
+            return bytes(field, value.toByteArray());
+        }
+
+        Message bytes(int field, byte[] value) {
+            writeVarint((long) field << 3 | 2);
+            writeVarint(value.length);
+            out.writeBytes(value);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+}
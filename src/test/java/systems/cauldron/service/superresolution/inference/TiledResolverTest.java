@@ -0,0 +1,164 @@
+package systems.cauldron.service.superresolution.inference;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Snapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static systems.cauldron.service.superresolution.TestFixtures.createBufferPool;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class TiledResolverTest {
+
+    /**
+     * nearest neighbor upscaling is position independent, so tiling must reproduce the untiled output exactly
+     */
+    @ParameterizedTest
+    @CsvSource({
+            "125, 120, 32, 8, CROP, 1, 0",
+            "125, 120, 32, 8, LINEAR, 1, 0",
+            "125, 120, 40, 30, LINEAR, 4, 0",
+            "300, 17, 64, 0, CROP, 2, 0",
+            "20, 20, 64, 16, LINEAR, 1, 0",
+            "125, 120, 256, 8, LINEAR, 4, 24",
+            "300, 17, 256, 4, CROP, 8, 16",
+    })
+    public void ensureTilingMatchesWholeImage(int width, int height, int tileSize, int overlap, BlendMode blendMode, int parallelism, int minTileSize) throws Exception {
+        FloatImageData input = randomImage(width, height);
+        Resolver nearestNeighbor = new NearestNeighborResolver(4);
+        FloatImageData expected = nearestNeighbor.resolve(input);
+        FloatImageData actual;
+        try (TiledResolver tiledResolver = new TiledResolver(nearestNeighbor, new TilingOptions(tileSize, overlap, blendMode, parallelism, minTileSize), createBufferPool(), createRegistry())) {
+            actual = tiledResolver.resolve(input);
+        }
+        assertEquals(expected.width(), actual.width());
+        assertEquals(expected.height(), actual.height());
+        for (int i = 0; i < expected.data().remaining(); i++) {
+            assertEquals(expected.data().get(i), actual.data().get(i), 1e-5f);
+        }
+    }
+
+    @Test
+    public void ensureImagesAreSplitToOccupyEveryWorker() throws Exception {
+        MetricRegistry registry = createRegistry();
+        TilingOptions options = new TilingOptions(256, 8, BlendMode.LINEAR, 4, 32);
+        try (TiledResolver tiledResolver = new TiledResolver(new NearestNeighborResolver(4), options, createBufferPool(), registry)) {
+            tiledResolver.resolve(randomImage(125, 120));
+            tiledResolver.resolve(randomImage(20, 20));
+        }
+        // 2 x 2 tiles for the larger image, while the smaller one isn't split below the minimum tile size
+        Snapshot tiles = registry.histogram("tiling.tiles").getSnapshot();
+        assertEquals(4L, tiles.getMax());
+        assertEquals(1L, tiles.getMin());
+    }
+
+    /**
+     * pooled sinks are handed out with whatever a previous request left in them, which must not leak into the blend
+     */
+    @Test
+    public void ensureTilesAreBlendedIntoReusedSink() throws Exception {
+        FloatImageData input = randomImage(125, 120);
+        Resolver nearestNeighbor = new NearestNeighborResolver(4);
+        FloatImageData expected = nearestNeighbor.resolve(input);
+        BufferPool bufferPool = createBufferPool();
+        try (TiledResolver tiledResolver = new TiledResolver(nearestNeighbor, new TilingOptions(32, 8, BlendMode.LINEAR, 2, 0), bufferPool, createRegistry());
+             BufferPool.Lease sink = bufferPool.lease((long) expected.data().remaining() * 4)) {
+            FloatBuffer stale = sink.floats();
+            while (stale.hasRemaining()) {
+                stale.put(1.0f);
+            }
+            FloatImageData actual = tiledResolver.resolve(input, sink.floats());
+            assertEquals(expected.width(), actual.width());
+            assertEquals(expected.height(), actual.height());
+            for (int i = 0; i < expected.data().remaining(); i++) {
+                assertEquals(expected.data().get(i), actual.data().get(i), 1e-5f);
+            }
+        }
+    }
+
+    /**
+     * the caller releases the input and the sink once resolve returns, so no tile may still be using them
+     */
+    @Test
+    public void ensureFailureWaitsForRunningTiles() throws Exception {
+        FloatImageData input = randomImage(125, 120);
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        Resolver failing = new NearestNeighborResolver(4) {
+            @Override
+            public FloatImageData resolve(FloatImageData tile) {
+                running.incrementAndGet();
+                try {
+                    if (calls.incrementAndGet() == 1) {
+                        throw new IllegalStateException("tile failed");
+                    }
+                    Thread.sleep(100);
+                    return super.resolve(tile);
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+        try (TiledResolver tiledResolver = new TiledResolver(failing, new TilingOptions(32, 8, BlendMode.LINEAR, 4, 0), createBufferPool(), createRegistry())) {
+            IllegalStateException failure = assertThrows(IllegalStateException.class, () -> tiledResolver.resolve(input));
+            assertEquals("tile failed", failure.getMessage());
+            assertEquals(0, running.get());
+        }
+    }
+
+    private static FloatImageData randomImage(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        FloatBuffer data = ByteBuffer.allocateDirect(width * height * 3 * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        while (data.hasRemaining()) {
+            data.put(random.nextFloat());
+        }
+        data.flip();
+        return new FloatImageData(data, width, height);
+    }
+
+    private static class NearestNeighborResolver implements Resolver {
+
+        private final int scalingFactor;
+
+        private NearestNeighborResolver(int scalingFactor) {
+            this.scalingFactor = scalingFactor;
+        }
+
+        @Override
+        public int scalingFactor() {
+            return scalingFactor;
+        }
+
+        @Override
+        public FloatImageData resolve(FloatImageData input) {
+            int outputWidth = input.width() * scalingFactor;
+            int outputHeight = input.height() * scalingFactor;
+            FloatBuffer output = FloatBuffer.allocate(outputWidth * outputHeight * 3);
+            for (int channel = 0; channel < 3; channel++) {
+                for (int y = 0; y < outputHeight; y++) {
+                    for (int x = 0; x < outputWidth; x++) {
+                        int sourceIndex = (channel * input.height() + y / scalingFactor) * input.width() + x / scalingFactor;
+                        output.put(input.data().get(sourceIndex));
+                    }
+                }
+            }
+            output.flip();
+            return new FloatImageData(output, outputWidth, outputHeight);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package systems.cauldron.service.superresolution.jobs;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import systems.cauldron.service.superresolution.inference.OverloadedException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class JobStoreTest {
+
+    private static final JobRequest REQUEST = new JobRequest("esrgan", "application/octet-stream", 2, 1, "image/png", Float.NaN);
+
+    @Test
+    public void ensureUnfinishedJobsAreQueuedAgainAfterRestart(@TempDir Path directory) throws Exception {
+        JobOptions options = new JobOptions(directory, 1, 16, Duration.ofHours(1));
+        Job first;
+        Job second;
+        try (JobStore store = new JobStore(options, createRegistry())) {
+            first = store.submit(REQUEST, new byte[]{1, 2, 3, 4, 5, 6});
+            second = store.submit(REQUEST, new byte[]{6, 5, 4, 3, 2, 1});
+            assertEquals(JobStatus.RUNNING, store.take().status());
+        }
+        // a submission interrupted before it was acknowledged
+        Files.createDirectories(directory.resolve("interrupted"));
+        try (JobStore store = new JobStore(options, createRegistry())) {
+            Job recovered = store.take();
+            assertEquals(first.id(), recovered.id());
+            assertEquals(REQUEST, recovered.request());
+            assertEquals(second.id(), store.take().id());
+            ByteBuffer input = store.input(recovered);
+            byte[] content = new byte[input.remaining()];
+            input.get(content);
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, content);
+        }
+        assertFalse(Files.exists(directory.resolve("interrupted")));
+    }
+
+    @Test
+    public void ensureResultsAreServedUntilExpired(@TempDir Path directory) throws Exception {
+        try (JobStore store = new JobStore(new JobOptions(directory, 1, 16, Duration.ofMillis(1)), createRegistry())) {
+            store.submit(REQUEST, new byte[6]);
+            Job job = store.take();
+            assertTrue(store.result(job).isEmpty());
+            Job succeeded = store.complete(job, 3, buffer -> buffer.put(new byte[]{7, 8, 9}));
+            assertEquals(JobStatus.SUCCEEDED, store.get(job.id()).orElseThrow().status());
+            ByteBuffer result = store.result(succeeded).orElseThrow();
+            byte[] content = new byte[result.remaining()];
+            result.get(content);
+            assertArrayEquals(new byte[]{7, 8, 9}, content);
+            assertFalse(Files.exists(directory.resolve(job.id()).resolve("input.bin")));
+
+            store.submit(REQUEST, new byte[6]);
+            Job failed = store.fail(store.take(), "broken");
+            assertEquals("broken", store.get(failed.id()).orElseThrow().error());
+
+            Thread.sleep(5);
+            store.expire();
+            assertTrue(store.get(job.id()).isEmpty());
+            assertTrue(store.get(failed.id()).isEmpty());
+            assertFalse(Files.exists(directory.resolve(job.id())));
+        }
+    }
+
+    @Test
+    public void ensureSubmissionsBeyondTheQueueLimitAreRejected(@TempDir Path directory) throws Exception {
+        MetricRegistry registry = createRegistry();
+        try (JobStore store = new JobStore(new JobOptions(directory, 1, 1, Duration.ofHours(1)), registry)) {
+            Job job = store.submit(REQUEST, new byte[6]);
+            assertThrows(OverloadedException.class, () -> store.submit(REQUEST, new byte[6]));
+            assertEquals(1L, registry.counter("jobs.rejected").getCount());
+            store.fail(store.take(), "broken");
+            assertEquals(JobStatus.FAILED, store.get(job.id()).orElseThrow().status());
+            store.submit(REQUEST, new byte[6]);
+        }
+    }
+
+    @Test
+    public void ensureReservationsHoldAPlaceUntilUsedOrClosed(@TempDir Path directory) throws Exception {
+        MetricRegistry registry = createRegistry();
+        try (JobStore store = new JobStore(new JobOptions(directory, 1, 1, Duration.ofHours(1)), registry)) {
+            JobStore.Reservation reservation = store.reserve();
+            assertThrows(OverloadedException.class, store::reserve);
+            // an upload that failed gives its place back
+            reservation.close();
+            reservation.close();
+            try (JobStore.Reservation used = store.reserve()) {
+                store.submit(used, REQUEST, new byte[6]);
+                assertThrows(IllegalStateException.class, () -> store.submit(used, REQUEST, new byte[6]));
+            }
+            assertThrows(OverloadedException.class, store::reserve);
+            assertEquals(2L, registry.counter("jobs.rejected").getCount());
+        }
+    }
+
+    @Test
+    public void ensureTakenJobsAreReleasedOnce(@TempDir Path directory) throws Exception {
+        try (JobStore store = new JobStore(new JobOptions(directory, 1, 1, Duration.ofHours(1)), createRegistry())) {
+            store.submit(REQUEST, new byte[6]);
+            Job job = store.take();
+            store.release(job);
+            store.submit(REQUEST, new byte[6]);
+            // finishing the released job doesn't free the place of the one queued since
+            store.fail(job, "broken");
+            store.release(job);
+            assertThrows(OverloadedException.class, () -> store.submit(REQUEST, new byte[6]));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package systems.cauldron.service.superresolution.memory;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class BufferPoolTest {
+
+    @Test
+    public void ensureReleasedBuffersAreReused() {
+        MetricRegistry registry = createRegistry();
+        BufferPool pool = new BufferPool(1L << 20, registry);
+        try (BufferPool.Lease lease = pool.lease(10_000)) {
+            ByteBuffer buffer = lease.buffer();
+            assertTrue(buffer.isDirect());
+            assertEquals(ByteOrder.nativeOrder(), buffer.order());
+            assertEquals(0, buffer.position());
+            assertEquals(10_000, buffer.limit());
+            assertEquals(2_500, lease.floats().remaining());
+        }
+        try (BufferPool.Lease lease = pool.lease(12_000)) {
+            assertEquals(12_000, lease.buffer().remaining());
+        }
+        assertEquals(1L, registry.counter("buffer.pool.misses").getCount());
+        assertEquals(1L, registry.counter("buffer.pool.hits").getCount());
+    }
+
+    @Test
+    public void ensureBuffersBeyondRetentionLimitAreNotPooled() {
+        MetricRegistry registry = createRegistry();
+        BufferPool pool = new BufferPool(4096, registry);
+        BufferPool.Lease first = pool.lease(4096);
+        BufferPool.Lease second = pool.lease(4096);
+        first.close();
+        second.close();
+        second.close();
+        pool.lease(4096).close();
+        pool.lease(4096).close();
+        assertEquals(2L, registry.counter("buffer.pool.hits").getCount());
+        assertEquals(2L, registry.counter("buffer.pool.misses").getCount());
+    }
+}
@@ -0,0 +1,130 @@
+package systems.cauldron.service.superresolution.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.inference.Resolver;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class ModelRegistryTest {
+
+    @Test
+    public void ensureModelsAreLoadedOnFirstUse(@TempDir Path directory) throws Exception {
+        Files.writeString(directory.resolve("esrgan.onnx"), "full");
+        Files.writeString(directory.resolve("fast-x2.onnx"), "fast");
+        Files.writeString(directory.resolve("esrgan.fp16.onnx"), "half");
+        Files.writeString(directory.resolve("notes.txt"), "ignored");
+        RecordingLoader loader = new RecordingLoader();
+        try (ModelRegistry registry = new ModelRegistry(options(directory, Duration.ZERO), loader, createRegistry())) {
+            assertEquals(Set.of("esrgan", "fast-x2"), registry.names());
+            assertEquals(List.of("esrgan"), loader.loadedNames());
+            try (ModelRegistry.Handle handle = registry.acquire("fast-x2")) {
+                assertEquals(2, handle.resolver().scalingFactor());
+            }
+            try (ModelRegistry.Handle handle = registry.acquire("esrgan")) {
+                assertEquals(4, handle.resolver().scalingFactor());
+                assertEquals(Set.of(Precision.FP16), handle.definition().variants().keySet());
+            }
+            registry.acquire("fast-x2").close();
+            assertEquals(List.of("esrgan", "fast-x2"), loader.loadedNames());
+            assertFalse(registry.contains("notes"));
+            assertThrows(IllegalArgumentException.class, () -> registry.acquire("notes"));
+        }
+        assertEquals(2, loader.closed.size());
+    }
+
+    @Test
+    public void ensureIdleModelsAreUnloaded(@TempDir Path directory) throws Exception {
+        Files.writeString(directory.resolve("esrgan.onnx"), "full");
+        Files.writeString(directory.resolve("fast-x2.onnx"), "fast");
+        RecordingLoader loader = new RecordingLoader();
+        try (ModelRegistry registry = new ModelRegistry(options(directory, Duration.ofNanos(1)), loader, createRegistry())) {
+            ModelRegistry.Handle handle = registry.acquire("fast-x2");
+            Thread.sleep(5);
+            registry.evictIdle();
+            assertTrue(loader.closed.isEmpty());
+            handle.close();
+            Thread.sleep(5);
+            registry.evictIdle();
+            assertEquals(List.of("fast-x2"), loader.closed);
+            registry.acquire("fast-x2").close();
+            assertEquals(List.of("esrgan", "fast-x2", "fast-x2"), loader.loadedNames());
+        }
+    }
+
+    @Test
+    public void ensureReplacedModelsAreSwappedAfterRequestsInFlight(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("esrgan.onnx");
+        Files.writeString(path, "v1");
+        RecordingLoader loader = new RecordingLoader();
+        try (ModelRegistry registry = new ModelRegistry(options(directory, Duration.ZERO), loader, createRegistry())) {
+            ModelRegistry.Handle inFlight = registry.acquire("esrgan");
+            Files.writeString(path, "v2 with different weights");
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+            registry.refresh(path);
+            assertEquals(2, loader.loaded.size());
+            assertTrue(loader.closed.isEmpty());
+            try (ModelRegistry.Handle handle = registry.acquire("esrgan")) {
+                assertEquals(loader.loaded.get(1).version(), handle.definition().version());
+            }
+            inFlight.close();
+            inFlight.close();
+            assertEquals(List.of("esrgan"), loader.closed);
+
+            Files.writeString(directory.resolve("fast-x2.onnx"), "fast");
+            registry.refresh(directory.resolve("fast-x2.onnx"));
+            registry.acquire("fast-x2").close();
+            Files.delete(directory.resolve("fast-x2.onnx"));
+            registry.refresh(directory.resolve("fast-x2.onnx"));
+            assertFalse(registry.contains("fast-x2"));
+            assertEquals(List.of("esrgan", "fast-x2"), loader.closed);
+        }
+    }
+
+    private static ModelOptions options(Path directory, Duration idleTimeout) {
+        return new ModelOptions(directory, "esrgan", 4, idleTimeout, false);
+    }
+
+    private static class RecordingLoader implements ModelLoader {
+
+        private final List<ModelDefinition> loaded = new ArrayList<>();
+        private final List<String> closed = new ArrayList<>();
+
+        @Override
+        public synchronized Pipeline load(ModelDefinition definition) {
+            loaded.add(definition);
+            ArrayDeque<AutoCloseable> stages = new ArrayDeque<>();
+            stages.push(() -> {
+                synchronized (this) {
+                    closed.add(definition.name());
+                }
+            });
+            return new Pipeline(new FixedScaleResolver(definition.scalingFactor()), stages);
+        }
+
+        synchronized List<String> loadedNames() {
+            return loaded.stream().map(ModelDefinition::name).toList();
+        }
+    }
+
+    private record FixedScaleResolver(int scalingFactor) implements Resolver {
+        @Override
+        public FloatImageData resolve(FloatImageData input) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package systems.cauldron.service.superresolution.model;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import systems.cauldron.service.superresolution.cache.CacheOptions;
+import systems.cauldron.service.superresolution.cache.CachingResolver;
+import systems.cauldron.service.superresolution.cache.ResultCache;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.inference.Resolver;
+
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class ModelWarmupTest {
+
+    @Test
+    public void ensureReadyOnceEveryShapeWasWarmedUp(@TempDir Path directory) throws Exception {
+        Files.writeString(directory.resolve("esrgan.onnx"), "full");
+        RecordingResolver resolver = new RecordingResolver();
+        MetricRegistry metrics = createRegistry();
+        WarmupOptions options = new WarmupOptions(List.of(new WarmupOptions.Shape(8, 6), new WarmupOptions.Shape(4, 4)), 2);
+        try (ModelRegistry registry = new ModelRegistry(new ModelOptions(directory, "esrgan", 4, Duration.ZERO, false),
+                definition -> new Pipeline(resolver, new ArrayDeque<>()), metrics);
+             ModelWarmup warmup = new ModelWarmup(registry, options, 1, metrics)) {
+            assertFalse(warmup.ready());
+            warmup.run();
+            assertTrue(warmup.ready());
+        }
+        assertEquals(List.of("8x6", "8x6", "4x4", "4x4"), resolver.shapes);
+        assertNotEquals(resolver.firstValues.get(0), resolver.firstValues.get(1));
+        assertEquals(4, metrics.timer("model.warmup", new Tag("model", "esrgan")).getCount());
+    }
+
+    @Test
+    public void ensureEverySessionIsWarmedUpPastTheCache(@TempDir Path directory) throws Exception {
+        Files.writeString(directory.resolve("esrgan.onnx"), "full");
+        RecordingResolver resolver = new RecordingResolver();
+        MetricRegistry metrics = createRegistry();
+        MetricRegistry cacheMetrics = createRegistry();
+        CachingResolver cache = new CachingResolver(resolver, new ResultCache(new CacheOptions(1L << 20, null, 0), cacheMetrics), "esrgan", cacheMetrics);
+        WarmupOptions options = new WarmupOptions(List.of(new WarmupOptions.Shape(4, 4)), 2);
+        try (ModelRegistry registry = new ModelRegistry(new ModelOptions(directory, "esrgan", 4, Duration.ZERO, false),
+                definition -> new Pipeline(cache, resolver, cache, Precision.FP32, new ArrayDeque<>()), metrics);
+             ModelWarmup warmup = new ModelWarmup(registry, options, 3, metrics)) {
+            warmup.run();
+            assertTrue(warmup.ready());
+        }
+        assertEquals(6, resolver.shapes.size());
+        assertEquals(6, new HashSet<>(resolver.firstValues).size());
+        assertEquals(2, metrics.timer("model.warmup", new Tag("model", "esrgan")).getCount());
+        assertEquals(0, cacheMetrics.counter("cache.misses").getCount());
+    }
+
+    @Test
+    public void ensureReadyAfterFailedWarmup(@TempDir Path directory) throws Exception {
+        Files.writeString(directory.resolve("esrgan.onnx"), "full");
+        Resolver failing = new Resolver() {
+            @Override
+            public FloatImageData resolve(FloatImageData input) {
+                throw new IllegalStateException("broken");
+            }
+
+            @Override
+            public int scalingFactor() {
+                return 4;
+            }
+        };
+        MetricRegistry metrics = createRegistry();
+        try (ModelRegistry registry = new ModelRegistry(new ModelOptions(directory, "esrgan", 4, Duration.ZERO, false),
+                definition -> new Pipeline(failing, new ArrayDeque<>()), metrics);
+             ModelWarmup warmup = new ModelWarmup(registry, new WarmupOptions(List.of(new WarmupOptions.Shape(4, 4)), 1), 1, metrics)) {
+            warmup.run();
+            assertTrue(warmup.ready());
+        }
+    }
+
+    @Test
+    public void ensureShapesAreParsed() {
+        assertEquals(new WarmupOptions.Shape(512, 384), WarmupOptions.Shape.parse(" 512X384"));
+        assertThrows(IllegalArgumentException.class, () -> WarmupOptions.Shape.parse("512"));
+        assertThrows(IllegalArgumentException.class, () -> WarmupOptions.Shape.parse("512xhigh"));
+        assertThrows(IllegalArgumentException.class, () -> WarmupOptions.Shape.parse("0x384"));
+    }
+
+    private static class RecordingResolver implements Resolver {
+
+        private final List<String> shapes = Collections.synchronizedList(new ArrayList<>());
+        private final List<Float> firstValues = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public FloatImageData resolve(FloatImageData input) {
+            shapes.add(input.width() + "x" + input.height());
+            firstValues.add(input.data().get(input.data().position()));
+            return new FloatImageData(FloatBuffer.allocate(input.width() * input.height() * 3 * 16), input.width() * 4, input.height() * 4);
+        }
+
+        @Override
+        public int scalingFactor() {
+            return 4;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package systems.cauldron.service.superresolution.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.inference.SessionPoolOptions;
+import systems.cauldron.service.superresolution.inference.StandInModel;
+import systems.cauldron.service.superresolution.memory.BufferPool;
+
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class PrecisionSelectorTest {
+
+    @Test
+    public void ensurePsnrMatchesMeanSquaredError() {
+        assertEquals(Double.POSITIVE_INFINITY, PrecisionSelector.psnr(image(0.5f), image(0.5f)));
+        assertEquals(20.0, PrecisionSelector.psnr(image(0.5f), image(0.6f)), 1e-4);
+    }
+
+    @Test
+    public void ensureFastestVariantWithinThresholdIsSelected() {
+        PrecisionSelector.Measurement full = measurement(Precision.FP32, 100.0, Double.POSITIVE_INFINITY);
+        PrecisionSelector.Measurement half = measurement(Precision.FP16, 60.0, 52.0);
+        PrecisionSelector.Measurement quantized = measurement(Precision.INT8, 30.0, 31.0);
+        assertEquals(Precision.FP16, PrecisionSelector.fastestWithinThreshold(List.of(full, half, quantized), 40.0));
+        assertEquals(Precision.INT8, PrecisionSelector.fastestWithinThreshold(List.of(full, half, quantized), 30.0));
+        assertEquals(Precision.FP32, PrecisionSelector.fastestWithinThreshold(List.of(full, half, quantized), 60.0));
+    }
+
+    @Test
+    public void ensureVariantsArePartOfTheDefinition(@TempDir Path directory) throws Exception {
+        Path path = StandInModel.write(directory.resolve("stand-in-x2.onnx"), 2);
+        ModelDefinition full = ModelDefinition.of(path, 4).orElseThrow();
+        assertEquals(List.of(), List.copyOf(full.variants().keySet()));
+        Files.copy(path, Precision.FP16.variantOf(path));
+        ModelDefinition withVariant = ModelDefinition.of(path, 4).orElseThrow();
+        assertEquals(directory.resolve("stand-in-x2.fp16.onnx"), withVariant.path(Precision.FP16).orElseThrow());
+        assertNotEquals(full.version(), withVariant.version());
+        assertEquals(path, Precision.baseOf(withVariant.path(Precision.FP16).orElseThrow()).orElseThrow());
+        assertEquals(List.of(), ModelDefinition.of(Precision.FP16.variantOf(path), 4).stream().toList());
+
+        PrecisionSelector fixed = new PrecisionSelector(new PrecisionOptions(Precision.INT8, 40.0, 1, null),
+                SessionPoolOptions.DEFAULT, new BufferPool(0, createRegistry()), createRegistry());
+        assertEquals(Precision.FP32, fixed.select(withVariant));
+    }
+
+    @Test
+    public void ensureBrokenVariantsAreNotServed(@TempDir Path directory) throws Exception {
+        Path path = StandInModel.write(directory.resolve("stand-in-x2.onnx"), 2);
+        Files.writeString(Precision.INT8.variantOf(path), "not a model");
+        PrecisionSelector selector = new PrecisionSelector(new PrecisionOptions(null, 40.0, 1, null),
+                SessionPoolOptions.DEFAULT, new BufferPool(0, createRegistry()), createRegistry());
+        assertEquals(Precision.FP32, selector.select(ModelDefinition.of(path, 4).orElseThrow()));
+    }
+
+    private static PrecisionSelector.Measurement measurement(Precision precision, double nanosPerImage, double psnr) {
+        return new PrecisionSelector.Measurement(precision, nanosPerImage, psnr, List.of(), null);
+    }
+
+    private static FloatImageData image(float value) {
+        FloatBuffer data = FloatBuffer.allocate(4 * 4 * 3);
+        while (data.hasRemaining()) {
+            data.put(value);
+        }
+        return new FloatImageData(data.flip(), 4, 4);
+    }
+}
@@ -0,0 +1,23 @@
+package systems.cauldron.service.superresolution.web;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchUpscaleServiceTest {
+
+    @Test
+    public void ensureOutputFramesCarryIndexAndDimensions() {
+        ByteBuffer frame = BatchUpscaleService.frame(7, 16, 8, new byte[]{9, 9});
+        assertEquals(7, frame.getInt());
+        assertEquals(16, frame.getInt());
+        assertEquals(8, frame.getInt());
+        assertEquals(2, frame.getInt());
+        assertEquals(2, frame.remaining());
+        ByteBuffer failed = BatchUpscaleService.frame(3, 0, 0, null);
+        assertEquals(-1, failed.getInt(12));
+        assertEquals(16, failed.remaining());
+    }
+}
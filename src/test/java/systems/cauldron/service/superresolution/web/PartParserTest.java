@@ -0,0 +1,64 @@
+package systems.cauldron.service.superresolution.web;
+
+import org.junit.jupiter.api.Test;
+import systems.cauldron.service.superresolution.image.BadInputException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PartParserTest {
+
+    @Test
+    public void ensureFramesAreSplitByLength() {
+        ByteBuffer body = ByteBuffer.allocate(4 + 3 + 4 + 4 + 0)
+                .putInt(3).put(new byte[]{1, 2, 3})
+                .putInt(0)
+                .putInt(0)
+                .flip();
+        List<ByteBuffer> frames = PartParser.split(PartParser.lengthPrefixed(), body);
+        assertEquals(3, frames.size());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), frames.get(0));
+        assertEquals(0, frames.get(1).remaining());
+    }
+
+    @Test
+    public void ensureFramesAreSplitAcrossChunks() {
+        ByteBuffer body = ByteBuffer.allocate(4 + 100_000 + 4 + 2)
+                .putInt(100_000).put(new byte[100_000])
+                .putInt(2).put(new byte[]{7, 8})
+                .flip();
+        PartParser parser = PartParser.lengthPrefixed();
+        List<ByteBuffer> frames = new ArrayList<>();
+        // chunk boundaries within headers and payloads alike
+        while (body.hasRemaining()) {
+            ByteBuffer chunk = body.slice(body.position(), Math.min(3, body.remaining()));
+            body.position(body.position() + chunk.remaining());
+            frames.addAll(parser.accept(chunk));
+        }
+        parser.finish();
+        assertEquals(2, frames.size());
+        assertEquals(100_000, frames.get(0).remaining());
+        assertEquals(ByteBuffer.wrap(new byte[]{7, 8}), frames.get(1));
+    }
+
+    @Test
+    public void ensureTruncatedFramesAreRejected() {
+        ByteBuffer truncatedPayload = ByteBuffer.allocate(4 + 2).putInt(3).put(new byte[2]).flip();
+        assertThrows(BadInputException.class, () -> PartParser.split(PartParser.lengthPrefixed(), truncatedPayload));
+        ByteBuffer truncatedHeader = ByteBuffer.allocate(2).flip().limit(2);
+        assertThrows(BadInputException.class, () -> PartParser.split(PartParser.lengthPrefixed(), truncatedHeader));
+        ByteBuffer negativeLength = ByteBuffer.allocate(4).putInt(-1).flip();
+        assertThrows(BadInputException.class, () -> PartParser.split(PartParser.lengthPrefixed(), negativeLength));
+    }
+
+    @Test
+    public void ensureFixedSizePartsMustBeWhole() {
+        assertEquals(2, PartParser.split(PartParser.fixedSize(3), ByteBuffer.allocate(6)).size());
+        assertThrows(BadInputException.class, () -> PartParser.split(PartParser.fixedSize(3), ByteBuffer.allocate(5)));
+        assertThrows(BadInputException.class, () -> PartParser.split(PartParser.fixedSize(3), ByteBuffer.allocate(0)));
+    }
+}
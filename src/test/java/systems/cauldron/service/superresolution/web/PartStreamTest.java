@@ -0,0 +1,204 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.DataChunk;
+import org.junit.jupiter.api.Test;
+import systems.cauldron.service.superresolution.image.BadInputException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartStreamTest {
+
+    /**
+     * a stalled response must stop the request from being read beyond the part after the one held unwritten
+     */
+    @Test
+    public void ensureFramesAreReadAndResolvedInOrderOnDemand() throws Exception {
+        List<Byte> resolved = new ArrayList<>();
+        PartStream stream = new PartStream(PartParser.fixedSize(4), 16, 1, (index, frame) -> {
+            resolved.add(frame.get(0));
+            return CompletableFuture.completedFuture(frame);
+        });
+        Source source = new Source();
+        stream.onSubscribe(source);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        stream.subscribe(subscriber);
+        assertEquals(1, source.requested);
+        stream.onNext(chunk(0, 0, 0, 0, 1, 1));
+        assertEquals(List.of((byte) 0), resolved);
+        assertEquals(2, source.requested);
+        stream.onNext(chunk(1, 1, 2, 2, 2, 2));
+        assertEquals(2, source.requested);
+        assertEquals(List.of((byte) 0), resolved);
+        assertEquals(0, subscriber.chunks.size());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.chunks.size());
+        assertEquals(List.of((byte) 0, (byte) 1), resolved);
+        assertEquals(2, source.requested);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of((byte) 0, (byte) 1, (byte) 2), resolved);
+        assertEquals(3, source.requested);
+        stream.onComplete();
+        assertTrue(subscriber.completed);
+        assertEquals(3, stream.completion().toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals(List.of((byte) 0, (byte) 1, (byte) 2), subscriber.chunks.stream().map(chunk -> chunk.data()[0].get(0)).toList());
+    }
+
+    @Test
+    public void ensureResultsStreamInCompletionOrder() throws Exception {
+        List<CompletableFuture<ByteBuffer>> processing = new ArrayList<>();
+        PartStream stream = new PartStream(PartParser.lengthPrefixed(), 16, 2, (index, part) -> {
+            CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+            processing.add(result);
+            return result;
+        });
+        Source source = new Source();
+        stream.onSubscribe(source);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        stream.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        stream.onNext(DataChunk.create(ByteBuffer.allocate(3 * 5)
+                .putInt(1).put((byte) 0)
+                .putInt(1).put((byte) 1)
+                .putInt(1).put((byte) 2)
+                .flip()));
+        // no more parts in flight than the pipeline depth
+        assertEquals(2, processing.size());
+        assertEquals(1, source.requested);
+
+        processing.get(1).complete(ByteBuffer.wrap(new byte[]{1}));
+        assertEquals(3, processing.size());
+        assertEquals(2, source.requested);
+        processing.get(2).complete(ByteBuffer.wrap(new byte[]{2}));
+        processing.get(0).complete(ByteBuffer.wrap(new byte[]{0}));
+        stream.onComplete();
+        assertTrue(subscriber.completed);
+        assertEquals(3, stream.completion().toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals(List.of((byte) 1, (byte) 2, (byte) 0), subscriber.chunks.stream().map(chunk -> chunk.data()[0].get(0)).toList());
+    }
+
+    /**
+     * finished results count against the pipeline depth until they have been written
+     */
+    @Test
+    public void ensureStalledResponseStopsNewParts() {
+        List<Integer> started = new ArrayList<>();
+        PartStream stream = new PartStream(PartParser.fixedSize(1), 16, 2, (index, part) -> {
+            started.add(index);
+            return CompletableFuture.completedFuture(part);
+        });
+        Source source = new Source();
+        stream.onSubscribe(source);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        stream.subscribe(subscriber);
+        stream.onNext(chunk(0, 1, 2, 3));
+        assertEquals(List.of(0, 1), started);
+        assertEquals(1, source.requested);
+        subscriber.subscription.request(1);
+        assertEquals(List.of(0, 1, 2), started);
+        assertEquals(1, subscriber.chunks.size());
+        assertEquals(1, source.requested);
+    }
+
+    @Test
+    public void ensureContentEndingWithinAFrameFailsTheStream() {
+        PartStream stream = new PartStream(PartParser.fixedSize(4), 16, 1, (index, frame) -> CompletableFuture.completedFuture(frame));
+        stream.onSubscribe(new Source());
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        stream.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        stream.onNext(chunk(0, 0, 0, 0, 1));
+        stream.onComplete();
+        assertEquals(1, subscriber.chunks.size());
+        assertTrue(subscriber.failure instanceof BadInputException);
+        assertTrue(stream.completion().toCompletableFuture().isCompletedExceptionally());
+    }
+
+    @Test
+    public void ensureContentBeyondThePartLimitIsRefused() {
+        PartStream stream = new PartStream(PartParser.fixedSize(2), 2, 1, (index, frame) -> CompletableFuture.completedFuture(frame));
+        Source source = new Source();
+        stream.onSubscribe(source);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        stream.subscribe(subscriber);
+        stream.onNext(chunk(0, 0, 1, 1, 2, 2));
+        assertTrue(subscriber.failure instanceof BadInputException);
+        assertTrue(source.cancelled);
+        assertEquals(0, subscriber.chunks.size());
+    }
+
+    @Test
+    public void ensureCancellingStopsReading() {
+        PartStream stream = new PartStream(PartParser.fixedSize(4), 16, 1, (index, frame) -> new CompletableFuture<>());
+        Source source = new Source();
+        stream.onSubscribe(source);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        stream.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        stream.onNext(chunk(0, 0, 0, 0));
+        subscriber.subscription.cancel();
+        assertTrue(source.cancelled);
+        assertTrue(stream.completion().toCompletableFuture().isCompletedExceptionally());
+    }
+
+    private static DataChunk chunk(int... values) {
+        ByteBuffer data = ByteBuffer.allocate(values.length);
+        for (int value : values) {
+            data.put((byte) value);
+        }
+        return DataChunk.create(data.flip());
+    }
+
+    private static final class Source implements Flow.Subscription {
+
+        private long requested = 0;
+        private boolean cancelled = false;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<DataChunk> {
+
+        private final List<DataChunk> chunks = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private Throwable failure;
+        private boolean completed = false;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(DataChunk item) {
+            chunks.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failure = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package systems.cauldron.service.superresolution.web;
+
+import io.helidon.common.http.DataChunk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import systems.cauldron.service.superresolution.image.FloatImageData;
+import systems.cauldron.service.superresolution.image.PixelLayout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createBufferPool;
+
+public class RowBandsTest {
+
+    // 1200 planar rows of 1024 bytes make 5 bands of up to 256 rows
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 400;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * a stalled response must not make the whole image be converted ahead of it
+     */
+    @Test
+    public void ensureBandsAreConvertedOnDemandWithBoundedReadAhead() throws Exception {
+        CountDownLatch converted = new CountDownLatch(1);
+        RowBands bands = new RowBands(image(), null, PixelLayout.PLANAR_RGB, createBufferPool(), executor, converted::countDown);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        bands.subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        DataChunk first = subscriber.next();
+        assertNotNull(first);
+        assertNull(subscriber.poll());
+
+        // at most 4 bands are held unwritten, however many are asked for
+        subscriber.subscription.request(Long.MAX_VALUE);
+        DataChunk second = subscriber.next();
+        assertNotNull(subscriber.next());
+        assertNotNull(subscriber.next());
+        assertNull(subscriber.poll());
+        assertEquals(1, converted.getCount());
+
+        first.release();
+        second.release();
+        assertNotNull(subscriber.next());
+        assertTrue(converted.await(1, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed.await(1, TimeUnit.SECONDS));
+        assertEquals(bands.length(), subscriber.bytes);
+    }
+
+    /**
+     * the image is returned once nothing more will be converted from it, while sent bands keep their buffers
+     */
+    @Test
+    public void ensureCancellingReturnsTheImage() throws Exception {
+        CountDownLatch converted = new CountDownLatch(1);
+        RowBands bands = new RowBands(image(), null, PixelLayout.PLANAR_RGB, createBufferPool(), executor, converted::countDown);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        bands.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        DataChunk first = subscriber.next();
+        assertNotNull(first);
+        subscriber.subscription.cancel();
+        assertTrue(converted.await(1, TimeUnit.SECONDS));
+        assertEquals(WIDTH * 256, first.data()[0].remaining());
+        first.release();
+        bands.close();
+        assertNull(subscriber.poll());
+    }
+
+    private static FloatImageData image() {
+        FloatBuffer data = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 3 * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        while (data.hasRemaining()) {
+            data.put(0.5f);
+        }
+        data.flip();
+        return new FloatImageData(data, WIDTH, HEIGHT);
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<DataChunk> {
+
+        private final BlockingQueue<DataChunk> chunks = new LinkedBlockingQueue<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile long bytes = 0;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(DataChunk item) {
+            bytes += item.remaining();
+            chunks.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        DataChunk next() throws InterruptedException {
+            return chunks.poll(1, TimeUnit.SECONDS);
+        }
+
+        DataChunk poll() throws InterruptedException {
+            return chunks.poll(100, TimeUnit.MILLISECONDS);
+        }
+    }
+}
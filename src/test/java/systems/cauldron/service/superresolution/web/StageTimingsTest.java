@@ -0,0 +1,29 @@
+package systems.cauldron.service.superresolution.web;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static systems.cauldron.service.superresolution.TestFixtures.createRegistry;
+
+public class StageTimingsTest {
+
+    @Test
+    public void ensureStagesAreRecordedInOrder() throws Exception {
+        MetricRegistry registry = createRegistry();
+        StageTimings timings = new StageTimings(registry, "esrgan");
+        timings.lap("receive");
+        Thread.sleep(2);
+        timings.lap("resolve");
+        timings.complete();
+        String header = timings.serverTiming();
+        assertTrue(header.matches("receive;dur=\\d+\\.\\d{2}, resolve;dur=\\d+\\.\\d{2}"), header);
+        double resolveMillis = Double.parseDouble(header.substring(header.lastIndexOf('=') + 1));
+        assertTrue(resolveMillis >= 2.0, header);
+        Tag model = new Tag("model", "esrgan");
+        assertEquals(1L, registry.timer("upscale.stage", new Tag("stage", "resolve"), model).getCount());
+        assertEquals(1L, registry.timer("upscale.request", model).getCount());
+    }
+}